@@ -8,4 +8,5 @@ docker run -d --name ima-backend -p 8080:8080 \
   -e SPRING_PROFILES_ACTIVE=dev \
   -v $(pwd)/scripts:/app/scripts \
   -v $(pwd)/downloads:/app/downloads \
+  -v $(pwd)/temp:/app/temp \
   ${IMAGE_NAME}
@@ -8,5 +8,6 @@ docker run -d --name ima-backend -p 8080:8080 \
   -e SPRING_PROFILES_ACTIVE=prod \
   -v $(pwd)/scripts:/app/scripts \
   -v $(pwd)/downloads:/app/downloads \
+  -v $(pwd)/temp:/app/temp \
   --restart unless-stopped \
   ${IMAGE_NAME}
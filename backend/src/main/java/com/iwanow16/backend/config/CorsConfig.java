@@ -20,6 +20,7 @@ public class CorsConfig implements WebMvcConfigurer {
                 )
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "HEAD")
                 .allowedHeaders("*")
+                .exposedHeaders("ETag", "Retry-After", "X-Task-Version", "X-Task-Count", "X-Poll-Interval")
                 .allowCredentials(true)
                 .maxAge(3600);
     }
@@ -3,6 +3,7 @@ package com.iwanow16.backend.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
 import java.util.List;
 
 @Configuration
@@ -10,9 +11,33 @@ import java.util.List;
 public class DownloaderProperties {
     private int maxConcurrentDownloads = 3;
     private int maxConcurrentPerIp = 2;
+    private int maxQueueSize = 100;
+    private int downloadTimeoutMinutes = 60;
     private int maxDurationMinutes = 120;
     private int maxSizeMb = 2048;
     private List<String> allowedDomains;
+    private Timeouts timeouts = new Timeouts();
+    private Duration taskRetention = Duration.ofHours(24);
+    private Journal journal = new Journal();
+    private boolean cleanupEnabled = true;
+    private int cleanupIntervalHours = 6;
+    private int tempFileMaxAgeHours = 24;
+    private int completedFileMaxAgeDays = 30;
+    // Дисковый бюджет кэша готовых файлов
+    private long cacheMaxSizeMb = 10240;
+    private InfoCache infoCache = new InfoCache();
+    // Ограничение одновременных процессов yt-dlp для /api/info, отдельно от загрузок
+    private int maxConcurrentMetadata = 4;
+    private int metadataQueueSize = 16;
+    private Duration metadataQueueTimeout = Duration.ofSeconds(10);
+    // Сколько запрос /api/info ждёт результат, включая очередь к слоту
+    private Duration metadataRequestTimeout = Duration.ofSeconds(45);
+    private YtDlpWorkers ytDlpWorkers = new YtDlpWorkers();
+    private YtDlpCache ytDlpCache = new YtDlpCache();
+    private StreamUrls streamUrls = new StreamUrls();
+    private Frames frames = new Frames();
+    private Clips clips = new Clips();
+    private Trim trim = new Trim();
 
     public int getMaxConcurrentDownloads() {
         return maxConcurrentDownloads;
@@ -30,6 +55,22 @@ public class DownloaderProperties {
         this.maxConcurrentPerIp = maxConcurrentPerIp;
     }
 
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public int getDownloadTimeoutMinutes() {
+        return downloadTimeoutMinutes;
+    }
+
+    public void setDownloadTimeoutMinutes(int downloadTimeoutMinutes) {
+        this.downloadTimeoutMinutes = downloadTimeoutMinutes;
+    }
+
     public int getMaxDurationMinutes() {
         return maxDurationMinutes;
     }
@@ -53,4 +94,585 @@ public class DownloaderProperties {
     public void setAllowedDomains(List<String> allowedDomains) {
         this.allowedDomains = allowedDomains;
     }
+
+    public Duration getTaskRetention() {
+        return taskRetention;
+    }
+
+    public void setTaskRetention(Duration taskRetention) {
+        this.taskRetention = taskRetention;
+    }
+
+    public boolean isCleanupEnabled() {
+        return cleanupEnabled;
+    }
+
+    public void setCleanupEnabled(boolean cleanupEnabled) {
+        this.cleanupEnabled = cleanupEnabled;
+    }
+
+    public int getCleanupIntervalHours() {
+        return cleanupIntervalHours;
+    }
+
+    public void setCleanupIntervalHours(int cleanupIntervalHours) {
+        this.cleanupIntervalHours = cleanupIntervalHours;
+    }
+
+    public int getTempFileMaxAgeHours() {
+        return tempFileMaxAgeHours;
+    }
+
+    public void setTempFileMaxAgeHours(int tempFileMaxAgeHours) {
+        this.tempFileMaxAgeHours = tempFileMaxAgeHours;
+    }
+
+    public int getCompletedFileMaxAgeDays() {
+        return completedFileMaxAgeDays;
+    }
+
+    public void setCompletedFileMaxAgeDays(int completedFileMaxAgeDays) {
+        this.completedFileMaxAgeDays = completedFileMaxAgeDays;
+    }
+
+    public long getCacheMaxSizeMb() {
+        return cacheMaxSizeMb;
+    }
+
+    public void setCacheMaxSizeMb(long cacheMaxSizeMb) {
+        this.cacheMaxSizeMb = cacheMaxSizeMb;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public int getMaxConcurrentMetadata() {
+        return maxConcurrentMetadata;
+    }
+
+    public void setMaxConcurrentMetadata(int maxConcurrentMetadata) {
+        this.maxConcurrentMetadata = maxConcurrentMetadata;
+    }
+
+    public int getMetadataQueueSize() {
+        return metadataQueueSize;
+    }
+
+    public void setMetadataQueueSize(int metadataQueueSize) {
+        this.metadataQueueSize = metadataQueueSize;
+    }
+
+    public Duration getMetadataQueueTimeout() {
+        return metadataQueueTimeout;
+    }
+
+    public void setMetadataQueueTimeout(Duration metadataQueueTimeout) {
+        this.metadataQueueTimeout = metadataQueueTimeout;
+    }
+
+    public Duration getMetadataRequestTimeout() {
+        return metadataRequestTimeout;
+    }
+
+    public void setMetadataRequestTimeout(Duration metadataRequestTimeout) {
+        this.metadataRequestTimeout = metadataRequestTimeout;
+    }
+
+    public Timeouts getTimeouts() {
+        return timeouts;
+    }
+
+    public void setTimeouts(Timeouts timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    public InfoCache getInfoCache() {
+        return infoCache;
+    }
+
+    public void setInfoCache(InfoCache infoCache) {
+        this.infoCache = infoCache;
+    }
+
+    public YtDlpWorkers getYtDlpWorkers() {
+        return ytDlpWorkers;
+    }
+
+    public void setYtDlpWorkers(YtDlpWorkers ytDlpWorkers) {
+        this.ytDlpWorkers = ytDlpWorkers;
+    }
+
+    public YtDlpCache getYtDlpCache() {
+        return ytDlpCache;
+    }
+
+    public void setYtDlpCache(YtDlpCache ytDlpCache) {
+        this.ytDlpCache = ytDlpCache;
+    }
+
+    public StreamUrls getStreamUrls() {
+        return streamUrls;
+    }
+
+    public void setStreamUrls(StreamUrls streamUrls) {
+        this.streamUrls = streamUrls;
+    }
+
+    public Frames getFrames() {
+        return frames;
+    }
+
+    public void setFrames(Frames frames) {
+        this.frames = frames;
+    }
+
+    public Clips getClips() {
+        return clips;
+    }
+
+    public void setClips(Clips clips) {
+        this.clips = clips;
+    }
+
+    public Trim getTrim() {
+        return trim;
+    }
+
+    public void setTrim(Trim trim) {
+        this.trim = trim;
+    }
+
+    /**
+     * Таймауты внешних процессов по этапам. Таймаут скачивания задаётся download-timeout-minutes.
+     */
+    public static class Timeouts {
+        private Duration metadata = Duration.ofSeconds(30);
+        private Duration merge = Duration.ofMinutes(5);
+        private Duration trim = Duration.ofMinutes(10);
+        private Duration frame = Duration.ofMinutes(10);
+        // Процесс без вывода дольше этого времени считается зависшим
+        private Duration stall = Duration.ofMinutes(2);
+
+        public Duration getMetadata() {
+            return metadata;
+        }
+
+        public void setMetadata(Duration metadata) {
+            this.metadata = metadata;
+        }
+
+        public Duration getMerge() {
+            return merge;
+        }
+
+        public void setMerge(Duration merge) {
+            this.merge = merge;
+        }
+
+        public Duration getTrim() {
+            return trim;
+        }
+
+        public void setTrim(Duration trim) {
+            this.trim = trim;
+        }
+
+        public Duration getFrame() {
+            return frame;
+        }
+
+        public void setFrame(Duration frame) {
+            this.frame = frame;
+        }
+
+        public Duration getStall() {
+            return stall;
+        }
+
+        public void setStall(Duration stall) {
+            this.stall = stall;
+        }
+    }
+
+    public static class Journal {
+        private boolean enabled = true;
+        private String dir = "/app/downloads/.journal";
+        // Как часто сбрасывать журнал на диск (fsync), записи между сбросами группируются
+        private Duration syncInterval = Duration.ofSeconds(1);
+        // После скольких записей журнал сворачивается в снимок
+        private int compactThreshold = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public Duration getSyncInterval() {
+            return syncInterval;
+        }
+
+        public void setSyncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+
+        public int getCompactThreshold() {
+            return compactThreshold;
+        }
+
+        public void setCompactThreshold(int compactThreshold) {
+            this.compactThreshold = compactThreshold;
+        }
+    }
+
+    /**
+     * Кэш метаданных видео для /api/info.
+     */
+    public static class InfoCache {
+        private boolean enabled = true;
+        private int maxEntries = 1000;
+        private Duration ttl = Duration.ofMinutes(30);
+        // Сколько помнить, что видео недоступно (приватное, удалённое)
+        private Duration negativeTtl = Duration.ofMinutes(2);
+        // Файл для сохранения кэша между перезапусками, пустой — только в памяти
+        private String file = "";
+        // Сколько хранить полный JSON yt-dlp для загрузки через --load-info-json, 0 — не хранить
+        private Duration jsonTtl = Duration.ofMinutes(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Duration getNegativeTtl() {
+            return negativeTtl;
+        }
+
+        public void setNegativeTtl(Duration negativeTtl) {
+            this.negativeTtl = negativeTtl;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public Duration getJsonTtl() {
+            return jsonTtl;
+        }
+
+        public void setJsonTtl(Duration jsonTtl) {
+            this.jsonTtl = jsonTtl;
+        }
+    }
+
+    /**
+     * Пул долгоживущих процессов Python с yt-dlp для извлечения метаданных.
+     * Выключен — каждый вызов запускает отдельный процесс yt-dlp. Включённый пул без python
+     * или модуля yt_dlp тоже откатывается на отдельные процессы.
+     */
+    public static class YtDlpWorkers {
+        private boolean enabled = true;
+        private String python = "python3";
+        private int poolSize = 2;
+        // После стольких извлечений процесс перезапускается (утечки памяти, устаревшее состояние)
+        private int maxJobs = 50;
+        // Сколько ждать запуска процесса и импорта yt-dlp
+        private Duration startTimeout = Duration.ofSeconds(30);
+        // Ожидание свободного процесса, затем вызов выполняется отдельным процессом
+        private Duration borrowTimeout = Duration.ofSeconds(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPython() {
+            return python;
+        }
+
+        public void setPython(String python) {
+            this.python = python;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getMaxJobs() {
+            return maxJobs;
+        }
+
+        public void setMaxJobs(int maxJobs) {
+            this.maxJobs = maxJobs;
+        }
+
+        public Duration getStartTimeout() {
+            return startTimeout;
+        }
+
+        public void setStartTimeout(Duration startTimeout) {
+            this.startTimeout = startTimeout;
+        }
+
+        public Duration getBorrowTimeout() {
+            return borrowTimeout;
+        }
+
+        public void setBorrowTimeout(Duration borrowTimeout) {
+            this.borrowTimeout = borrowTimeout;
+        }
+    }
+
+    /**
+     * Общая директория кэша yt-dlp (--cache-dir): код плеера, решения подписей и т.п.
+     */
+    public static class YtDlpCache {
+        private boolean enabled = true;
+        // Пустая — .yt-dlp-cache в app.temp-dir
+        private String dir = "";
+        private long maxSizeMb = 200;
+        // Видео, извлечение которого при старте наполняет кэш; пустое — видео из warmup-url-file
+        private String warmupUrl = "";
+        // Где запоминается первое извлечённое за запуск видео; пустой — .yt-dlp-warmup-url в app.output-dir
+        private String warmupUrlFile = "";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public long getMaxSizeMb() {
+            return maxSizeMb;
+        }
+
+        public void setMaxSizeMb(long maxSizeMb) {
+            this.maxSizeMb = maxSizeMb;
+        }
+
+        public String getWarmupUrl() {
+            return warmupUrl;
+        }
+
+        public void setWarmupUrl(String warmupUrl) {
+            this.warmupUrl = warmupUrl;
+        }
+
+        public String getWarmupUrlFile() {
+            return warmupUrlFile;
+        }
+
+        public void setWarmupUrlFile(String warmupUrlFile) {
+            this.warmupUrlFile = warmupUrlFile;
+        }
+    }
+
+    /**
+     * Прямые ссылки на потоки для извлечения кадров без загрузки всего видео.
+     */
+    public static class StreamUrls {
+        private boolean enabled = true;
+        // Минимальная высота кадра: берётся самый дешёвый формат не ниже неё
+        private int minHeight = 720;
+        // Сколько переиспользовать ссылку; не дольше срока её подписи
+        private Duration ttl = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinHeight() {
+            return minHeight;
+        }
+
+        public void setMinHeight(int minHeight) {
+            this.minHeight = minHeight;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    /**
+     * Пакетное извлечение кадров и листы кадров (contact sheet).
+     */
+    public static class Frames {
+        private int maxFrames = 200;
+        // Кадры с промежутком больше этого извлекаются отдельной перемоткой, а не декодированием подряд
+        private Duration clusterGap = Duration.ofSeconds(30);
+        private int sheetColumns = 5;
+        // Ширина кадра на листе, если в запросе не задана
+        private int sheetTileWidth = 320;
+
+        public int getMaxFrames() {
+            return maxFrames;
+        }
+
+        public void setMaxFrames(int maxFrames) {
+            this.maxFrames = maxFrames;
+        }
+
+        public Duration getClusterGap() {
+            return clusterGap;
+        }
+
+        public void setClusterGap(Duration clusterGap) {
+            this.clusterGap = clusterGap;
+        }
+
+        public int getSheetColumns() {
+            return sheetColumns;
+        }
+
+        public void setSheetColumns(int sheetColumns) {
+            this.sheetColumns = sheetColumns;
+        }
+
+        public int getSheetTileWidth() {
+            return sheetTileWidth;
+        }
+
+        public void setSheetTileWidth(int sheetTileWidth) {
+            this.sheetTileWidth = sheetTileWidth;
+        }
+    }
+
+    /**
+     * Несколько клипов из одного видео в одной задаче.
+     */
+    public static class Clips {
+        private int maxClips = 20;
+        private Duration mergeGap = Duration.ofSeconds(30);
+
+        public int getMaxClips() {
+            return maxClips;
+        }
+
+        public void setMaxClips(int maxClips) {
+            this.maxClips = maxClips;
+        }
+
+        public Duration getMergeGap() {
+            return mergeGap;
+        }
+
+        public void setMergeGap(Duration mergeGap) {
+            this.mergeGap = mergeGap;
+        }
+    }
+
+    /**
+     * Обрезка по времени: перекодирование только краёв вокруг ключевых кадров.
+     */
+    public static class Trim {
+        private boolean smart = false;
+        private List<String> smartCodecs = List.of("h264", "hevc", "vp9");
+        private String preset = "veryfast";
+        private int crf = 18;
+        private boolean compareFullEncode = false;
+
+        public boolean isSmart() {
+            return smart;
+        }
+
+        public void setSmart(boolean smart) {
+            this.smart = smart;
+        }
+
+        public List<String> getSmartCodecs() {
+            return smartCodecs;
+        }
+
+        public void setSmartCodecs(List<String> smartCodecs) {
+            this.smartCodecs = smartCodecs;
+        }
+
+        public String getPreset() {
+            return preset;
+        }
+
+        public void setPreset(String preset) {
+            this.preset = preset;
+        }
+
+        public int getCrf() {
+            return crf;
+        }
+
+        public void setCrf(int crf) {
+            this.crf = crf;
+        }
+
+        public boolean isCompareFullEncode() {
+            return compareFullEncode;
+        }
+
+        public void setCompareFullEncode(boolean compareFullEncode) {
+            this.compareFullEncode = compareFullEncode;
+        }
+    }
 }
@@ -1,27 +1,44 @@
 package com.iwanow16.backend.controller;
 
+import com.iwanow16.backend.extractor.MetadataBusyException;
 import com.iwanow16.backend.extractor.VideoExtractorService;
 import com.iwanow16.backend.model.dto.*;
 import com.iwanow16.backend.service.DownloadQueueService;
 import com.iwanow16.backend.service.FileStorageService;
+import com.iwanow16.backend.service.QueueFullException;
+import com.iwanow16.backend.service.TaskEventBus;
 import com.iwanow16.backend.service.strategy.DownloadStrategyFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api")
 public class DownloadController {
 
     private static final Logger log = LoggerFactory.getLogger(DownloadController.class);
+    private static final String TASK_VERSION_HEADER = "X-Task-Version";
+    private static final String TASK_COUNT_HEADER = "X-Task-Count";
+    private static final String POLL_INTERVAL_HEADER = "X-Poll-Interval";
+    private static final int ACTIVE_POLL_SECONDS = 2;
+    private static final int PENDING_POLL_SECONDS = 5;
+    private static final int IDLE_POLL_SECONDS = 30;
 
     @Autowired
     private VideoExtractorService extractorService;
@@ -35,6 +52,9 @@ public class DownloadController {
     @Autowired
     private DownloadStrategyFactory strategyFactory;
 
+    @Autowired
+    private TaskEventBus taskEvents;
+
     private String getClientIp(HttpServletRequest request) {
         // Check X-Forwarded-For header (for proxied requests)
         String forwardedFor = request.getHeader("X-Forwarded-For");
@@ -45,20 +65,49 @@ public class DownloadController {
         return request.getRemoteAddr();
     }
 
+    /**
+     * Информация о видео. Обработчик не занимает поток Tomcat, пока работает yt-dlp:
+     * ответ формируется, когда завершится извлечение или истечёт downloader.metadata-request-timeout.
+     */
     @GetMapping("/info")
-    public ResponseEntity<ApiResponseDto<VideoInfoDto>> info(@RequestParam String url) {
+    public CompletableFuture<ResponseEntity<ApiResponseDto<VideoInfoDto>>> info(@RequestParam String url) {
+        log.info("📋 Fetching video info for URL: {}", url);
+        CompletableFuture<VideoInfoDto> pending;
         try {
-            log.info("📋 Fetching video info for URL: {}", url);
-            VideoInfoDto info = extractorService.extractInfo(url);
+            pending = extractorService.extractInfoAsync(url);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(infoError(url, e));
+        }
+        return pending.handle((info, error) -> {
+            if (error != null) {
+                return infoError(url, error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
             log.info("✅ Successfully extracted info: title={}, formats={}", info.getTitle(), info.getFormats().size());
             return ResponseEntity.ok(ApiResponseDto.success(info));
-        } catch (IllegalArgumentException e) {
+        });
+    }
+
+    private ResponseEntity<ApiResponseDto<VideoInfoDto>> infoError(String url, Throwable e) {
+        if (e instanceof MetadataBusyException busy) {
+            // Все слоты извлечения заняты: просим клиента повторить позже
+            log.warn("🚫 Info extraction rejected, metadata slots busy | URL: {} | RetryAfter: {}s",
+                    url, busy.getRetryAfterSeconds());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(busy.getRetryAfterSeconds()))
+                    .body(ApiResponseDto.error("Video info service is busy, please retry later", 503));
+        }
+        if (e instanceof TimeoutException) {
+            log.warn("⏱️ Info extraction timed out | URL: {}", url);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(ApiResponseDto.error("Timed out while extracting video info", 504));
+        }
+        if (e instanceof IllegalArgumentException) {
             log.warn("❌ Unsupported URL: {}", url, e);
             return ResponseEntity.badRequest().body(ApiResponseDto.error("Unsupported URL: " + e.getMessage(), 400));
-        } catch (Exception e) {
-            log.error("❌ Failed to extract info for URL: {}", url, e);
-            return ResponseEntity.badRequest().body(ApiResponseDto.error("Failed to extract info: " + e.getMessage(), 400));
         }
+        log.error("❌ Failed to extract info for URL: {}", url, e);
+        return ResponseEntity.badRequest().body(ApiResponseDto.error("Failed to extract info: " + e.getMessage(), 400));
     }
 
     @GetMapping("/services")
@@ -90,17 +139,33 @@ public class DownloadController {
                     "URL not supported. Please check if the URL is valid and belongs to a supported service.", 400));
         }
 
-        TaskStatusDto t = queueService.submitDownloadWithOptions(
-                req.getUrl(), ip, req.getFormatId(), req.getQuality(),
-                req.isTimeRangeEnabled(), req.getStartTime(), req.getEndTime(),
-                req.isFrameExtractionEnabled(), req.getFrameTime());
+        TaskStatusDto t;
+        try {
+            t = queueService.submitDownloadWithOptions(
+                    req.getUrl(), ip, req.getFormatId(), req.getQuality(),
+                    req.isTimeRangeEnabled(), req.getStartTime(), req.getEndTime(), req.getClips(),
+                    req.isFrameExtractionEnabled(), req.getFrameTime(), req.getFrames());
+        } catch (IllegalArgumentException e) {
+            log.warn("❌ Invalid download options from {}: {}", ip, e.getMessage());
+            return ResponseEntity.badRequest().body(ApiResponseDto.error(e.getMessage(), 400));
+        } catch (QueueFullException e) {
+            // Узел перегружен: просим клиента повторить позже
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(ApiResponseDto.error("Download queue is full, please retry later", 503));
+        }
         
         log.info("✅ Download task created | TaskID: {} | Status: {}", t.getTaskId(), t.getStatus());
         return ResponseEntity.ok(ApiResponseDto.success("Task created", t));
     }
 
+    /**
+     * Статус задачи. ETag — версия задачи: если она не изменилась, ответ 304 без тела.
+     */
     @GetMapping("/tasks/{taskId}")
-    public ResponseEntity<ApiResponseDto<TaskStatusDto>> getTask(@PathVariable String taskId, HttpServletRequest request) {
+    public ResponseEntity<ApiResponseDto<TaskStatusDto>> getTask(@PathVariable String taskId,
+                                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                                 HttpServletRequest request) {
         String ip = getClientIp(request);
         log.debug("📊 Get task status | IP: {} | TaskID: {}", ip, taskId);
         
@@ -109,17 +174,125 @@ public class DownloadController {
             log.warn("❌ Task not found | TaskID: {}", taskId);
             return ResponseEntity.notFound().build();
         }
+
+        String etag = "\"" + t.getVersion() + "\"";
+        String pollInterval = String.valueOf(suggestedPollSeconds(List.of(t)));
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(TASK_VERSION_HEADER, String.valueOf(t.getVersion()))
+                    .header(POLL_INTERVAL_HEADER, pollInterval)
+                    .build();
+        }
         
         log.debug("✅ Task found | TaskID: {} | Status: {} | Progress: {}%", 
                 taskId, t.getStatus(), t.getProgress());
-        return ResponseEntity.ok(ApiResponseDto.success(t));
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .header(TASK_VERSION_HEADER, String.valueOf(t.getVersion()))
+                .header(POLL_INTERVAL_HEADER, pollInterval)
+                .body(ApiResponseDto.success(t));
     }
 
+    /**
+     * Задачи клиента. С параметром since возвращаются только задачи, изменившиеся после
+     * этой версии; следующую версию для запроса клиент берёт из заголовка X-Task-Version.
+     * ETag описывает все задачи клиента: если ничего не изменилось, ответ 304 без тела.
+     * X-Poll-Interval — через сколько секунд имеет смысл спросить снова.
+     *
+     * Удаление задач по истечении срока хранения версию не увеличивает и в изменения не попадает.
+     * X-Task-Count — сколько задач у клиента сейчас: если после применения изменений у клиента
+     * задач больше, часть удалена, и он запрашивает полный список без since.
+     */
     @GetMapping("/tasks")
-    public ResponseEntity<ApiResponseDto<Object>> listTasks(HttpServletRequest request) {
+    public ResponseEntity<ApiResponseDto<Object>> listTasks(@RequestParam(required = false) Long since,
+                                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                            HttpServletRequest request) {
+        String ip = getClientIp(request);
+        log.debug("📊 List all tasks | IP: {} | Since: {}", ip, since);
+        List<TaskStatusDto> clientTasks = queueService.getQueueStatus(ip);
+        long version = 0;
+        for (TaskStatusDto t : clientTasks) {
+            version = Math.max(version, t.getVersion());
+        }
+        // Число задач меняется и при удалении устаревших, которое версию не увеличивает
+        String etag = "\"" + version + "-" + clientTasks.size() + "\"";
+        String pollInterval = String.valueOf(suggestedPollSeconds(clientTasks));
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(TASK_VERSION_HEADER, String.valueOf(version))
+                    .header(TASK_COUNT_HEADER, String.valueOf(clientTasks.size()))
+                    .header(POLL_INTERVAL_HEADER, pollInterval)
+                    .build();
+        }
+
+        List<TaskStatusDto> body = clientTasks;
+        if (since != null) {
+            body = new ArrayList<>();
+            for (TaskStatusDto t : clientTasks) {
+                if (t.getVersion() > since) {
+                    body.add(t);
+                }
+            }
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .header(TASK_VERSION_HEADER, String.valueOf(version))
+                .header(TASK_COUNT_HEADER, String.valueOf(clientTasks.size()))
+                .header(POLL_INTERVAL_HEADER, pollInterval)
+                .body(ApiResponseDto.success(body));
+    }
+
+    /**
+     * Интервал опроса: чаще, пока есть загрузки, и редко, когда всё завершено.
+     */
+    private static int suggestedPollSeconds(List<TaskStatusDto> clientTasks) {
+        int interval = IDLE_POLL_SECONDS;
+        for (TaskStatusDto t : clientTasks) {
+            if ("downloading".equals(t.getStatus())) {
+                return ACTIVE_POLL_SECONDS;
+            }
+            if ("pending".equals(t.getStatus())) {
+                interval = PENDING_POLL_SECONDS;
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * Совпадает ли If-None-Match с текущим ETag (слабые теги сравниваются без префикса W/).
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Поток изменений задач клиента (SSE) вместо периодического опроса /tasks.
+     * При переподключении браузер передаёт Last-Event-ID и получает только пропущенные события.
+     */
+    @GetMapping(value = "/tasks/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTasks(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                  HttpServletRequest request, HttpServletResponse response) {
         String ip = getClientIp(request);
-        log.debug("📊 List all tasks | IP: {}", ip);
-        return ResponseEntity.ok(ApiResponseDto.success(queueService.getQueueStatus(ip)));
+        log.debug("📡 Task stream requested | IP: {} | LastEventID: {}", ip, lastEventId);
+        // Прокси не должен буферизовать поток
+        response.setHeader("X-Accel-Buffering", "no");
+        return taskEvents.subscribe(ip, lastEventId, () -> queueService.getQueueStatus(ip));
     }
 
     @DeleteMapping("/tasks/{taskId}")
@@ -149,11 +322,7 @@ public class DownloadController {
         String clientIp = getClientIp(request);
         
         // Check if file belongs to a task completed by current user
-        java.util.List<TaskStatusDto> userTasks = queueService.getQueueStatus(clientIp);
-        boolean hasAccess = userTasks.stream()
-                .anyMatch(task -> task.getFilename() != null && 
-                                 task.getFilename().equals(filename) && 
-                                 "completed".equals(task.getStatus()));
+        boolean hasAccess = queueService.hasCompletedFile(clientIp, filename);
         
         if (!hasAccess) {
             log.warn("🚫 Access denied | Filename: {} | IP: {}", filename, clientIp);
@@ -1,5 +1,12 @@
 package com.iwanow16.backend.controller;
 
+import com.iwanow16.backend.extractor.VideoExtractorService;
+import com.iwanow16.backend.extractor.YtDlpCacheDir;
+import com.iwanow16.backend.service.DownloadCache;
+import com.iwanow16.backend.service.DownloadQueueService;
+import com.iwanow16.backend.util.SmartTrimmer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -11,6 +18,21 @@ import java.util.Map;
 @RequestMapping("/api")
 public class HealthController {
 
+    @Autowired
+    private DownloadQueueService queueService;
+
+    @Autowired
+    private DownloadCache downloadCache;
+
+    @Autowired
+    private VideoExtractorService extractorService;
+
+    @Autowired
+    private YtDlpCacheDir ytDlpCache;
+
+    @Autowired
+    private SmartTrimmer smartTrimmer;
+
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
         return ResponseEntity.ok(Map.of(
@@ -19,4 +41,55 @@ public class HealthController {
                 "ok", true
         ));
     }
+
+    /**
+     * Состояние очереди загрузок для балансировщика: 503, когда узел близок к насыщению.
+     */
+    @GetMapping("/health/queue")
+    public ResponseEntity<Map<String, Object>> queue() {
+        Map<String, Object> stats = queueService.getQueueStats();
+        HttpStatus status = queueService.isSaturated() ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK;
+        return ResponseEntity.status(status).body(stats);
+    }
+
+    /**
+     * Статистика кэша готовых файлов: попадания, промахи, сэкономленный трафик.
+     */
+    @GetMapping("/health/cache")
+    public ResponseEntity<Map<String, Object>> cache() {
+        return ResponseEntity.ok(downloadCache.getStats());
+    }
+
+    /**
+     * Статистика метаданных /api/info: попадания и вытеснения кэша, объединённые извлечения.
+     */
+    @GetMapping("/health/info-cache")
+    public ResponseEntity<Map<String, Object>> infoCacheStats() {
+        return ResponseEntity.ok(extractorService.getInfoStats());
+    }
+
+    /**
+     * Загрузка извлечения метаданных: 503, когда все слоты и очередь заняты.
+     */
+    @GetMapping("/health/metadata")
+    public ResponseEntity<Map<String, Object>> metadata() {
+        HttpStatus status = extractorService.isMetadataSaturated() ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK;
+        return ResponseEntity.status(status).body(extractorService.getBulkheadStats());
+    }
+
+    /**
+     * Общий кэш yt-dlp: размер и время извлечения с готовым кэшем и без него.
+     */
+    @GetMapping("/health/yt-dlp-cache")
+    public ResponseEntity<Map<String, Object>> ytDlpCache() {
+        return ResponseEntity.ok(ytDlpCache.getStats());
+    }
+
+    /**
+     * Обрезка по времени: скопированные и перекодированные секунды, CPU против полного перекодирования.
+     */
+    @GetMapping("/health/trim")
+    public ResponseEntity<Map<String, Object>> trim() {
+        return ResponseEntity.ok(smartTrimmer.getStats());
+    }
 }
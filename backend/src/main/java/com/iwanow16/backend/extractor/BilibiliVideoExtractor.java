@@ -1,15 +1,15 @@
 package com.iwanow16.backend.extractor;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
 import com.iwanow16.backend.model.dto.VideoInfoDto;
 import com.iwanow16.backend.model.dto.FormatDto;
-import com.iwanow16.backend.util.ProcessExecutor;
 import com.iwanow16.backend.util.FormatEnhancer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedHashMap;
@@ -22,7 +22,15 @@ import java.util.stream.Collectors;
 @Component
 public class BilibiliVideoExtractor implements VideoExtractor {
     private static final Logger log = LoggerFactory.getLogger(BilibiliVideoExtractor.class);
-    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private YtDlpEngine engine;
+
+    @Autowired
+    private YtDlpCacheDir cacheDir;
 
     @Override
     public VideoInfoDto extractInfo(String url) throws Exception {
@@ -30,9 +38,7 @@ public class BilibiliVideoExtractor implements VideoExtractor {
         
         String cookiesPath = "/app/resources/bilibili_cookies.txt";
         
-        List<String> cmd = new ArrayList<>();
-        cmd.add("yt-dlp");
-        cmd.add("--dump-json");
+        List<String> cmd = new ArrayList<>(cacheDir.args());
         cmd.add("--user-agent");
         cmd.add("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
         cmd.add("--cookies");
@@ -46,32 +52,29 @@ public class BilibiliVideoExtractor implements VideoExtractor {
         cmd.add("3");
         cmd.add("--extractor-args");
         cmd.add("bilibili:is_story=False");
-        cmd.add(url);
 
-        StringBuilder out = new StringBuilder();
+        long cacheMarker = cacheDir.marker();
         long startTime = System.currentTimeMillis();
         log.debug("⏳ Running yt-dlp command for Bilibili...");
-        
-        int rc = ProcessExecutor.run(cmd, 30, out);
-        long duration = System.currentTimeMillis() - startTime;
-        
-        if (rc != 0) {
-            String errorOutput = out.toString();
-            log.error("❌ yt-dlp failed with code {}: {} (Duration: {}ms)", rc, errorOutput, duration);
-            throw new RuntimeException("yt-dlp failed with code " + rc + ": " + errorOutput);
+
+        // JSON разбирается потоково: вывод не накапливается и не пишется в лог
+        YtDlpInfo rootNode;
+        try {
+            rootNode = engine.dumpJson(cmd, url, props.getTimeouts().getMetadata(), YtDlpInfo.READER::readValue);
+        } catch (IOException e) {
+            log.error("❌ Failed to parse yt-dlp output: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to parse video info: " + e.getMessage(), e);
         }
-        
-        String jsonOutput = out.toString();
-        log.debug("📊 yt-dlp output length: {} bytes | Duration: {}ms", jsonOutput.length(), duration);
+        long duration = System.currentTimeMillis() - startTime;
+        cacheDir.recordExtraction(cacheMarker, duration);
+        log.debug("📊 yt-dlp output parsed | Duration: {}ms", duration);
         
         try {
-            JsonNode rootNode = mapper.readTree(jsonOutput);
-            
             VideoInfoDto info = new VideoInfoDto();
-            info.setTitle(rootNode.path("title").asText());
-            info.setAuthor(rootNode.path("uploader").asText());
+            info.setTitle(textOrEmpty(rootNode.title));
+            info.setAuthor(textOrEmpty(rootNode.uploader));
             info.setUrl(url);
-            info.setDurationSeconds(rootNode.path("duration").asLong(0));
+            info.setDurationSeconds(rootNode.duration != null ? rootNode.duration.longValue() : 0);
             
             // Карта для Bilibili format_id → качество
             Map<String, String> bilibiliQualityMap = new LinkedHashMap<>();
@@ -88,36 +91,35 @@ public class BilibiliVideoExtractor implements VideoExtractor {
             bilibiliQualityMap.put("30080", "1080P - H.264");
             
             // Извлечь форматы
-            JsonNode formatsNode = rootNode.path("formats");
             List<FormatDto> formats = new ArrayList<>();
             
-            if (formatsNode.isArray()) {
-                for (JsonNode formatNode : formatsNode) {
+            if (rootNode.formats != null) {
+                for (YtDlpInfo.Format formatNode : rootNode.formats) {
                     FormatDto format = new FormatDto();
-                    String formatId = formatNode.path("format_id").asText();
+                    String formatId = textOrEmpty(formatNode.formatId);
                     format.setFormatId(formatId);
                     
                     // Получить качество из карты или из полей
                     String quality = bilibiliQualityMap.getOrDefault(formatId, 
-                        formatNode.path("format_note").asText(""));
+                        textOrEmpty(formatNode.formatNote));
                     
                     // Если quality все еще пусто, построить из разрешения
                     if (quality.isEmpty()) {
-                        int width = formatNode.path("width").asInt(0);
-                        int height = formatNode.path("height").asInt(0);
+                        int width = formatNode.width != null ? formatNode.width : 0;
+                        int height = formatNode.height != null ? formatNode.height : 0;
                         if (width > 0 && height > 0) {
                             quality = height + "P";
                         } else {
-                            quality = formatNode.path("format").asText("Unknown");
+                            quality = formatNode.format != null ? formatNode.format : "Unknown";
                         }
                     }
                     
                     format.setQuality(quality);
-                    format.setExt(formatNode.path("ext").asText());
+                    format.setExt(textOrEmpty(formatNode.ext));
                     
                     // Получить информацию о кодеках
-                    String vcodec = formatNode.path("vcodec").asText();
-                    String acodec = formatNode.path("acodec").asText();
+                    String vcodec = textOrEmpty(formatNode.vcodec);
+                    String acodec = textOrEmpty(formatNode.acodec);
                     
                     // Установить vcodec и acodec в формат (для фронтенда)
                     format.setVcodec(vcodec);
@@ -129,11 +131,7 @@ public class BilibiliVideoExtractor implements VideoExtractor {
                                       (acodec.isEmpty() ? "" : (vcodec.isEmpty() ? "" : " ") + "A: " + acodec));
                     }
                     
-                    long filesize = formatNode.path("filesize").asLong(0);
-                    if (filesize == 0) {
-                        filesize = formatNode.path("filesize_approx").asLong(0);
-                    }
-                    format.setFilesize(filesize);
+                    format.setFilesize(formatNode.size());
                     
                     formats.add(format);
                 }
@@ -157,6 +155,10 @@ public class BilibiliVideoExtractor implements VideoExtractor {
         }
     }
 
+    private static String textOrEmpty(String value) {
+        return value != null ? value : "";
+    }
+
     @Override
     public String getServiceName() {
         return "bilibili";
@@ -0,0 +1,225 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.service.FileStorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Полный вывод yt-dlp --dump-json, полученный при /api/info, сохраняется в app.temp-dir
+ * на downloader.info-cache.json-ttl. Загрузка того же видео передаёт его через
+ * --load-info-json и не повторяет извлечение (запрос страницы, разбор плеера, подписи).
+ *
+ * Ссылки на потоки внутри JSON со временем истекают: если загрузка с сохранённым JSON
+ * не удалась, стратегия удаляет его через invalidate и повторяет загрузку по ссылке.
+ */
+@Component
+public class InfoJsonStore {
+    private static final Logger log = LoggerFactory.getLogger(InfoJsonStore.class);
+    private static final String DIR_NAME = ".info-json";
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private FileStorageService storage;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    private record Entry(Path file, long expiresAt) {
+    }
+
+    /**
+     * Запись JSON во временный файл одновременно с его разбором.
+     * Файл становится доступен загрузкам только после commit, иначе удаляется при close.
+     */
+    public final class Capture implements Closeable {
+        private final Path tmp;
+        private final OutputStream out;
+        private boolean committed;
+
+        private Capture(Path tmp) throws IOException {
+            this.tmp = tmp;
+            this.out = new BufferedOutputStream(Files.newOutputStream(tmp));
+        }
+
+        /**
+         * Поток, копирующий всё прочитанное из in в файл.
+         */
+        public InputStream tee(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        out.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buf, int off, int len) throws IOException {
+                    int n = super.read(buf, off, len);
+                    if (n > 0) {
+                        out.write(buf, off, n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Сохранить записанный JSON для видео.
+         */
+        public void commit(String service, String videoId) {
+            if (videoId == null || videoId.isBlank()) {
+                return;
+            }
+            try {
+                out.close();
+                Path file = tmp.resolveSibling(fileName(service, videoId));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                committed = true;
+                entries.put(key(service, videoId),
+                        new Entry(file, System.currentTimeMillis() + props.getInfoCache().getJsonTtl().toMillis()));
+                stored.incrementAndGet();
+                log.debug("🧾 Info JSON stored | Key: {} | Size: {} bytes", key(service, videoId), Files.size(file));
+            } catch (IOException e) {
+                log.warn("⚠️ Failed to store info JSON | Key: {} | Error: {}", key(service, videoId), e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            if (committed) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.debug("Failed to close info JSON temp file | Path: {}", tmp);
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                log.debug("Failed to delete info JSON temp file | Path: {}", tmp);
+            }
+        }
+    }
+
+    /**
+     * Начать запись JSON.
+     * @return null, если сохранение выключено (json-ttl равен нулю) или файл не создать
+     */
+    public Capture capture() {
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            Path dir = storage.getTempRoot().resolve(DIR_NAME);
+            Files.createDirectories(dir);
+            return new Capture(Files.createTempFile(dir, "capture-", ".tmp"));
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to start info JSON capture | Error: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Сохранённый JSON видео для --load-info-json.
+     * @return путь к файлу или null, если JSON нет или он устарел
+     */
+    public Path find(String service, String videoId) {
+        if (!isEnabled() || videoId == null) {
+            return null;
+        }
+        String key = key(service, videoId);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.expiresAt() <= System.currentTimeMillis() || !Files.exists(entry.file())) {
+            if (entry != null) {
+                remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.file();
+    }
+
+    /**
+     * Удалить JSON, с которым загрузка не удалась (ссылки на потоки истекли).
+     */
+    public void invalidate(String service, String videoId) {
+        String key = key(service, videoId);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+            invalidated.incrementAndGet();
+        }
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        entries.forEach((key, entry) -> {
+            if (entry.expiresAt() <= now) {
+                remove(key, entry);
+            }
+        });
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            try {
+                Files.deleteIfExists(entry.file());
+            } catch (IOException e) {
+                log.debug("Failed to delete info JSON | Path: {}", entry.file());
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("stored", stored.get());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("invalidated", invalidated.get());
+        return stats;
+    }
+
+    private boolean isEnabled() {
+        return props.getInfoCache().getJsonTtl().toMillis() > 0;
+    }
+
+    private static String key(String service, String videoId) {
+        return service + ":" + videoId;
+    }
+
+    private static String fileName(String service, String videoId) {
+        // ID попадает в имя файла — оставить только безопасные символы
+        return service + "_" + videoId.replaceAll("[^A-Za-z0-9_-]", "_") + ".json";
+    }
+}
@@ -0,0 +1,135 @@
+package com.iwanow16.backend.extractor;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничитель одновременных извлечений метаданных: не больше maxConcurrent процессов
+ * yt-dlp и не больше queueSize ожидающих слота. Лишние запросы отклоняются сразу,
+ * а не копятся в потоках Tomcat.
+ */
+class MetadataBulkhead {
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 5;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final int maxConcurrent;
+    private final int queueSize;
+    private final long queueTimeoutNanos;
+    private final Semaphore permits;
+    // Принятые извлечения: выполняющиеся и ожидающие слота
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalHoldNanos = new AtomicLong();
+
+    MetadataBulkhead(int maxConcurrent, int queueSize, Duration queueTimeout) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.queueSize = Math.max(0, queueSize);
+        this.queueTimeoutNanos = queueTimeout.toNanos();
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Занять место в очереди. Вызывается в потоке запроса до запуска извлечения.
+     * @throws MetadataBusyException если слоты и очередь заняты
+     */
+    void admit() {
+        if (admitted.incrementAndGet() > maxConcurrent + queueSize) {
+            admitted.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new MetadataBusyException("Metadata extraction is busy, please retry later", retryAfterSeconds());
+        }
+    }
+
+    /**
+     * Вернуть место, занятое через admit, если извлечение так и не запустилось.
+     */
+    void withdraw() {
+        admitted.decrementAndGet();
+    }
+
+    /**
+     * Дождаться слота. Место в очереди должно быть занято через admit.
+     * @return время ожидания в наносекундах
+     * @throws MetadataBusyException если слот не освободился за metadata-queue-timeout
+     */
+    long acquire() throws InterruptedException {
+        long started = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            admitted.decrementAndGet();
+            throw e;
+        }
+        long waited = System.nanoTime() - started;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            admitted.decrementAndGet();
+            timedOut.incrementAndGet();
+            throw new MetadataBusyException("Timed out waiting for a metadata extraction slot", retryAfterSeconds());
+        }
+        return waited;
+    }
+
+    /**
+     * Освободить слот после acquire.
+     * @param heldNanos сколько слот был занят
+     */
+    void release(long heldNanos) {
+        totalHoldNanos.addAndGet(heldNanos);
+        completed.incrementAndGet();
+        permits.release();
+        admitted.decrementAndGet();
+    }
+
+    /**
+     * Рекомендуемое время повтора: среднее время извлечения, умноженное на число очередей слотов.
+     */
+    private long retryAfterSeconds() {
+        long done = completed.get();
+        if (done == 0) {
+            return DEFAULT_RETRY_AFTER_SECONDS;
+        }
+        double averageSeconds = totalHoldNanos.get() / 1e9 / done;
+        double rounds = Math.max(1.0, (double) admitted.get() / maxConcurrent);
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, (long) Math.ceil(averageSeconds * rounds)));
+    }
+
+    /**
+     * Все слоты и вся очередь заняты.
+     */
+    boolean isSaturated() {
+        return admitted.get() >= maxConcurrent + queueSize;
+    }
+
+    Map<String, Object> getStats() {
+        int inSystem = admitted.get();
+        int active = maxConcurrent - permits.availablePermits();
+        long done = completed.get();
+        long waits = done + timedOut.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", active);
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("waiting", Math.max(0, inSystem - active));
+        stats.put("queueSize", queueSize);
+        stats.put("completed", done);
+        stats.put("rejected", rejected.get());
+        stats.put("timedOut", timedOut.get());
+        stats.put("avgWaitMs", waits == 0 ? 0 : totalWaitNanos.get() / waits / 1_000_000);
+        stats.put("maxWaitMs", maxWaitNanos.get() / 1_000_000);
+        stats.put("avgExtractionMs", done == 0 ? 0 : totalHoldNanos.get() / done / 1_000_000);
+        stats.put("saturated", isSaturated());
+        return stats;
+    }
+}
@@ -0,0 +1,16 @@
+package com.iwanow16.backend.extractor;
+
+/**
+ * Все слоты извлечения метаданных заняты и очередь к ним заполнена (или ожидание
+ * слота слишком затянулось). Содержит рекомендуемое время повтора.
+ */
+public class MetadataBusyException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public MetadataBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
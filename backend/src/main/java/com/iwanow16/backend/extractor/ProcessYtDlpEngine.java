@@ -0,0 +1,54 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.util.ProcessExecutor;
+import com.iwanow16.backend.util.ProcessStage;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Запуск отдельного процесса yt-dlp на каждый вызов.
+ */
+@Component
+public class ProcessYtDlpEngine implements YtDlpEngine {
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Override
+    public <T> T dumpJson(List<String> options, String url, Duration timeout, ProcessExecutor.StreamParser<T> parser)
+            throws Exception {
+        return ProcessExecutor.runParsing(command(options, url), timeout.toSeconds(), parser);
+    }
+
+    @Override
+    public <T> T dumpJson(List<String> options, String url, ProcessExecutor.StreamParser<T> parser, String taskId)
+            throws Exception {
+        return processSupervisor.runParsing(taskId, ProcessStage.METADATA, new ProcessBuilder(command(options, url)),
+                parser);
+    }
+
+    private static List<String> command(List<String> options, String url) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("yt-dlp");
+        cmd.addAll(options);
+        cmd.add("--dump-json");
+        cmd.add(url);
+        return cmd;
+    }
+
+    @Override
+    public String getName() {
+        return "process";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        return Map.of("engine", getName());
+    }
+}
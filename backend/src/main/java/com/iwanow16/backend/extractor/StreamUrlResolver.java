@@ -0,0 +1,277 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Прямые ссылки на потоки видео (downloader.stream-urls) для извлечения кадров: ffmpeg читает
+ * по ссылке только диапазоны байт около нужного ключевого кадра вместо загрузки всего видео.
+ *
+ * Выбирается самый дешёвый формат с видео не ниже min-height, отдаваемый по HTTP(S) —
+ * HLS-плейлисты перемотку диапазонами не поддерживают. Ссылки кэшируются по ключу
+ * "сервис:ID видео" на ttl, но не дольше срока подписи (параметр expire у googlevideo),
+ * так что несколько кадров одного видео извлекаются одним вызовом yt-dlp. Одновременные
+ * запросы одного видео ждут общий вызов.
+ *
+ * yt-dlp запускается через YtDlpEngine от имени задачи, начавшей вызов (процессом пула или
+ * отдельным процессом под ProcessSupervisor), и занимает слот в ограничителе извлечений метаданных
+ * вместе с запросами /api/info. JSON разбирается потоково. Если задача отменена, ожидавшие её
+ * вызова задачи запрашивают ссылку заново.
+ */
+@Component
+public class StreamUrlResolver {
+    private static final Logger log = LoggerFactory.getLogger(StreamUrlResolver.class);
+    // Срок подписи ссылки: ...?expire=1700000000&... или .../expire/1700000000/...
+    private static final Pattern EXPIRE = Pattern.compile("[?&/]expire[=/](\\d+)");
+    // Ссылка должна оставаться рабочей, пока ffmpeg читает поток
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Autowired
+    private YtDlpEngine engine;
+
+    @Autowired
+    private YtDlpCacheDir cacheDir;
+
+    // Общий с VideoExtractorService ограничитель, передаётся им при инициализации
+    private volatile MetadataBulkhead bulkhead;
+
+    private final ConcurrentHashMap<String, CompletableFuture<ResolvedStream>> streams = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong resolutions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Прямая ссылка на поток и заголовки запроса к ней.
+     */
+    public static class ResolvedStream {
+        private final String url;
+        private final Map<String, String> headers;
+        private final String formatId;
+        private final Integer height;
+        private final Double duration;
+        private final long expiresAt;
+
+        ResolvedStream(String url, Map<String, String> headers, String formatId, Integer height, Double duration,
+                       long expiresAt) {
+            this.url = url;
+            this.headers = headers;
+            this.formatId = formatId;
+            this.height = height;
+            this.duration = duration;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getFormatId() {
+            return formatId;
+        }
+
+        public Integer getHeight() {
+            return height;
+        }
+
+        public Double getDuration() {
+            return duration;
+        }
+
+        boolean isFresh(long now) {
+            return expiresAt > now;
+        }
+    }
+
+    /**
+     * Действие над прямой ссылкой (например, извлечение кадров), которое можно повторить с новой ссылкой.
+     */
+    public interface StreamAction<T> {
+        T apply(ResolvedStream stream) throws Exception;
+    }
+
+    public boolean isEnabled() {
+        return props.getStreamUrls().isEnabled();
+    }
+
+    void useBulkhead(MetadataBulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Получить прямую ссылку на поток из кэша или через yt-dlp.
+     * @param options параметры yt-dlp сервиса (cookies, user-agent), без -f и --cache-dir
+     * @param taskId задача, от имени которой запускается yt-dlp
+     * @throws RuntimeException если yt-dlp не смог извлечь ссылку
+     * @throws MetadataBusyException если слоты извлечения метаданных заняты
+     * @throws CancellationException если задача отменена
+     */
+    public ResolvedStream resolve(String service, String videoId, String url, List<String> options, String taskId)
+            throws Exception {
+        String key = service + ":" + videoId;
+        while (true) {
+            CompletableFuture<ResolvedStream> flight = streams.get(key);
+            if (flight == null) {
+                CompletableFuture<ResolvedStream> created = new CompletableFuture<>();
+                if (streams.putIfAbsent(key, created) == null) {
+                    return load(key, created, url, options, taskId);
+                }
+                continue;
+            }
+            if (flight.isDone() && !flight.isCompletedExceptionally() && !flight.join().isFresh(System.currentTimeMillis())) {
+                streams.remove(key, flight);
+                continue;
+            }
+            try {
+                ResolvedStream stream = flight.get();
+                hits.incrementAndGet();
+                log.debug("🔗 Stream URL reused | Key: {} | Format: {}", key, stream.getFormatId());
+                return stream;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException && !processSupervisor.isCancelled(taskId)) {
+                    // Отменена задача, начавшая вызов, а не эта
+                    continue;
+                }
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+    }
+
+    private ResolvedStream load(String key, CompletableFuture<ResolvedStream> flight, String url, List<String> options,
+                                String taskId) throws Exception {
+        DownloaderProperties.StreamUrls config = props.getStreamUrls();
+        long started = System.currentTimeMillis();
+        try {
+            List<String> args = new ArrayList<>(cacheDir.args());
+            args.addAll(options);
+            args.add("-f");
+            args.add(formatSelector(config.getMinHeight()));
+            YtDlpInfo info = dumpJson(args, url, taskId);
+            if (info == null || info.url == null || info.url.isBlank()) {
+                throw new RuntimeException("yt-dlp returned no direct stream URL for " + key);
+            }
+            long now = System.currentTimeMillis();
+            long expiresAt = Math.min(now + config.getTtl().toMillis(), signatureExpiry(info.url));
+            ResolvedStream stream = new ResolvedStream(info.url,
+                    info.httpHeaders != null ? Map.copyOf(info.httpHeaders) : Map.of(),
+                    info.formatId, info.height, info.duration, expiresAt);
+            resolutions.incrementAndGet();
+            log.info("🔗 Stream URL resolved | Key: {} | Format: {} | Height: {} | Duration: {}ms | Valid for: {}s",
+                    key, info.formatId, info.height, now - started, Math.max(0, (expiresAt - now) / 1000));
+            flight.complete(stream);
+            return stream;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            streams.remove(key, flight);
+            // Убитый отменой процесс завершается с ошибкой; ожидающим важна причина, а не код возврата
+            flight.completeExceptionally(processSupervisor.isCancelled(taskId) && !(e instanceof CancellationException)
+                    ? new CancellationException("Task cancelled: " + taskId) : e);
+            throw e;
+        }
+    }
+
+    /**
+     * Извлечь JSON yt-dlp от имени задачи, заняв слот ограничителя метаданных.
+     */
+    private YtDlpInfo dumpJson(List<String> args, String url, String taskId) throws Exception {
+        MetadataBulkhead slots = bulkhead;
+        long acquired = 0;
+        if (slots != null) {
+            slots.admit();
+            // При неудаче acquire сам возвращает место, занятое admit
+            long waited = slots.acquire();
+            if (waited > 1_000_000_000L) {
+                log.info("⏳ Metadata slot acquired after wait | TaskID: {} | Waited: {}ms", taskId, waited / 1_000_000);
+            }
+            acquired = System.nanoTime();
+        }
+        try {
+            return engine.dumpJson(args, url, YtDlpInfo.READER::readValue, taskId);
+        } finally {
+            if (slots != null) {
+                slots.release(System.nanoTime() - acquired);
+            }
+        }
+    }
+
+    /**
+     * Забыть ссылку, которая перестала работать (истекла подпись, сменился IP и т.п.).
+     */
+    public void invalidate(String service, String videoId) {
+        if (streams.remove(service + ":" + videoId) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Самый дешёвый формат с видео не ниже minHeight, иначе лучший ниже неё; только HTTP(S).
+     */
+    static String formatSelector(int minHeight) {
+        return "wv*[height>=" + minHeight + "][protocol^=http]/bv*[protocol^=http]/b[protocol^=http]";
+    }
+
+    private static long signatureExpiry(String url) {
+        Matcher m = EXPIRE.matcher(url);
+        if (!m.find()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(m.group(1)) * 1000 - EXPIRY_MARGIN_MILLIS;
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Удалить ссылки с истёкшим сроком.
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        streams.forEach((key, flight) -> {
+            if (flight.isDone() && (flight.isCompletedExceptionally() || !flight.join().isFresh(now))) {
+                streams.remove(key, flight);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("entries", streams.size());
+        stats.put("hits", hits.get());
+        stats.put("resolutions", resolutions.get());
+        stats.put("failures", failures.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+}
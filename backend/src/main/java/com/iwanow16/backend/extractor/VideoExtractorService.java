@@ -1,17 +1,40 @@
 package com.iwanow16.backend.extractor;
 
+import com.iwanow16.backend.config.DownloaderProperties;
 import com.iwanow16.backend.model.dto.VideoInfoDto;
+import com.iwanow16.backend.service.strategy.DownloadStrategy;
 import com.iwanow16.backend.service.strategy.DownloadStrategyFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Сервис для извлечения информации о видео с разных ресурсов.
  * Использует подходящий экстрактор на основе URL.
+ *
+ * Одновременные запросы одного видео объединяются: yt-dlp запускается один раз, результат
+ * или ошибку получают все ожидающие. Если все ожидающие ушли, извлечение прерывается.
+ * Число одновременных извлечений и очередь к ним ограничены (downloader.max-concurrent-metadata,
+ * downloader.metadata-queue-size), при переполнении запрос сразу получает MetadataBusyException.
  */
 @Service
 public class VideoExtractorService {
@@ -23,26 +46,258 @@ public class VideoExtractorService {
     @Autowired
     private DownloadStrategyFactory strategyFactory;
 
+    @Autowired
+    private VideoInfoCache infoCache;
+
+    @Autowired
+    private InfoJsonStore infoJsonStore;
+
+    @Autowired
+    private StreamUrlResolver streamUrlResolver;
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private YtDlpEngine engine;
+
+    private MetadataBulkhead bulkhead;
+
+    // Извлечения ждут внешний процесс, поэтому выполняются на виртуальных потоках
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("info-", 0).factory());
+    // Выполняющиеся извлечения по ключу видео
+    private final Map<String, InfoFlight> flights = new HashMap<>();
+    private final AtomicLong extractions = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Одно выполняющееся извлечение и число ожидающих его запросов.
+     */
+    private static final class InfoFlight {
+        private final CompletableFuture<VideoInfoDto> result = new CompletableFuture<>();
+        private int waiters;
+        private Future<?> work;
+        // Место в ограничителе занято в потоке запроса; освобождает его тот, кто первым
+        // установит флаг: run() при старте или leave(), если отмена опередила запуск
+        private final AtomicBoolean started = new AtomicBoolean();
+    }
+
+    @PostConstruct
+    public void init() {
+        bulkhead = new MetadataBulkhead(props.getMaxConcurrentMetadata(), props.getMetadataQueueSize(),
+                props.getMetadataQueueTimeout());
+        // Прямые ссылки на потоки тоже извлекаются yt-dlp и делят с /api/info те же слоты
+        streamUrlResolver.useBulkhead(bulkhead);
+        log.info("🚦 Metadata bulkhead initialized | Concurrent: {} | Queue: {} | Queue timeout: {}",
+                props.getMaxConcurrentMetadata(), props.getMetadataQueueSize(), props.getMetadataQueueTimeout());
+    }
+
     /**
      * Извлечь информацию о видео с использованием подходящего экстрактора.
      * @param url URL видео
      * @return Информация о видео
      * @throws Exception Если извлечение не удалось
      * @throws IllegalArgumentException Если не найден подходящий экстрактор
+     * @throws MetadataBusyException Если все слоты извлечения заняты
      */
     public VideoInfoDto extractInfo(String url) throws Exception {
+        CompletableFuture<VideoInfoDto> info = extractInfoAsync(url);
+        try {
+            return info.get();
+        } catch (InterruptedException e) {
+            // Запрос прерван — перестать ждать; извлечение остановится, если его больше никто не ждёт
+            info.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Извлечь информацию о видео асинхронно. Отмена возвращённого future или истечение
+     * downloader.metadata-request-timeout (TimeoutException) снимает этот запрос с ожидания;
+     * последний ушедший запрос прерывает yt-dlp.
+     * @throws IllegalArgumentException Если не найден подходящий экстрактор
+     * @throws MetadataBusyException Если нужно новое извлечение, а слоты и очередь заняты
+     */
+    public CompletableFuture<VideoInfoDto> extractInfoAsync(String url) {
         log.info("Extracting info for URL: {}", url);
 
         // Найти экстрактор для данного URL
-        for (VideoExtractor extractor : extractors) {
-            if (extractor.supports(url)) {
-                log.debug("Using extractor: {} for URL: {}", extractor.getServiceName(), url);
-                return extractor.extractInfo(url);
+        VideoExtractor extractor = null;
+        for (VideoExtractor candidate : extractors) {
+            if (candidate.supports(url)) {
+                extractor = candidate;
+                break;
+            }
+        }
+        if (extractor == null) {
+            // Если ничего не нашли, выбросить исключение
+            throw new IllegalArgumentException("No extractor found for URL. Please check if the URL is valid and belongs to a supported service.");
+        }
+
+        String key = cacheKey(url);
+        if (key != null) {
+            try {
+                VideoInfoDto cached = infoCache.get(key, url);
+                if (cached != null) {
+                    log.info("🗂️ Video info served from cache | Key: {}", key);
+                    return CompletableFuture.completedFuture(cached);
+                }
+            } catch (VideoInfoCache.UnavailableVideoException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        // Без ID видео объединяются только запросы с одинаковой ссылкой
+        String flightKey = key != null ? key : url;
+        InfoFlight flight;
+        synchronized (flights) {
+            flight = flights.get(flightKey);
+            if (flight == null) {
+                // Присоединение к идущему извлечению слота не требует
+                bulkhead.admit();
+                flight = new InfoFlight();
+                flights.put(flightKey, flight);
+                InfoFlight started = flight;
+                VideoExtractor chosen = extractor;
+                flight.work = executor.submit(() -> run(started, flightKey, key, chosen, url));
+                extractions.incrementAndGet();
+            } else {
+                joined.incrementAndGet();
+                log.info("🔗 Joined in-flight info extraction | Key: {} | Waiters: {}", flightKey, flight.waiters + 1);
+            }
+            flight.waiters++;
+        }
+        return waiterFor(flight, flightKey, url);
+    }
+
+    private void run(InfoFlight flight, String flightKey, String cacheKey, VideoExtractor extractor, String url) {
+        if (!flight.started.compareAndSet(false, true)) {
+            // Все ожидающие ушли до запуска, место в ограничителе уже возвращено
+            return;
+        }
+        try {
+            long waited = bulkhead.acquire();
+            if (waited > 1_000_000_000L) {
+                log.info("⏳ Metadata slot acquired after wait | Key: {} | Waited: {}ms", flightKey, waited / 1_000_000);
+            }
+        } catch (Exception e) {
+            if (e instanceof MetadataBusyException) {
+                log.warn("🚫 Metadata extraction timed out in queue | Key: {}", flightKey);
+            }
+            synchronized (flights) {
+                flights.remove(flightKey, flight);
             }
+            flight.result.completeExceptionally(e);
+            return;
         }
+        long started = System.nanoTime();
+        log.debug("Using extractor: {} for URL: {}", extractor.getServiceName(), url);
+        try {
+            VideoInfoDto info = extractor.extractInfo(url);
+            if (cacheKey != null) {
+                infoCache.put(cacheKey, info);
+            }
+            flight.result.complete(info);
+        } catch (Exception e) {
+            if (flight.result.isCancelled()) {
+                log.info("⛔ Info extraction abandoned by all waiters | Key: {}", flightKey);
+            } else if (cacheKey != null) {
+                infoCache.putFailure(cacheKey, e);
+            }
+            flight.result.completeExceptionally(e);
+        } finally {
+            bulkhead.release(System.nanoTime() - started);
+            synchronized (flights) {
+                flights.remove(flightKey, flight);
+            }
+        }
+    }
+
+    /**
+     * Future отдельного ожидающего: получает общий результат со своей ссылкой,
+     * при отмене уменьшает число ожидающих.
+     */
+    private CompletableFuture<VideoInfoDto> waiterFor(InfoFlight flight, String flightKey, String url) {
+        CompletableFuture<VideoInfoDto> waiter = new CompletableFuture<>();
+        flight.result.whenComplete((info, error) -> {
+            if (error != null) {
+                waiter.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                waiter.complete(info.withUrl(url));
+            }
+        });
+        waiter.whenComplete((info, error) -> {
+            if (error instanceof CancellationException || error instanceof TimeoutException) {
+                leave(flight, flightKey);
+            }
+        });
+        return waiter.orTimeout(props.getMetadataRequestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    }
 
-        // Если ничего не нашли, выбросить исключение
-        throw new IllegalArgumentException("No extractor found for URL. Please check if the URL is valid and belongs to a supported service.");
+    private void leave(InfoFlight flight, String flightKey) {
+        synchronized (flights) {
+            flight.waiters--;
+            if (flight.waiters > 0 || flight.result.isDone()) {
+                return;
+            }
+            flights.remove(flightKey, flight);
+        }
+        abandoned.incrementAndGet();
+        flight.result.cancel(false);
+        if (flight.started.compareAndSet(false, true)) {
+            // Извлечение ещё не запускалось и уже не запустится
+            bulkhead.withdraw();
+        }
+        // Прерывание потока завершает yt-dlp вместе с дочерними процессами
+        flight.work.cancel(true);
+    }
+
+    /**
+     * Ключ кэша метаданных: сервис и канонический ID видео. null, если ID из URL не извлекается.
+     */
+    private String cacheKey(String url) {
+        try {
+            DownloadStrategy strategy = strategyFactory.getStrategy(url);
+            String videoId = strategy.extractVideoId(url);
+            return videoId != null ? strategy.getServiceName() + ":" + videoId : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Статистика метаданных: кэш, объединение одновременных извлечений и сохранённые JSON.
+     */
+    public Map<String, Object> getInfoStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(infoCache.getStats());
+        synchronized (flights) {
+            stats.put("inFlight", flights.size());
+        }
+        stats.put("extractions", extractions.get());
+        stats.put("joined", joined.get());
+        stats.put("abandoned", abandoned.get());
+        stats.put("infoJson", infoJsonStore.getStats());
+        stats.put("streamUrls", streamUrlResolver.getStats());
+        return stats;
+    }
+
+    /**
+     * Загрузка ограничителя извлечений: занятые слоты, очередь, ожидание и отказы,
+     * а также состояние способа запуска yt-dlp.
+     */
+    public Map<String, Object> getBulkheadStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(bulkhead.getStats());
+        stats.put("engine", engine.getStats());
+        return stats;
+    }
+
+    public boolean isMetadataSaturated() {
+        return bulkhead.isSaturated();
     }
 
     /**
@@ -55,4 +310,9 @@ public class VideoExtractorService {
                 .distinct()
                 .toList();
     }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
 }
@@ -0,0 +1,268 @@
+package com.iwanow16.backend.extractor;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.VideoInfoDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш метаданных видео по каноническому ключу "сервис:ID видео", чтобы разные формы
+ * одной ссылки (youtu.be, watch?v=, shorts, embed, live) не запускали yt-dlp повторно.
+ *
+ * Размер ограничен downloader.info-cache.max-entries, давно не запрошенные записи вытесняются.
+ * Ошибки недоступности (приватное, удалённое видео) запоминаются на короткий negative-ttl.
+ * Успешные записи сохраняются в downloader.info-cache.file и загружаются при старте.
+ */
+@Component
+public class VideoInfoCache {
+    private static final Logger log = LoggerFactory.getLogger(VideoInfoCache.class);
+
+    // Признаки ошибок yt-dlp, которые не исправятся повторным запросом через минуту
+    private static final List<String> UNAVAILABLE_MARKERS = List.of(
+            "video unavailable",
+            "private video",
+            "this video is private",
+            "has been removed",
+            "this video is not available",
+            "members-only",
+            "video has been terminated",
+            "does not exist");
+
+    @Autowired
+    private DownloaderProperties props;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    // Порядок доступа: первая запись — давно не запрашиваемая
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean dirty;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Закэшированная ошибка: видео недоступно.
+     */
+    public static class UnavailableVideoException extends RuntimeException {
+        public UnavailableVideoException(String message) {
+            super(message);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+        public String key;
+        public long expiresAt;
+        public VideoInfoDto info;
+        // Сообщение об ошибке для отрицательной записи (info == null)
+        public String error;
+    }
+
+    @PostConstruct
+    public void init() {
+        Path file = diskFile();
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            List<Entry> loaded = mapper.readValue(file.toFile(), new TypeReference<List<Entry>>() {});
+            long now = System.currentTimeMillis();
+            int restored = 0;
+            synchronized (this) {
+                for (Entry entry : loaded) {
+                    if (entry.info != null && entry.expiresAt > now) {
+                        entries.put(entry.key, entry);
+                        restored++;
+                    }
+                }
+                trim();
+            }
+            log.info("🗂️ Video info cache loaded | Entries: {} | File: {}", restored, file);
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to load video info cache, starting empty | File: {} | Error: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Найти метаданные по ключу.
+     * @param url запрошенная ссылка, подставляется в ответ вместо ссылки из кэша
+     * @return метаданные или null, если записи нет
+     * @throws UnavailableVideoException если недавно выяснилось, что видео недоступно
+     */
+    public VideoInfoDto get(String key, String url) {
+        if (!props.getInfoCache().isEnabled()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                dirty = true;
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.info == null) {
+            negativeHits.incrementAndGet();
+            throw new UnavailableVideoException(entry.error);
+        }
+        hits.incrementAndGet();
+        return entry.info.withUrl(url);
+    }
+
+    /**
+     * Запомнить успешно полученные метаданные.
+     */
+    public void put(String key, VideoInfoDto info) {
+        if (!props.getInfoCache().isEnabled()) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.key = key;
+        entry.info = info;
+        entry.expiresAt = System.currentTimeMillis() + props.getInfoCache().getTtl().toMillis();
+        store(entry);
+    }
+
+    /**
+     * Запомнить ошибку, если она означает, что видео недоступно.
+     * @return true, если ошибка закэширована
+     */
+    public boolean putFailure(String key, Exception error) {
+        if (!props.getInfoCache().isEnabled() || !isUnavailable(error)) {
+            return false;
+        }
+        Entry entry = new Entry();
+        entry.key = key;
+        entry.error = error.getMessage();
+        entry.expiresAt = System.currentTimeMillis() + props.getInfoCache().getNegativeTtl().toMillis();
+        store(entry);
+        log.debug("🗂️ Video marked unavailable | Key: {} | For: {}", key, props.getInfoCache().getNegativeTtl());
+        return true;
+    }
+
+    private void store(Entry entry) {
+        synchronized (this) {
+            entries.put(entry.key, entry);
+            dirty = true;
+            trim();
+        }
+    }
+
+    private void trim() {
+        int max = Math.max(1, props.getInfoCache().getMaxEntries());
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > max && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    static boolean isUnavailable(Exception error) {
+        String message = error.getMessage();
+        if (message == null) {
+            return false;
+        }
+        String lower = message.toLowerCase(Locale.ROOT);
+        for (String marker : UNAVAILABLE_MARKERS) {
+            if (lower.contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long n = negativeHits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("maxEntries", props.getInfoCache().getMaxEntries());
+        stats.put("hits", h);
+        stats.put("negativeHits", n);
+        stats.put("misses", m);
+        stats.put("hitRate", h + n + m == 0 ? 0.0 : Math.round((h + n) * 10000.0 / (h + n + m)) / 100.0);
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        return stats;
+    }
+
+    /**
+     * Сохранить кэш на диск, если он изменился.
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void flush() {
+        Path file = diskFile();
+        if (file == null) {
+            return;
+        }
+        List<Entry> snapshot = new ArrayList<>();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Entry entry : entries.values()) {
+                // Отрицательные записи живут минуты — сохранять их незачем
+                if (entry.info != null && entry.expiresAt > now) {
+                    snapshot.add(entry);
+                }
+            }
+            dirty = false;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            mapper.writeValue(tmp.toFile(), snapshot);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("🗂️ Video info cache saved | Entries: {}", snapshot.size());
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to save video info cache | File: {} | Error: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private Path diskFile() {
+        DownloaderProperties.InfoCache config = props.getInfoCache();
+        if (!config.isEnabled() || config.getFile() == null || config.getFile().isBlank()) {
+            return null;
+        }
+        return Paths.get(config.getFile());
+    }
+}
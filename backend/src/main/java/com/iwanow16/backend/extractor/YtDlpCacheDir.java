@@ -0,0 +1,351 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.service.FileStorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Общая директория кэша yt-dlp (downloader.yt-dlp-cache): код плеера YouTube, решения функций
+ * подписи и т.п. Все вызовы yt-dlp — извлечение метаданных и загрузки — получают её через args(),
+ * поэтому разбор плеера выполняется один раз, а не в каждом процессе.
+ *
+ * yt-dlp записывает файлы кэша атомарно (временный файл и переименование), так что процессы
+ * читают его одновременно без блокировок. Очистка по max-size-mb удаляет самые старые файлы,
+ * не трогая недавно записанные, и выполняется под файловой блокировкой — директорию могут делить
+ * несколько экземпляров сервиса.
+ *
+ * При старте кэш прогревается извлечением warmup-url, а если он не задан — видео, которое первым
+ * успешно извлекли при прошлом запуске (запоминается в warmup-url-file). Так прогрев не обращается
+ * к видео, которое никто не запрашивал.
+ */
+@Component
+public class YtDlpCacheDir {
+    private static final Logger log = LoggerFactory.getLogger(YtDlpCacheDir.class);
+    private static final String LOCK_FILE = ".prune.lock";
+    // Файлы моложе этого не удаляются: их может читать только что запущенный процесс
+    private static final long PRUNE_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long MTIME_PRECISION_MILLIS = 1000;
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private FileStorageService storage;
+
+    @Autowired
+    private YtDlpEngine engine;
+
+    private volatile Path dir;
+    private volatile long warmupMillis = -1;
+    private final AtomicBoolean warmupRemembered = new AtomicBoolean();
+    // Файлы кэша и время их изменения на момент последнего учёта извлечения
+    private Map<Path, Long> seen = new HashMap<>();
+
+    private final AtomicLong prunedFiles = new AtomicLong();
+    private final AtomicLong prunedBytes = new AtomicLong();
+    // Извлечения, после которых в кэше появились новые файлы (промах), и без них (попадание)
+    private final AtomicLong warmExtractions = new AtomicLong();
+    private final AtomicLong warmMillis = new AtomicLong();
+    private final AtomicLong coldExtractions = new AtomicLong();
+    private final AtomicLong coldMillis = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        DownloaderProperties.YtDlpCache config = props.getYtDlpCache();
+        if (!config.isEnabled()) {
+            return;
+        }
+        Path target = config.getDir() == null || config.getDir().isBlank()
+                ? storage.getTempRoot().resolve(".yt-dlp-cache")
+                : Paths.get(config.getDir()).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(target);
+            dir = target;
+        } catch (IOException e) {
+            log.warn("⚠️ yt-dlp cache directory unavailable, running without shared cache | Path: {} | Error: {}",
+                    target, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            seen = snapshot(target);
+        }
+        log.info("🗃️ yt-dlp cache directory | Path: {} | Max size: {}MB | Files: {}",
+                dir, config.getMaxSizeMb(), seen.size());
+        String warmupUrl = isConfigured(config.getWarmupUrl()) ? config.getWarmupUrl() : rememberedWarmupUrl();
+        if (warmupUrl != null) {
+            Thread.ofVirtual().name("ytdlp-cache-warmup").start(() -> warmUp(warmupUrl));
+        }
+    }
+
+    /**
+     * Параметры yt-dlp для общего кэша. Пустой список, если кэш выключен.
+     */
+    public List<String> args() {
+        Path current = dir;
+        return current != null ? List.of("--cache-dir", current.toString()) : List.of();
+    }
+
+    private void warmUp(String url) {
+        long started = System.nanoTime();
+        try {
+            engine.dumpJson(args(), url, props.getTimeouts().getMetadata(), in -> {
+                in.transferTo(OutputStream.nullOutputStream());
+                return null;
+            });
+            warmupMillis = (System.nanoTime() - started) / 1_000_000;
+            log.info("🔥 yt-dlp cache warmed up | Duration: {}ms | Size: {} bytes", warmupMillis, sizeBytes());
+        } catch (Exception e) {
+            log.warn("⚠️ yt-dlp cache warm-up failed | URL: {} | Error: {}", url, e.getMessage());
+        }
+    }
+
+    /**
+     * Отметка перед извлечением: момент его начала. Директория кэша не читается.
+     */
+    public long marker() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Учесть извлечение метаданных. Если оно записало в кэш новые файлы, yt-dlp пришлось
+     * заново разбирать плеер — это промах кэша.
+     *
+     * Директория обходится один раз за извлечение. Каждый записанный файл засчитывается одному
+     * извлечению — первому учтённому из начавшихся до записи, поэтому одновременные извлечения
+     * не считают промахом чужую запись по нескольку раз.
+     * @param marker значение marker() перед извлечением
+     */
+    public void recordExtraction(long marker, long durationMillis) {
+        Path current = dir;
+        if (current == null) {
+            return;
+        }
+        int written = claimWrittenSince(current, marker);
+        if (written > 0) {
+            coldExtractions.incrementAndGet();
+            coldMillis.addAndGet(durationMillis);
+            log.debug("🗃️ yt-dlp cache miss | Files written: {} | Duration: {}ms", written, durationMillis);
+        } else {
+            warmExtractions.incrementAndGet();
+            warmMillis.addAndGet(durationMillis);
+        }
+    }
+
+    /**
+     * Запомнить видео для прогрева при следующем запуске: первое успешно извлечённое за запуск.
+     * Ничего не делает, если warmup-url задан явно.
+     */
+    public void rememberWarmupUrl(String url) {
+        DownloaderProperties.YtDlpCache config = props.getYtDlpCache();
+        if (dir == null || isConfigured(config.getWarmupUrl()) || !warmupRemembered.compareAndSet(false, true)) {
+            return;
+        }
+        Path file = warmupUrlFile();
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.writeString(tmp, url);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("🔥 yt-dlp cache warm-up URL remembered | URL: {}", url);
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to remember yt-dlp cache warm-up URL | File: {} | Error: {}", file, e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // Останется временный файл — не мешает
+                }
+            }
+        }
+    }
+
+    private String rememberedWarmupUrl() {
+        Path file = warmupUrlFile();
+        try {
+            String url = Files.exists(file) ? Files.readString(file).trim() : "";
+            return url.isEmpty() ? null : url;
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to read yt-dlp cache warm-up URL | File: {} | Error: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path warmupUrlFile() {
+        String file = props.getYtDlpCache().getWarmupUrlFile();
+        return isConfigured(file)
+                ? Paths.get(file).toAbsolutePath().normalize()
+                : storage.getStorageDir().resolve(".yt-dlp-warmup-url");
+    }
+
+    private static boolean isConfigured(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    /**
+     * Засчитать файлы, записанные с момента since и ещё не засчитанные другому извлечению.
+     * @return число таких файлов
+     */
+    private synchronized int claimWrittenSince(Path root, long since) {
+        Map<Path, Long> next = new HashMap<>();
+        int written = 0;
+        for (Map.Entry<Path, Long> file : snapshot(root).entrySet()) {
+            Path path = file.getKey();
+            long modified = file.getValue();
+            Long known = seen.get(path);
+            if (known != null && known == modified) {
+                next.put(path, modified);
+            } else if (modified >= since - MTIME_PRECISION_MILLIS) {
+                // Запас на точность времени изменения в файловой системе
+                written++;
+                next.put(path, modified);
+            } else if (known != null) {
+                // Записан до начала этого извлечения — его засчитает извлечение, начавшееся раньше
+                next.put(path, known);
+            }
+        }
+        seen = next;
+        return written;
+    }
+
+    /**
+     * Удалить самые старые файлы кэша, если он превышает max-size-mb.
+     */
+    @Scheduled(initialDelay = 600000, fixedDelay = 3600000)
+    public void prune() {
+        Path current = dir;
+        if (current == null) {
+            return;
+        }
+        long budget = props.getYtDlpCache().getMaxSizeMb() * 1024 * 1024;
+        try (FileChannel channel = FileChannel.open(current.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                log.debug("yt-dlp cache is being pruned by another instance | Path: {}", current);
+                return;
+            }
+            List<Path> files = cacheFiles(current);
+            long total = 0;
+            for (Path file : files) {
+                total += sizeOf(file);
+            }
+            if (total <= budget) {
+                return;
+            }
+            files.sort(Comparator.comparingLong(YtDlpCacheDir::lastModified));
+            long cutoff = System.currentTimeMillis() - PRUNE_GRACE_MILLIS;
+            int deleted = 0;
+            for (Path file : files) {
+                if (total <= budget || lastModified(file) >= cutoff) {
+                    break;
+                }
+                long size = sizeOf(file);
+                if (Files.deleteIfExists(file)) {
+                    total -= size;
+                    deleted++;
+                    prunedBytes.addAndGet(size);
+                }
+            }
+            prunedFiles.addAndGet(deleted);
+            log.info("🧹 yt-dlp cache pruned | Files deleted: {} | Size: {} bytes", deleted, total);
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to prune yt-dlp cache | Path: {} | Error: {}", current, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Path current = dir;
+        long warm = warmExtractions.get();
+        long cold = coldExtractions.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", current != null);
+        stats.put("dir", current != null ? current.toString() : null);
+        stats.put("sizeBytes", sizeBytes());
+        stats.put("files", current != null ? cacheFiles(current).size() : 0);
+        stats.put("maxSizeMb", props.getYtDlpCache().getMaxSizeMb());
+        stats.put("warmupMs", warmupMillis);
+        stats.put("warmExtractions", warm);
+        stats.put("avgWarmExtractionMs", warm == 0 ? 0 : warmMillis.get() / warm);
+        stats.put("coldExtractions", cold);
+        stats.put("avgColdExtractionMs", cold == 0 ? 0 : coldMillis.get() / cold);
+        stats.put("prunedFiles", prunedFiles.get());
+        stats.put("prunedBytes", prunedBytes.get());
+        return stats;
+    }
+
+    private long sizeBytes() {
+        Path current = dir;
+        if (current == null) {
+            return 0;
+        }
+        long total = 0;
+        for (Path file : cacheFiles(current)) {
+            total += sizeOf(file);
+        }
+        return total;
+    }
+
+    private static List<Path> cacheFiles(Path root) {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().equals(LOCK_FILE))
+                    .forEach(files::add);
+        } catch (IOException | UncheckedIOException e) {
+            log.debug("Failed to scan yt-dlp cache | Path: {}", root);
+        }
+        return files;
+    }
+
+    private static Map<Path, Long> snapshot(Path root) {
+        Map<Path, Long> files = new HashMap<>();
+        for (Path file : cacheFiles(root)) {
+            files.put(file, lastModified(file));
+        }
+        return files;
+    }
+
+    // yt-dlp может заменить или удалить файл между обходом и чтением атрибутов
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
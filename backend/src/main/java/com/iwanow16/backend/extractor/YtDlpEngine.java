@@ -0,0 +1,39 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.util.ProcessExecutor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Способ выполнить yt-dlp --dump-json: отдельным процессом на каждый вызов
+ * (ProcessYtDlpEngine) или в пуле постоянно запущенных процессов (YtDlpWorkerPool).
+ */
+public interface YtDlpEngine {
+    /**
+     * Извлечь метаданные без загрузки и разобрать JSON потоково.
+     * @param options параметры командной строки yt-dlp, без --dump-json и ссылки
+     * @return результат разбора
+     * @throws RuntimeException если yt-dlp завершился с ошибкой (сообщение содержит её текст)
+     * @throws com.iwanow16.backend.util.ProcessTimeoutException если извлечение не уложилось в timeout
+     */
+    <T> T dumpJson(List<String> options, String url, Duration timeout, ProcessExecutor.StreamParser<T> parser)
+            throws Exception;
+
+    /**
+     * То же от имени задачи, с таймаутом downloader.timeouts.metadata. Отдельный процесс запускается
+     * под ProcessSupervisor и завершается при отмене задачи; процесс пула завершается, если прерван
+     * рабочий поток задачи.
+     * @throws java.util.concurrent.CancellationException если задача отменена
+     */
+    <T> T dumpJson(List<String> options, String url, ProcessExecutor.StreamParser<T> parser, String taskId)
+            throws Exception;
+
+    String getName();
+
+    /**
+     * Состояние способа запуска для /api/health/metadata.
+     */
+    Map<String, Object> getStats();
+}
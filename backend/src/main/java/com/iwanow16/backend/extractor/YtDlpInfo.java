@@ -0,0 +1,67 @@
+package com.iwanow16.backend.extractor;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Поля вывода yt-dlp --dump-json, которые нужны экстракторам.
+ *
+ * Разбирается потоково прямо из stdout процесса: остальные поля (субтитры, фрагменты и т.п.,
+ * а это основная часть многомегабайтного JSON) пропускаются парсером без построения дерева.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class YtDlpInfo {
+    public static final ObjectReader READER = new ObjectMapper()
+            .readerFor(YtDlpInfo.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public String id;
+    public String title;
+    public String uploader;
+    public Double duration;
+    public Long filesize;
+    public String thumbnail;
+    public List<Format> formats;
+
+    // Выбранный через -f одиночный формат: прямая ссылка и заголовки, без которых сервер её не отдаст
+    @JsonProperty("format_id")
+    public String formatId;
+    public Integer height;
+    public String url;
+    @JsonProperty("http_headers")
+    public Map<String, String> httpHeaders;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Format {
+        @JsonProperty("format_id")
+        public String formatId;
+        public String ext;
+        public String vcodec;
+        public String acodec;
+        public Long filesize;
+        @JsonProperty("filesize_approx")
+        public Long filesizeApprox;
+        public Double fps;
+        public Integer width;
+        public Integer height;
+        @JsonProperty("format_note")
+        public String formatNote;
+        public String format;
+
+        /**
+         * Размер файла формата: точный или приблизительный, 0 если неизвестен.
+         */
+        public long size() {
+            if (filesize != null && filesize > 0) {
+                return filesize;
+            }
+            return filesizeApprox != null ? filesizeApprox : 0;
+        }
+    }
+}
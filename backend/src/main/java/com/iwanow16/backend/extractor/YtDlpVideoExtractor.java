@@ -1,13 +1,12 @@
 package com.iwanow16.backend.extractor;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
 import com.iwanow16.backend.model.dto.VideoInfoDto;
 import com.iwanow16.backend.model.dto.FormatDto;
-import com.iwanow16.backend.util.ProcessExecutor;
 import com.iwanow16.backend.util.FormatEnhancer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -24,7 +23,18 @@ import java.util.stream.Collectors;
 @Component
 public class YtDlpVideoExtractor implements VideoExtractor {
     private static final Logger log = LoggerFactory.getLogger(YtDlpVideoExtractor.class);
-    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private InfoJsonStore infoJsonStore;
+
+    @Autowired
+    private YtDlpEngine engine;
+
+    @Autowired
+    private YtDlpCacheDir cacheDir;
 
     @Value("${youtube.cookies-file:}")
     private String cookiesFile;
@@ -36,90 +46,72 @@ public class YtDlpVideoExtractor implements VideoExtractor {
     public VideoInfoDto extractInfo(String url) throws Exception {
         log.info("🎥 YtDlp: Extracting video info from: {}", url);
         
-        List<String> cmd = new ArrayList<>();
-        cmd.add("yt-dlp");
+        List<String> options = new ArrayList<>(cacheDir.args());
 
         // Добавить cookies, если они настроены
         if (cookiesFile != null && !cookiesFile.isBlank()) {
-            cmd.add("--cookies");
-            cmd.add(cookiesFile);
+            options.add("--cookies");
+            options.add(cookiesFile);
             log.debug("🍪 Using cookies file: {}", cookiesFile);
         }
 
-        cmd.add("--dump-json");
-        cmd.add(url);
-
-        StringBuilder out = new StringBuilder();
+        long cacheMarker = cacheDir.marker();
         long startTime = System.currentTimeMillis();
         log.debug("⏳ Running yt-dlp command...");
-        
-        int rc = ProcessExecutor.run(cmd, 30, out);
-        long duration = System.currentTimeMillis() - startTime;
-        
-        if (rc != 0) {
-            String errorOutput = out.toString();
-            log.error("❌ yt-dlp failed with code {}: {} (Duration: {}ms)", rc, errorOutput, duration);
-            throw new RuntimeException("yt-dlp failed with code " + rc + ": " + errorOutput);
-        }
 
-        String json = out.toString().trim();
-        // yt-dlp может выводить предупреждения перед JSON.
-        // Найти первую строку, которая выглядит как JSON (начинается с '{' или '[').
-        String[] lines = json.split("\n");
-        String jsonLine = null;
-        for (String l : lines) {
-            String t = l.trim();
-            if (t.startsWith("{") || t.startsWith("[")) {
-                jsonLine = t;
-                break;
+        // JSON разбирается потоково: вывод не накапливается и не пишется в лог.
+        // Параллельно он пишется в файл, чтобы загрузка этого видео не повторяла извлечение
+        YtDlpInfo node;
+        try (InfoJsonStore.Capture capture = infoJsonStore.capture()) {
+            node = engine.dumpJson(options, url, props.getTimeouts().getMetadata(),
+                    in -> YtDlpInfo.READER.readValue(capture != null ? capture.tee(in) : in));
+            if (capture != null && node != null) {
+                capture.commit(getServiceName(), node.id);
             }
         }
-        if (jsonLine == null) {
-            log.error("❌ Could not find JSON output from yt-dlp. Output: {}", json);
-            throw new RuntimeException("Could not find JSON output from yt-dlp. Output: " + json);
+        long duration = System.currentTimeMillis() - startTime;
+        cacheDir.recordExtraction(cacheMarker, duration);
+        if (node == null) {
+            log.error("❌ Could not find JSON output from yt-dlp (Duration: {}ms)", duration);
+            throw new RuntimeException("Could not find JSON output from yt-dlp");
         }
-        JsonNode node = mapper.readTree(jsonLine);
+        cacheDir.rememberWarmupUrl(url);
 
         VideoInfoDto info = new VideoInfoDto();
-        info.setId(node.path("id").asText());
+        info.setId(textOrEmpty(node.id));
         info.setUrl(url);
-        info.setTitle(node.path("title").asText());
-        info.setAuthor(node.path("uploader").asText(null));
-        info.setDurationSeconds(node.path("duration").asLong(0));
-        info.setFilesize(node.path("filesize").asLong(0));
-        info.setThumbnail(node.path("thumbnail").asText(null));
+        info.setTitle(textOrEmpty(node.title));
+        info.setAuthor(node.uploader);
+        info.setDurationSeconds(node.duration != null ? node.duration.longValue() : 0);
+        info.setFilesize(node.filesize != null ? node.filesize : 0);
+        info.setThumbnail(node.thumbnail);
 
         // Извлечение форматов - фильтруем и группируем по качеству (по примеру Python кода)
         List<FormatDto> formats = new ArrayList<>();
         List<FormatDto> allFormats = new ArrayList<>();  // Сохраняем все форматы для обогащения
         Map<String, FormatDto> qualityMap = new LinkedHashMap<>();
         
-        JsonNode formatsNode = node.path("formats");
-        if (formatsNode.isArray()) {
-            log.debug("📊 Processing {} formats...", formatsNode.size());
+        if (node.formats != null) {
+            log.debug("📊 Processing {} formats...", node.formats.size());
             
-            for (JsonNode f : formatsNode) {
+            for (YtDlpInfo.Format f : node.formats) {
                 // Пропускаем форматы без видео и аудио одновременно
-                String vcodec = f.path("vcodec").asText("none");
-                String acodec = f.path("acodec").asText("none");
+                String vcodec = f.vcodec != null ? f.vcodec : "none";
+                String acodec = f.acodec != null ? f.acodec : "none";
                 
                 // Если есть хотя бы видео или аудио, добавляем в allFormats для обогащения
                 if (!"none".equals(vcodec) || !"none".equals(acodec)) {
                     FormatDto format = new FormatDto();
-                    format.setFormatId(f.path("format_id").asText());
-                    format.setExt(f.path("ext").asText());
+                    format.setFormatId(textOrEmpty(f.formatId));
+                    format.setExt(textOrEmpty(f.ext));
                     format.setAcodec(acodec);
                     format.setVcodec(vcodec);
                     
-                    long size = f.path("filesize").asLong(0);
-                    if (size == 0) {
-                        size = f.path("filesize_approx").asLong(0);
-                    }
-                    format.setFilesize(size);
+                    format.setFilesize(f.size());
                     
-                    int fps = f.path("fps").asInt(0);
-                    int width = f.path("width").asInt(0);
-                    int height = f.path("height").asInt(0);
+                    int fps = f.fps != null ? f.fps.intValue() : 0;
+                    int width = f.width != null ? f.width : 0;
+                    int height = f.height != null ? f.height : 0;
                     
                     // Формируем качество: высота + fps если есть
                     String quality = (height > 0) ? height + "p" : "Unknown";
@@ -140,25 +132,21 @@ public class YtDlpVideoExtractor implements VideoExtractor {
                 // Для основного списка - берём только форматы с видео
                 if (!"none".equals(vcodec)) {
                     // Пропускаем форматы без разрешения
-                    int height = f.path("height").asInt(0);
+                    int height = f.height != null ? f.height : 0;
                     if (height == 0) {
                         continue;
                     }
                     
                     FormatDto format = new FormatDto();
-                    format.setFormatId(f.path("format_id").asText());
-                    format.setExt(f.path("ext").asText());
+                    format.setFormatId(textOrEmpty(f.formatId));
+                    format.setExt(textOrEmpty(f.ext));
                     format.setAcodec(acodec);
                     format.setVcodec(vcodec);
                     
-                    long size = f.path("filesize").asLong(0);
-                    if (size == 0) {
-                        size = f.path("filesize_approx").asLong(0);
-                    }
-                    format.setFilesize(size);
+                    format.setFilesize(f.size());
                     
-                    int fps = f.path("fps").asInt(0);
-                    int width = f.path("width").asInt(0);
+                    int fps = f.fps != null ? f.fps.intValue() : 0;
+                    int width = f.width != null ? f.width : 0;
                     
                     // Формируем качество: высота + fps если есть
                     String quality = height + "p";
@@ -202,6 +190,10 @@ public class YtDlpVideoExtractor implements VideoExtractor {
         return info;
     }
 
+    private static String textOrEmpty(String value) {
+        return value != null ? value : "";
+    }
+
     @Override
     public String getServiceName() {
         return "youtube";
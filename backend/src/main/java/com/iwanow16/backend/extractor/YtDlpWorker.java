@@ -0,0 +1,285 @@
+package com.iwanow16.backend.extractor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.util.ProcessExecutor;
+import com.iwanow16.backend.util.ProcessStage;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import com.iwanow16.backend.util.ProcessTimeoutException;
+import com.iwanow16.backend.util.TailBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Один долгоживущий процесс ytdlp/worker.py. Запросы выполняются по одному,
+ * очерёдность обеспечивает пул (YtDlpWorkerPool).
+ *
+ * Процесс, у которого нарушен протокол (оборванный ответ, ошибка разбора, таймаут),
+ * считается испорченным и больше не используется.
+ */
+final class YtDlpWorker {
+    private static final Logger log = LoggerFactory.getLogger(YtDlpWorker.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    private final Process process;
+    private final OutputStream requests;
+    private final InputStream replies;
+    private final TailBuffer errors = new TailBuffer(50);
+    private volatile boolean broken;
+    private int jobs;
+    private String version;
+
+    /**
+     * Ошибка, которую сообщил сам yt-dlp (видео недоступно и т.п.). Процесс остаётся исправным.
+     */
+    static final class ExtractionError extends RuntimeException {
+        ExtractionError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Процесс не принял запрос или не ответил на него: разбор ещё не начинался,
+     * запрос можно повторить другим способом.
+     */
+    static final class WorkerLostException extends IOException {
+        WorkerLostException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private YtDlpWorker(Process process) {
+        this.process = process;
+        this.requests = process.getOutputStream();
+        this.replies = new BufferedInputStream(process.getInputStream(), 64 * 1024);
+        Thread.ofVirtual().name("ytdlp-worker-err-" + process.pid()).start(() -> {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    errors.add(line);
+                    log.debug("yt-dlp worker stderr | PID: {} | {}", process.pid(), line);
+                }
+            } catch (IOException e) {
+                log.debug("yt-dlp worker stream closed | PID: {}", process.pid());
+            }
+        });
+    }
+
+    /**
+     * Запустить процесс и дождаться, пока он импортирует yt-dlp.
+     */
+    static YtDlpWorker start(List<String> command, Duration timeout) throws Exception {
+        YtDlpWorker worker = new YtDlpWorker(new ProcessBuilder(command).start());
+        Map<String, Object> ready = worker.withTimeout(worker::readHeader, timeout);
+        if (!Boolean.TRUE.equals(ready.get("ready"))) {
+            worker.kill();
+            throw new IOException("Unexpected yt-dlp worker greeting: " + ready);
+        }
+        worker.version = String.valueOf(ready.get("version"));
+        return worker;
+    }
+
+    /**
+     * Извлечь метаданные: аналог yt-dlp [options] --dump-json url.
+     * @throws ExtractionError если yt-dlp сообщил об ошибке
+     * @throws WorkerLostException если процесс завершился до ответа
+     */
+    <T> T extract(List<String> options, String url, Duration timeout, ProcessExecutor.StreamParser<T> parser)
+            throws Exception {
+        jobs++;
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("op", "extract");
+        request.put("args", options);
+        request.put("url", url);
+        return withTimeout(() -> {
+            Map<String, Object> header;
+            try {
+                header = send(request);
+            } catch (IOException e) {
+                throw new WorkerLostException("yt-dlp worker is lost: " + e.getMessage(), e);
+            }
+            long size = ((Number) header.getOrDefault("size", 0)).longValue();
+            if (!Boolean.TRUE.equals(header.get("ok"))) {
+                skip(size);
+                throw new ExtractionError("yt-dlp failed: " + header.get("error"));
+            }
+            PayloadStream payload = new PayloadStream(replies, size);
+            T value = parser.parse(payload);
+            payload.transferTo(OutputStream.nullOutputStream());
+            expectNewline();
+            return value;
+        }, timeout);
+    }
+
+    /**
+     * Проверить, что процесс жив и отвечает.
+     */
+    boolean ping(Duration timeout) {
+        try {
+            Map<String, Object> header = withTimeout(() -> send(Map.of("op", "ping")), timeout);
+            return Boolean.TRUE.equals(header.get("ok"));
+        } catch (Exception e) {
+            log.debug("yt-dlp worker ping failed | PID: {} | Error: {}", process.pid(), e.getMessage());
+            return false;
+        }
+    }
+
+    boolean isUsable() {
+        return !broken && process.isAlive();
+    }
+
+    int getJobs() {
+        return jobs;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    long pid() {
+        return process.pid();
+    }
+
+    void kill() {
+        broken = true;
+        ProcessSupervisor.killTree(process);
+    }
+
+    private Map<String, Object> send(Map<String, Object> request) throws IOException {
+        requests.write(MAPPER.writeValueAsBytes(request));
+        requests.write('\n');
+        requests.flush();
+        return readHeader();
+    }
+
+    private Map<String, Object> readHeader() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = replies.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("yt-dlp worker exited: " + errors);
+            }
+            if (line.size() >= MAX_HEADER_BYTES) {
+                throw new IOException("yt-dlp worker reply header is too long");
+            }
+            line.write(b);
+        }
+        return MAPPER.readValue(line.toByteArray(), new TypeReference<Map<String, Object>>() {});
+    }
+
+    private void skip(long size) throws IOException {
+        if (size > 0) {
+            new PayloadStream(replies, size).transferTo(OutputStream.nullOutputStream());
+            expectNewline();
+        }
+    }
+
+    private void expectNewline() throws IOException {
+        if (replies.read() != '\n') {
+            throw new IOException("yt-dlp worker reply is not terminated");
+        }
+    }
+
+    /**
+     * Выполнить обмен с процессом с ограничением по времени. При таймауте, прерывании
+     * или ошибке протокола процесс завершается: его состояние больше не известно.
+     */
+    private <T> T withTimeout(Callable<T> exchange, Duration timeout) throws Exception {
+        FutureTask<T> task = new FutureTask<>(exchange);
+        Thread.ofVirtual().name("ytdlp-worker-io-" + process.pid()).start(task);
+        try {
+            return task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            kill();
+            throw new ProcessTimeoutException(ProcessStage.METADATA, ProcessTimeoutException.Reason.TIMEOUT, timeout);
+        } catch (InterruptedException e) {
+            kill();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (!(cause instanceof ExtractionError)) {
+                kill();
+            }
+            throw cause instanceof Exception ex ? ex : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Ответ фиксированной длины внутри общего потока: разборщик не может прочитать
+     * следующий ответ и не закрывает поток процесса.
+     */
+    private static final class PayloadStream extends FilterInputStream {
+        private long remaining;
+
+        PayloadStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b < 0) {
+                throw new IOException("yt-dlp worker reply is truncated");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(buf, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("yt-dlp worker reply is truncated");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.service.FileStorageService;
+import com.iwanow16.backend.util.ProcessExecutor;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import com.iwanow16.backend.util.ProcessTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул постоянно запущенных процессов yt-dlp (downloader.yt-dlp-workers). Интерпретатор Python,
+ * модули и экстракторы загружаются один раз на процесс, а не на каждый вызов.
+ *
+ * Процессы запускаются при старте и по мере надобности, до pool-size. После max-jobs извлечений
+ * процесс перезапускается, простаивающие раз в минуту проверяются ping. Если пул выключен,
+ * процесс не запускается (нет python или модуля yt_dlp), все заняты дольше borrow-timeout или
+ * процесс упал, не успев ответить, вызов выполняется отдельным процессом yt-dlp (ProcessYtDlpEngine).
+ */
+@Component
+@Primary
+public class YtDlpWorkerPool implements YtDlpEngine {
+    private static final Logger log = LoggerFactory.getLogger(YtDlpWorkerPool.class);
+    private static final String SCRIPT_RESOURCE = "/ytdlp/worker.py";
+    private static final Duration PING_TIMEOUT = Duration.ofSeconds(5);
+    // Пауза перед новой попыткой запуска после неудачи
+    private static final long RETRY_START_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private FileStorageService storage;
+
+    @Autowired
+    private ProcessYtDlpEngine fallback;
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    // Свободные процессы: последний вернувшийся берётся первым
+    private final LinkedBlockingDeque<YtDlpWorker> idle = new LinkedBlockingDeque<>();
+    // Запущенные процессы: свободные и занятые
+    private final AtomicInteger workers = new AtomicInteger();
+    private volatile Path script;
+    private volatile long unavailableUntil;
+    private volatile boolean closed;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong jobs = new AtomicLong();
+    private final AtomicLong totalJobNanos = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private final AtomicLong crashed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        DownloaderProperties.YtDlpWorkers config = props.getYtDlpWorkers();
+        if (!config.isEnabled()) {
+            return;
+        }
+        try (InputStream in = getClass().getResourceAsStream(SCRIPT_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + SCRIPT_RESOURCE);
+            }
+            Path target = storage.getTempRoot().resolve(".ytdlp-worker.py");
+            Files.createDirectories(target.getParent());
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            script = target;
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to install yt-dlp worker script, using one-shot processes | Error: {}", e.getMessage());
+            return;
+        }
+        // Прогреть пул заранее, чтобы первый запрос не ждал импорта yt-dlp
+        for (int i = 0; i < config.getPoolSize(); i++) {
+            replenish();
+        }
+        log.info("🐍 yt-dlp worker pool enabled | Size: {} | Max jobs: {}", config.getPoolSize(), config.getMaxJobs());
+    }
+
+    @Override
+    public <T> T dumpJson(List<String> options, String url, Duration timeout, ProcessExecutor.StreamParser<T> parser)
+            throws Exception {
+        return extract(options, url, timeout, parser, () -> fallback.dumpJson(options, url, timeout, parser));
+    }
+
+    @Override
+    public <T> T dumpJson(List<String> options, String url, ProcessExecutor.StreamParser<T> parser, String taskId)
+            throws Exception {
+        if (processSupervisor.isCancelled(taskId)) {
+            throw new CancellationException("Task cancelled: " + taskId);
+        }
+        try {
+            return extract(options, url, props.getTimeouts().getMetadata(), parser,
+                    () -> fallback.dumpJson(options, url, parser, taskId));
+        } catch (InterruptedException e) {
+            // Процесс пула уже завершён: его ответ больше никому не нужен
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Task interrupted: " + taskId);
+        }
+    }
+
+    /**
+     * Извлечь процессом пула, а если свободного нет или процесс упал до ответа — отдельным процессом oneShot.
+     */
+    private <T> T extract(List<String> options, String url, Duration timeout, ProcessExecutor.StreamParser<T> parser,
+                          Callable<T> oneShot) throws Exception {
+        YtDlpWorker worker = borrow();
+        if (worker == null) {
+            if (props.getYtDlpWorkers().isEnabled()) {
+                fallbacks.incrementAndGet();
+            }
+            return oneShot.call();
+        }
+        long startedAt = System.nanoTime();
+        try {
+            T value = worker.extract(options, url, timeout, parser);
+            jobs.incrementAndGet();
+            totalJobNanos.addAndGet(System.nanoTime() - startedAt);
+            return value;
+        } catch (YtDlpWorker.ExtractionError | ProcessTimeoutException | InterruptedException e) {
+            jobs.incrementAndGet();
+            throw e;
+        } catch (YtDlpWorker.WorkerLostException e) {
+            // Процесс упал до ответа, разбор не начинался — повторить отдельным процессом
+            crashed.incrementAndGet();
+            log.warn("⚠️ yt-dlp worker lost, retrying with one-shot process | PID: {} | Error: {}",
+                    worker.pid(), e.getMessage());
+            fallbacks.incrementAndGet();
+            return oneShot.call();
+        } catch (Exception e) {
+            // Ответ оборван или не разобран — процесс уже завершён, повтор оставлен клиенту
+            crashed.incrementAndGet();
+            log.warn("⚠️ yt-dlp worker failed mid-reply | PID: {} | Error: {}", worker.pid(), e.getMessage());
+            throw e;
+        } finally {
+            giveBack(worker);
+        }
+    }
+
+    /**
+     * Взять свободный процесс или запустить новый, если пул не заполнен.
+     * @return null, если вызов нужно выполнить отдельным процессом
+     */
+    private YtDlpWorker borrow() throws InterruptedException {
+        DownloaderProperties.YtDlpWorkers config = props.getYtDlpWorkers();
+        if (!config.isEnabled() || closed || script == null || System.currentTimeMillis() < unavailableUntil) {
+            return null;
+        }
+        long deadline = System.nanoTime() + config.getBorrowTimeout().toNanos();
+        while (true) {
+            YtDlpWorker worker = idle.pollFirst();
+            if (worker == null) {
+                if (workers.incrementAndGet() <= config.getPoolSize()) {
+                    return spawn();
+                }
+                workers.decrementAndGet();
+                worker = idle.pollFirst(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (worker == null) {
+                    return null;
+                }
+            }
+            if (worker.isUsable()) {
+                return worker;
+            }
+            discard(worker);
+        }
+    }
+
+    /**
+     * Вернуть процесс в пул. Испорченный или отработавший max-jobs процесс завершается
+     * и заменяется новым.
+     */
+    private void giveBack(YtDlpWorker worker) {
+        if (closed || !worker.isUsable()) {
+            discard(worker);
+            return;
+        }
+        if (worker.getJobs() >= props.getYtDlpWorkers().getMaxJobs()) {
+            recycled.incrementAndGet();
+            log.debug("♻️ yt-dlp worker recycled | PID: {} | Jobs: {}", worker.pid(), worker.getJobs());
+            discard(worker);
+            return;
+        }
+        idle.offerFirst(worker);
+    }
+
+    private void discard(YtDlpWorker worker) {
+        worker.kill();
+        workers.decrementAndGet();
+        replenish();
+    }
+
+    /**
+     * Запустить процесс в фоне, если в пуле есть место. Вызовы, ждущие свободный процесс,
+     * получат его, как только он загрузит yt-dlp.
+     */
+    private void replenish() {
+        if (closed || System.currentTimeMillis() < unavailableUntil) {
+            return;
+        }
+        if (workers.incrementAndGet() > props.getYtDlpWorkers().getPoolSize()) {
+            workers.decrementAndGet();
+            return;
+        }
+        Thread.ofVirtual().name("ytdlp-pool-spawn").start(() -> {
+            YtDlpWorker worker = spawn();
+            if (worker != null) {
+                giveBack(worker);
+            }
+        });
+    }
+
+    /**
+     * Запустить процесс. Место в пуле (workers) должно быть уже занято.
+     */
+    private YtDlpWorker spawn() {
+        DownloaderProperties.YtDlpWorkers config = props.getYtDlpWorkers();
+        try {
+            YtDlpWorker worker = YtDlpWorker.start(List.of(config.getPython(), script.toString()),
+                    config.getStartTimeout());
+            started.incrementAndGet();
+            log.info("🐍 yt-dlp worker started | PID: {} | yt-dlp: {}", worker.pid(), worker.getVersion());
+            return worker;
+        } catch (Exception e) {
+            workers.decrementAndGet();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            unavailableUntil = System.currentTimeMillis() + RETRY_START_AFTER_MILLIS;
+            log.warn("⚠️ yt-dlp worker failed to start, using one-shot processes for {} min | Error: {}",
+                    TimeUnit.MILLISECONDS.toMinutes(RETRY_START_AFTER_MILLIS), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Проверить простаивающие процессы и завершить не отвечающие.
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void healthCheck() {
+        for (int i = idle.size(); i > 0; i--) {
+            YtDlpWorker worker = idle.pollLast();
+            if (worker == null) {
+                break;
+            }
+            if (worker.ping(PING_TIMEOUT)) {
+                idle.offerLast(worker);
+            } else {
+                crashed.incrementAndGet();
+                log.warn("⚠️ yt-dlp worker failed health check | PID: {}", worker.pid());
+                discard(worker);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "pool";
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        DownloaderProperties.YtDlpWorkers config = props.getYtDlpWorkers();
+        boolean available = config.isEnabled() && script != null && System.currentTimeMillis() >= unavailableUntil;
+        long done = jobs.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", available ? getName() : fallback.getName());
+        stats.put("workers", workers.get());
+        stats.put("idle", idle.size());
+        stats.put("poolSize", config.getPoolSize());
+        stats.put("started", started.get());
+        stats.put("jobs", done);
+        stats.put("avgJobMs", done == 0 ? 0 : totalJobNanos.get() / done / 1_000_000);
+        stats.put("recycled", recycled.get());
+        stats.put("crashed", crashed.get());
+        stats.put("fallbacks", fallbacks.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        YtDlpWorker worker;
+        while ((worker = idle.pollFirst()) != null) {
+            discard(worker);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.iwanow16.backend.model.dto;
+
+/**
+ * Участок видео в запросе на несколько клипов и результат его нарезки.
+ */
+public class ClipDto {
+    // Секунды или [[ЧЧ:]ММ:]СС
+    private String start;
+    private String end;
+
+    // Заполняются после нарезки: имя файла в архиве и размер, либо ошибка
+    private String file;
+    private Long fileSize;
+    private String error;
+
+    public ClipDto() {}
+
+    public ClipDto(String start, String end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Копия участка без результата.
+     */
+    public ClipDto copy() {
+        return new ClipDto(start, end);
+    }
+
+    /**
+     * Полная копия участка вместе с результатом нарезки.
+     */
+    public ClipDto snapshot() {
+        ClipDto c = new ClipDto(start, end);
+        c.file = file;
+        c.fileSize = fileSize;
+        c.error = error;
+        return c;
+    }
+
+    public String getStart() { return start; }
+    public void setStart(String start) { this.start = start; }
+
+    public String getEnd() { return end; }
+    public void setEnd(String end) { this.end = end; }
+
+    public String getFile() { return file; }
+    public void setFile(String file) { this.file = file; }
+
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -1,5 +1,7 @@
 package com.iwanow16.backend.model.dto;
 
+import java.util.List;
+
 public class DownloadRequestDto {
     private String url;
     private String formatId;
@@ -9,10 +11,14 @@ public class DownloadRequestDto {
     private boolean timeRangeEnabled;
     private String startTime;
     private String endTime;
+    // Несколько участков одного видео вместо startTime/endTime
+    private List<ClipDto> clips;
     
     // Frame extraction options
     private boolean frameExtractionEnabled;
     private String frameTime;
+    // Пакет кадров вместо одного frameTime
+    private FrameBatchDto frames;
 
     public DownloadRequestDto() {}
 
@@ -34,9 +40,15 @@ public class DownloadRequestDto {
     public String getEndTime() { return endTime; }
     public void setEndTime(String endTime) { this.endTime = endTime; }
     
+    public List<ClipDto> getClips() { return clips; }
+    public void setClips(List<ClipDto> clips) { this.clips = clips; }
+    
     public boolean isFrameExtractionEnabled() { return frameExtractionEnabled; }
     public void setFrameExtractionEnabled(boolean frameExtractionEnabled) { this.frameExtractionEnabled = frameExtractionEnabled; }
     
     public String getFrameTime() { return frameTime; }
     public void setFrameTime(String frameTime) { this.frameTime = frameTime; }
+    
+    public FrameBatchDto getFrames() { return frames; }
+    public void setFrames(FrameBatchDto frames) { this.frames = frames; }
 }
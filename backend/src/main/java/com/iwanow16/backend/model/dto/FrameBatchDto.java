@@ -0,0 +1,50 @@
+package com.iwanow16.backend.model.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пакетное извлечение кадров: список моментов или интервал ("каждые N секунд").
+ */
+public class FrameBatchDto {
+    // Моменты кадров: секунды или [[ЧЧ:]ММ:]СС
+    private List<String> times;
+    // Интервал между кадрами в секундах, вместо times
+    private String interval;
+    // png, jpg или webp
+    private String format;
+    // Ширина кадра, высота по пропорциям; null — исходный размер
+    private Integer width;
+    // Собрать кадры в один лист (contact sheet) вместо архива
+    private boolean sheet;
+
+    public FrameBatchDto() {}
+
+    /**
+     * Независимая копия запроса, список моментов тоже копируется.
+     */
+    public FrameBatchDto copy() {
+        FrameBatchDto c = new FrameBatchDto();
+        c.times = times == null ? null : new ArrayList<>(times);
+        c.interval = interval;
+        c.format = format;
+        c.width = width;
+        c.sheet = sheet;
+        return c;
+    }
+
+    public List<String> getTimes() { return times; }
+    public void setTimes(List<String> times) { this.times = times; }
+
+    public String getInterval() { return interval; }
+    public void setInterval(String interval) { this.interval = interval; }
+
+    public String getFormat() { return format; }
+    public void setFormat(String format) { this.format = format; }
+
+    public Integer getWidth() { return width; }
+    public void setWidth(Integer width) { this.width = width; }
+
+    public boolean isSheet() { return sheet; }
+    public void setSheet(boolean sheet) { this.sheet = sheet; }
+}
@@ -4,10 +4,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.time.OffsetDateTime;
+import java.util.List;
 
 public class TaskStatusDto {
     @JsonProperty("id")
     private String taskId;
+    // Версия опубликованного снимка, растёт при каждом изменении задачи
+    private long version;
     private String url;
     private String title;
     private String status;
@@ -18,20 +21,85 @@ public class TaskStatusDto {
     private String quality;
     private String downloadSpeed;
     private Integer estimatedTime;
+    // Этап: video, audio, downloading, merging, trimming, extracting
+    private String phase;
+    private Long downloadedBytes;
+    // Сглаженная скорость, байт в секунду
+    private Long speed;
 
     private OffsetDateTime createdAt;
     private OffsetDateTime completedAt;
     private OffsetDateTime failedAt;
     private String error;
+    // Причина неудачи: error, timeout, stalled или busy
+    private String failureReason;
+    // Для busy: через сколько секунд повторить запрос
+    private Long retryAfterSeconds;
     private Long fileSize;
+    // Участки запроса на несколько клипов, после завершения — с результатом по каждому
+    private List<ClipDto> clips;
 
     @JsonIgnore
     private String clientIp;
 
+    // Параметры запроса, нужны для повторного запуска задачи после перезапуска
+    @JsonIgnore
+    private boolean timeRangeEnabled;
+    @JsonIgnore
+    private String startTime;
+    @JsonIgnore
+    private String endTime;
+    @JsonIgnore
+    private boolean frameExtractionEnabled;
+    @JsonIgnore
+    private String frameTime;
+    @JsonIgnore
+    private FrameBatchDto frameBatch;
+
     public TaskStatusDto() {}
 
+    /**
+     * Копия задачи для публикации: её читают HTTP-потоки, пока исходную задачу меняет загрузка.
+     * Участки и пакет кадров копируются тоже, иначе снимок менялся бы вместе с результатами нарезки.
+     */
+    public TaskStatusDto copy() {
+        TaskStatusDto c = new TaskStatusDto();
+        c.taskId = taskId;
+        c.version = version;
+        c.url = url;
+        c.title = title;
+        c.status = status;
+        c.progress = progress;
+        c.filename = filename;
+        c.formatId = formatId;
+        c.quality = quality;
+        c.downloadSpeed = downloadSpeed;
+        c.estimatedTime = estimatedTime;
+        c.phase = phase;
+        c.downloadedBytes = downloadedBytes;
+        c.speed = speed;
+        c.createdAt = createdAt;
+        c.completedAt = completedAt;
+        c.failedAt = failedAt;
+        c.error = error;
+        c.failureReason = failureReason;
+        c.retryAfterSeconds = retryAfterSeconds;
+        c.fileSize = fileSize;
+        c.clips = clips == null ? null : clips.stream().map(ClipDto::snapshot).toList();
+        c.clientIp = clientIp;
+        c.timeRangeEnabled = timeRangeEnabled;
+        c.startTime = startTime;
+        c.endTime = endTime;
+        c.frameExtractionEnabled = frameExtractionEnabled;
+        c.frameTime = frameTime;
+        c.frameBatch = frameBatch == null ? null : frameBatch.copy();
+        return c;
+    }
+
     public String getTaskId() { return taskId; }
     public void setTaskId(String taskId) { this.taskId = taskId; }
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
     public String getUrl() { return url; }
     public void setUrl(String url) { this.url = url; }
     public String getTitle() { return title; }
@@ -50,6 +118,12 @@ public class TaskStatusDto {
     public void setDownloadSpeed(String downloadSpeed) { this.downloadSpeed = downloadSpeed; }
     public Integer getEstimatedTime() { return estimatedTime; }
     public void setEstimatedTime(Integer estimatedTime) { this.estimatedTime = estimatedTime; }
+    public String getPhase() { return phase; }
+    public void setPhase(String phase) { this.phase = phase; }
+    public Long getDownloadedBytes() { return downloadedBytes; }
+    public void setDownloadedBytes(Long downloadedBytes) { this.downloadedBytes = downloadedBytes; }
+    public Long getSpeed() { return speed; }
+    public void setSpeed(Long speed) { this.speed = speed; }
     public OffsetDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(OffsetDateTime createdAt) { this.createdAt = createdAt; }
     public OffsetDateTime getCompletedAt() { return completedAt; }
@@ -58,8 +132,26 @@ public class TaskStatusDto {
     public void setFailedAt(OffsetDateTime failedAt) { this.failedAt = failedAt; }
     public String getError() { return error; }
     public void setError(String error) { this.error = error; }
+    public String getFailureReason() { return failureReason; }
+    public void setFailureReason(String failureReason) { this.failureReason = failureReason; }
+    public Long getRetryAfterSeconds() { return retryAfterSeconds; }
+    public void setRetryAfterSeconds(Long retryAfterSeconds) { this.retryAfterSeconds = retryAfterSeconds; }
     public Long getFileSize() { return fileSize; }
     public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+    public List<ClipDto> getClips() { return clips; }
+    public void setClips(List<ClipDto> clips) { this.clips = clips; }
     public String getClientIp() { return clientIp; }
     public void setClientIp(String clientIp) { this.clientIp = clientIp; }
+    public boolean isTimeRangeEnabled() { return timeRangeEnabled; }
+    public void setTimeRangeEnabled(boolean timeRangeEnabled) { this.timeRangeEnabled = timeRangeEnabled; }
+    public String getStartTime() { return startTime; }
+    public void setStartTime(String startTime) { this.startTime = startTime; }
+    public String getEndTime() { return endTime; }
+    public void setEndTime(String endTime) { this.endTime = endTime; }
+    public boolean isFrameExtractionEnabled() { return frameExtractionEnabled; }
+    public void setFrameExtractionEnabled(boolean frameExtractionEnabled) { this.frameExtractionEnabled = frameExtractionEnabled; }
+    public String getFrameTime() { return frameTime; }
+    public void setFrameTime(String frameTime) { this.frameTime = frameTime; }
+    public FrameBatchDto getFrameBatch() { return frameBatch; }
+    public void setFrameBatch(FrameBatchDto frameBatch) { this.frameBatch = frameBatch; }
 }
@@ -19,6 +19,23 @@ public class VideoInfoDto {
 
     public VideoInfoDto() {}
 
+    /**
+     * Копия с другой ссылкой: одни метаданные отдаются на разные формы ссылки на видео.
+     * Список форматов общий.
+     */
+    public VideoInfoDto withUrl(String url) {
+        VideoInfoDto c = new VideoInfoDto();
+        c.id = id;
+        c.url = url;
+        c.title = title;
+        c.author = author;
+        c.durationSeconds = durationSeconds;
+        c.filesize = filesize;
+        c.thumbnail = thumbnail;
+        c.formats = formats;
+        return c;
+    }
+
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
     public String getUrl() { return url; }
@@ -0,0 +1,363 @@
+package com.iwanow16.backend.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Кэш готовых файлов в директории загрузок по ключу запроса (сервис, ID видео, формат,
+ * диапазон, кадр). Повторный запрос того же содержимого завершается сразу, без обращения
+ * к площадке.
+ *
+ * Записи упорядочены по последнему обращению: при превышении downloader.cache-max-size-mb
+ * удаляются давно не запрошенные файлы. Один файл может стоять за несколькими ключами: он
+ * учитывается в размере один раз и удаляется, когда вытеснены все его ключи. Файлы, которые
+ * ещё отдаются незавершившимся по сроку хранения задачам (TaskStore), не удаляются до их
+ * истечения. Индекс хранится в .cache-index.json рядом с файлами.
+ * Здесь же выполняется периодическая очистка (downloader.cleanup-*).
+ */
+@Component
+public class DownloadCache {
+    private static final Logger log = LoggerFactory.getLogger(DownloadCache.class);
+    private static final String INDEX_FILE = ".cache-index.json";
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private FileStorageService storage;
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Autowired
+    private TaskStore tasks;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    // Порядок доступа: первая запись — давно не запрашиваемая
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Число ключей на файл: размер файла входит в totalBytes один раз
+    private final Map<String, Integer> refs = new HashMap<>();
+    private long totalBytes;
+    // Запись индекса по одной: снимок берётся под этой блокировкой, поэтому позже записывается более новый
+    private final Object indexLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        Path index = storage.getStorageDir().resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return;
+        }
+        try {
+            List<Entry> loaded = mapper.readValue(index.toFile(), new TypeReference<List<Entry>>() {});
+            synchronized (this) {
+                for (Entry entry : loaded) {
+                    if (isIntact(entry) && !entries.containsKey(entry.key)) {
+                        entries.put(entry.key, entry);
+                        retain(entry);
+                    }
+                }
+            }
+            log.info("🗃️ Download cache loaded | Entries: {} | Size: {} MB", entries.size(), totalBytes / (1024 * 1024));
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to load download cache index, starting empty | Error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Найти готовый файл для ключа. Запись, файл которой удалён или перезаписан, отбрасывается.
+     * @return имя файла или null
+     */
+    public String lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && !isIntact(entry)) {
+                entries.remove(key);
+                release(entry);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(entry.size);
+        return entry.filename;
+    }
+
+    /**
+     * Запомнить результат завершённой загрузки и уложиться в дисковый бюджет.
+     * Файл больше всего бюджета не кэшируется: иначе он был бы удалён сразу после загрузки.
+     */
+    public void put(String key, String filename) {
+        Path file = storage.getFilePath(filename);
+        Entry entry = new Entry();
+        entry.key = key;
+        entry.filename = filename;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            entry.size = attrs.size();
+            entry.modified = attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            log.warn("⚠️ Cannot cache missing file | File: {}", filename);
+            return;
+        }
+        if (entry.size > budgetBytes()) {
+            log.debug("🗃️ File exceeds cache budget, not cached | Key: {} | File: {} | Size: {} bytes",
+                    key, filename, entry.size);
+            return;
+        }
+        entry.createdAt = entry.lastAccess = System.currentTimeMillis();
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                release(previous);
+            }
+            retain(entry);
+            enforceBudget();
+        }
+        saveIndex();
+        log.debug("🗃️ Cached download | Key: {} | File: {} | Size: {} bytes", key, filename, entry.size);
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("sizeBytes", totalBytes);
+        }
+        stats.put("budgetBytes", budgetBytes());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", h + m == 0 ? 0.0 : Math.round(h * 10000.0 / (h + m)) / 100.0);
+        stats.put("bytesSaved", bytesSaved.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Периодическая очистка: устаревшие записи кэша и файлы загрузок старше
+     * completed-file-max-age-days, забытые рабочие директории задач старше temp-file-max-age-hours.
+     */
+    @Scheduled(initialDelayString = "PT5M", fixedDelayString = "PT${downloader.cleanup-interval-hours:6}H")
+    public void cleanup() {
+        if (!props.isCleanupEnabled()) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        long fileCutoff = started - TimeUnit.DAYS.toMillis(props.getCompletedFileMaxAgeDays());
+        long tempCutoff = started - TimeUnit.HOURS.toMillis(props.getTempFileMaxAgeHours());
+
+        Set<String> cachedFiles = new HashSet<>();
+        int expired = 0;
+        synchronized (this) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (entry.createdAt < fileCutoff || !isIntact(entry)) {
+                    it.remove();
+                    release(entry);
+                    expired++;
+                } else {
+                    cachedFiles.add(entry.filename);
+                }
+            }
+            // Файлы, отложенные из-за ссылок задач, вытесняются после истечения этих задач
+            enforceBudget();
+        }
+        int deletedFiles = deleteOlderThan(storage.getStorageDir(), fileCutoff, cachedFiles);
+        int deletedTemp = deleteStaleTaskDirs(tempCutoff);
+        saveIndex();
+        log.info("🧹 Cleanup finished | Expired cache entries: {} | Files deleted: {} | Temp dirs deleted: {} | Duration: {}ms",
+                expired, deletedFiles, deletedTemp, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Удалять давно не запрошенные файлы, пока кэш не уложится в бюджет.
+     * Записи файлов, на которые ссылаются задачи в TaskStore, пропускаются.
+     */
+    private void enforceBudget() {
+        long budget = budgetBytes();
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > budget && it.hasNext()) {
+            Entry entry = it.next();
+            if (!tasks.forFilename(entry.filename).isEmpty()) {
+                continue;
+            }
+            it.remove();
+            evictions.incrementAndGet();
+            if (!release(entry)) {
+                // Файл ещё нужен другому ключу
+                continue;
+            }
+            try {
+                Files.deleteIfExists(storage.getFilePath(entry.filename));
+                log.info("🗑️ Cache entry evicted | File: {} | Size: {} bytes", entry.filename, entry.size);
+            } catch (IOException e) {
+                log.warn("⚠️ Failed to delete evicted file | File: {}", entry.filename, e);
+            }
+        }
+    }
+
+    private void retain(Entry entry) {
+        if (refs.merge(entry.filename, 1, Integer::sum) == 1) {
+            totalBytes += entry.size;
+        }
+    }
+
+    /**
+     * @return true, если на файл больше не ссылается ни один ключ
+     */
+    private boolean release(Entry entry) {
+        Integer left = refs.computeIfPresent(entry.filename, (f, n) -> n > 1 ? n - 1 : null);
+        if (left == null) {
+            totalBytes -= entry.size;
+            return true;
+        }
+        return false;
+    }
+
+    private int deleteOlderThan(Path dir, long cutoff, Set<String> keep) {
+        int deleted = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                // Служебные файлы (журнал, индекс кэша) начинаются с точки
+                if (name.startsWith(".") || keep.contains(name) || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                if (Files.getLastModifiedTime(file).toMillis() < cutoff && Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to scan directory for cleanup | Path: {}", dir, e);
+        }
+        return deleted;
+    }
+
+    private int deleteStaleTaskDirs(long cutoff) {
+        Path root = storage.getTempRoot();
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (Stream<Path> dirs = Files.list(root)) {
+            for (Path dir : (Iterable<Path>) dirs::iterator) {
+                String taskId = dir.getFileName().toString();
+                // Служебные директории (кэш yt-dlp, JSON метаданных) начинаются с точки
+                if (taskId.startsWith(".")) {
+                    continue;
+                }
+                if (Files.isDirectory(dir) && !processSupervisor.isActive(taskId) && newestModification(dir) < cutoff) {
+                    storage.deleteTaskTempDir(taskId);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to scan temp directory for cleanup | Path: {}", root, e);
+        }
+        return deleted;
+    }
+
+    private static long newestModification(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            long newest = 0;
+            for (Path file : (Iterable<Path>) files::iterator) {
+                newest = Math.max(newest, Files.getLastModifiedTime(file).toMillis());
+            }
+            return newest;
+        }
+    }
+
+    private void saveIndex() {
+        Path index = storage.getStorageDir().resolve(INDEX_FILE);
+        synchronized (indexLock) {
+            List<Entry> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(entries.values());
+            }
+            Path tmp = null;
+            try {
+                // Свой временный файл на каждую запись: прерванная запись не испортит следующую
+                tmp = Files.createTempFile(index.getParent(), INDEX_FILE, ".tmp");
+                mapper.writeValue(tmp.toFile(), snapshot);
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("⚠️ Failed to save download cache index | Error: {}", e.getMessage());
+                deleteQuietly(tmp);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Failed to delete temp index file | File: {}", file);
+        }
+    }
+
+    /**
+     * Файл на месте и не перезаписан другой загрузкой с тем же именем.
+     */
+    private boolean isIntact(Entry entry) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(storage.getFilePath(entry.filename), BasicFileAttributes.class);
+            return attrs.size() == entry.size && attrs.lastModifiedTime().toMillis() == entry.modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long budgetBytes() {
+        return props.getCacheMaxSizeMb() * 1024 * 1024;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+        public String key;
+        public String filename;
+        public long size;
+        public long modified;
+        public long createdAt;
+        public volatile long lastAccess;
+    }
+}
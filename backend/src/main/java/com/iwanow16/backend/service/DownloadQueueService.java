@@ -1,24 +1,40 @@
 package com.iwanow16.backend.service;
 
 import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.extractor.MetadataBusyException;
+import com.iwanow16.backend.model.dto.ClipDto;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
 import com.iwanow16.backend.model.dto.TaskStatusDto;
 import com.iwanow16.backend.service.strategy.DownloadStrategyFactory;
 import com.iwanow16.backend.service.strategy.DownloadStrategy;
+import com.iwanow16.backend.util.ClipRanges;
+import com.iwanow16.backend.util.DownloadProgress;
+import com.iwanow16.backend.util.FrameBatches;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import com.iwanow16.backend.util.ProgressTracker;
+import com.iwanow16.backend.util.ProcessTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class DownloadQueueService {
     private static final Logger log = LoggerFactory.getLogger(DownloadQueueService.class);
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 30;
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
 
     @Autowired
     private DownloaderProperties props;
@@ -29,25 +45,118 @@ public class DownloadQueueService {
     @Autowired
     private DownloadStrategyFactory strategyFactory;
 
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Autowired
+    private TaskStore tasks;
+
+    @Autowired
+    private TaskJournal journal;
+
+    @Autowired
+    private DownloadCache downloadCache;
+
+    @Autowired
+    private ProgressTracker progressTracker;
+
+    @Autowired
+    private TaskEventBus events;
+
     private ExecutorService executor;
-    private Semaphore globalSemaphore;
-    private final ConcurrentMap<String, Semaphore> ipSemaphores = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, TaskStatusDto> tasks = new ConcurrentHashMap<>();
+    private FairTaskScheduler scheduler;
+
+    // Метрики очереди для балансировщика
+    private final DrainRateMeter drainRate = new DrainRateMeter(32);
+    private final AtomicLong submittedTotal = new AtomicLong();
+    private final AtomicLong rejectedTotal = new AtomicLong();
+    private final AtomicLong coalescedTotal = new AtomicLong();
+
+    // Ожидающие и выполняющиеся загрузки по ключу объединения и по ID подписанной задачи
+    private final Map<String, InFlightDownload> inFlight = new HashMap<>();
+    private final Map<String, InFlightDownload> flightByTask = new HashMap<>();
 
     @PostConstruct
     public void init() throws Exception {
-        executor = Executors.newFixedThreadPool(Math.max(2, props.getMaxConcurrentDownloads()));
-        globalSemaphore = new Semaphore(props.getMaxConcurrentDownloads());
+        int workers = Math.max(1, props.getMaxConcurrentDownloads());
+        // Задачи почти всё время ждут внешний процесс, поэтому выполняются на виртуальных потоках;
+        // параллелизм ограничивает только планировщик
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("download-", 0).factory());
+        scheduler = new FairTaskScheduler(executor, workers, props.getMaxConcurrentPerIp(),
+                props.getMaxQueueSize(), drainRate::record);
         storage.ensureDirectories();
+        log.info("🚦 Download queue initialized | Workers: {} | Per client: {} | Queue capacity: {}",
+                workers, props.getMaxConcurrentPerIp(), props.getMaxQueueSize());
+        recoverTasks();
+    }
+
+    /**
+     * Восстановить задачи из журнала: незавершённые ставятся в очередь заново
+     * (yt-dlp продолжит докачку из рабочей директории задачи, если она сохранилась),
+     * завершённые снова связываются со своими файлами.
+     */
+    private void recoverTasks() {
+        List<TaskJournal.Entry> entries;
+        try {
+            entries = journal.recover();
+        } catch (Exception e) {
+            log.error("❌ Task journal recovery failed, starting with empty queue | Error: {}", e.getMessage(), e);
+            return;
+        }
+        int requeued = 0, restored = 0, dropped = 0;
+        for (TaskJournal.Entry entry : entries) {
+            TaskStatusDto t = entry.toTask();
+            if ("pending".equals(t.getStatus()) || "downloading".equals(t.getStatus())) {
+                t.setStatus("pending");
+                try {
+                    enqueue(t, false);
+                    requeued++;
+                } catch (QueueFullException e) {
+                    tasks.put(t);
+                    t.setStatus("failed");
+                    t.setFailedAt(OffsetDateTime.now());
+                    t.setError("Download queue is full after restart");
+                    t.setFailureReason("error");
+                    tasks.markFinished(t.getTaskId());
+                    recordTransition(t);
+                    dropped++;
+                }
+            } else if ("completed".equals(t.getStatus())
+                    && (t.getFilename() == null || !storage.fileExists(t.getFilename()))) {
+                // Файл удалён, пока сервис не работал — восстанавливать нечего
+                journal.remove(t.getTaskId());
+                dropped++;
+            } else {
+                tasks.put(t);
+                if (t.getFilename() != null) {
+                    tasks.setFilename(t, t.getFilename());
+                }
+                tasks.markFinished(t.getTaskId(), entry.finishedAt != null ? entry.finishedAt : System.currentTimeMillis());
+                tasks.publish(t);
+                restored++;
+            }
+        }
+        if (!entries.isEmpty()) {
+            log.info("♻️ Tasks recovered from journal | Requeued: {} | Restored: {} | Dropped: {}",
+                    requeued, restored, dropped);
+        }
     }
 
     public TaskStatusDto submitDownload(String url, String clientIp, String formatId, String quality) {
-        return submitDownloadWithOptions(url, clientIp, formatId, quality, false, null, null, false, null);
+        return submitDownloadWithOptions(url, clientIp, formatId, quality, false, null, null, null, false, null, null);
     }
 
     public TaskStatusDto submitDownloadWithOptions(String url, String clientIp, String formatId, String quality,
                                                    boolean timeRangeEnabled, String startTime, String endTime,
-                                                   boolean frameExtractionEnabled, String frameTime) {
+                                                   List<ClipDto> clips,
+                                                   boolean frameExtractionEnabled, String frameTime,
+                                                   FrameBatchDto frameBatch) {
+        if (timeRangeEnabled && clips != null) {
+            ClipRanges.validate(clips, props.getClips().getMaxClips());
+        }
+        if (frameExtractionEnabled && frameBatch != null) {
+            FrameBatches.validate(frameBatch, props.getFrames().getMaxFrames());
+        }
         String id = UUID.randomUUID().toString();
         log.info("📥 New download submitted | TaskID: {} | Format: {} | Quality: {} | IP: {} | TimeRange: {} | Frame: {}", 
                 id, formatId, quality, clientIp, timeRangeEnabled, frameExtractionEnabled);
@@ -60,84 +169,353 @@ public class DownloadQueueService {
         t.setFormatId(formatId);
         t.setQuality(quality);
         t.setClientIp(clientIp);
+        t.setTimeRangeEnabled(timeRangeEnabled);
+        t.setStartTime(startTime);
+        t.setEndTime(endTime);
+        t.setClips(timeRangeEnabled && clips != null ? clips.stream().map(ClipDto::copy).toList() : null);
+        t.setFrameExtractionEnabled(frameExtractionEnabled);
+        t.setFrameTime(frameTime);
+        t.setFrameBatch(frameBatch);
         t.setCreatedAt(OffsetDateTime.now());
-        tasks.put(id, t);
+        TaskStatusDto submitted = enqueue(t, true);
+        TaskStatusDto snapshot = tasks.snapshot(submitted.getTaskId());
+        return snapshot != null ? snapshot : submitted;
+    }
 
-        executor.submit(() -> runDownloadTask(id, url, clientIp, formatId, quality, 
-                timeRangeEnabled, startTime, endTime, frameExtractionEnabled, frameTime));
+    /**
+     * Поставить задачу в очередь. Если такая же загрузка уже ждёт или выполняется,
+     * задача подписывается на неё вместо запуска ещё одного yt-dlp.
+     * @param idempotent повторный запрос того же клиента возвращает его существующую задачу
+     * @throws QueueFullException если нужна новая загрузка, а очередь заполнена
+     */
+    private TaskStatusDto enqueue(TaskStatusDto t, boolean idempotent) {
+        String id = t.getTaskId();
+        String clientIp = t.getClientIp();
+        String key = coalescingKey(t);
+        String cached = key != null ? downloadCache.lookup(key) : null;
+        if (cached != null) {
+            // Такой файл уже скачан: задача завершается сразу, без обращения к площадке
+            tasks.put(t);
+            tasks.setFilename(t, cached);
+            t.setStatus("completed");
+            t.setProgress(100);
+            t.setCompletedAt(OffsetDateTime.now());
+            tasks.markFinished(id);
+            recordTransition(t);
+            submittedTotal.incrementAndGet();
+            log.info("🗃️ Served from download cache | TaskID: {} | Filename: {} | IP: {}", id, cached, clientIp);
+            return t;
+        }
+        synchronized (inFlight) {
+            InFlightDownload flight = key != null ? inFlight.get(key) : null;
+            if (flight != null) {
+                TaskStatusDto existing = idempotent ? flight.findByClient(clientIp) : null;
+                if (existing != null) {
+                    log.info("🔁 Duplicate submission, returning existing task | TaskID: {} | IP: {}",
+                            existing.getTaskId(), clientIp);
+                    return existing;
+                }
+                t.setStatus(flight.isStarted() ? "downloading" : "pending");
+                t.setProgress(flight.getRequest().getProgress());
+                flight.subscribe(t);
+                flightByTask.put(id, flight);
+                tasks.put(t);
+                recordTransition(t);
+                submittedTotal.incrementAndGet();
+                coalescedTotal.incrementAndGet();
+                log.info("🔗 Task joined in-flight download | TaskID: {} | DownloadID: {} | Subscribers: {}",
+                        id, flight.getId(), flight.subscriberCount());
+                return t;
+            }
+
+            flight = new InFlightDownload(key, t);
+            tasks.put(t);
+            InFlightDownload started = flight;
+            if (!scheduler.submit(id, clientIp, () -> runDownload(started))) {
+                tasks.remove(id);
+                rejectedTotal.incrementAndGet();
+                int depth = scheduler.queuedCount();
+                long retryAfter = drainRate.estimateWaitSeconds(depth, DEFAULT_RETRY_AFTER_SECONDS, MAX_RETRY_AFTER_SECONDS);
+                log.warn("🚫 Download rejected, queue is full | TaskID: {} | IP: {} | Depth: {} | RetryAfter: {}s",
+                        id, clientIp, depth, retryAfter);
+                throw new QueueFullException(retryAfter, depth, props.getMaxQueueSize());
+            }
+            if (key != null) {
+                inFlight.put(key, flight);
+            }
+            flightByTask.put(id, flight);
+            // Под блокировкой: запущенная загрузка не сможет записать downloading раньше pending
+            recordTransition(t);
+        }
+        submittedTotal.incrementAndGet();
         log.debug("⏳ Task queued for processing | TaskID: {}", id);
         return t;
     }
 
-    private void runDownloadTask(String taskId, String url, String clientIp, String formatId, String quality) {
-        runDownloadTask(taskId, url, clientIp, formatId, quality, false, null, null, false, null);
+    /**
+     * Ключ объединения одинаковых загрузок: сервис, канонический ID видео, формат,
+     * диапазон, время кадра или пакет кадров. null, если ID видео из URL не извлекается.
+     */
+    private String coalescingKey(TaskStatusDto t) {
+        String videoId;
+        String service;
+        try {
+            DownloadStrategy strategy = strategyFactory.getStrategy(t.getUrl());
+            service = strategy.getServiceName();
+            videoId = strategy.extractVideoId(t.getUrl());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (videoId == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(service).append(':').append(videoId)
+                .append('|').append(t.getFormatId() == null ? "" : t.getFormatId());
+        if (t.isFrameExtractionEnabled() && t.getFrameBatch() != null) {
+            key.append("|frames=").append(FrameBatches.key(t.getFrameBatch()));
+        } else if (t.isFrameExtractionEnabled() && t.getFrameTime() != null) {
+            key.append("|frame=").append(t.getFrameTime());
+        } else if (t.isTimeRangeEnabled() && t.getClips() != null) {
+            key.append("|clips=").append(ClipRanges.key(t.getClips()));
+        } else if (t.isTimeRangeEnabled() && t.getStartTime() != null && t.getEndTime() != null) {
+            key.append("|range=").append(t.getStartTime()).append('-').append(t.getEndTime());
+        }
+        return key.toString();
     }
 
-    private void runDownloadTask(String taskId, String url, String clientIp, String formatId, String quality,
-                                boolean timeRangeEnabled, String startTime, String endTime,
-                                boolean frameExtractionEnabled, String frameTime) {
-        Semaphore ipSem = ipSemaphores.computeIfAbsent(clientIp, k -> new Semaphore(props.getMaxConcurrentPerIp()));
-        TaskStatusDto t = tasks.get(taskId);
+    private void runDownload(InFlightDownload flight) {
+        String downloadId = flight.getId();
+        TaskStatusDto request = flight.getRequest();
+        String url = request.getUrl();
+        String formatId = request.getFormatId();
         long taskStartTime = System.currentTimeMillis();
+        // Регистрация до проверки подписчиков: отмена после этой точки найдёт загрузку в супервизоре
+        processSupervisor.register(downloadId);
+        int[] loggedDecile = {-1};
+        progressTracker.listen(downloadId, p -> {
+            applyProgress(flight, p);
+            if (log.isDebugEnabled() && p.getPercent() / 10 > loggedDecile[0]) {
+                loggedDecile[0] = p.getPercent() / 10;
+                log.debug("📶 Download progress | TaskID: {} | Phase: {} | {}% | {} / {} bytes | Speed: {} | ETA: {}s",
+                        downloadId, p.getPhase(), p.getPercent(), p.getDownloadedBytes(), p.getTotalBytes(),
+                        formatSpeed(p.getSpeed()), p.getEtaSeconds());
+            }
+        });
+        List<TaskStatusDto> subscribers;
+        synchronized (inFlight) {
+            // Под той же блокировкой, что и отмена: отменённая задача уже отписана и не станет downloading
+            flight.markStarted();
+            subscribers = activeSubscribers(flight);
+            for (TaskStatusDto t : subscribers) {
+                t.setStatus("downloading");
+                recordTransition(t);
+            }
+        }
+        if (subscribers.isEmpty()) {
+            processSupervisor.release(downloadId);
+            progressTracker.remove(downloadId);
+            log.debug("⛔ Skipping cancelled task | TaskID: {}", downloadId);
+            return;
+        }
         
         try {
-            log.debug("⏳ Acquiring semaphores for TaskID: {} | IP: {}", taskId, clientIp);
-            globalSemaphore.acquire();
-            ipSem.acquire();
-            t.setStatus("downloading");
-            log.info("⬇️ Starting download | TaskID: {} | URL: {} | Format: {}", taskId, url, formatId);
+            // Слоты уже выделены планировщиком
+            log.info("⬇️ Starting download | TaskID: {} | URL: {} | Format: {} | Subscribers: {}",
+                    downloadId, url, formatId, subscribers.size());
 
             // Получить подходящую стратегию для URL
             DownloadStrategy strategy = strategyFactory.getStrategy(url);
-            log.debug("🎬 Using strategy: {} | TaskID: {}", strategy.getServiceName(), taskId);
+            log.debug("🎬 Using strategy: {} | TaskID: {}", strategy.getServiceName(), downloadId);
 
             // Скачать файл в зависимости от опций
             Path downloadDir = storage.getStorageDir();
             long downloadStartTime = System.currentTimeMillis();
             Path downloadedFile;
 
-            if (frameExtractionEnabled && frameTime != null) {
+            String startTime = request.getStartTime();
+            String endTime = request.getEndTime();
+            String frameTime = request.getFrameTime();
+            List<ClipDto> clips = null;
+            if (request.isFrameExtractionEnabled() && request.getFrameBatch() != null) {
+                // Пакет кадров: архив или лист кадров
+                log.info("🎞️ Extracting frame batch | TaskID: {} | Sheet: {}",
+                        downloadId, request.getFrameBatch().isSheet());
+                downloadedFile = strategy.extractFrames(url, downloadDir, downloadId, request.getFrameBatch());
+            } else if (request.isFrameExtractionEnabled() && frameTime != null) {
                 // Извлечение кадра
-                log.info("📷 Extracting frame | TaskID: {} | Time: {}s", taskId, frameTime);
-                downloadedFile = strategy.extractFrame(url, downloadDir, taskId, frameTime);
-            } else if (timeRangeEnabled && startTime != null && endTime != null) {
+                log.info("📷 Extracting frame | TaskID: {} | Time: {}s", downloadId, frameTime);
+                downloadedFile = strategy.extractFrame(url, downloadDir, downloadId, frameTime);
+            } else if (request.isTimeRangeEnabled() && request.getClips() != null) {
+                // Несколько клипов: результат по каждому записывается в свою копию участков
+                clips = request.getClips().stream().map(ClipDto::copy).toList();
+                log.info("✂️ Downloading clips | TaskID: {} | Clips: {}", downloadId, clips.size());
+                downloadedFile = strategy.downloadClips(url, downloadDir, formatId, downloadId, clips);
+            } else if (request.isTimeRangeEnabled() && startTime != null && endTime != null) {
                 // Загрузка временного диапазона
                 log.info("⏱️  Downloading time range | TaskID: {} | From: {}s | To: {}s", 
-                        taskId, startTime, endTime);
-                downloadedFile = strategy.downloadTimeRange(url, downloadDir, formatId, taskId, startTime, endTime);
+                        downloadId, startTime, endTime);
+                downloadedFile = strategy.downloadTimeRange(url, downloadDir, formatId, downloadId, startTime, endTime);
             } else {
                 // Обычная загрузка полного видео
-                downloadedFile = strategy.download(url, downloadDir, formatId, taskId);
+                downloadedFile = strategy.download(url, downloadDir, formatId, downloadId);
             }
 
             long downloadDuration = System.currentTimeMillis() - downloadStartTime;
+            if (processSupervisor.isCancelled(downloadId)) {
+                throw new CancellationException("Task cancelled");
+            }
 
-            // Сохранить информацию о файле
+            // Сохранить информацию о файле у всех подписчиков
             String filename = downloadedFile.getFileName().toString();
-            t.setFilename(filename);
-            t.setStatus("completed");
-            t.setProgress(100);
-            t.setCompletedAt(OffsetDateTime.now());
+            long fileSize = Files.size(downloadedFile);
+            if (flight.getKey() != null) {
+                downloadCache.put(flight.getKey(), filename);
+            }
+            synchronized (inFlight) {
+                // Завершение под блокировкой: отмена либо уже отписала задачу, либо увидит completed
+                subscribers = closeFlight(flight);
+                for (TaskStatusDto t : subscribers) {
+                    tasks.setFilename(t, filename);
+                    t.setStatus("completed");
+                    t.setProgress(100);
+                    t.setPhase(null);
+                    t.setFileSize(fileSize);
+                    if (clips != null) {
+                        t.setClips(clips);
+                    }
+                    t.setDownloadSpeed(null);
+                    t.setSpeed(null);
+                    t.setEstimatedTime(null);
+                    t.setCompletedAt(OffsetDateTime.now());
+                    tasks.markFinished(t.getTaskId());
+                    recordTransition(t);
+                }
+            }
             long totalDuration = System.currentTimeMillis() - taskStartTime;
-            log.info("✅ Download completed | TaskID: {} | Filename: {} | Download: {}ms | Total: {}ms", 
-                    taskId, filename, downloadDuration, totalDuration);
+            DownloadProgress progress = progressTracker.get(downloadId);
+            long fetched = progress != null ? progress.getDownloadedBytes() : 0;
+            log.info("✅ Download completed | TaskID: {} | Filename: {} | Size: {} bytes | Fetched: {} bytes | Throughput: {} | Subscribers: {} | Download: {}ms | Total: {}ms", 
+                    downloadId, filename, fileSize, fetched,
+                    formatSpeed(downloadDuration > 0 ? fetched * 1000 / downloadDuration : 0),
+                    subscribers.size(), downloadDuration, totalDuration);
 
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - taskStartTime;
-            log.error("❌ Download failed | TaskID: {} | Duration: {}ms | Error: {}", taskId, duration, e.getMessage(), e);
-            t.setStatus("failed");
-            t.setProgress(0);
-            t.setFailedAt(OffsetDateTime.now());
-            t.setError(e.getMessage());
+            boolean aborted;
+            synchronized (inFlight) {
+                subscribers = closeFlight(flight);
+                aborted = processSupervisor.isCancelled(downloadId) || subscribers.isEmpty();
+                if (!aborted) {
+                    String reason = e instanceof ProcessTimeoutException timeout
+                            ? timeout.getReason().name().toLowerCase()
+                            : e instanceof MetadataBusyException ? "busy" : "error";
+                    Long retryAfter = e instanceof MetadataBusyException busy ? busy.getRetryAfterSeconds() : null;
+                    for (TaskStatusDto t : subscribers) {
+                        t.setStatus("failed");
+                        t.setProgress(0);
+                        t.setFailedAt(OffsetDateTime.now());
+                        t.setError(e.getMessage());
+                        t.setFailureReason(reason);
+                        t.setRetryAfterSeconds(retryAfter);
+                        tasks.markFinished(t.getTaskId());
+                        recordTransition(t);
+                    }
+                }
+            }
+            if (aborted) {
+                // Процессы убиты при отмене — это не ошибка
+                log.info("⛔ Download aborted by cancellation | TaskID: {} | Duration: {}ms", downloadId, duration);
+            } else {
+                log.error("❌ Download failed | TaskID: {} | Duration: {}ms | Error: {}", downloadId, duration, e.getMessage(), e);
+            }
         } finally {
-            log.debug("🔓 Releasing semaphores for TaskID: {} | IP: {}", taskId, clientIp);
-            ipSemaphores.computeIfPresent(clientIp, (k, sem) -> { sem.release(); return sem; });
-            globalSemaphore.release();
+            closeFlight(flight);
+            progressTracker.remove(downloadId);
+            if (processSupervisor.release(downloadId)) {
+                log.debug("🗑️ Partial files of cancelled task removed | TaskID: {}", downloadId);
+            }
+            storage.deleteTaskTempDir(downloadId);
+        }
+    }
+
+    /**
+     * Перенести прогресс загрузки во все подписанные задачи. Задачи меняются и публикуются
+     * под тем же замком, что и смены статуса, иначе снимок мог бы смешать поля двух обновлений.
+     */
+    private void applyProgress(InFlightDownload flight, DownloadProgress p) {
+        int percent = p.getPercent();
+        long downloaded = p.getDownloadedBytes();
+        long total = p.getTotalBytes();
+        long speed = p.getSpeed();
+        long eta = p.getEtaSeconds();
+        String phase = p.getPhase();
+        String speedText = formatSpeed(speed);
+        synchronized (inFlight) {
+            for (TaskStatusDto t : flight.subscribers()) {
+                t.setProgress(percent);
+                t.setPhase(phase);
+                t.setDownloadedBytes(downloaded);
+                t.setFileSize(total > 0 ? total : null);
+                t.setSpeed(speed);
+                t.setDownloadSpeed(speedText);
+                t.setEstimatedTime(eta >= 0 ? (int) eta : null);
+                events.publishProgress(tasks.publish(t));
+            }
+        }
+    }
+
+    /**
+     * Сохранить смену статуса задачи в журнал, опубликовать новую версию и разослать её подписанным клиентам.
+     */
+    private void recordTransition(TaskStatusDto t) {
+        journal.record(t);
+        events.publish(tasks.publish(t));
+    }
+
+    private static String formatSpeed(long bytesPerSecond) {
+        if (bytesPerSecond >= 1024 * 1024) {
+            return String.format("%.1f MiB/s", bytesPerSecond / (1024.0 * 1024));
+        }
+        return String.format("%.0f KiB/s", bytesPerSecond / 1024.0);
+    }
+
+    /**
+     * Закрыть загрузку для новых подписчиков и вернуть текущих незавершённых.
+     * Повторный вызов возвращает пустой список.
+     */
+    private List<TaskStatusDto> closeFlight(InFlightDownload flight) {
+        synchronized (inFlight) {
+            if (flight.getKey() != null) {
+                inFlight.remove(flight.getKey(), flight);
+            }
+            List<TaskStatusDto> subscribers = activeSubscribers(flight);
+            for (TaskStatusDto t : flight.subscribers()) {
+                flightByTask.remove(t.getTaskId(), flight);
+                flight.unsubscribe(t.getTaskId());
+            }
+            return subscribers;
         }
     }
 
+    /**
+     * Подписчики, ещё ожидающие результата: завершённые задачи не меняют статус повторно.
+     * Вызывается под блокировкой inFlight.
+     */
+    private static List<TaskStatusDto> activeSubscribers(InFlightDownload flight) {
+        List<TaskStatusDto> active = flight.subscribers();
+        active.removeIf(t -> !isActive(t));
+        return active;
+    }
+
+    private static boolean isActive(TaskStatusDto t) {
+        return "pending".equals(t.getStatus()) || "downloading".equals(t.getStatus());
+    }
+
+    /**
+     * Опубликованный снимок задачи клиента или null, если задачи нет или она чужая.
+     */
     public TaskStatusDto getTask(String id, String clientIp) {
-        TaskStatusDto t = tasks.get(id);
+        TaskStatusDto t = tasks.snapshot(id);
         if (t != null && !t.getClientIp().equals(clientIp)) {
             log.warn("🚫 Access denied | TaskID: {} | RequestIP: {} | TaskIP: {}", id, clientIp, t.getClientIp());
             return null; // Access denied: task belongs to different client
@@ -150,23 +528,72 @@ public class DownloadQueueService {
         return t;
     }
 
+    /**
+     * Опубликованные снимки задач клиента.
+     */
     public List<TaskStatusDto> getQueueStatus(String clientIp) {
-        List<TaskStatusDto> clientTasks = tasks.values().stream()
-                .filter(task -> task.getClientIp().equals(clientIp))
-                .toList();
-        int pending = (int) clientTasks.stream().filter(t -> "pending".equals(t.getStatus())).count();
-        int downloading = (int) clientTasks.stream().filter(t -> "downloading".equals(t.getStatus())).count();
-        int completed = (int) clientTasks.stream().filter(t -> "completed".equals(t.getStatus())).count();
-        log.debug("📋 Queue status retrieved | IP: {} | Total: {} | Pending: {} | Downloading: {} | Completed: {}", 
-                clientIp, clientTasks.size(), pending, downloading, completed);
+        List<TaskStatusDto> clientTasks = tasks.snapshotsForClient(clientIp);
+        if (log.isDebugEnabled()) {
+            int pending = 0, downloading = 0, completed = 0;
+            for (TaskStatusDto t : clientTasks) {
+                switch (String.valueOf(t.getStatus())) {
+                    case "pending" -> pending++;
+                    case "downloading" -> downloading++;
+                    case "completed" -> completed++;
+                    default -> { }
+                }
+            }
+            log.debug("📋 Queue status retrieved | IP: {} | Total: {} | Pending: {} | Downloading: {} | Completed: {}",
+                    clientIp, clientTasks.size(), pending, downloading, completed);
+        }
         return clientTasks;
     }
 
+    /**
+     * Есть ли у клиента завершённая задача с файлом filename.
+     */
+    public boolean hasCompletedFile(String clientIp, String filename) {
+        for (TaskStatusDto t : tasks.forFilename(filename)) {
+            if (t.getClientIp().equals(clientIp) && "completed".equals(t.getStatus())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void cancelTask(String taskId, String clientIp) {
         TaskStatusDto t = tasks.get(taskId);
         if (t != null && t.getClientIp().equals(clientIp)) {
-            String previousStatus = t.getStatus();
-            t.setStatus("cancelled");
+            String previousStatus;
+            InFlightDownload flight;
+            boolean abandoned;
+            // Проверка статуса, отмена и отписка — одно действие относительно запуска и завершения загрузки
+            synchronized (inFlight) {
+                previousStatus = t.getStatus();
+                if (!isActive(t)) {
+                    log.debug("⛔ Task already finished, nothing to cancel | TaskID: {} | Status: {}", taskId, previousStatus);
+                    return;
+                }
+                flight = flightByTask.remove(taskId);
+                abandoned = flight != null && flight.unsubscribe(taskId);
+                if (abandoned && flight.getKey() != null) {
+                    inFlight.remove(flight.getKey(), flight);
+                }
+                t.setStatus("cancelled");
+                tasks.markFinished(taskId);
+                recordTransition(t);
+            }
+            if (flight != null && !abandoned) {
+                // Загрузка нужна другим подписчикам и продолжается
+                log.info("⛔ Task detached from shared download | TaskID: {} | DownloadID: {} | Remaining: {}",
+                        taskId, flight.getId(), flight.subscriberCount());
+                return;
+            }
+            if (flight != null) {
+                // Убрать из очереди или сразу освободить слоты выполняющейся загрузки
+                scheduler.cancel(flight.getId());
+                processSupervisor.cancel(flight.getId());
+            }
             log.info("⛔ Task cancelled | TaskID: {} | PreviousStatus: {} | IP: {}", taskId, previousStatus, clientIp);
         } else if (t == null) {
             log.warn("⛔ Cancel failed - task not found | TaskID: {} | IP: {}", taskId, clientIp);
@@ -174,4 +601,31 @@ public class DownloadQueueService {
             log.warn("🚫 Cancel denied - access denied | TaskID: {} | RequestIP: {} | TaskIP: {}", taskId, clientIp, t.getClientIp());
         }
     }
+
+    /**
+     * Статистика очереди: глубина, ёмкость, отказы и скорость разбора.
+     */
+    public Map<String, Object> getQueueStats() {
+        int depth = scheduler.queuedCount();
+        int capacity = props.getMaxQueueSize();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("depth", depth);
+        stats.put("capacity", capacity);
+        stats.put("active", scheduler.runningCount());
+        stats.put("waitingClients", scheduler.waitingClients());
+        stats.put("submittedTotal", submittedTotal.get());
+        stats.put("rejectedTotal", rejectedTotal.get());
+        stats.put("coalescedTotal", coalescedTotal.get());
+        stats.put("streamSubscribers", events.subscriberCount());
+        stats.put("drainRatePerMinute", Math.round(drainRate.ratePerSecond() * 60 * 100) / 100.0);
+        stats.put("saturated", isSaturated());
+        return stats;
+    }
+
+    /**
+     * Очередь почти заполнена (90% ёмкости): балансировщику стоит направлять запросы на другие узлы.
+     */
+    public boolean isSaturated() {
+        return scheduler.queuedCount() >= Math.max(1, props.getMaxQueueSize() * 9 / 10);
+    }
 }
@@ -0,0 +1,53 @@
+package com.iwanow16.backend.service;
+
+/**
+ * Измеритель скорости разбора очереди: хранит время последних завершений задач
+ * в кольцевом буфере и оценивает, сколько задач в секунду покидает очередь.
+ */
+public class DrainRateMeter {
+    private final long[] completions;
+    private int next;
+    private int count;
+
+    public DrainRateMeter(int window) {
+        this.completions = new long[window];
+    }
+
+    /**
+     * Отметить завершение задачи (успешное или нет — слот освободился в любом случае).
+     */
+    public synchronized void record() {
+        completions[next] = System.currentTimeMillis();
+        next = (next + 1) % completions.length;
+        if (count < completions.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Текущая скорость разбора очереди в задачах в секунду, 0 если данных ещё нет.
+     */
+    public synchronized double ratePerSecond() {
+        if (count < 2) {
+            return 0;
+        }
+        int oldest = (next - count + completions.length) % completions.length;
+        long span = System.currentTimeMillis() - completions[oldest];
+        return span <= 0 ? 0 : count * 1000.0 / span;
+    }
+
+    /**
+     * Оценить, через сколько секунд очередь глубиной depth освободит место.
+     * @param depth текущая глубина очереди
+     * @param fallbackSeconds значение, если скорость ещё не измерена
+     * @param maxSeconds верхняя граница рекомендации
+     */
+    public long estimateWaitSeconds(int depth, long fallbackSeconds, long maxSeconds) {
+        double rate = ratePerSecond();
+        if (rate <= 0) {
+            return fallbackSeconds;
+        }
+        long seconds = (long) Math.ceil(Math.max(1, depth) / rate);
+        return Math.max(1, Math.min(maxSeconds, seconds));
+    }
+}
@@ -0,0 +1,185 @@
+package com.iwanow16.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Планировщик задач с честным распределением между клиентами.
+ *
+ * Задачи хранятся в отдельной FIFO-очереди для каждого клиента, клиенты обходятся по кругу.
+ * Задача передаётся исполнителю только когда свободны и глобальный слот, и слот клиента,
+ * поэтому рабочие потоки никогда не блокируются в ожидании разрешения.
+ */
+public class FairTaskScheduler {
+    private static final Logger log = LoggerFactory.getLogger(FairTaskScheduler.class);
+
+    private final ExecutorService executor;
+    private final int maxGlobal;
+    private final int maxPerClient;
+    private final int maxQueued;
+    private final Runnable onSlotReleased;
+
+    private final Map<String, ArrayDeque<Job>> queues = new HashMap<>();
+    private final ArrayDeque<String> ring = new ArrayDeque<>();
+    private final Map<String, Integer> runningPerClient = new HashMap<>();
+    private final Map<String, Job> runningJobs = new HashMap<>();
+    private int running;
+    private int queued;
+
+    /**
+     * @param executor исполнитель, на котором запускаются задачи
+     * @param maxGlobal максимум одновременно выполняемых задач
+     * @param maxPerClient максимум одновременно выполняемых задач одного клиента
+     * @param maxQueued максимум задач, ожидающих запуска
+     * @param onSlotReleased вызывается при освобождении слота (для метрик)
+     */
+    public FairTaskScheduler(ExecutorService executor, int maxGlobal, int maxPerClient, int maxQueued,
+                             Runnable onSlotReleased) {
+        this.executor = executor;
+        this.maxGlobal = Math.max(1, maxGlobal);
+        this.maxPerClient = Math.max(1, maxPerClient);
+        this.maxQueued = maxQueued;
+        this.onSlotReleased = onSlotReleased;
+    }
+
+    /**
+     * Поставить задачу в очередь клиента.
+     * @return false, если очередь заполнена и задача не принята
+     */
+    public synchronized boolean submit(String taskId, String clientKey, Runnable work) {
+        if (queued >= maxQueued) {
+            return false;
+        }
+        ArrayDeque<Job> queue = queues.get(clientKey);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(clientKey, queue);
+            ring.addLast(clientKey);
+        }
+        queue.addLast(new Job(taskId, clientKey, work));
+        queued++;
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Отменить задачу. Ожидающая задача удаляется из очереди; у выполняющейся сразу
+     * освобождаются слоты и прерывается рабочий поток.
+     * @return true, если задача была найдена в очереди или среди выполняющихся
+     */
+    public synchronized boolean cancel(String taskId) {
+        for (var it = queues.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, ArrayDeque<Job>> entry = it.next();
+            if (entry.getValue().removeIf(job -> job.taskId.equals(taskId))) {
+                queued--;
+                if (entry.getValue().isEmpty()) {
+                    it.remove();
+                    ring.remove(entry.getKey());
+                }
+                return true;
+            }
+        }
+        Job job = runningJobs.get(taskId);
+        if (job == null) {
+            return false;
+        }
+        if (job.thread != null) {
+            job.thread.interrupt();
+        }
+        release(job);
+        return true;
+    }
+
+    public synchronized int queuedCount() {
+        return queued;
+    }
+
+    public synchronized int runningCount() {
+        return running;
+    }
+
+    public synchronized int waitingClients() {
+        return queues.size();
+    }
+
+    /**
+     * Запустить столько задач, сколько позволяют глобальный и клиентские лимиты.
+     * Клиенты обходятся по кругу, клиент с исчерпанным лимитом пропускается.
+     */
+    private void dispatch() {
+        int idle = 0;
+        while (running < maxGlobal && !ring.isEmpty() && idle < ring.size()) {
+            String client = ring.pollFirst();
+            int clientRunning = runningPerClient.getOrDefault(client, 0);
+            if (clientRunning >= maxPerClient) {
+                ring.addLast(client);
+                idle++;
+                continue;
+            }
+            idle = 0;
+            ArrayDeque<Job> queue = queues.get(client);
+            Job job = queue.pollFirst();
+            queued--;
+            if (queue.isEmpty()) {
+                queues.remove(client);
+            } else {
+                ring.addLast(client);
+            }
+            running++;
+            runningPerClient.put(client, clientRunning + 1);
+            runningJobs.put(job.taskId, job);
+            log.debug("🚀 Dispatching task | TaskID: {} | Client: {} | Running: {}/{}",
+                    job.taskId, client, running, maxGlobal);
+            executor.execute(() -> execute(job));
+        }
+    }
+
+    private void execute(Job job) {
+        synchronized (this) {
+            if (job.released) {
+                return;
+            }
+            job.thread = Thread.currentThread();
+        }
+        try {
+            job.work.run();
+        } finally {
+            release(job);
+        }
+    }
+
+    /**
+     * Освободить слоты задачи. Повторный вызов (после отмены) ничего не делает.
+     */
+    private synchronized void release(Job job) {
+        if (job.released) {
+            return;
+        }
+        job.released = true;
+        job.thread = null;
+        runningJobs.remove(job.taskId);
+        running--;
+        runningPerClient.computeIfPresent(job.clientKey, (k, n) -> n > 1 ? n - 1 : null);
+        onSlotReleased.run();
+        dispatch();
+    }
+
+    private static final class Job {
+        private final String taskId;
+        private final String clientKey;
+        private final Runnable work;
+        private Thread thread;
+        private boolean released;
+
+        private Job(String taskId, String clientKey, Runnable work) {
+            this.taskId = taskId;
+            this.clientKey = clientKey;
+            this.work = work;
+        }
+    }
+}
@@ -6,9 +6,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
 
 @Service
 public class FileStorageService {
@@ -17,6 +20,9 @@ public class FileStorageService {
     @Value("${app.output-dir:/app/downloads}")
     private String outputDir;
 
+    @Value("${app.temp-dir:/app/temp}")
+    private String tempDir;
+
     public Path getFilePath(String filename) {
         Path result = Paths.get(outputDir).resolve(filename).toAbsolutePath().normalize();
         log.debug("📁 Resolved file path | Filename: {} | Path: {}", filename, result);
@@ -50,4 +56,37 @@ public class FileStorageService {
         log.debug("📦 Storage directory: {}", result);
         return result;
     }
+
+    /**
+     * Корневая директория рабочих директорий задач.
+     */
+    public Path getTempRoot() {
+        return Paths.get(tempDir).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Рабочая директория задачи для промежуточных файлов (.part, фрагменты, временные видео).
+     * Создаётся при первом обращении.
+     */
+    public Path getTaskTempDir(String taskId) throws IOException {
+        Path dir = getTempRoot().resolve(taskId);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    /**
+     * Удалить рабочую директорию задачи со всем содержимым.
+     */
+    public void deleteTaskTempDir(String taskId) {
+        Path dir = getTempRoot().resolve(taskId);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            log.debug("🗑️ Task temp directory deleted | TaskID: {}", taskId);
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to delete task temp directory | TaskID: {} | Path: {}", taskId, dir, e);
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Одна фактическая загрузка, на которую подписаны задачи с одинаковым запросом
+ * (сервис, ID видео, формат, диапазон, кадр). Загрузка выполняется один раз,
+ * результат получают все подписчики.
+ *
+ * Идентификатор загрузки совпадает с ID задачи, которая её создала: под ним загрузка
+ * числится в планировщике и в ProcessSupervisor, даже если эта задача позже отменена.
+ * Состояние изменяется только под блокировкой DownloadQueueService.
+ */
+class InFlightDownload {
+    private final String id;
+    private final String key;
+    private final TaskStatusDto request;
+    private final Map<String, TaskStatusDto> subscribers = new LinkedHashMap<>();
+    private boolean started;
+
+    InFlightDownload(String key, TaskStatusDto request) {
+        this.id = request.getTaskId();
+        this.key = key;
+        this.request = request;
+        subscribers.put(request.getTaskId(), request);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Ключ объединения, null если запрос не объединяется с другими.
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Параметры запроса (задача-инициатор).
+     */
+    TaskStatusDto getRequest() {
+        return request;
+    }
+
+    boolean isStarted() {
+        return started;
+    }
+
+    void markStarted() {
+        started = true;
+    }
+
+    void subscribe(TaskStatusDto task) {
+        subscribers.put(task.getTaskId(), task);
+    }
+
+    /**
+     * @return true, если подписчиков не осталось и загрузку можно прервать
+     */
+    boolean unsubscribe(String taskId) {
+        subscribers.remove(taskId);
+        return subscribers.isEmpty();
+    }
+
+    boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Задача этого клиента среди подписчиков (для идемпотентных повторов).
+     */
+    TaskStatusDto findByClient(String clientIp) {
+        for (TaskStatusDto task : subscribers.values()) {
+            if (clientIp.equals(task.getClientIp())) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    List<TaskStatusDto> subscribers() {
+        return new ArrayList<>(subscribers.values());
+    }
+}
@@ -0,0 +1,22 @@
+package com.iwanow16.backend.service;
+
+/**
+ * Очередь загрузок заполнена, новая задача не принята.
+ * Содержит рекомендуемое время повтора, рассчитанное по текущей скорости обработки очереди.
+ */
+public class QueueFullException extends RuntimeException {
+    private final long retryAfterSeconds;
+    private final int queueDepth;
+    private final int queueCapacity;
+
+    public QueueFullException(long retryAfterSeconds, int queueDepth, int queueCapacity) {
+        super("Download queue is full (" + queueDepth + "/" + queueCapacity + ")");
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    public int getQueueDepth() { return queueDepth; }
+    public int getQueueCapacity() { return queueCapacity; }
+}
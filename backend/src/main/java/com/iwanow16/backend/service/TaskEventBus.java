@@ -0,0 +1,261 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Шина событий задач: изменения статуса и прогресса рассылаются подключённым по SSE клиентам.
+ *
+ * У каждого клиента свой канал с короткой историей событий, по которой переподключившийся
+ * клиент догоняет пропущенное с Last-Event-ID. Если нужные события уже вытеснены из истории
+ * (или сервис перезапускался), клиент получает полный снимок своих задач.
+ * Медленный клиент не задерживает загрузки: события копятся в его очереди,
+ * при переполнении соединение закрывается и клиент переподключается.
+ */
+@Component
+public class TaskEventBus {
+    private static final Logger log = LoggerFactory.getLogger(TaskEventBus.class);
+    private static final int HISTORY_SIZE = 256;
+    private static final int SUBSCRIBER_QUEUE_SIZE = 512;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+    private static final long RECONNECT_DELAY_MS = 3000;
+    private static final long EMITTER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+    // Канал без подписчиков хранится, пока клиент может переподключиться и догнать историю
+    private static final long CHANNEL_IDLE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    // Начинается с текущего времени, чтобы ID событий не повторялись после перезапуска
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> lastProgress = new ConcurrentHashMap<>();
+
+    record Event(long id, String name, Object data) {
+    }
+
+    /**
+     * Задача сменила статус. Отправляется всегда.
+     */
+    public void publish(TaskStatusDto t) {
+        lastProgress.remove(t.getTaskId());
+        append(t.getClientIp(), "task", t);
+    }
+
+    /**
+     * Обновился прогресс задачи. Отправляется не чаще раза в секунду на задачу.
+     */
+    public void publishProgress(TaskStatusDto t) {
+        long now = System.currentTimeMillis();
+        Long last = lastProgress.get(t.getTaskId());
+        if (last != null && now - last < PROGRESS_INTERVAL_MS) {
+            return;
+        }
+        lastProgress.put(t.getTaskId(), now);
+        append(t.getClientIp(), "task", t);
+    }
+
+    private void append(String clientIp, String name, Object data) {
+        if (clientIp == null) {
+            return;
+        }
+        channels.compute(clientIp, (ip, channel) -> {
+            if (channel == null) {
+                channel = new Channel(sequence.get());
+            }
+            channel.append(new Event(sequence.incrementAndGet(), name, data));
+            return channel;
+        });
+    }
+
+    /**
+     * Подписать клиента на события его задач.
+     * @param lastEventId ID последнего полученного события (заголовок Last-Event-ID) или null
+     * @param snapshot текущие задачи клиента — отправляются, если догнать историю нельзя
+     */
+    public SseEmitter subscribe(String clientIp, String lastEventId, Supplier<List<TaskStatusDto>> snapshot) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        Subscriber subscriber = attach(clientIp, lastEventId, snapshot, emitter);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        subscriber.thread = Thread.ofVirtual().name("sse-" + clientIp).start(subscriber);
+        return emitter;
+    }
+
+    /**
+     * Зарегистрировать подписчика и поставить в его очередь пропущенные события или снимок.
+     */
+    Subscriber attach(String clientIp, String lastEventId, Supplier<List<TaskStatusDto>> snapshot, SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(clientIp, emitter);
+        long resumeFrom = parseEventId(lastEventId);
+        boolean[] resumed = {false};
+        // Регистрация и догоняющие события под блокировкой канала: новые события встанут в очередь после них
+        channels.compute(clientIp, (ip, channel) -> {
+            if (channel == null) {
+                channel = new Channel(sequence.get());
+            }
+            channel.subscribers.add(subscriber);
+            if (resumeFrom >= channel.evictedUpTo && resumeFrom <= sequence.get()) {
+                for (Event e : channel.history) {
+                    if (e.id() > resumeFrom) {
+                        subscriber.offer(e);
+                    }
+                }
+                resumed[0] = true;
+            } else {
+                subscriber.offer(new Event(sequence.get(), "snapshot", snapshot.get()));
+            }
+            return channel;
+        });
+        log.debug("📡 Task stream opened | IP: {} | LastEventID: {} | Resumed: {}", clientIp, lastEventId, resumed[0]);
+        return subscriber;
+    }
+
+    private static long parseEventId(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Удалить каналы клиентов, которые давно отключились.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleChannels() {
+        long threshold = System.currentTimeMillis() - CHANNEL_IDLE_MS;
+        for (String clientIp : channels.keySet()) {
+            channels.computeIfPresent(clientIp, (ip, channel) ->
+                    channel.subscribers.isEmpty() && channel.lastEventAt < threshold ? null : channel);
+        }
+    }
+
+    public int subscriberCount() {
+        int count = 0;
+        for (Channel channel : channels.values()) {
+            count += channel.subscribers.size();
+        }
+        return count;
+    }
+
+    /**
+     * События одного клиента. Изменяется только внутри channels.compute.
+     */
+    private static final class Channel {
+        private final Deque<Event> history = new ArrayDeque<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        // Все события с ID не больше этого вытеснены из истории
+        private long evictedUpTo;
+        private long lastEventAt = System.currentTimeMillis();
+
+        Channel(long evictedUpTo) {
+            this.evictedUpTo = evictedUpTo;
+        }
+
+        void append(Event e) {
+            history.addLast(e);
+            if (history.size() > HISTORY_SIZE) {
+                evictedUpTo = history.removeFirst().id();
+            }
+            lastEventAt = System.currentTimeMillis();
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(e);
+            }
+        }
+    }
+
+    /**
+     * Одно SSE-соединение: собственный виртуальный поток отправляет события из очереди
+     * и шлёт комментарий-пульс, если событий давно не было.
+     */
+    final class Subscriber implements Runnable {
+        private final String clientIp;
+        private final SseEmitter emitter;
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(SUBSCRIBER_QUEUE_SIZE);
+        private volatile boolean closed;
+        private volatile Thread thread;
+
+        Subscriber(String clientIp, SseEmitter emitter) {
+            this.clientIp = clientIp;
+            this.emitter = emitter;
+        }
+
+        void offer(Event e) {
+            if (!closed && !queue.offer(e)) {
+                log.warn("⚠️ Task stream overflow, closing connection | IP: {} | Queued: {}", clientIp, queue.size());
+                closed = true;
+                Thread t = thread;
+                if (t != null) {
+                    t.interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean first = true;
+            try {
+                while (!closed) {
+                    Event e = queue.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                    if (closed) {
+                        break;
+                    }
+                    if (e == null) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                        continue;
+                    }
+                    SseEmitter.SseEventBuilder event = SseEmitter.event()
+                            .id(Long.toString(e.id()))
+                            .name(e.name())
+                            .data(e.data(), MediaType.APPLICATION_JSON);
+                    if (first) {
+                        event.reconnectTime(RECONNECT_DELAY_MS);
+                        first = false;
+                    }
+                    emitter.send(event);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | IllegalStateException e) {
+                // Клиент отключился
+                log.debug("📡 Task stream send failed | IP: {} | Error: {}", clientIp, e.getMessage());
+            } finally {
+                close();
+                emitter.complete();
+            }
+        }
+
+        void close() {
+            closed = true;
+            channels.computeIfPresent(clientIp, (ip, channel) -> {
+                channel.subscribers.remove(this);
+                return channel;
+            });
+            Thread t = thread;
+            if (t != null && t != Thread.currentThread()) {
+                t.interrupt();
+            }
+        }
+    }
+}
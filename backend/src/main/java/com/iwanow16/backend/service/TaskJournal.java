@@ -0,0 +1,353 @@
+package com.iwanow16.backend.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.ClipDto;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Журнал переходов состояний задач на локальном диске (JSON Lines, только дозапись).
+ *
+ * Каждая запись — полное состояние задачи после перехода, при восстановлении побеждает
+ * последняя запись. Записи пишутся фоновым потоком пачками, fsync выполняется не чаще
+ * downloader.journal.sync-interval, поэтому вызывающие потоки не ждут диска.
+ * Когда журнал разрастается, актуальное состояние сворачивается в снимок, а журнал обнуляется.
+ */
+@Component
+public class TaskJournal {
+    private static final Logger log = LoggerFactory.getLogger(TaskJournal.class);
+    private static final String JOURNAL_FILE = "tasks.journal";
+    private static final String SNAPSHOT_FILE = "tasks.snapshot";
+
+    @Autowired
+    private DownloaderProperties props;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+    // Актуальное состояние задач, принадлежит потоку записи
+    private final Map<String, Entry> live = new LinkedHashMap<>();
+
+    private Path dir;
+    private FileChannel channel;
+    private Thread writer;
+    private volatile boolean running;
+    private int appendedSinceSnapshot;
+
+    /**
+     * Прочитать снимок и журнал, свернуть их в новый снимок и запустить запись.
+     * @return последнее известное состояние задач, у которых не истёк срок хранения
+     */
+    public synchronized List<Entry> recover() throws IOException {
+        if (!props.getJournal().isEnabled()) {
+            return List.of();
+        }
+        dir = Paths.get(props.getJournal().getDir()).toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+        int read = replay(dir.resolve(SNAPSHOT_FILE)) + replay(dir.resolve(JOURNAL_FILE));
+        dropExpired();
+        writeSnapshot();
+        channel = FileChannel.open(dir.resolve(JOURNAL_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        running = true;
+        writer = Thread.ofPlatform().daemon().name("task-journal").start(this::writeLoop);
+        log.info("📒 Task journal recovered | Dir: {} | Records read: {} | Live tasks: {}", dir, read, live.size());
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * Записать текущее состояние задачи. Состояние копируется в вызывающем потоке.
+     */
+    public void record(TaskStatusDto task) {
+        if (running) {
+            pending.add(Entry.of(task));
+        }
+    }
+
+    /**
+     * Записать, что задача удалена и не должна восстанавливаться.
+     */
+    public void remove(String taskId) {
+        if (running) {
+            Entry entry = new Entry();
+            entry.id = taskId;
+            entry.removed = Boolean.TRUE;
+            pending.add(entry);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!running) {
+            return;
+        }
+        // Без interrupt: прерывание потока во время записи закрыло бы FileChannel.
+        // Поток заметит остановку не позже чем через sync-interval и допишет очередь
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        long syncNanos = props.getJournal().getSyncInterval().toNanos();
+        long lastSync = System.nanoTime();
+        boolean dirty = false;
+        List<Entry> batch = new ArrayList<>();
+        while (running || !pending.isEmpty()) {
+            try {
+                Entry first = pending.poll(syncNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch);
+                    append(batch);
+                    batch.clear();
+                    dirty = true;
+                }
+                if (dirty && (System.nanoTime() - lastSync >= syncNanos || !running)) {
+                    channel.force(false);
+                    lastSync = System.nanoTime();
+                    dirty = false;
+                }
+                if (appendedSinceSnapshot >= props.getJournal().getCompactThreshold()) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                log.error("❌ Task journal write failed | Dir: {} | Error: {}", dir, e.getMessage(), e);
+                batch.clear();
+            }
+        }
+        try {
+            channel.force(false);
+            channel.close();
+            log.info("📒 Task journal closed | Live tasks: {}", live.size());
+        } catch (IOException e) {
+            log.warn("⚠️ Failed to close task journal | Dir: {}", dir, e);
+        }
+    }
+
+    private void append(List<Entry> batch) throws IOException {
+        StringBuilder sb = new StringBuilder(batch.size() * 256);
+        for (Entry entry : batch) {
+            sb.append(mapper.writeValueAsString(entry)).append('\n');
+            apply(entry);
+        }
+        writeFully(channel, sb.toString());
+        appendedSinceSnapshot += batch.size();
+    }
+
+    /**
+     * Свернуть журнал: записать снимок актуального состояния и начать журнал заново.
+     * Если процесс упадёт между заменой снимка и обнулением журнала, старый журнал
+     * будет повторно применён к новому снимку без потери данных.
+     */
+    private void compact() throws IOException {
+        long started = System.currentTimeMillis();
+        int before = appendedSinceSnapshot;
+        channel.force(false);
+        dropExpired();
+        writeSnapshot();
+        channel.truncate(0);
+        channel.position(0);
+        log.info("🗜️ Task journal compacted | Records: {} | Live tasks: {} | Duration: {}ms",
+                before, live.size(), System.currentTimeMillis() - started);
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        StringBuilder sb = new StringBuilder(live.size() * 256);
+        for (Entry entry : live.values()) {
+            sb.append(mapper.writeValueAsString(entry)).append('\n');
+        }
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, sb.toString());
+            out.force(false);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        appendedSinceSnapshot = 0;
+    }
+
+    private int replay(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    apply(mapper.readValue(line, Entry.class));
+                    count++;
+                } catch (IOException e) {
+                    // Обрезанная последняя строка после аварийного завершения
+                    log.warn("⚠️ Skipping corrupt journal record | File: {} | Error: {}", file.getFileName(), e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+
+    private void apply(Entry entry) {
+        if (Boolean.TRUE.equals(entry.removed)) {
+            live.remove(entry.id);
+        } else {
+            live.put(entry.id, entry);
+        }
+    }
+
+    /**
+     * Удалить завершённые задачи, срок хранения которых истёк (как в TaskStore).
+     */
+    private void dropExpired() {
+        long cutoff = System.currentTimeMillis() - props.getTaskRetention().toMillis();
+        live.values().removeIf(e -> e.finishedAt != null && e.finishedAt < cutoff);
+    }
+
+    private static void writeFully(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Запись журнала. Время хранится в миллисекундах эпохи, пустые поля не пишутся.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+        public String id;
+        public Boolean removed;
+        public String status;
+        public String clientIp;
+        public String url;
+        public String title;
+        public String formatId;
+        public String quality;
+        public Boolean timeRange;
+        public String startTime;
+        public String endTime;
+        public List<ClipDto> clips;
+        public Boolean frame;
+        public String frameTime;
+        public FrameBatchDto frames;
+        public String filename;
+        public Long fileSize;
+        public String error;
+        public String failureReason;
+        public Long createdAt;
+        public Long completedAt;
+        public Long failedAt;
+        // Момент перехода в конечное состояние, от него отсчитывается срок хранения
+        public Long finishedAt;
+
+        static Entry of(TaskStatusDto t) {
+            Entry e = new Entry();
+            e.id = t.getTaskId();
+            e.status = t.getStatus();
+            e.clientIp = t.getClientIp();
+            e.url = t.getUrl();
+            e.title = t.getTitle();
+            e.formatId = t.getFormatId();
+            e.quality = t.getQuality();
+            e.timeRange = t.isTimeRangeEnabled() ? Boolean.TRUE : null;
+            e.startTime = t.getStartTime();
+            e.endTime = t.getEndTime();
+            e.clips = t.getClips() == null ? null : t.getClips().stream().map(ClipDto::snapshot).toList();
+            e.frame = t.isFrameExtractionEnabled() ? Boolean.TRUE : null;
+            e.frameTime = t.getFrameTime();
+            e.frames = t.getFrameBatch() == null ? null : t.getFrameBatch().copy();
+            e.filename = t.getFilename();
+            e.fileSize = t.getFileSize();
+            e.error = t.getError();
+            e.failureReason = t.getFailureReason();
+            e.createdAt = toMillis(t.getCreatedAt());
+            e.completedAt = toMillis(t.getCompletedAt());
+            e.failedAt = toMillis(t.getFailedAt());
+            if (isFinished(t.getStatus())) {
+                e.finishedAt = System.currentTimeMillis();
+            }
+            return e;
+        }
+
+        /**
+         * Восстановить задачу из записи.
+         */
+        public TaskStatusDto toTask() {
+            TaskStatusDto t = new TaskStatusDto();
+            t.setTaskId(id);
+            t.setStatus(status);
+            t.setClientIp(clientIp);
+            t.setUrl(url);
+            t.setTitle(title);
+            t.setFormatId(formatId);
+            t.setQuality(quality);
+            t.setTimeRangeEnabled(Boolean.TRUE.equals(timeRange));
+            t.setStartTime(startTime);
+            t.setEndTime(endTime);
+            t.setClips(clips);
+            t.setFrameExtractionEnabled(Boolean.TRUE.equals(frame));
+            t.setFrameTime(frameTime);
+            t.setFrameBatch(frames);
+            t.setFilename(filename);
+            t.setFileSize(fileSize);
+            t.setError(error);
+            t.setFailureReason(failureReason);
+            t.setCreatedAt(toTime(createdAt));
+            t.setCompletedAt(toTime(completedAt));
+            t.setFailedAt(toTime(failedAt));
+            t.setProgress("completed".equals(status) ? 100 : 0);
+            return t;
+        }
+
+        static boolean isFinished(String status) {
+            return "completed".equals(status) || "failed".equals(status) || "cancelled".equals(status);
+        }
+
+        private static Long toMillis(OffsetDateTime time) {
+            return time == null ? null : time.toInstant().toEpochMilli();
+        }
+
+        private static OffsetDateTime toTime(Long millis) {
+            return millis == null ? null : OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Хранилище задач в памяти с индексами по клиенту и по имени файла.
+ *
+ * Завершённые задачи хранятся downloader.task-retention и затем удаляются.
+ * Срок хранения одинаков для всех задач, поэтому очередь завершённых упорядочена
+ * по времени истечения и вытеснение не просматривает активные задачи.
+ *
+ * Задачи меняются на месте потоками загрузки, поэтому клиентам отдаются опубликованные
+ * снимки: неизменяемые копии с возрастающей версией, по которой клиент запрашивает
+ * только изменившиеся задачи.
+ */
+@Component
+public class TaskStore {
+    private static final Logger log = LoggerFactory.getLogger(TaskStore.class);
+
+    @Autowired
+    private DownloaderProperties props;
+
+    private final ConcurrentMap<String, TaskStatusDto> tasks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> byClient = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> byFilename = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Expiry> finished = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, TaskStatusDto> published = new ConcurrentHashMap<>();
+    private final Object publishLock = new Object();
+    // Начинается с текущего времени, чтобы версии не повторялись после перезапуска
+    private long version = System.currentTimeMillis() * 1000;
+
+    public void put(TaskStatusDto task) {
+        tasks.put(task.getTaskId(), task);
+        index(byClient, task.getClientIp(), task.getTaskId());
+    }
+
+    public TaskStatusDto get(String taskId) {
+        return tasks.get(taskId);
+    }
+
+    public void remove(String taskId) {
+        TaskStatusDto task = tasks.remove(taskId);
+        if (task == null) {
+            return;
+        }
+        synchronized (publishLock) {
+            published.remove(taskId);
+        }
+        unindex(byClient, task.getClientIp(), taskId);
+        if (task.getFilename() != null) {
+            unindex(byFilename, task.getFilename(), taskId);
+        }
+    }
+
+    /**
+     * Задачи клиента. Стоимость пропорциональна числу задач этого клиента.
+     */
+    public List<TaskStatusDto> forClient(String clientIp) {
+        return resolve(byClient.get(clientIp));
+    }
+
+    /**
+     * Задачи, результатом которых является файл filename.
+     */
+    public List<TaskStatusDto> forFilename(String filename) {
+        return resolve(byFilename.get(filename));
+    }
+
+    /**
+     * Опубликовать текущее состояние задачи под новой версией.
+     * Публикации упорядочены: если клиенту видна версия V, видны и все меньшие.
+     * @return опубликованный снимок
+     */
+    public TaskStatusDto publish(TaskStatusDto task) {
+        synchronized (publishLock) {
+            TaskStatusDto snapshot = task.copy();
+            snapshot.setVersion(++version);
+            task.setVersion(snapshot.getVersion());
+            // Удалённая задача может ещё получить обновление от загрузки — снимок ей не нужен
+            if (tasks.containsKey(task.getTaskId())) {
+                published.put(task.getTaskId(), snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Последний опубликованный снимок задачи.
+     */
+    public TaskStatusDto snapshot(String taskId) {
+        return published.get(taskId);
+    }
+
+    /**
+     * Опубликованные снимки задач клиента.
+     */
+    public List<TaskStatusDto> snapshotsForClient(String clientIp) {
+        Set<String> ids = byClient.get(clientIp);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<TaskStatusDto> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            TaskStatusDto snapshot = published.get(id);
+            if (snapshot != null) {
+                result.add(snapshot);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Записать имя файла результата и добавить задачу в индекс по имени файла.
+     */
+    public void setFilename(TaskStatusDto task, String filename) {
+        task.setFilename(filename);
+        index(byFilename, filename, task.getTaskId());
+    }
+
+    /**
+     * Отметить задачу завершённой (успешно, с ошибкой или отменённой): с этого момента
+     * отсчитывается срок её хранения.
+     */
+    public void markFinished(String taskId) {
+        markFinished(taskId, System.currentTimeMillis());
+    }
+
+    /**
+     * Отметить задачу, завершённую в момент finishedAt (при восстановлении из журнала).
+     * Восстановленные задачи добавляются до новых, поэтому порядок истечения сохраняется.
+     */
+    public void markFinished(String taskId, long finishedAt) {
+        finished.add(new Expiry(taskId, finishedAt + props.getTaskRetention().toMillis()));
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Удалить задачи, срок хранения которых истёк.
+     */
+    @Scheduled(fixedDelayString = "${downloader.task-eviction-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        Expiry head;
+        while ((head = finished.peek()) != null && head.expiresAt <= now) {
+            finished.poll();
+            remove(head.taskId);
+            evicted++;
+        }
+        if (evicted > 0) {
+            log.info("🧹 Expired tasks evicted | Count: {} | Remaining: {}", evicted, tasks.size());
+        }
+    }
+
+    private List<TaskStatusDto> resolve(Set<String> ids) {
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<TaskStatusDto> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            TaskStatusDto task = tasks.get(id);
+            if (task != null) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    private static void index(ConcurrentMap<String, Set<String>> index, String key, String taskId) {
+        // compute, а не computeIfAbsent: иначе добавление может попасть в набор, который unindex уже удалил
+        index.compute(key, (k, ids) -> {
+            Set<String> set = ids != null ? ids : ConcurrentHashMap.<String>newKeySet();
+            set.add(taskId);
+            return set;
+        });
+    }
+
+    private static void unindex(ConcurrentMap<String, Set<String>> index, String key, String taskId) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(taskId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private record Expiry(String taskId, long expiresAt) {
+    }
+}
@@ -1,25 +1,32 @@
 package com.iwanow16.backend.service.strategy;
 
-import com.iwanow16.backend.util.MediaMerger;
-import com.iwanow16.backend.util.FrameExtractorUtil;
+import com.iwanow16.backend.util.ProcessResult;
+import com.iwanow16.backend.util.ProcessStage;
+import com.iwanow16.backend.util.YtDlpProgressParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.nio.file.Files;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 /**
  * Стратегия скачивания видео с Bilibili.
  */
 @Component
-public class BilibiliDownloadStrategy implements DownloadStrategy {
+public class BilibiliDownloadStrategy extends YtDlpDownloadStrategy {
     private static final Logger log = LoggerFactory.getLogger(BilibiliDownloadStrategy.class);
-
-    @Autowired
-    private FrameExtractorUtil frameExtractorUtil;
+    private static final String COOKIES_FILE = "/app/resources/bilibili_cookies.txt";
+    private static final Pattern VIDEO_ID = Pattern.compile("BV[0-9A-Za-z]{10}|av\\d+");
+    // Короткая ссылка b23.tv: код перенаправления или сам ID видео
+    private static final Pattern SHORT_CODE = Pattern.compile("[0-9A-Za-z]+");
+    private static final Pattern PART = Pattern.compile("[1-9]\\d{0,3}");
 
     @Override
     public boolean supports(String url) {
@@ -32,19 +39,45 @@ public class BilibiliDownloadStrategy implements DownloadStrategy {
     }
 
     @Override
-    public Path download(String url, Path outputDir, String formatId, String taskId) throws Exception {
+    protected String serviceLabel() {
+        return "Bilibili";
+    }
+
+    @Override
+    protected List<String> streamOptions() {
+        return List.of(
+                "--user-agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36",
+                "--cookies", COOKIES_FILE);
+    }
+
+    @Override
+    protected List<String> frameDownloadOptions() {
+        // Формат не указываем — пусть yt-dlp выберет лучший доступный автоматически
+        return streamOptions();
+    }
+
+    @Override
+    protected Path fetch(String url, Path outputDir, String formatId, String taskId,
+                         List<String> extraArgs, String suffix) throws Exception {
         log.info("🎬 Bilibili download started | TaskID: {} | URL: {}", taskId, url);
         long startTime = System.currentTimeMillis();
-        
-        String cookiesPath = "/app/resources/bilibili_cookies.txt";
+        // Имя файла задаётся по каноническому ID (с номером части), а не по %(id)s yt-dlp,
+        // чтобы поиск скачанного файла не зависел от того, как yt-dlp именует части
+        String videoId = extractVideoId(url);
+        if (videoId == null) {
+            log.error("❌ Could not extract video ID | TaskID: {} | URL: {}", taskId, url);
+            throw new RuntimeException("Could not extract video ID from URL");
+        }
         
         // Построить команду yt-dlp для Bilibili
-        java.util.List<String> cmd = new java.util.ArrayList<>();
+        List<String> cmd = new ArrayList<>();
         cmd.add("yt-dlp");
+        // Общий кэш плеера и подписей
+        cmd.addAll(ytDlpCache.args());
         cmd.add("--user-agent");
         cmd.add("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
         cmd.add("--cookies");
-        cmd.add(cookiesPath);
+        cmd.add(COOKIES_FILE);
         cmd.add("--no-check-certificate");
         cmd.add("--socket-timeout");
         cmd.add("30");
@@ -77,8 +110,16 @@ public class BilibiliDownloadStrategy implements DownloadStrategy {
         
         // Опции
         cmd.add("-c"); // Continue on errors
+        // Прогресс отдельными машиночитаемыми строками
+        cmd.addAll(YtDlpProgressParser.ARGS);
+        // Промежуточные файлы — в рабочей директории задачи
+        cmd.add("-P");
+        cmd.add("home:" + outputDir);
+        cmd.add("-P");
+        cmd.add("temp:" + storage.getTaskTempDir(taskId));
+        cmd.addAll(extraArgs);
         cmd.add("-o");
-        cmd.add(outputDir.resolve("%(id)s.%(ext)s").toString());
+        cmd.add(videoId + suffix + ".%(ext)s");
         cmd.add(url);
         
         log.debug("⏳ Executing yt-dlp for Bilibili | TaskID: {} | URL: {}", taskId, url);
@@ -86,67 +127,32 @@ public class BilibiliDownloadStrategy implements DownloadStrategy {
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.directory(outputDir.toFile());
         pb.redirectErrorStream(false);
-        Process p = pb.start();
-        
-        // Читать output и error потоки
-        StringBuilder output = new StringBuilder();
-        StringBuilder error = new StringBuilder();
-        
-        Thread outputThread = new Thread(() -> {
-            try (var reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                    log.debug("📊 yt-dlp output | TaskID: {} | {}", taskId, line);
-                }
-            } catch (Exception e) {
-                log.warn("⚠️ Error reading output | TaskID: {}", taskId, e);
-            }
-        });
-        
-        Thread errorThread = new Thread(() -> {
-            try (var reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(p.getErrorStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    error.append(line).append("\n");
-                    log.debug("⚠️ yt-dlp error | TaskID: {} | {}", taskId, line);
-                }
-            } catch (Exception e) {
-                log.warn("⚠️ Error reading error stream | TaskID: {}", taskId, e);
+        int streams = YtDlpProgressParser.expectedStreams(cmd.get(cmd.indexOf("-f") + 1));
+        YtDlpProgressParser progressParser = new YtDlpProgressParser(progressTracker.start(taskId, streams));
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.FETCH, pb, progressParser, (line, stderr) -> {
+            if (stderr) {
+                log.debug("⚠️ yt-dlp error | TaskID: {} | {}", taskId, line);
+            } else {
+                log.debug("📊 yt-dlp output | TaskID: {} | {}", taskId, line);
             }
         });
-        
-        outputThread.start();
-        errorThread.start();
-        
-        int rc = p.waitFor();
-        outputThread.join(5000);
-        errorThread.join(5000);
+        int rc = result.getExitCode();
         
         if (rc != 0) {
-            String errorMsg = error.toString().isEmpty() ? output.toString() : error.toString();
+            String errorMsg = result.errorMessage();
             long duration = System.currentTimeMillis() - startTime;
             log.error("❌ Bilibili download failed | TaskID: {} | Code: {} | Duration: {}ms | Error: {}", 
                     taskId, rc, duration, errorMsg);
             throw new RuntimeException("Bilibili download failed: " + errorMsg);
         }
         
-        // Получить ID видео из URL
-        String videoId = extractVideoId(url);
-        if (videoId == null) {
-            log.error("❌ Could not extract video ID | TaskID: {} | URL: {}", taskId, url);
-            throw new RuntimeException("Could not extract video ID from URL");
-        }
-
         // Попытаться найти скачанный файл (видео или аудио)
         Path videoFile = null;
         Path audioFile = null;
         
         // Сначала ищем файлы видео
         for (String ext : new String[]{"mp4", "mkv", "webm", "flv", "avi", "mov"}) {
-            Path file = outputDir.resolve(videoId + "." + ext);
+            Path file = outputDir.resolve(videoId + suffix + "." + ext);
             if (file.toFile().exists()) {
                 videoFile = file;
                 log.debug("📹 Found video file: {}", file.getFileName());
@@ -156,7 +162,7 @@ public class BilibiliDownloadStrategy implements DownloadStrategy {
         
         // Потом ищем файлы аудио
         for (String ext : new String[]{"m4a", "aac", "mp3", "opus", "wav"}) {
-            Path file = outputDir.resolve(videoId + "." + ext);
+            Path file = outputDir.resolve(videoId + suffix + "." + ext);
             if (file.toFile().exists()) {
                 audioFile = file;
                 log.debug("🎵 Found audio file: {}", file.getFileName());
@@ -168,8 +174,10 @@ public class BilibiliDownloadStrategy implements DownloadStrategy {
         if (videoFile != null && audioFile != null) {
             log.info("🔀 Found separate video and audio files, merging with ffmpeg | TaskID: {}", taskId);
             try {
-                Path mergedFile = outputDir.resolve(videoId + "_merged.mp4");
-                MediaMerger.mergeVideoAudio(videoFile, audioFile, mergedFile, taskId);
+                Path mergedFile = outputDir.resolve(videoId + suffix + "_merged.mp4");
+                processSupervisor.trackArtifact(taskId, mergedFile);
+                progressTracker.phase(taskId, "merging");
+                mediaMerger.mergeVideoAudio(videoFile, audioFile, mergedFile, taskId);
                 long duration = System.currentTimeMillis() - startTime;
                 log.info("✅ Bilibili download completed (merged) | TaskID: {} | Filename: {} | Duration: {}ms", 
                         taskId, mergedFile.getFileName(), duration);
@@ -207,217 +215,62 @@ public class BilibiliDownloadStrategy implements DownloadStrategy {
         throw new RuntimeException("Downloaded file not found in output directory");
     }
 
+    /**
+     * Извлечь ID видео из URL Bilibili. Часть многосерийного видео (?p=N, N больше 1) входит
+     * в ID как у yt-dlp: BVxxx_p2, иначе кэши отдавали бы для всех частей первую.
+     */
     @Override
-    public Path downloadTimeRange(String url, Path outputDir, String formatId, String taskId,
-                                  String startTime, String endTime) throws Exception {
-        log.info("⏱️  Bilibili download with time range | TaskID: {} | Start: {}s | End: {}s", 
-                taskId, startTime, endTime);
-        
-        // Сначала скачиваем полное видео
-        Path fullVideoPath = download(url, outputDir, formatId, taskId);
-        
-        // Затем вырезаем нужный диапазон
-        java.util.List<String> cmd = new java.util.ArrayList<>();
-        cmd.add("ffmpeg");
-        cmd.add("-i");
-        cmd.add(fullVideoPath.toString());
-        cmd.add("-ss");
-        cmd.add(startTime);
-        cmd.add("-to");
-        cmd.add(endTime);
-        cmd.add("-c");
-        cmd.add("copy");  // Копируем без перекодирования для скорости
-        
-        // Генерируем имя выходного файла
-        String filename = "trimmed_" + System.currentTimeMillis() + ".mp4";
-        Path outputPath = outputDir.resolve(filename);
-        cmd.add(outputPath.toString());
-
-        log.debug("⏳ Executing ffmpeg trim command | TaskID: {}", taskId);
-        
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        try (var reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
-            }
-        }
-
-        int exitCode = p.waitFor();
-        
-        if (exitCode != 0) {
-            log.error("❌ Time range extraction failed | TaskID: {} | Exit code: {}", taskId, exitCode);
-            throw new RuntimeException("Failed to extract time range");
-        }
-
-        log.info("✅ Time range extraction completed | TaskID: {} | File: {}", taskId, filename);
-        return outputPath;
-    }
-
-    @Override
-    public Path extractFrame(String url, Path outputDir, String taskId, String frameTime) throws Exception {
-        log.info("📷 Bilibili frame extraction | TaskID: {} | Frame time: {}s", taskId, frameTime);
-        
-        String cookiesPath = "/app/resources/bilibili_cookies.txt";
-        
-        // Сначала загрузим видео в формате, с которым может работать ffmpeg
-        String tempVideoFile = "temp_" + System.currentTimeMillis() + ".mp4";
-        Path tempVideoPath = outputDir.resolve(tempVideoFile);
-
-        log.debug("⏳ Downloading video for frame extraction | TaskID: {} | Temp file: {}", 
-                taskId, tempVideoFile);
-
-        // Используем yt-dlp для загрузки лучшего видеоформата
-        java.util.List<String> downloadCmd = new java.util.ArrayList<>();
-        downloadCmd.add("yt-dlp");
-        downloadCmd.add("--user-agent");
-        downloadCmd.add("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
-        downloadCmd.add("--cookies");
-        downloadCmd.add(cookiesPath);
-        // Не указываем формат - пусть yt-dlp выберет лучший доступный автоматически
-        downloadCmd.add("-o");
-        downloadCmd.add(tempVideoPath.toString());
-        downloadCmd.add(url);
-
-        log.debug("⏳ Executing yt-dlp download | TaskID: {}", taskId);
-        ProcessBuilder pb = new ProcessBuilder(downloadCmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        try (var reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                log.debug("📥 Download output | TaskID: {} | {}", taskId, line);
-            }
+    public String extractVideoId(String url) {
+        if (url == null) {
+            return null;
         }
-
-        int exitCode = p.waitFor();
-        if (exitCode != 0) {
-            log.error("❌ Failed to download video for frame extraction | TaskID: {} | Error: {}", 
-                    taskId, output);
-            throw new RuntimeException("Failed to download video for frame extraction");
+        String text = url.trim();
+        if (!text.contains("://")) {
+            text = "https://" + text;
         }
-
-        if (!java.nio.file.Files.exists(tempVideoPath)) {
-            log.error("❌ Temp video file not created | TaskID: {}", taskId);
-            throw new RuntimeException("Temp video file not created");
+        URI uri;
+        try {
+            uri = new URI(text);
+        } catch (URISyntaxException e) {
+            return null;
         }
-
-        log.debug("✅ Video downloaded | TaskID: {} | File: {}", taskId, tempVideoFile);
-
-        // Теперь извлекаем кадр из локального файла
-        java.util.List<String> ffmpegCmd = new java.util.ArrayList<>();
-        ffmpegCmd.add("ffmpeg");
-        ffmpegCmd.add("-ss");
-        ffmpegCmd.add(frameTime);
-        ffmpegCmd.add("-i");
-        ffmpegCmd.add(tempVideoPath.toString());
-        ffmpegCmd.add("-vframes");
-        ffmpegCmd.add("1");
-        ffmpegCmd.add("-q:v");
-        ffmpegCmd.add("2");  // Высокое качество
-        ffmpegCmd.add("-f");
-        ffmpegCmd.add("image2");
-
-        String frameFilename = "frame_" + System.currentTimeMillis() + ".png";
-        Path outputPath = outputDir.resolve(frameFilename);
-        ffmpegCmd.add(outputPath.toString());
-
-        log.debug("⏳ Extracting frame with ffmpeg | TaskID: {} | Output: {}", taskId, frameFilename);
-
-        pb = new ProcessBuilder(ffmpegCmd);
-        pb.redirectErrorStream(true);
-        p = pb.start();
-
-        output = new StringBuilder();
-        try (var reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
-            }
+        String host = uri.getHost();
+        String path = uri.getPath();
+        if (host == null || path == null) {
+            return null;
         }
+        host = host.toLowerCase(Locale.ROOT);
+        String[] segments = path.replaceFirst("^/+", "").split("/");
 
-        exitCode = p.waitFor();
-        
-        if (exitCode != 0) {
-            log.error("❌ Frame extraction failed | TaskID: {} | Exit code: {} | Output: {}", 
-                    taskId, exitCode, output);
-            // Очистим временный файл перед выбросом ошибки
-            try {
-                java.nio.file.Files.deleteIfExists(tempVideoPath);
-            } catch (Exception e) {
-                log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
-                        taskId, tempVideoPath);
-            }
-            throw new RuntimeException("Failed to extract frame: " + output);
+        String id = null;
+        // bilibili.com/video/BVxxx/, m.bilibili.com/video/av123
+        if ((host.equals("bilibili.com") || host.endsWith(".bilibili.com"))
+                && segments.length >= 2 && segments[0].equals("video") && VIDEO_ID.matcher(segments[1]).matches()) {
+            id = segments[1];
         }
-
-        if (!java.nio.file.Files.exists(outputPath)) {
-            log.error("❌ Frame file not created | TaskID: {} | Expected: {}", taskId, outputPath);
-            try {
-                java.nio.file.Files.deleteIfExists(tempVideoPath);
-            } catch (Exception e) {
-                log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
-                        taskId, tempVideoPath);
-            }
-            throw new RuntimeException("Frame extraction failed: output file not created");
+        // b23.tv/BVxxx или b23.tv/код
+        if (host.equals("b23.tv") && SHORT_CODE.matcher(segments[0]).matches()) {
+            id = segments[0];
         }
-
-        // Удаляем временный файл
-        try {
-            java.nio.file.Files.deleteIfExists(tempVideoPath);
-            log.debug("🗑️ Temp video file deleted | TaskID: {} | File: {}", taskId, tempVideoFile);
-        } catch (Exception e) {
-            log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
-                    taskId, tempVideoPath);
+        if (id == null) {
+            return null;
         }
-
-        long fileSize = java.nio.file.Files.size(outputPath);
-        log.info("✅ Frame extracted successfully | TaskID: {} | File: {} | Size: {} bytes", 
-                taskId, frameFilename, fileSize);
-        return outputPath;
+        int part = part(uri.getRawQuery());
+        return part > 1 ? id + "_p" + part : id;
     }
-    
+
     /**
-     * Извлечь ID видео из URL Bilibili.
+     * Номер части из параметра p или 1.
      */
-    private String extractVideoId(String url) {
-        // Примеры URL:
-        // https://www.bilibili.com/video/BV1234567890/
-        // https://b23.tv/BV1234567890
-        
-        if (url.contains("bilibili.com/video/")) {
-            int start = url.indexOf("bilibili.com/video/") + 19;
-            int end = url.indexOf("/", start);
-            if (end == -1) {
-                end = url.indexOf("?", start);
-            }
-            if (end == -1) {
-                end = url.length();
-            }
-            return url.substring(start, end);
+    private static int part(String query) {
+        if (query == null) {
+            return 1;
         }
-        
-        if (url.contains("b23.tv/")) {
-            int start = url.indexOf("b23.tv/") + 7;
-            int end = url.indexOf("?", start);
-            if (end == -1) {
-                end = url.length();
+        for (String param : query.split("&")) {
+            if (param.startsWith("p=") && PART.matcher(param.substring(2)).matches()) {
+                return Integer.parseInt(param.substring(2));
             }
-            return url.substring(start, end);
         }
-        
-        return null;
+        return 1;
     }
 }
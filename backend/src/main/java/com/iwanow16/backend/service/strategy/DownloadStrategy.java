@@ -1,6 +1,10 @@
 package com.iwanow16.backend.service.strategy;
 
+import com.iwanow16.backend.model.dto.ClipDto;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Интерфейс для стратегии скачивания контента с разных сервисов.
@@ -32,6 +36,20 @@ public interface DownloadStrategy {
     Path downloadTimeRange(String url, Path outputDir, String formatId, String taskId, 
                           String startTime, String endTime) throws Exception;
 
+    /**
+     * Нарезать несколько клипов из одного видео: близкие клипы скачиваются одним участком,
+     * далёкие — отдельными участками, без загрузки промежутков между ними.
+     * @param url URL контента
+     * @param outputDir Директория для сохранения архива
+     * @param formatId ID формата
+     * @param taskId ID задачи
+     * @param clips Участки; результат по каждому (файл и размер или ошибка) записывается в них
+     * @return Путь к архиву zip с клипами и manifest.json
+     * @throws Exception Если не получилось ни одного клипа
+     */
+    Path downloadClips(String url, Path outputDir, String formatId, String taskId, List<ClipDto> clips)
+            throws Exception;
+
     /**
      * Извлечь кадр из видео в PNG формате.
      * @param url URL видео
@@ -43,6 +61,17 @@ public interface DownloadStrategy {
      */
     Path extractFrame(String url, Path outputDir, String taskId, String frameTime) throws Exception;
 
+    /**
+     * Извлечь несколько кадров за один проход по видео.
+     * @param url URL видео
+     * @param outputDir Директория для сохранения результата
+     * @param taskId ID задачи
+     * @param batch Моменты или интервал кадров, формат и ширина
+     * @return Путь к архиву zip с кадрами и manifest.json или к листу кадров
+     * @throws Exception Если извлечение не удалось
+     */
+    Path extractFrames(String url, Path outputDir, String taskId, FrameBatchDto batch) throws Exception;
+
     /**
      * Проверить, поддерживает ли эта стратегия данный URL.
      * @param url URL для проверки
@@ -50,6 +79,13 @@ public interface DownloadStrategy {
      */
     boolean supports(String url);
 
+    /**
+     * Извлечь канонический ID видео из URL (одинаковый для разных форм ссылки).
+     * @param url URL контента
+     * @return ID видео или null, если его не удалось определить
+     */
+    String extractVideoId(String url);
+
     /**
      * Получить имя сервиса.
      * @return Имя сервиса (e.g., "youtube", "tiktok")
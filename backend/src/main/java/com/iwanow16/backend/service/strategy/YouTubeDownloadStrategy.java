@@ -1,24 +1,35 @@
 package com.iwanow16.backend.service.strategy;
 
-import com.iwanow16.backend.util.MediaMerger;
-import com.iwanow16.backend.util.FrameExtractorUtil;
+import com.iwanow16.backend.extractor.InfoJsonStore;
+import com.iwanow16.backend.util.ProcessResult;
+import com.iwanow16.backend.util.ProcessStage;
+import com.iwanow16.backend.util.YtDlpProgressParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.nio.file.Files;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Стратегия скачивания видео с YouTube с поддержкой cookies и JS runtime.
  */
 @Component
-public class YouTubeDownloadStrategy implements DownloadStrategy {
+public class YouTubeDownloadStrategy extends YtDlpDownloadStrategy {
     private static final Logger log = LoggerFactory.getLogger(YouTubeDownloadStrategy.class);
+    // ID видео YouTube: 11 символов base64url
+    private static final Pattern VIDEO_ID = Pattern.compile("[A-Za-z0-9_-]{11}");
+    private static final Set<String> VIDEO_PATHS = Set.of("shorts", "embed", "live", "v");
 
     @Value("${app.youtube.cookies-file:}")
     private String cookiesFile;
@@ -27,7 +38,7 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
     private String jsRuntime;
 
     @Autowired
-    private FrameExtractorUtil frameExtractorUtil;
+    private InfoJsonStore infoJsonStore;
 
     @Override
     public boolean supports(String url) {
@@ -40,12 +51,36 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
     }
 
     @Override
-    public Path download(String url, Path outputDir, String formatId, String taskId) throws Exception {
+    protected String serviceLabel() {
+        return "YouTube";
+    }
+
+    @Override
+    protected List<String> streamOptions() {
+        List<String> options = new ArrayList<>();
+        if (cookiesFile != null && !cookiesFile.isBlank()) {
+            options.add("--cookies");
+            options.add(cookiesFile);
+        }
+        return options;
+    }
+
+    @Override
+    protected List<String> frameDownloadOptions() {
+        // Лучший доступный формат (без предупреждения)
+        return List.of("-f", "b");
+    }
+
+    @Override
+    protected Path fetch(String url, Path outputDir, String formatId, String taskId,
+                         List<String> extraArgs, String suffix) throws Exception {
         log.info("📹 YouTube download started | TaskID: {} | URL: {} | Format: {}", taskId, url, formatId);
         long startTime = System.currentTimeMillis();
         
         List<String> cmd = new ArrayList<>();
         cmd.add("yt-dlp");
+        // Общий кэш плеера и подписей
+        cmd.addAll(ytDlpCache.args());
 
         // Добавить cookies, если они настроены
         if (cookiesFile != null && !cookiesFile.isBlank()) {
@@ -73,61 +108,47 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
 
         // Продолжить неполные загрузки
         cmd.add("-c");
+        // Прогресс отдельными машиночитаемыми строками
+        cmd.addAll(YtDlpProgressParser.ARGS);
+
+        // Итоговый файл в outputDir, промежуточные (.part, фрагменты) — в рабочей директории задачи,
+        // чтобы при отмене их можно было удалить целиком
+        cmd.add("-P");
+        cmd.add("home:" + outputDir);
+        cmd.add("-P");
+        cmd.add("temp:" + storage.getTaskTempDir(taskId));
+
+        cmd.addAll(extraArgs);
 
         // Указать шаблон имени файла
-        String outputTemplate = "%(id)s.%(ext)s";
+        String outputTemplate = "%(id)s" + suffix + ".%(ext)s";
         cmd.add("-o");
-        cmd.add(outputDir.resolve(outputTemplate).toString());
-
-        // Добавить URL в конец команды
-        cmd.add(url);
+        cmd.add(outputTemplate);
 
         log.debug("⏳ Executing yt-dlp command | TaskID: {} | Format: {}", taskId, formatId);
-        
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.directory(outputDir.toFile());
-        pb.redirectErrorStream(false);
-        Process p = pb.start();
-
-        // Читать output и error потоки
-        StringBuilder output = new StringBuilder();
-        StringBuilder error = new StringBuilder();
-        
-        Thread outputThread = new Thread(() -> {
-            try (var reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                    log.debug("📊 yt-dlp output | TaskID: {} | {}", taskId, line);
-                }
-            } catch (Exception e) {
-                log.warn("⚠️ Error reading output | TaskID: {}", taskId, e);
-            }
-        });
 
-        Thread errorThread = new Thread(() -> {
-            try (var reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(p.getErrorStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    error.append(line).append("\n");
-                    log.debug("⚠️ yt-dlp error | TaskID: {} | {}", taskId, line);
-                }
-            } catch (Exception e) {
-                log.warn("⚠️ Error reading error stream | TaskID: {}", taskId, e);
+        int streams = YtDlpProgressParser.expectedStreams(cmd.get(cmd.indexOf("-f") + 1));
+        String videoId = extractVideoId(url);
+        // JSON, сохранённый при /api/info, избавляет от повторного извлечения перед загрузкой
+        Path infoJson = infoJsonStore.find(getServiceName(), videoId);
+        ProcessResult result;
+        if (infoJson != null) {
+            log.info("🧾 Reusing extracted info JSON | TaskID: {} | VideoID: {}", taskId, videoId);
+            result = runDownload(cmd, List.of("--load-info-json", infoJson.toString()), outputDir, streams, taskId);
+            if (result.getExitCode() != 0 && !processSupervisor.isCancelled(taskId)) {
+                // Скорее всего истекли ссылки на потоки — извлечь заново
+                log.warn("⚠️ Download from saved info JSON failed, retrying with fresh extraction | TaskID: {} | Error: {}",
+                        taskId, result.errorMessage());
+                infoJsonStore.invalidate(getServiceName(), videoId);
+                result = runDownload(cmd, List.of(url), outputDir, streams, taskId);
             }
-        });
-
-        outputThread.start();
-        errorThread.start();
-
-        int rc = p.waitFor();
-        outputThread.join(5000);
-        errorThread.join(5000);
+        } else {
+            result = runDownload(cmd, List.of(url), outputDir, streams, taskId);
+        }
+        int rc = result.getExitCode();
 
         if (rc != 0) {
-            String errorMsg = error.toString().isEmpty() ? output.toString() : error.toString();
+            String errorMsg = result.errorMessage();
             long duration = System.currentTimeMillis() - startTime;
             log.error("❌ YouTube download failed | TaskID: {} | Code: {} | Duration: {}ms | Error: {}", 
                     taskId, rc, duration, errorMsg);
@@ -135,7 +156,6 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
         }
 
         // Найти скачанный файл
-        String videoId = extractVideoId(url);
         if (videoId == null) {
             log.error("❌ Could not extract video ID | TaskID: {} | URL: {}", taskId, url);
             throw new RuntimeException("Could not extract video ID from URL");
@@ -147,7 +167,7 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
         
         // Сначала ищем файлы видео
         for (String ext : new String[]{"mp4", "mkv", "webm", "flv", "avi", "mov"}) {
-            Path file = outputDir.resolve(videoId + "." + ext);
+            Path file = outputDir.resolve(videoId + suffix + "." + ext);
             if (file.toFile().exists()) {
                 videoFile = file;
                 log.debug("📹 Found video file: {}", file.getFileName());
@@ -157,7 +177,7 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
         
         // Потом ищем файлы аудио
         for (String ext : new String[]{"m4a", "aac", "mp3", "opus", "wav", "wma"}) {
-            Path file = outputDir.resolve(videoId + "." + ext);
+            Path file = outputDir.resolve(videoId + suffix + "." + ext);
             if (file.toFile().exists()) {
                 audioFile = file;
                 log.debug("🎵 Found audio file: {}", file.getFileName());
@@ -169,8 +189,10 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
         if (videoFile != null && audioFile != null) {
             log.info("🔀 Found separate video and audio files, merging with ffmpeg | TaskID: {}", taskId);
             try {
-                Path mergedFile = outputDir.resolve(videoId + "_merged.mp4");
-                MediaMerger.mergeVideoAudio(videoFile, audioFile, mergedFile, taskId);
+                Path mergedFile = outputDir.resolve(videoId + suffix + "_merged.mp4");
+                processSupervisor.trackArtifact(taskId, mergedFile);
+                progressTracker.phase(taskId, "merging");
+                mediaMerger.mergeVideoAudio(videoFile, audioFile, mergedFile, taskId);
                 long duration = System.currentTimeMillis() - startTime;
                 log.info("✅ YouTube download completed (merged) | TaskID: {} | Filename: {} | Duration: {}ms", 
                         taskId, mergedFile.getFileName(), duration);
@@ -208,208 +230,82 @@ public class YouTubeDownloadStrategy implements DownloadStrategy {
         throw new RuntimeException("Downloaded file not found in output directory");
     }
 
-    @Override
-    public Path downloadTimeRange(String url, Path outputDir, String formatId, String taskId,
-                                  String startTime, String endTime) throws Exception {
-        log.info("⏱️  YouTube download with time range | TaskID: {} | Start: {}s | End: {}s", 
-                taskId, startTime, endTime);
-        
-        // Сначала скачиваем полное видео
-        Path fullVideoPath = download(url, outputDir, formatId, taskId);
-        
-        // Затем вырезаем нужный диапазон
-        List<String> cmd = new ArrayList<>();
-        cmd.add("ffmpeg");
-        cmd.add("-i");
-        cmd.add(fullVideoPath.toString());
-        cmd.add("-ss");
-        cmd.add(startTime);
-        cmd.add("-to");
-        cmd.add(endTime);
-        cmd.add("-c");
-        cmd.add("copy");  // Копируем без перекодирования для скорости
-        
-        // Генерируем имя выходного файла
-        String filename = "trimmed_" + System.currentTimeMillis() + ".mp4";
-        Path outputPath = outputDir.resolve(filename);
-        cmd.add(outputPath.toString());
-
-        log.debug("⏳ Executing ffmpeg trim command | TaskID: {}", taskId);
-        
+    /**
+     * Запустить yt-dlp с общими аргументами и источником: ссылкой или --load-info-json.
+     */
+    private ProcessResult runDownload(List<String> args, List<String> source, Path outputDir, int streams,
+                                      String taskId) throws Exception {
+        List<String> cmd = new ArrayList<>(args);
+        cmd.addAll(source);
         ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        try (var reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
+        pb.directory(outputDir.toFile());
+        pb.redirectErrorStream(false);
+        YtDlpProgressParser progressParser = new YtDlpProgressParser(progressTracker.start(taskId, streams));
+        return processSupervisor.run(taskId, ProcessStage.FETCH, pb, progressParser, (line, stderr) -> {
+            if (stderr) {
+                log.debug("⚠️ yt-dlp error | TaskID: {} | {}", taskId, line);
+            } else {
+                log.debug("📊 yt-dlp output | TaskID: {} | {}", taskId, line);
             }
-        }
-
-        int exitCode = p.waitFor();
-        
-        if (exitCode != 0) {
-            log.error("❌ Time range extraction failed | TaskID: {} | Exit code: {}", taskId, exitCode);
-            throw new RuntimeException("Failed to extract time range");
-        }
-
-        log.info("✅ Time range extraction completed | TaskID: {} | File: {}", taskId, filename);
-        return outputPath;
+        });
     }
 
+    /**
+     * Извлечь ID видео из URL YouTube.
+     */
     @Override
-    public Path extractFrame(String url, Path outputDir, String taskId, String frameTime) throws Exception {
-        log.info("📷 YouTube frame extraction | TaskID: {} | Frame time: {}s", taskId, frameTime);
-        
-        // Сначала загрузим видео в формате, с которым может работать ffmpeg
-        // Используем лучший доступный формат (обычно 720p или выше)
-        String tempVideoFile = "temp_" + System.currentTimeMillis() + ".mp4";
-        Path tempVideoPath = outputDir.resolve(tempVideoFile);
-
-        log.debug("⏳ Downloading video for frame extraction | TaskID: {} | Temp file: {}", 
-                taskId, tempVideoFile);
-
-        // Используем yt-dlp для загрузки лучшего видеоформата
-        List<String> downloadCmd = new ArrayList<>();
-        downloadCmd.add("yt-dlp");
-        downloadCmd.add("-f");
-        downloadCmd.add("b");  // Лучший доступный формат (без предупреждения)
-        downloadCmd.add("-o");
-        downloadCmd.add(tempVideoPath.toString());
-        downloadCmd.add(url);
-
-        log.debug("⏳ Executing yt-dlp download | TaskID: {}", taskId);
-        ProcessBuilder pb = new ProcessBuilder(downloadCmd);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        try (var reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                log.debug("📥 Download output | TaskID: {} | {}", taskId, line);
-            }
-        }
-
-        int exitCode = p.waitFor();
-        if (exitCode != 0) {
-            log.error("❌ Failed to download video for frame extraction | TaskID: {} | Error: {}", 
-                    taskId, output);
-            throw new RuntimeException("Failed to download video for frame extraction");
+    public String extractVideoId(String url) {
+        if (url == null) {
+            return null;
         }
-
-        if (!java.nio.file.Files.exists(tempVideoPath)) {
-            log.error("❌ Temp video file not created | TaskID: {}", taskId);
-            throw new RuntimeException("Temp video file not created");
+        String text = url.trim();
+        if (!text.contains("://")) {
+            text = "https://" + text;
         }
-
-        log.debug("✅ Video downloaded | TaskID: {} | File: {}", taskId, tempVideoFile);
-
-        // Теперь извлекаем кадр из локального файла
-        List<String> ffmpegCmd = new ArrayList<>();
-        ffmpegCmd.add("ffmpeg");
-        ffmpegCmd.add("-ss");
-        ffmpegCmd.add(frameTime);
-        ffmpegCmd.add("-i");
-        ffmpegCmd.add(tempVideoPath.toString());
-        ffmpegCmd.add("-vframes");
-        ffmpegCmd.add("1");
-        ffmpegCmd.add("-q:v");
-        ffmpegCmd.add("2");  // Высокое качество
-        ffmpegCmd.add("-f");
-        ffmpegCmd.add("image2");
-
-        String frameFilename = "frame_" + System.currentTimeMillis() + ".png";
-        Path outputPath = outputDir.resolve(frameFilename);
-        ffmpegCmd.add(outputPath.toString());
-
-        log.debug("⏳ Extracting frame with ffmpeg | TaskID: {} | Output: {}", taskId, frameFilename);
-
-        pb = new ProcessBuilder(ffmpegCmd);
-        pb.redirectErrorStream(true);
-        p = pb.start();
-
-        output = new StringBuilder();
-        try (var reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
-            }
+        URI uri;
+        try {
+            uri = new URI(text);
+        } catch (URISyntaxException e) {
+            return null;
         }
-
-        exitCode = p.waitFor();
-        
-        if (exitCode != 0) {
-            log.error("❌ Frame extraction failed | TaskID: {} | Exit code: {} | Output: {}", 
-                    taskId, exitCode, output);
-            // Очистим временный файл перед выбросом ошибки
-            try {
-                java.nio.file.Files.deleteIfExists(tempVideoPath);
-            } catch (Exception e) {
-                log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
-                        taskId, tempVideoPath);
-            }
-            throw new RuntimeException("Failed to extract frame: " + output);
+        String host = uri.getHost();
+        String path = uri.getPath();
+        if (host == null || path == null) {
+            return null;
         }
+        host = host.toLowerCase(Locale.ROOT);
+        String[] segments = path.replaceFirst("^/+", "").split("/");
 
-        if (!java.nio.file.Files.exists(outputPath)) {
-            log.error("❌ Frame file not created | TaskID: {} | Expected: {}", taskId, outputPath);
-            try {
-                java.nio.file.Files.deleteIfExists(tempVideoPath);
-            } catch (Exception e) {
-                log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
-                        taskId, tempVideoPath);
-            }
-            throw new RuntimeException("Frame extraction failed: output file not created");
+        // youtu.be/VIDEO_ID
+        if (host.equals("youtu.be") || host.endsWith(".youtu.be")) {
+            return validVideoId(segments[0]);
         }
-
-        // Удаляем временный файл
-        try {
-            java.nio.file.Files.deleteIfExists(tempVideoPath);
-            log.debug("🗑️ Temp video file deleted | TaskID: {} | File: {}", taskId, tempVideoFile);
-        } catch (Exception e) {
-            log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
-                    taskId, tempVideoPath);
+        if (!host.equals("youtube.com") && !host.endsWith(".youtube.com")) {
+            return null;
         }
 
-        long fileSize = java.nio.file.Files.size(outputPath);
-        log.info("✅ Frame extracted successfully | TaskID: {} | File: {} | Size: {} bytes", 
-                taskId, frameFilename, fileSize);
-        return outputPath;
-    }
-
-    /**
-     * Извлечь ID видео из URL YouTube.
-     */
-    private String extractVideoId(String url) {
-        // youtube.com/watch?v=VIDEO_ID
-        if (url.contains("watch?v=")) {
-            int start = url.indexOf("watch?v=") + 8;
-            int end = url.indexOf("&", start);
-            if (end == -1) {
-                end = url.length();
+        // youtube.com/watch?v=VIDEO_ID — параметр v может стоять в любом месте запроса
+        if (segments[0].equals("watch")) {
+            String query = uri.getRawQuery();
+            if (query == null) {
+                return null;
             }
-            return url.substring(start, end);
-        }
-
-        // youtu.be/VIDEO_ID
-        if (url.contains("youtu.be/")) {
-            int start = url.indexOf("youtu.be/") + 9;
-            int end = url.indexOf("?", start);
-            if (end == -1) {
-                end = url.length();
+            for (String param : query.split("&")) {
+                if (param.startsWith("v=")) {
+                    return validVideoId(URLDecoder.decode(param.substring(2), StandardCharsets.UTF_8));
+                }
             }
-            return url.substring(start, end);
+            return null;
         }
 
+        // youtube.com/shorts/VIDEO_ID, /embed/VIDEO_ID, /live/VIDEO_ID, /v/VIDEO_ID
+        if (segments.length >= 2 && VIDEO_PATHS.contains(segments[0])) {
+            return validVideoId(segments[1]);
+        }
         return null;
     }
+
+    private static String validVideoId(String candidate) {
+        return candidate != null && VIDEO_ID.matcher(candidate).matches() ? candidate : null;
+    }
 }
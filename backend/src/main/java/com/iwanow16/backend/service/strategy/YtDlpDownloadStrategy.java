@@ -0,0 +1,440 @@
+package com.iwanow16.backend.service.strategy;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.extractor.MetadataBusyException;
+import com.iwanow16.backend.extractor.StreamUrlResolver;
+import com.iwanow16.backend.extractor.YtDlpCacheDir;
+import com.iwanow16.backend.model.dto.ClipDto;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+import com.iwanow16.backend.service.FileStorageService;
+import com.iwanow16.backend.util.ClipCutter;
+import com.iwanow16.backend.util.ClipRanges;
+import com.iwanow16.backend.util.DownloadProgress;
+import com.iwanow16.backend.util.DownloadSections;
+import com.iwanow16.backend.util.FrameExtractorUtil;
+import com.iwanow16.backend.util.MediaMerger;
+import com.iwanow16.backend.util.ProcessResult;
+import com.iwanow16.backend.util.ProcessStage;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import com.iwanow16.backend.util.ProcessTimeoutException;
+import com.iwanow16.backend.util.ProgressTracker;
+import com.iwanow16.backend.util.SmartTrimmer;
+import com.iwanow16.backend.util.YtDlpProgressParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Общая часть стратегий, скачивающих через yt-dlp: участки по времени, несколько клипов,
+ * кадры из потока или из скачанного видео. Сервисы отличаются только загрузкой (fetch),
+ * параметрами yt-dlp и подписью в логах.
+ */
+public abstract class YtDlpDownloadStrategy implements DownloadStrategy {
+    private static final Logger log = LoggerFactory.getLogger(YtDlpDownloadStrategy.class);
+
+    @Autowired
+    protected DownloaderProperties props;
+
+    @Autowired
+    protected FrameExtractorUtil frameExtractorUtil;
+
+    @Autowired
+    protected MediaMerger mediaMerger;
+
+    @Autowired
+    protected ProcessSupervisor processSupervisor;
+
+    @Autowired
+    protected FileStorageService storage;
+
+    @Autowired
+    protected ProgressTracker progressTracker;
+
+    @Autowired
+    protected YtDlpCacheDir ytDlpCache;
+
+    @Autowired
+    protected StreamUrlResolver streamUrlResolver;
+
+    @Autowired
+    protected ClipCutter clipCutter;
+
+    @Autowired
+    protected SmartTrimmer smartTrimmer;
+
+    /**
+     * Название сервиса для логов ("YouTube", "Bilibili").
+     */
+    protected abstract String serviceLabel();
+
+    /**
+     * Параметры yt-dlp сервиса (cookies, user-agent) для получения прямой ссылки на поток.
+     */
+    protected abstract List<String> streamOptions();
+
+    /**
+     * Параметры yt-dlp для загрузки видео, из которого извлекаются кадры.
+     */
+    protected abstract List<String> frameDownloadOptions();
+
+    /**
+     * Скачать видео yt-dlp.
+     * @param extraArgs дополнительные параметры yt-dlp (например, --download-sections)
+     * @param suffix добавляется к ID видео в имени файла и к склеенному файлу; содержит ID задачи,
+     *               чтобы загрузки одного видео в разных форматах не писали в один файл
+     *               (с -c yt-dlp счёл бы чужой файл уже скачанным)
+     */
+    protected abstract Path fetch(String url, Path outputDir, String formatId, String taskId,
+                                  List<String> extraArgs, String suffix) throws Exception;
+
+    @Override
+    public Path download(String url, Path outputDir, String formatId, String taskId) throws Exception {
+        return fetch(url, outputDir, formatId, taskId, List.of(), "_" + taskId);
+    }
+
+    /**
+     * Скачать участок через yt-dlp --download-sections: загружаются только фрагменты,
+     * покрывающие интервал.
+     */
+    protected Path downloadSection(String url, Path outputDir, String formatId, String taskId,
+                                 String startTime, String endTime) throws Exception {
+        return downloadSection(url, outputDir, formatId, taskId, startTime, endTime, "_clip_" + taskId);
+    }
+
+    /**
+     * @param suffix суффикс имени файла, разный для участков одной задачи
+     */
+    protected Path downloadSection(String url, Path outputDir, String formatId, String taskId,
+                                 String startTime, String endTime, String suffix) throws Exception {
+        long started = System.currentTimeMillis();
+        Path clip = fetch(url, outputDir, formatId, taskId, DownloadSections.args(startTime, endTime), suffix);
+        DownloadProgress progress = progressTracker.get(taskId);
+        long fetched = progress != null ? progress.getDownloadedBytes() : 0;
+        if (fetched == 0 && progress != null) {
+            // ffmpeg-загрузчик yt-dlp не всегда сообщает прогресс — считать скачанным размер участка
+            fetched = Files.size(clip);
+            progress.update(fetched, fetched, -1);
+        }
+        log.info("✂️ {} section downloaded | TaskID: {} | Range: {}-{} | Fetched: {} bytes | Duration: {}ms",
+                serviceLabel(), taskId, startTime, endTime, fetched, System.currentTimeMillis() - started);
+        return clip;
+    }
+
+    @Override
+    public Path downloadClips(String url, Path outputDir, String formatId, String taskId, List<ClipDto> clips)
+            throws Exception {
+        List<ClipRanges.Cluster> clusters = ClipRanges.clusters(clips, props.getClips().getMergeGap().toMillis() / 1000.0);
+        log.info("✂️ {} multi-clip download | TaskID: {} | Clips: {} | Sections: {}",
+                serviceLabel(), taskId, clips.size(), clusters.size());
+        Path workDir = storage.getTaskTempDir(taskId);
+        Path clipsDir = clipCutter.createClipsDir(workDir);
+
+        // Отдельный участок на каждую группу близких клипов; полное видео — если участок получить не удалось
+        Path full = null;
+        for (int n = 0; n < clusters.size(); n++) {
+            ClipRanges.Cluster cluster = clusters.get(n);
+            if (full == null) {
+                Path section = null;
+                try {
+                    section = downloadSection(url, workDir, formatId, taskId, ClipRanges.seconds(cluster.start()),
+                            ClipRanges.seconds(cluster.end()), "_clip_" + taskId + "_" + n);
+                } catch (ProcessTimeoutException | CancellationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (processSupervisor.isCancelled(taskId)) {
+                        throw e;
+                    }
+                    log.warn("⚠️ Section download failed, falling back to full download | TaskID: {} | Error: {}",
+                            taskId, e.getMessage());
+                }
+                if (section != null) {
+                    progressTracker.phase(taskId, "trimming");
+                    // Ноль участка может быть ключевым кадром перед началом группы, а не её началом.
+                    // Поиск начала проверен только вместе с точной обрезкой и без неё не запускается
+                    double offset = smartTrimmer.isSmart()
+                            ? smartTrimmer.sectionStart(section, cluster.end() - cluster.start(), taskId)
+                            : 0;
+                    clipCutter.cut(section, cluster.start() - offset, clips, cluster.indices(), clipsDir, taskId);
+                    // Участок больше не нужен, следующий скачивается в ту же директорию
+                    Files.deleteIfExists(section);
+                    continue;
+                }
+                full = fetch(url, workDir, formatId, taskId, List.of(), "_" + taskId);
+            }
+            progressTracker.phase(taskId, "trimming");
+            clipCutter.cut(full, 0, clips, cluster.indices(), clipsDir, taskId);
+        }
+        return clipCutter.pack(clips, clipsDir, outputDir, taskId);
+    }
+
+    @Override
+    public Path downloadTimeRange(String url, Path outputDir, String formatId, String taskId,
+                                  String startTime, String endTime) throws Exception {
+        log.info("⏱️  {} download with time range | TaskID: {} | Start: {}s | End: {}s",
+                serviceLabel(), taskId, startTime, endTime);
+        
+        // Скачать только нужный участок; полная загрузка с обрезкой — если участок получить не удалось
+        Path section = null;
+        if (DownloadSections.isSupported(startTime, endTime)) {
+            try {
+                section = downloadSection(url, outputDir, formatId, taskId, startTime, endTime);
+            } catch (ProcessTimeoutException | CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                if (processSupervisor.isCancelled(taskId)) {
+                    throw e;
+                }
+                log.warn("⚠️ Section download failed, falling back to full download | TaskID: {} | Error: {}",
+                        taskId, e.getMessage());
+            }
+        }
+
+        if (section != null) {
+            SmartTrimmer.Source probed = smartTrimmer.probe(section, taskId);
+            if (!probed.smart()) {
+                return section;
+            }
+            // Участок начинается с ключевого кадра перед началом интервала: точная обрезка от реального начала
+            double duration = DownloadSections.toSeconds(endTime) - DownloadSections.toSeconds(startTime);
+            double offset = smartTrimmer.sectionStart(section, duration, taskId);
+            String filename = "trimmed_" + UUID.randomUUID() + ".mp4";
+            Path outputPath = outputDir.resolve(filename);
+            processSupervisor.trackArtifact(taskId, outputPath);
+            progressTracker.phase(taskId, "trimming");
+            smartTrimmer.trim(probed, ClipRanges.seconds(offset), ClipRanges.seconds(offset + duration), outputPath, taskId);
+            Files.deleteIfExists(section);
+            log.info("✅ Time range extraction completed | TaskID: {} | File: {}", taskId, filename);
+            return outputPath;
+        }
+
+        // Сначала скачиваем полное видео
+        Path fullVideoPath = download(url, outputDir, formatId, taskId);
+        
+        // Затем вырезаем нужный диапазон: копируется середина, перекодируются только края
+        String filename = "trimmed_" + UUID.randomUUID() + ".mp4";
+        Path outputPath = outputDir.resolve(filename);
+        processSupervisor.trackArtifact(taskId, outputPath);
+        progressTracker.phase(taskId, "trimming");
+        smartTrimmer.trim(fullVideoPath, startTime, endTime, outputPath, taskId);
+
+        log.info("✅ Time range extraction completed | TaskID: {} | File: {}", taskId, filename);
+        return outputPath;
+    }
+
+    @Override
+    public Path extractFrame(String url, Path outputDir, String taskId, String frameTime) throws Exception {
+        log.info("📷 {} frame extraction | TaskID: {} | Frame time: {}s", serviceLabel(), taskId, frameTime);
+
+        // Сначала кадр прямо из потока: читаются только данные около нужного момента
+        String videoId = extractVideoId(url);
+        if (streamUrlResolver.isEnabled() && videoId != null) {
+            try {
+                return fromStream(url, videoId, taskId, stream -> frameExtractorUtil.extractFrameFromStream(
+                        stream.getUrl(), stream.getHeaders(), frameTime, outputDir, taskId));
+            } catch (ProcessTimeoutException | CancellationException | MetadataBusyException e) {
+                // Занятость извлечения метаданных не повод скачивать видео целиком
+                throw e;
+            } catch (Exception e) {
+                if (processSupervisor.isCancelled(taskId)) {
+                    throw e;
+                }
+                log.warn("⚠️ Frame extraction from stream failed, downloading full video | TaskID: {} | Error: {}",
+                        taskId, e.getMessage());
+            }
+        }
+        return extractFrameFromDownload(url, outputDir, taskId, frameTime);
+    }
+
+    @Override
+    public Path extractFrames(String url, Path outputDir, String taskId, FrameBatchDto batch) throws Exception {
+        log.info("🎞️ {} batch frame extraction | TaskID: {} | Sheet: {}", serviceLabel(), taskId, batch.isSheet());
+        Path workDir = storage.getTaskTempDir(taskId);
+
+        // Все кадры из потока: ffmpeg читает только участки около нужных моментов
+        String videoId = extractVideoId(url);
+        if (streamUrlResolver.isEnabled() && videoId != null) {
+            try {
+                return fromStream(url, videoId, taskId, stream -> frameExtractorUtil.extractFrames(
+                        stream.getUrl(), stream.getHeaders(), stream.getDuration(), batch, workDir, outputDir, taskId));
+            } catch (ProcessTimeoutException | CancellationException | MetadataBusyException e) {
+                // Занятость извлечения метаданных не повод скачивать видео целиком
+                throw e;
+            } catch (Exception e) {
+                if (processSupervisor.isCancelled(taskId)) {
+                    throw e;
+                }
+                log.warn("⚠️ Batch frame extraction from stream failed, downloading full video | TaskID: {} | Error: {}",
+                        taskId, e.getMessage());
+            }
+        }
+
+        Path video = downloadForFrames(url, taskId);
+        progressTracker.phase(taskId, "extracting");
+        return frameExtractorUtil.extractFrames(video.toString(), Map.of(), frameExtractorUtil.probeDuration(video, taskId),
+                batch, workDir, outputDir, taskId);
+    }
+
+    /**
+     * Выполнить действие над прямой ссылкой на поток. Ссылка из кэша могла истечь — тогда она
+     * запрашивается заново и действие повторяется один раз.
+     */
+    private Path fromStream(String url, String videoId, String taskId,
+                            StreamUrlResolver.StreamAction<Path> action) throws Exception {
+        List<String> options = streamOptions();
+        progressTracker.start(taskId, 1);
+        progressTracker.phase(taskId, "extracting");
+        StreamUrlResolver.ResolvedStream stream = resolveStream(url, videoId, options, taskId);
+        log.info("🔗 Reading frames from stream | TaskID: {} | Format: {} | Height: {}",
+                taskId, stream.getFormatId(), stream.getHeight());
+        try {
+            return action.apply(stream);
+        } catch (ProcessTimeoutException | CancellationException | IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            if (processSupervisor.isCancelled(taskId)) {
+                throw e;
+            }
+            streamUrlResolver.invalidate(getServiceName(), videoId);
+            return action.apply(resolveStream(url, videoId, options, taskId));
+        }
+    }
+
+    /**
+     * Получить ссылку на поток. Слот извлечения метаданных ждётся в очереди bulkhead не дольше
+     * metadata-queue-timeout; дальше задача завершается с причиной busy и временем повтора,
+     * а не держит место в планировщике загрузок.
+     * @throws MetadataBusyException если очередь заполнена или слот не освободился вовремя
+     */
+    private StreamUrlResolver.ResolvedStream resolveStream(String url, String videoId, List<String> options,
+                                                           String taskId) throws Exception {
+        return streamUrlResolver.resolve(getServiceName(), videoId, url, options, taskId);
+    }
+
+    /**
+     * Извлечь кадр из полностью скачанного видео.
+     */
+    private Path extractFrameFromDownload(String url, Path outputDir, String taskId, String frameTime)
+            throws Exception {
+        Path tempVideoPath = downloadForFrames(url, taskId);
+        String tempVideoFile = tempVideoPath.getFileName().toString();
+
+        // Теперь извлекаем кадр из локального файла
+        List<String> ffmpegCmd = new ArrayList<>();
+        ffmpegCmd.add("ffmpeg");
+        ffmpegCmd.add("-ss");
+        ffmpegCmd.add(frameTime);
+        ffmpegCmd.add("-i");
+        ffmpegCmd.add(tempVideoPath.toString());
+        ffmpegCmd.add("-vframes");
+        ffmpegCmd.add("1");
+        ffmpegCmd.add("-q:v");
+        ffmpegCmd.add("2");  // Высокое качество
+        ffmpegCmd.add("-f");
+        ffmpegCmd.add("image2");
+
+        String frameFilename = "frame_" + UUID.randomUUID() + ".png";
+        Path outputPath = outputDir.resolve(frameFilename);
+        processSupervisor.trackArtifact(taskId, outputPath);
+        ffmpegCmd.add(outputPath.toString());
+
+        log.debug("⏳ Extracting frame with ffmpeg | TaskID: {} | Output: {}", taskId, frameFilename);
+
+        ProcessBuilder pb = new ProcessBuilder(ffmpegCmd);
+        pb.redirectErrorStream(true);
+        progressTracker.phase(taskId, "extracting");
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.FRAME, pb,
+                (line, stderr) -> log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line));
+
+        int exitCode = result.getExitCode();
+        
+        if (exitCode != 0) {
+            log.error("❌ Frame extraction failed | TaskID: {} | Exit code: {} | Output: {}", 
+                    taskId, exitCode, result.getOutput());
+            // Очистим временный файл перед выбросом ошибки
+            try {
+                Files.deleteIfExists(tempVideoPath);
+            } catch (Exception e) {
+                log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
+                        taskId, tempVideoPath);
+            }
+            throw new RuntimeException("Failed to extract frame: " + result.getOutput());
+        }
+
+        if (!Files.exists(outputPath)) {
+            log.error("❌ Frame file not created | TaskID: {} | Expected: {}", taskId, outputPath);
+            try {
+                Files.deleteIfExists(tempVideoPath);
+            } catch (Exception e) {
+                log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
+                        taskId, tempVideoPath);
+            }
+            throw new RuntimeException("Frame extraction failed: output file not created");
+        }
+
+        // Удаляем временный файл
+        try {
+            Files.deleteIfExists(tempVideoPath);
+            log.debug("🗑️ Temp video file deleted | TaskID: {} | File: {}", taskId, tempVideoFile);
+        } catch (Exception e) {
+            log.warn("⚠️ Failed to delete temp video file | TaskID: {} | File: {}", 
+                    taskId, tempVideoPath);
+        }
+
+        long fileSize = Files.size(outputPath);
+        log.info("✅ Frame extracted successfully | TaskID: {} | File: {} | Size: {} bytes", 
+                taskId, frameFilename, fileSize);
+        return outputPath;
+    }
+
+    /**
+     * Скачать видео во временный файл задачи для извлечения кадров.
+     */
+    private Path downloadForFrames(String url, String taskId) throws Exception {
+        // Сначала загрузим видео в формате, с которым может работать ffmpeg
+        String tempVideoFile = "temp_" + UUID.randomUUID() + ".mp4";
+        Path tempVideoPath = storage.getTaskTempDir(taskId).resolve(tempVideoFile);
+
+        log.debug("⏳ Downloading video for frame extraction | TaskID: {} | Temp file: {}", 
+                taskId, tempVideoFile);
+
+        // Используем yt-dlp для загрузки лучшего видеоформата
+        List<String> downloadCmd = new ArrayList<>();
+        downloadCmd.add("yt-dlp");
+        downloadCmd.addAll(ytDlpCache.args());
+        downloadCmd.addAll(frameDownloadOptions());
+        downloadCmd.addAll(YtDlpProgressParser.ARGS);
+        downloadCmd.add("-o");
+        downloadCmd.add(tempVideoPath.toString());
+        downloadCmd.add(url);
+
+        log.debug("⏳ Executing yt-dlp download | TaskID: {}", taskId);
+        ProcessBuilder pb = new ProcessBuilder(downloadCmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.FETCH, pb,
+                new YtDlpProgressParser(progressTracker.start(taskId, 1)),
+                (line, stderr) -> log.debug("📥 Download output | TaskID: {} | {}", taskId, line));
+
+        int exitCode = result.getExitCode();
+        if (exitCode != 0) {
+            log.error("❌ Failed to download video for frame extraction | TaskID: {} | Error: {}", 
+                    taskId, result.getOutput());
+            throw new RuntimeException("Failed to download video for frame extraction");
+        }
+
+        if (!Files.exists(tempVideoPath)) {
+            log.error("❌ Temp video file not created | TaskID: {}", taskId);
+            throw new RuntimeException("Temp video file not created");
+        }
+
+        log.debug("✅ Video downloaded | TaskID: {} | File: {}", taskId, tempVideoFile);
+        return tempVideoPath;
+    }
+}
@@ -0,0 +1,219 @@
+package com.iwanow16.backend.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.model.dto.ClipDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Нарезка нескольких клипов из скачанного видео или его участков с упаковкой в zip вместе с manifest.json.
+ *
+ * Исходник проверяется ffprobe один раз. Если точная обрезка (downloader.trim.smart) включена
+ * для его кодека, каждый клип режется SmartTrimmer: обрезка копированием начинает клип с ключевого
+ * кадра перед началом участка, и клип получается длиннее запрошенного. Иначе все клипы источника
+ * режутся одним процессом ffmpeg с копированием: файл читается один раз, каждый участок пишется
+ * в свой выход.
+ */
+@Component
+public class ClipCutter {
+    private static final Logger log = LoggerFactory.getLogger(ClipCutter.class);
+    // Меньше — только заголовок контейнера: в участке не оказалось ни одного пакета
+    private static final long MIN_CLIP_BYTES = 1024;
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Autowired
+    private SmartTrimmer smartTrimmer;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Нарезать все клипы из одного источника и упаковать их в архив.
+     * @param source скачанное видео или участок видео
+     * @param sourceOffset момент видео, с которого начинается source (0 для полного видео)
+     * @param clips участки; результат (file, fileSize или error) записывается в них
+     * @param workDir рабочая директория задачи для промежуточных файлов
+     * @return путь к архиву zip
+     * @throws RuntimeException если не получилось ни одного клипа
+     */
+    public Path cutClips(Path source, double sourceOffset, List<ClipDto> clips, Path workDir, Path outputDir,
+                         String taskId) throws Exception {
+        Path clipsDir = createClipsDir(workDir);
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < clips.size(); i++) {
+            all.add(i);
+        }
+        cut(source, sourceOffset, clips, all, clipsDir, taskId);
+        return pack(clips, clipsDir, outputDir, taskId);
+    }
+
+    /**
+     * Директория для нарезанных клипов одной задачи.
+     */
+    public Path createClipsDir(Path workDir) throws Exception {
+        return Files.createDirectories(workDir.resolve("clips_" + UUID.randomUUID()));
+    }
+
+    /**
+     * Нарезать часть клипов из источника в clipsDir.
+     * @param indices номера нарезаемых участков в clips, по ним же нумеруются файлы
+     */
+    public void cut(Path source, double sourceOffset, List<ClipDto> clips, List<Integer> indices, Path clipsDir,
+                    String taskId) throws Exception {
+        String ext = extension(source);
+        long started = System.currentTimeMillis();
+        List<Integer> targets = new ArrayList<>();
+        for (int i : indices) {
+            ClipDto clip = clips.get(i);
+            if (ClipRanges.end(clip) - sourceOffset <= 0) {
+                clip.setError("Clip is outside the downloaded range");
+                continue;
+            }
+            clip.setFile(String.format(Locale.ROOT, "clip_%02d.%s", i + 1, ext));
+            targets.add(i);
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        SmartTrimmer.Source probed = smartTrimmer.probe(source, taskId);
+        log.info("✂️ Cutting clips | TaskID: {} | Clips: {} | Source: {} | Smart: {}",
+                taskId, targets.size(), source.getFileName(), probed.smart());
+        if (probed.smart()) {
+            for (int i : targets) {
+                trimOne(probed, sourceOffset, clips.get(i), clipsDir, taskId);
+            }
+        } else {
+            copyAll(source, sourceOffset, clips, targets, clipsDir, taskId);
+        }
+        log.info("✂️ Clips cut | TaskID: {} | Clips: {} | Duration: {}ms",
+                taskId, targets.size(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Точная обрезка одного клипа. Ошибка клипа записывается в него и не прерывает остальные.
+     */
+    private void trimOne(SmartTrimmer.Source source, double sourceOffset, ClipDto clip, Path clipsDir, String taskId)
+            throws Exception {
+        String from = ClipRanges.seconds(Math.max(0, ClipRanges.start(clip) - sourceOffset));
+        String to = ClipRanges.seconds(ClipRanges.end(clip) - sourceOffset);
+        try {
+            smartTrimmer.trim(source, from, to, clipsDir.resolve(clip.getFile()), taskId);
+        } catch (ProcessTimeoutException | CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (processSupervisor.isCancelled(taskId)) {
+                throw e;
+            }
+            log.warn("⚠️ Clip trim failed | TaskID: {} | Clip: {} | Range: {}-{} | Error: {}",
+                    taskId, clip.getFile(), clip.getStart(), clip.getEnd(), e.getMessage());
+            clip.setFile(null);
+            clip.setError("Failed to cut clip");
+        }
+    }
+
+    /**
+     * Все клипы одним процессом ffmpeg: -ss/-to перед каждым выходом, без перекодирования.
+     */
+    private void copyAll(Path source, double sourceOffset, List<ClipDto> clips, List<Integer> targets,
+                         Path clipsDir, String taskId) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.add("-i");
+        cmd.add(source.toString());
+        for (int i : targets) {
+            ClipDto clip = clips.get(i);
+            cmd.add("-ss");
+            cmd.add(ClipRanges.seconds(Math.max(0, ClipRanges.start(clip) - sourceOffset)));
+            cmd.add("-to");
+            cmd.add(ClipRanges.seconds(ClipRanges.end(clip) - sourceOffset));
+            cmd.add("-c");
+            cmd.add("copy");  // Копируем без перекодирования для скорости
+            cmd.add(clipsDir.resolve(clip.getFile()).toString());
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.TRIM, pb,
+                (line, stderr) -> log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line));
+        if (result.getExitCode() != 0) {
+            log.error("❌ Clip extraction failed | TaskID: {} | Exit code: {} | Error: {}",
+                    taskId, result.getExitCode(), result.errorMessage());
+            throw new RuntimeException("FFmpeg failed to cut clips: " + result.errorMessage());
+        }
+    }
+
+    /**
+     * Упаковать нарезанные клипы и manifest.json в архив.
+     * @return путь к архиву zip
+     * @throws RuntimeException если не получилось ни одного клипа
+     */
+    public Path pack(List<ClipDto> clips, Path clipsDir, Path outputDir, String taskId) throws Exception {
+        Path outputPath = outputDir.resolve("clips_" + UUID.randomUUID() + ".zip");
+        processSupervisor.trackArtifact(taskId, outputPath);
+        int packed = 0;
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(outputPath))) {
+            // Видео уже сжато кодеком
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            List<Map<String, Object>> manifest = new ArrayList<>();
+            for (ClipDto clip : clips) {
+                if (clip.getFile() != null) {
+                    Path file = clipsDir.resolve(clip.getFile());
+                    long size = Files.exists(file) ? Files.size(file) : 0;
+                    if (size < MIN_CLIP_BYTES) {
+                        clip.setFile(null);
+                        clip.setError("No media in clip range");
+                    } else {
+                        zip.putNextEntry(new ZipEntry(clip.getFile()));
+                        Files.copy(file, zip);
+                        zip.closeEntry();
+                        clip.setFileSize(size);
+                        packed++;
+                    }
+                }
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("start", clip.getStart());
+                entry.put("end", clip.getEnd());
+                entry.put("file", clip.getFile());
+                entry.put("fileSize", clip.getFileSize());
+                entry.put("error", clip.getError());
+                manifest.add(entry);
+            }
+            zip.putNextEntry(new ZipEntry("manifest.json"));
+            zip.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(Map.of("clips", manifest))
+                    .getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        if (packed == 0) {
+            Files.deleteIfExists(outputPath);
+            throw new RuntimeException("No clips could be cut from the video");
+        }
+
+        log.info("✅ Clips extracted | TaskID: {} | Clips: {}/{} | File: {} | Size: {} bytes",
+                taskId, packed, clips.size(), outputPath.getFileName(), Files.size(outputPath));
+        return outputPath;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1) : "mp4";
+    }
+}
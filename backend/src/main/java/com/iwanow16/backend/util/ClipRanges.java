@@ -0,0 +1,111 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.model.dto.ClipDto;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Разбор и проверка участков запроса на несколько клипов из одного видео.
+ */
+public final class ClipRanges {
+
+    /**
+     * Группа близких участков, скачиваемая одним --download-sections.
+     * @param indices номера участков в запросе
+     */
+    public record Cluster(double start, double end, List<Integer> indices) {
+    }
+
+    private ClipRanges() {
+    }
+
+    /**
+     * Проверить участки до постановки задачи в очередь.
+     * @throws IllegalArgumentException с понятным клиенту сообщением
+     */
+    public static void validate(List<ClipDto> clips, int maxClips) {
+        if (clips.isEmpty()) {
+            throw new IllegalArgumentException("No clips specified");
+        }
+        if (clips.size() > maxClips) {
+            throw new IllegalArgumentException("Too many clips, at most " + maxClips + " allowed");
+        }
+        for (ClipDto clip : clips) {
+            if (clip == null) {
+                throw new IllegalArgumentException("Empty clip");
+            }
+            if (start(clip) >= end(clip)) {
+                throw new IllegalArgumentException("Clip end must be after start: " + clip.getStart() + "-" + clip.getEnd());
+            }
+        }
+    }
+
+    public static double start(ClipDto clip) {
+        return DownloadSections.toSeconds(clip.getStart());
+    }
+
+    public static double end(ClipDto clip) {
+        return DownloadSections.toSeconds(clip.getEnd());
+    }
+
+    /**
+     * Сгруппировать участки: в группу попадают пересекающиеся участки и участки, между которыми
+     * не больше maxGap секунд. Группы упорядочены по началу. Так далёкие друг от друга клипы
+     * не тянут за собой загрузку всего промежутка, а соседние не скачиваются по отдельности.
+     */
+    public static List<Cluster> clusters(List<ClipDto> clips, double maxGap) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < clips.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble(i -> start(clips.get(i))));
+
+        List<Cluster> result = new ArrayList<>();
+        double start = 0;
+        double end = 0;
+        List<Integer> indices = null;
+        for (int i : order) {
+            ClipDto clip = clips.get(i);
+            if (indices != null && start(clip) - end <= maxGap) {
+                end = Math.max(end, end(clip));
+            } else {
+                if (indices != null) {
+                    result.add(new Cluster(start, end, indices));
+                }
+                start = start(clip);
+                end = end(clip);
+                indices = new ArrayList<>();
+            }
+            indices.add(i);
+        }
+        if (indices != null) {
+            result.add(new Cluster(start, end, indices));
+        }
+        return result;
+    }
+
+    /**
+     * Канонический вид участков для ключа объединения одинаковых задач. Порядок участков
+     * важен: он задаёт нумерацию клипов в архиве.
+     */
+    public static String key(List<ClipDto> clips) {
+        StringBuilder key = new StringBuilder();
+        for (ClipDto clip : clips) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(seconds(start(clip))).append('-').append(seconds(end(clip)));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Секунды с миллисекундами для ffmpeg и yt-dlp.
+     */
+    public static String seconds(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,187 @@
+package com.iwanow16.backend.util;
+
+/**
+ * Прогресс одной загрузки: байты, скорость и оставшееся время по всем этапам.
+ *
+ * Загрузка может состоять из нескольких потоков (видео и аудио скачиваются по очереди),
+ * после которых идёт склейка или обработка. Потоки занимают 0–95% шкалы, обработка — 95–99%,
+ * 100% выставляется только по завершении задачи. Процент не уменьшается.
+ */
+public class DownloadProgress {
+    private static final long PUBLISH_INTERVAL_NANOS = 250_000_000L;
+    private static final long SPEED_WINDOW_NANOS = 500_000_000L;
+    // Вес нового замера в сглаженной скорости
+    private static final double SMOOTHING = 0.3;
+    private static final int DOWNLOAD_SHARE = 95;
+
+    /**
+     * Получатель обновлений прогресса. Вызывается не чаще раза в 250 мс и при смене этапа.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onProgress(DownloadProgress progress);
+    }
+
+    private final int expectedStreams;
+    private final Listener listener;
+    private final long startedNanos = System.nanoTime();
+
+    private String phase = "pending";
+    private int streamIndex = -1;
+    private long completedStreamBytes;
+    private long streamDownloaded;
+    private long streamTotal = -1;
+    private boolean postProcessing;
+
+    private long sampleBytes;
+    private long sampleNanos;
+    private double instantSpeed;
+    private double smoothedSpeed;
+    private long etaSeconds = -1;
+    private int percent;
+    private long lastPublishNanos;
+
+    /**
+     * @param expectedStreams сколько потоков скачивается (2 для видео+аудио)
+     * @param listener получатель обновлений (может быть null)
+     */
+    public DownloadProgress(int expectedStreams, Listener listener) {
+        this.expectedStreams = Math.max(1, expectedStreams);
+        this.listener = listener;
+    }
+
+    /**
+     * Начался очередной поток загрузки.
+     */
+    public synchronized void startStream() {
+        if (streamIndex >= 0) {
+            completedStreamBytes += streamDownloaded;
+        }
+        streamIndex++;
+        postProcessing = false;
+        streamDownloaded = 0;
+        streamTotal = -1;
+        sampleBytes = 0;
+        sampleNanos = 0;
+        if (expectedStreams > 1) {
+            phase = streamIndex == 0 ? "video" : streamIndex == 1 ? "audio" : "downloading";
+        } else {
+            phase = "downloading";
+        }
+        publish(true);
+    }
+
+    /**
+     * Обновление текущего потока.
+     * @param downloaded скачано байт потока
+     * @param total размер потока или -1, если неизвестен
+     * @param reportedEta оценка yt-dlp в секундах или -1
+     */
+    public synchronized void update(long downloaded, long total, long reportedEta) {
+        if (streamIndex < 0) {
+            startStream();
+        }
+        long now = System.nanoTime();
+        streamDownloaded = downloaded;
+        streamTotal = total;
+
+        if (sampleNanos == 0) {
+            sampleNanos = now;
+            sampleBytes = downloaded;
+        } else if (now - sampleNanos >= SPEED_WINDOW_NANOS) {
+            instantSpeed = Math.max(0, (downloaded - sampleBytes) * 1e9 / (now - sampleNanos));
+            smoothedSpeed = smoothedSpeed == 0 ? instantSpeed
+                    : SMOOTHING * instantSpeed + (1 - SMOOTHING) * smoothedSpeed;
+            sampleNanos = now;
+            sampleBytes = downloaded;
+        }
+
+        if (total > 0 && smoothedSpeed > 0) {
+            etaSeconds = (long) Math.ceil((total - downloaded) / smoothedSpeed);
+        } else {
+            etaSeconds = reportedEta;
+        }
+
+        int streams = Math.max(expectedStreams, streamIndex + 1);
+        double fraction = total > 0 ? Math.min(1.0, (double) downloaded / total) : 0;
+        percent = Math.max(percent, (int) ((streamIndex + fraction) / streams * DOWNLOAD_SHARE));
+        publish(false);
+    }
+
+    /**
+     * Начался этап обработки после загрузки (склейка, обрезка, извлечение кадра).
+     */
+    public synchronized void startPhase(String name) {
+        if (streamIndex >= 0) {
+            completedStreamBytes += streamDownloaded;
+            streamDownloaded = 0;
+            streamTotal = -1;
+        }
+        postProcessing = true;
+        phase = name;
+        instantSpeed = 0;
+        etaSeconds = -1;
+        percent = Math.max(percent, DOWNLOAD_SHARE);
+        publish(true);
+    }
+
+    private void publish(boolean force) {
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (force || now - lastPublishNanos >= PUBLISH_INTERVAL_NANOS) {
+            lastPublishNanos = now;
+            listener.onProgress(this);
+        }
+    }
+
+    public synchronized String getPhase() {
+        return phase;
+    }
+
+    public synchronized int getPercent() {
+        return percent;
+    }
+
+    /**
+     * Скачано байт по всем потокам.
+     */
+    public synchronized long getDownloadedBytes() {
+        return completedStreamBytes + streamDownloaded;
+    }
+
+    /**
+     * Ожидаемый общий размер или -1, пока размер текущего потока неизвестен.
+     * Размер ещё не начатых потоков не учитывается.
+     */
+    public synchronized long getTotalBytes() {
+        if (postProcessing) {
+            return completedStreamBytes;
+        }
+        return streamTotal > 0 ? completedStreamBytes + streamTotal : -1;
+    }
+
+    public synchronized long getInstantSpeed() {
+        return (long) instantSpeed;
+    }
+
+    /**
+     * Сглаженная скорость, байт в секунду.
+     */
+    public synchronized long getSpeed() {
+        return (long) smoothedSpeed;
+    }
+
+    public synchronized long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    /**
+     * Средняя скорость с начала загрузки, байт в секунду.
+     */
+    public synchronized long getAverageSpeed() {
+        long elapsed = System.nanoTime() - startedNanos;
+        return elapsed <= 0 ? 0 : (long) (getDownloadedBytes() * 1e9 / elapsed);
+    }
+}
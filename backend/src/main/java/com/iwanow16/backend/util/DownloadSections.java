@@ -0,0 +1,47 @@
+package com.iwanow16.backend.util;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Загрузка только нужного участка видео через yt-dlp --download-sections: yt-dlp передаёт
+ * ffmpeg ссылки на потоки с перемоткой на начало участка, и скачиваются лишь фрагменты
+ * (или диапазоны байт), покрывающие интервал, а не всё видео.
+ */
+public final class DownloadSections {
+    // Секунды или [[ЧЧ:]ММ:]СС, с дробной частью
+    private static final Pattern TIME = Pattern.compile("\\d+(:\\d{1,2}){0,2}(\\.\\d+)?");
+
+    private DownloadSections() {
+    }
+
+    /**
+     * Можно ли передать интервал в --download-sections. Иначе нужна полная загрузка с обрезкой.
+     */
+    public static boolean isSupported(String startTime, String endTime) {
+        return startTime != null && endTime != null
+                && TIME.matcher(startTime).matches() && TIME.matcher(endTime).matches();
+    }
+
+    /**
+     * Перевести момент (секунды или [[ЧЧ:]ММ:]СС) в секунды.
+     * @throws IllegalArgumentException если формат не распознан
+     */
+    public static double toSeconds(String time) {
+        if (time == null || !TIME.matcher(time.trim()).matches()) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+        double seconds = 0;
+        for (String part : time.trim().split(":")) {
+            seconds = seconds * 60 + Double.parseDouble(part);
+        }
+        return seconds;
+    }
+
+    /**
+     * Аргументы yt-dlp для загрузки интервала.
+     */
+    public static List<String> args(String startTime, String endTime) {
+        return List.of("--download-sections", "*" + startTime + "-" + endTime);
+    }
+}
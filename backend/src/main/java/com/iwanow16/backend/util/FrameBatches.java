@@ -0,0 +1,156 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор и проверка параметров пакетного извлечения кадров (FrameBatchDto).
+ */
+public final class FrameBatches {
+    private static final Set<String> FORMATS = Set.of("png", "jpg", "webp");
+    // Кадры ближе этого неразличимы при 10 fps и выше: ffmpeg выдал бы один кадр на два момента
+    private static final double MIN_SPACING_SECONDS = 0.1;
+    private static final int MAX_WIDTH = 3840;
+    // Интервал: десятичное число секунд, без экспоненты, NaN и Infinity
+    private static final Pattern INTERVAL = Pattern.compile("\\d+(\\.\\d+)?");
+
+    private FrameBatches() {
+    }
+
+    /**
+     * Проверить параметры до постановки задачи в очередь.
+     * @throws IllegalArgumentException с понятным клиенту сообщением
+     */
+    public static void validate(FrameBatchDto batch, int maxFrames) {
+        boolean hasTimes = batch.getTimes() != null && !batch.getTimes().isEmpty();
+        boolean hasInterval = batch.getInterval() != null && !batch.getInterval().isBlank();
+        if (hasTimes == hasInterval) {
+            throw new IllegalArgumentException("Specify either frame times or an interval");
+        }
+        if (hasTimes) {
+            if (batch.getTimes().size() > maxFrames) {
+                throw new IllegalArgumentException("Too many frames, at most " + maxFrames + " allowed");
+            }
+            for (String time : batch.getTimes()) {
+                parseSeconds(time);
+            }
+        } else {
+            interval(batch);
+        }
+        if (!FORMATS.contains(extension(batch))) {
+            throw new IllegalArgumentException("Unsupported frame format: " + batch.getFormat());
+        }
+        if (batch.getWidth() != null && (batch.getWidth() < 16 || batch.getWidth() > MAX_WIDTH)) {
+            throw new IllegalArgumentException("Frame width must be between 16 and " + MAX_WIDTH);
+        }
+    }
+
+    /**
+     * Моменты кадров в секундах по возрастанию. Моменты за концом видео и ближе
+     * MIN_SPACING_SECONDS к предыдущему отбрасываются, список ограничен maxFrames.
+     * @param duration длительность видео; null, если неизвестна
+     * @throws IllegalArgumentException если для интервала неизвестна длительность
+     */
+    public static List<Double> timestamps(FrameBatchDto batch, Double duration, int maxFrames) {
+        TreeSet<Double> sorted = new TreeSet<>();
+        if (batch.getTimes() != null && !batch.getTimes().isEmpty()) {
+            for (String time : batch.getTimes()) {
+                sorted.add(parseSeconds(time));
+            }
+        } else {
+            if (duration == null || duration <= 0) {
+                throw new IllegalArgumentException("Video duration is unknown, cannot expand frame interval");
+            }
+            double step = interval(batch);
+            for (int i = 0; i < maxFrames && i * step < duration; i++) {
+                sorted.add(i * step);
+            }
+        }
+        List<Double> result = new ArrayList<>();
+        for (double time : sorted) {
+            if (duration != null && duration > 0 && time >= duration) {
+                break;
+            }
+            if (!result.isEmpty() && time - result.get(result.size() - 1) < MIN_SPACING_SECONDS) {
+                continue;
+            }
+            result.add(time);
+            if (result.size() >= maxFrames) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Расширение и кодек выходных кадров, по умолчанию jpg.
+     */
+    public static String extension(FrameBatchDto batch) {
+        String format = batch.getFormat();
+        if (format == null || format.isBlank()) {
+            return "jpg";
+        }
+        String lower = format.toLowerCase(Locale.ROOT);
+        return "jpeg".equals(lower) ? "jpg" : lower;
+    }
+
+    /**
+     * Канонический вид параметров для ключа объединения одинаковых задач.
+     */
+    public static String key(FrameBatchDto batch) {
+        StringBuilder key = new StringBuilder();
+        if (batch.getTimes() != null && !batch.getTimes().isEmpty()) {
+            TreeSet<Double> sorted = new TreeSet<>();
+            for (String time : batch.getTimes()) {
+                sorted.add(parseSeconds(time));
+            }
+            key.append("t=").append(sorted);
+        } else {
+            key.append("i=").append(interval(batch));
+        }
+        key.append(',').append(extension(batch));
+        if (batch.getWidth() != null) {
+            key.append(",w=").append(batch.getWidth());
+        }
+        if (batch.isSheet()) {
+            key.append(",sheet");
+        }
+        return key.toString();
+    }
+
+    /**
+     * Разобрать момент: секунды или [[ЧЧ:]ММ:]СС.
+     */
+    public static double parseSeconds(String time) {
+        try {
+            return DownloadSections.toSeconds(time);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid frame time: " + time);
+        }
+    }
+
+    /**
+     * Интервал в секундах, допускается суффикс "s".
+     * @throws IllegalArgumentException если значение не число или не положительное
+     */
+    private static double interval(FrameBatchDto batch) {
+        String value = batch.getInterval().trim().toLowerCase(Locale.ROOT);
+        if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        if (!INTERVAL.matcher(value).matches()) {
+            throw new IllegalArgumentException("Invalid frame interval: " + batch.getInterval());
+        }
+        double seconds = Double.parseDouble(value);
+        if (!(seconds > 0) || Double.isInfinite(seconds)) {
+            throw new IllegalArgumentException("Frame interval must be positive");
+        }
+        return seconds;
+    }
+}
@@ -1,16 +1,29 @@
 package com.iwanow16.backend.util;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Утилита для извлечения кадров из видео в формате PNG с использованием ffmpeg.
@@ -18,6 +31,16 @@ import java.util.UUID;
 @Component
 public class FrameExtractorUtil {
     private static final Logger log = LoggerFactory.getLogger(FrameExtractorUtil.class);
+    // Строка фильтра showinfo о выбранном кадре: "[Parsed_showinfo_1 @ ...] n:   0 pts: 512 pts_time:0.04 ..."
+    private static final Pattern SHOWINFO_PTS = Pattern.compile("Parsed_showinfo.*\\bpts_time:\\s*(-?[0-9.]+)");
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Autowired
+    private DownloaderProperties props;
+
+    private final ObjectMapper mapper = new ObjectMapper();
 
     /**
      * Извлечь кадр из видео по указанному времени.
@@ -71,23 +94,14 @@ public class FrameExtractorUtil {
 
             ProcessBuilder pb = new ProcessBuilder(cmd);
             pb.redirectErrorStream(true);
-            Process p = pb.start();
+            ProcessResult result = processSupervisor.run(taskId, ProcessStage.FRAME, pb,
+                    (line, stderr) -> log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line));
 
-            // Читать вывод
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                    log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
-                }
-            }
-
-            int exitCode = p.waitFor();
+            int exitCode = result.getExitCode();
             
             if (exitCode != 0) {
                 log.error("❌ FFmpeg failed | TaskID: {} | Exit code: {} | Output: {}", 
-                        taskId, exitCode, output);
+                        taskId, exitCode, result.getOutput());
                 throw new RuntimeException("FFmpeg failed with exit code: " + exitCode);
             }
 
@@ -109,6 +123,345 @@ public class FrameExtractorUtil {
         }
     }
 
+    /**
+     * Извлечь кадр прямо из потока по ссылке, не скачивая видео. ffmpeg перематывает поток
+     * HTTP-запросами диапазонов и читает только данные от ближайшего предшествующего ключевого
+     * кадра до нужного.
+     * @param streamUrl Прямая ссылка на поток
+     * @param headers Заголовки запроса к потоку (User-Agent, Referer и т.п.)
+     * @param frameTime Время кадра в формате, понятном ffmpeg (секунды или ЧЧ:ММ:СС)
+     * @return Путь к извлеченному кадру
+     * @throws RuntimeException Если ffmpeg не смог прочитать поток (например, ссылка истекла)
+     */
+    public Path extractFrameFromStream(String streamUrl, Map<String, String> headers, String frameTime,
+                                       Path outputDir, String taskId) throws Exception {
+        log.info("🎬 Extracting frame from stream | TaskID: {} | Time: {}s", taskId, frameTime);
+
+        String outputFilename = "frame_" + UUID.randomUUID() + ".png";
+        Path outputPath = outputDir.resolve(outputFilename);
+        processSupervisor.trackArtifact(taskId, outputPath);
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.addAll(headerArgs(headers));
+        // -ss до -i: перемотка по входу, без чтения потока с начала
+        cmd.add("-ss");
+        cmd.add(frameTime);
+        cmd.add("-i");
+        cmd.add(streamUrl);
+        cmd.add("-vframes");
+        cmd.add("1");
+        cmd.add("-q:v");
+        cmd.add("2");  // Высокое качество
+        cmd.add("-f");
+        cmd.add("image2");
+        cmd.add(outputPath.toString());
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.FRAME, pb,
+                (line, stderr) -> log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line));
+
+        if (result.getExitCode() != 0 || !Files.exists(outputPath)) {
+            Files.deleteIfExists(outputPath);
+            log.warn("⚠️ Frame extraction from stream failed | TaskID: {} | Exit code: {} | Error: {}",
+                    taskId, result.getExitCode(), result.errorMessage());
+            throw new RuntimeException("FFmpeg failed to read stream: " + result.errorMessage());
+        }
+
+        log.info("✅ Frame extracted from stream | TaskID: {} | File: {} | Size: {} bytes",
+                taskId, outputFilename, Files.size(outputPath));
+        return outputPath;
+    }
+
+    /**
+     * Извлечь несколько кадров (FrameBatchDto). Близкие моменты (не дальше frames.cluster-gap
+     * друг от друга) извлекаются одним процессом ffmpeg: перемотка к первому, затем один проход
+     * декодирования с фильтром select. Далёкие моменты — отдельной перемоткой, это дешевле,
+     * чем декодировать всё между ними.
+     * @param input путь к видео или прямая ссылка на поток
+     * @param headers заголовки запроса к потоку, пустые для файла
+     * @param duration длительность видео; null, если неизвестна
+     * @param workDir рабочая директория задачи для промежуточных кадров
+     * @return архив zip с кадрами и manifest.json или, для листа кадров, одно изображение
+     * @throws IllegalArgumentException если нет ни одного момента в пределах видео
+     */
+    public Path extractFrames(String input, Map<String, String> headers, Double duration, FrameBatchDto batch,
+                              Path workDir, Path outputDir, String taskId) throws Exception {
+        DownloaderProperties.Frames config = props.getFrames();
+        List<Double> times = FrameBatches.timestamps(batch, duration, config.getMaxFrames());
+        if (times.isEmpty()) {
+            throw new IllegalArgumentException("No frame times within the video duration");
+        }
+        String ext = FrameBatches.extension(batch);
+        Integer width = batch.getWidth() != null ? batch.getWidth()
+                : batch.isSheet() ? Integer.valueOf(config.getSheetTileWidth()) : null;
+        Path framesDir = Files.createDirectories(workDir.resolve("frames_" + UUID.randomUUID()));
+        log.info("🎞️ Extracting frames | TaskID: {} | Frames: {} | Format: {} | Width: {}",
+                taskId, times.size(), ext, width);
+
+        long started = System.currentTimeMillis();
+        double gap = config.getClusterGap().toMillis() / 1000.0;
+        List<Double> extracted = new ArrayList<>();
+        int passes = 0;
+        int from = 0;
+        while (from < times.size()) {
+            int to = from + 1;
+            while (to < times.size() && times.get(to) - times.get(to - 1) <= gap) {
+                to++;
+            }
+            List<Double> cluster = times.subList(from, to);
+            extracted.addAll(extractCluster(input, headers, cluster, ext, width, framesDir, extracted.size() + 1, taskId));
+            passes++;
+            from = to;
+        }
+        if (extracted.isEmpty()) {
+            throw new RuntimeException("FFmpeg produced no frames");
+        }
+
+        Path result = batch.isSheet()
+                ? buildSheet(framesDir, extracted.size(), ext, config.getSheetColumns(), outputDir, taskId)
+                : buildArchive(framesDir, extracted, ext, width, outputDir, taskId);
+        log.info("✅ Frames extracted | TaskID: {} | Frames: {} | Passes: {} | Duration: {}ms | File: {} | Size: {} bytes",
+                taskId, extracted.size(), passes, System.currentTimeMillis() - started,
+                result.getFileName(), Files.size(result));
+        return result;
+    }
+
+    /**
+     * Один процесс ffmpeg на группу моментов: -ss к первому, -t до последнего, select выбирает
+     * первый кадр не раньше каждого момента. Кадры нумеруются с firstNumber.
+     * @return момент для каждого записанного кадра по порядку номеров
+     */
+    private List<Double> extractCluster(String input, Map<String, String> headers, List<Double> cluster, String ext,
+                               Integer width, Path framesDir, int firstNumber, String taskId) throws Exception {
+        double start = cluster.get(0);
+        double span = cluster.get(cluster.size() - 1) - start;
+        StringBuilder select = new StringBuilder();
+        for (double time : cluster) {
+            if (select.length() > 0) {
+                select.append('+');
+            }
+            // После перемотки время кадров отсчитывается от start; у первого кадра prev_pts не определён
+            double offset = time - start;
+            select.append(String.format(Locale.ROOT, "gte(t,%.3f)*(isnan(prev_pts)+lt(prev_pts*TB,%.3f))",
+                    offset, offset));
+        }
+        // showinfo печатает время каждого выбранного кадра, по нему кадр сопоставляется моменту
+        String filter = "select='" + select + "',showinfo";
+        if (width != null) {
+            filter += ",scale=" + width + ":-2";
+        }
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.addAll(headerArgs(headers));
+        cmd.add("-ss");
+        cmd.add(String.format(Locale.ROOT, "%.3f", start));
+        cmd.add("-t");
+        cmd.add(String.format(Locale.ROOT, "%.3f", span + 1));
+        cmd.add("-i");
+        cmd.add(input);
+        cmd.add("-vf");
+        cmd.add(filter);
+        // Без дублирования и пропуска кадров под частоту выхода
+        cmd.add("-vsync");
+        cmd.add("0");
+        cmd.add("-frames:v");
+        cmd.add(String.valueOf(cluster.size()));
+        cmd.addAll(encoderArgs(ext));
+        cmd.add("-start_number");
+        cmd.add(String.valueOf(firstNumber));
+        cmd.add(framesDir.resolve("frame_%04d." + ext).toString());
+
+        long before = countFiles(framesDir);
+        List<Double> frameTimes = new ArrayList<>();
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.FRAME, pb, (line, stderr) -> {
+            Matcher m = SHOWINFO_PTS.matcher(line);
+            if (m.find()) {
+                frameTimes.add(Double.parseDouble(m.group(1)));
+            } else {
+                log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
+            }
+        });
+        if (result.getExitCode() != 0) {
+            log.warn("⚠️ Frame batch pass failed | TaskID: {} | From: {}s | Frames: {} | Error: {}",
+                    taskId, start, cluster.size(), result.errorMessage());
+            throw new RuntimeException("FFmpeg failed to extract frames: " + result.errorMessage());
+        }
+        int produced = (int) (countFiles(framesDir) - before);
+        List<Double> moments = matchFrames(cluster, frameTimes, produced);
+        if (moments.size() < cluster.size()) {
+            log.debug("🎞️ Frame moments merged or past end | TaskID: {} | Requested: {} | Produced: {}",
+                    taskId, cluster.size(), moments.size());
+        }
+        return moments;
+    }
+
+    /**
+     * Сопоставить записанные кадры запрошенным моментам группы.
+     *
+     * Кадр закрывает все ещё не закрытые моменты не позже своего времени: если несколько моментов
+     * попали между соседними кадрами (низкая частота кадров), select выдаёт на них один кадр.
+     * Моменты за фактическим концом потока кадров не получают.
+     * @param frameTimes время записанных кадров от начала группы (pts_time из showinfo)
+     * @param produced сколько файлов кадров записано
+     * @return запрошенный момент для каждого записанного кадра
+     */
+    static List<Double> matchFrames(List<Double> cluster, List<Double> frameTimes, int produced) {
+        if (frameTimes.size() != produced) {
+            // Вывод showinfo не разобран: кадры по порядку моментов
+            return new ArrayList<>(cluster.subList(0, Math.min(produced, cluster.size())));
+        }
+        double start = cluster.get(0);
+        List<Double> moments = new ArrayList<>(produced);
+        int next = 0;
+        for (double frameTime : frameTimes) {
+            if (next >= cluster.size()) {
+                break;
+            }
+            moments.add(cluster.get(next++));
+            // Время в фильтре округлено до миллисекунды
+            while (next < cluster.size() && cluster.get(next) - start <= frameTime + 0.0005) {
+                next++;
+            }
+        }
+        return moments;
+    }
+
+    /**
+     * Сложить кадры в сетку sheetColumns x N одним проходом ffmpeg по готовым кадрам.
+     */
+    private Path buildSheet(Path framesDir, int count, String ext, int sheetColumns, Path outputDir, String taskId)
+            throws Exception {
+        int columns = Math.max(1, Math.min(sheetColumns, count));
+        int rows = (count + columns - 1) / columns;
+        Path outputPath = outputDir.resolve("sheet_" + UUID.randomUUID() + "." + ext);
+        processSupervisor.trackArtifact(taskId, outputPath);
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.add("-framerate");
+        cmd.add("1");
+        cmd.add("-start_number");
+        cmd.add("1");
+        cmd.add("-i");
+        cmd.add(framesDir.resolve("frame_%04d." + ext).toString());
+        cmd.add("-vf");
+        cmd.add("tile=" + columns + "x" + rows + ":padding=4:margin=4");
+        cmd.add("-frames:v");
+        cmd.add("1");
+        cmd.addAll(encoderArgs(ext));
+        cmd.add(outputPath.toString());
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.FRAME, pb,
+                (line, stderr) -> log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line));
+        if (result.getExitCode() != 0 || !Files.exists(outputPath)) {
+            log.error("❌ Contact sheet failed | TaskID: {} | Exit code: {} | Error: {}",
+                    taskId, result.getExitCode(), result.errorMessage());
+            throw new RuntimeException("FFmpeg failed to build contact sheet: " + result.errorMessage());
+        }
+        return outputPath;
+    }
+
+    /**
+     * Упаковать кадры в zip вместе с manifest.json: имя файла и момент каждого кадра.
+     */
+    private Path buildArchive(Path framesDir, List<Double> times, String ext, Integer width, Path outputDir,
+                              String taskId) throws Exception {
+        Path outputPath = outputDir.resolve("frames_" + UUID.randomUUID() + ".zip");
+        processSupervisor.trackArtifact(taskId, outputPath);
+
+        List<Map<String, Object>> frames = new ArrayList<>();
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(outputPath))) {
+            // Кадры уже сжаты кодеком изображения
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            for (int i = 0; i < times.size(); i++) {
+                String name = String.format(Locale.ROOT, "frame_%04d.%s", i + 1, ext);
+                Path frame = framesDir.resolve(name);
+                if (!Files.exists(frame)) {
+                    continue;
+                }
+                zip.putNextEntry(new ZipEntry(name));
+                Files.copy(frame, zip);
+                zip.closeEntry();
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("file", name);
+                entry.put("time", times.get(i));
+                frames.add(entry);
+            }
+            Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("format", ext);
+            manifest.put("width", width);
+            manifest.put("frames", frames);
+            zip.putNextEntry(new ZipEntry("manifest.json"));
+            zip.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(manifest)
+                    .getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return outputPath;
+    }
+
+    /**
+     * Длительность видео по ffprobe. Процесс запускается через ProcessSupervisor, отмена задачи его завершает.
+     * @return секунды или null, если определить не удалось
+     * @throws CancellationException если задача отменена
+     * @throws ProcessTimeoutException если ffprobe не уложился в таймаут
+     */
+    public Double probeDuration(Path video, String taskId) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder("ffprobe", "-v", "error", "-show_entries", "format=duration",
+                "-of", "default=noprint_wrappers=1:nokey=1", video.toString());
+        pb.redirectErrorStream(false);
+        try {
+            StringBuilder output = new StringBuilder();
+            // Поток чтения stdout завершается до возврата из run
+            ProcessResult result = processSupervisor.run(taskId, ProcessStage.FRAME, pb, (line, stderr) -> {
+                if (!stderr) {
+                    output.append(line);
+                }
+            });
+            if (result.getExitCode() != 0) {
+                throw new RuntimeException("ffprobe failed: " + result.errorMessage());
+            }
+            return Double.valueOf(output.toString().trim());
+        } catch (ProcessTimeoutException | CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (processSupervisor.isCancelled(taskId)) {
+                throw e;
+            }
+            log.warn("⚠️ Failed to probe video duration | TaskID: {} | File: {} | Error: {}", taskId, video, e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<String> headerArgs(Map<String, String> headers) {
+        if (headers.isEmpty()) {
+            return List.of();
+        }
+        StringBuilder header = new StringBuilder();
+        headers.forEach((name, value) -> header.append(name).append(": ").append(value).append("\r\n"));
+        return List.of("-headers", header.toString());
+    }
+
+    private static List<String> encoderArgs(String ext) {
+        return switch (ext) {
+            case "jpg" -> List.of("-q:v", "3");
+            case "webp" -> List.of("-quality", "80");
+            default -> List.of();
+        };
+    }
+
+    private static long countFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
     /**
      * Форматировать время в секундах в формат HH:MM:SS.mm для ffmpeg.
      */
@@ -2,6 +2,8 @@ package com.iwanow16.backend.util;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -12,9 +14,13 @@ import java.util.concurrent.TimeUnit;
 /**
  * Утилита для объединения видео и аудио потоков с помощью ffmpeg.
  */
+@Component
 public class MediaMerger {
     private static final Logger log = LoggerFactory.getLogger(MediaMerger.class);
 
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
     /**
      * Объединить видео и аудио файлы в один файл с помощью ffmpeg.
      * Поддерживает автоматическое преобразование в mp4 и управление кодеками.
@@ -26,7 +32,7 @@ public class MediaMerger {
      * @return путь к выходному файлу, если успешно
      * @throws Exception если объединение не удалось
      */
-    public static Path mergeVideoAudio(Path videoFile, Path audioFile, Path outputFile, String taskId) throws Exception {
+    public Path mergeVideoAudio(Path videoFile, Path audioFile, Path outputFile, String taskId) throws Exception {
         // Если нет аудиофайла, просто копируем видео
         if (audioFile == null || !Files.exists(audioFile)) {
             log.info("⚠️ No audio file provided, using video only | TaskID: {}", taskId);
@@ -69,42 +75,19 @@ public class MediaMerger {
 
         ProcessBuilder pb = new ProcessBuilder(cmd);
         pb.redirectErrorStream(true);
-        Process p = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        Thread outputThread = new Thread(() -> {
-            try (var reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                    // Логировать только важные строки
-                    if (line.contains("Duration") || line.contains("bitrate") || line.contains("speed")) {
-                        log.debug("📊 ffmpeg | TaskID: {} | {}", taskId, line);
-                    }
-                }
-            } catch (Exception e) {
-                log.warn("⚠️ Error reading ffmpeg output | TaskID: {}", taskId, e);
+        // Таймаут этапа объединения задаётся downloader.timeouts.merge
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.MERGE, pb, (line, stderr) -> {
+            // Логировать только важные строки
+            if (line.contains("Duration") || line.contains("bitrate") || line.contains("speed")) {
+                log.debug("📊 ffmpeg | TaskID: {} | {}", taskId, line);
             }
         });
 
-        outputThread.start();
-
-        // Ждём завершения с таймаутом 5 минут
-        boolean finished = p.waitFor(5, TimeUnit.MINUTES);
-        outputThread.join(5000);
-
-        if (!finished) {
-            p.destroyForcibly();
-            log.error("❌ ffmpeg process timed out | TaskID: {}", taskId);
-            throw new RuntimeException("ffmpeg merge operation timed out");
-        }
-
-        int rc = p.exitValue();
+        int rc = result.getExitCode();
         if (rc != 0) {
             long duration = System.currentTimeMillis() - startTime;
             log.error("❌ ffmpeg merge failed | TaskID: {} | Code: {} | Duration: {}ms | Output: {}", 
-                    taskId, rc, duration, output.toString());
+                    taskId, rc, duration, result.getOutput());
             throw new RuntimeException("ffmpeg merge failed with code " + rc);
         }
 
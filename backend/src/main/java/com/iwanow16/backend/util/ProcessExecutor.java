@@ -4,32 +4,97 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 public class ProcessExecutor {
     private static final Logger log = LoggerFactory.getLogger(ProcessExecutor.class);
+    private static final int ERROR_TAIL_LINES = 50;
 
-    public static int run(List<String> command, long timeoutSeconds, StringBuilder output) throws Exception {
+    /**
+     * Разборщик stdout процесса, читает поток по мере поступления.
+     */
+    @FunctionalInterface
+    public interface StreamParser<T> {
+        T parse(InputStream in) throws IOException;
+    }
+
+    /**
+     * Запустить процесс и разобрать его stdout потоково, не накапливая вывод в памяти.
+     * stderr хранится в ограниченном буфере последних строк для сообщения об ошибке.
+     * @return результат разбора
+     * @throws RuntimeException если процесс завершился с ненулевым кодом (сообщение содержит stderr)
+     * @throws ProcessTimeoutException если процесс не завершился за timeoutSeconds
+     */
+    public static <T> T runParsing(List<String> command, long timeoutSeconds, StreamParser<T> parser) throws Exception {
         ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
         Process p = pb.start();
+        p.getOutputStream().close();
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            output.append(line).append('\n');
-            log.info(line);
-        }
+        TailBuffer errors = new TailBuffer(ERROR_TAIL_LINES);
+        // Читаем stderr в отдельном потоке, иначе процесс остановится на заполненном канале
+        Thread errorReader = Thread.ofVirtual().name("process-err-" + p.pid()).start(() -> {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    errors.add(line);
+                    log.debug("{} stderr | PID: {} | {}", command.get(0), p.pid(), line);
+                }
+            } catch (IOException e) {
+                log.debug("Process stream closed | PID: {}", p.pid());
+            }
+        });
+
+        // stdout разбирается отдельно, чтобы таймаут сработал, даже пока процесс пишет
+        CompletableFuture<T> parsed = new CompletableFuture<>();
+        Thread outputReader = Thread.ofVirtual().name("process-out-" + p.pid()).start(() -> {
+            try (InputStream in = p.getInputStream()) {
+                // Разборщик (Jackson) закрывает поток после чтения — остаток дочитываем сами
+                T value = parser.parse(new FilterInputStream(in) {
+                    @Override
+                    public void close() {
+                    }
+                });
+                // Дочитать остаток, чтобы процесс не остановился на заполненном канале
+                in.transferTo(OutputStream.nullOutputStream());
+                parsed.complete(value);
+            } catch (Throwable e) {
+                parsed.completeExceptionally(e);
+            }
+        });
 
-        boolean finished = p.waitFor(timeoutSeconds, TimeUnit.SECONDS);
+        boolean finished;
+        try {
+            finished = p.waitFor(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            ProcessSupervisor.killTree(p);
+            throw e;
+        }
         if (!finished) {
-            p.destroyForcibly();
-            throw new RuntimeException("Process timeout");
+            ProcessSupervisor.killTree(p);
+            throw new ProcessTimeoutException(ProcessStage.METADATA, ProcessTimeoutException.Reason.TIMEOUT,
+                    Duration.ofSeconds(timeoutSeconds));
+        }
+        outputReader.join(5000);
+        errorReader.join(5000);
+
+        int rc = p.exitValue();
+        if (rc != 0) {
+            throw new RuntimeException(command.get(0) + " failed with code " + rc + ": " + errors);
+        }
+        try {
+            return parsed.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ex ? ex : new RuntimeException(cause);
         }
-        return p.exitValue();
     }
 }
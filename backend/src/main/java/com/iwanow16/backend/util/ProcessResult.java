@@ -0,0 +1,28 @@
+package com.iwanow16.backend.util;
+
+/**
+ * Результат выполнения внешнего процесса: код возврата и последние строки вывода.
+ */
+public class ProcessResult {
+    private final int exitCode;
+    private final TailBuffer output;
+    private final TailBuffer error;
+
+    public ProcessResult(int exitCode, TailBuffer output, TailBuffer error) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.error = error;
+    }
+
+    public int getExitCode() { return exitCode; }
+    public boolean isSuccess() { return exitCode == 0; }
+    public String getOutput() { return output.toString(); }
+    public String getError() { return error.toString(); }
+
+    /**
+     * Текст для сообщения об ошибке: stderr, а если он пуст — stdout.
+     */
+    public String errorMessage() {
+        return error.isEmpty() ? output.toString() : error.toString();
+    }
+}
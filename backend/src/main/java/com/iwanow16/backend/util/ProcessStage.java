@@ -0,0 +1,18 @@
+package com.iwanow16.backend.util;
+
+/**
+ * Этап обработки задачи, для которого запускается внешний процесс.
+ * Для каждого этапа задаётся свой таймаут.
+ */
+public enum ProcessStage {
+    /** Извлечение метаданных (yt-dlp --dump-json) */
+    METADATA,
+    /** Скачивание медиа (yt-dlp) */
+    FETCH,
+    /** Объединение видео и аудио (ffmpeg) */
+    MERGE,
+    /** Вырезание временного диапазона (ffmpeg) */
+    TRIM,
+    /** Извлечение кадра (ffmpeg) */
+    FRAME
+}
@@ -0,0 +1,373 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Реестр внешних процессов (yt-dlp, ffmpeg), запущенных в рамках задач.
+ * Позволяет отменить задачу: завершить всё дерево её процессов и удалить незавершённые файлы.
+ * Следит за таймаутами этапов и завершает процессы, которые перестали выдавать вывод.
+ */
+@Component
+public class ProcessSupervisor {
+    private static final Logger log = LoggerFactory.getLogger(ProcessSupervisor.class);
+    private static final int TAIL_LINES = 200;
+
+    @Autowired
+    private DownloaderProperties props;
+
+    private final ConcurrentMap<String, TaskProcesses> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * Обработчик строк вывода процесса.
+     */
+    @FunctionalInterface
+    public interface LineListener {
+        void onLine(String line, boolean stderr);
+    }
+
+    /**
+     * Обработчик строк вывода в виде байтов, вызывается до создания String.
+     * Позволяет разбирать частые служебные строки (прогресс) без выделения памяти на строку.
+     */
+    @FunctionalInterface
+    public interface RawLineListener {
+        /**
+         * @return true, если строка обработана и не нужна ни в хвосте вывода, ни в LineListener
+         */
+        boolean onRawLine(byte[] buf, int off, int len, boolean stderr);
+    }
+
+    /**
+     * Поставить задачу на учёт перед началом работы, чтобы отмена могла её найти.
+     * Только здесь создаётся учётная запись: после release задача не может запускать
+     * процессы и создавать файлы, иначе запись появилась бы снова и больше не удалялась.
+     */
+    public void register(String taskId) {
+        tasks.computeIfAbsent(taskId, k -> new TaskProcesses());
+    }
+
+    /**
+     * Запустить процесс от имени задачи.
+     * @throws CancellationException если задача уже отменена или не на учёте
+     */
+    public Process start(String taskId, ProcessBuilder pb) throws IOException {
+        TaskProcesses handle = handle(taskId);
+        synchronized (handle) {
+            if (handle.cancelled) {
+                throw new CancellationException("Task cancelled: " + taskId);
+            }
+            Process p = pb.start();
+            handle.processes.add(p);
+            p.onExit().thenRun(() -> handle.processes.remove(p));
+            log.debug("▶️ Process started | TaskID: {} | PID: {} | Command: {}", taskId, p.pid(), pb.command().get(0));
+            return p;
+        }
+    }
+
+    /**
+     * Запустить процесс и дождаться его завершения под надзором: вывод читается на виртуальных
+     * потоках, процесс завершается вместе с потомками при превышении таймаута этапа или
+     * если он не выдаёт вывод дольше downloader.timeouts.stall.
+     * @param listener обработчик строк вывода (может быть null)
+     * @return код возврата и последние строки stdout/stderr
+     * @throws ProcessTimeoutException если процесс завершён по таймауту
+     */
+    public ProcessResult run(String taskId, ProcessStage stage, ProcessBuilder pb, LineListener listener) throws Exception {
+        return run(taskId, stage, pb, null, listener);
+    }
+
+    /**
+     * То же, что {@link #run(String, ProcessStage, ProcessBuilder, LineListener)}, но строки сначала
+     * передаются rawListener; строки, которые он обработал, дальше не декодируются.
+     */
+    public ProcessResult run(String taskId, ProcessStage stage, ProcessBuilder pb,
+                             RawLineListener rawListener, LineListener listener) throws Exception {
+        Duration timeout = timeoutFor(stage);
+        // Метаданные выводятся одним куском в конце, для них отслеживается только общий таймаут
+        Duration stall = stage == ProcessStage.METADATA ? null : props.getTimeouts().getStall();
+
+        Process p = start(taskId, pb);
+        AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+        TailBuffer output = new TailBuffer(TAIL_LINES);
+        TailBuffer error = new TailBuffer(TAIL_LINES);
+        String name = stage.name().toLowerCase() + "-" + taskId;
+        Thread outputThread = pump(name + "-out", p.getInputStream(), output, false, lastActivity, rawListener, listener);
+        Thread errorThread = pb.redirectErrorStream() ? null
+                : pump(name + "-err", p.getErrorStream(), error, true, lastActivity, rawListener, listener);
+
+        awaitExit(p, taskId, stage, timeout, stall, lastActivity);
+        outputThread.join(5000);
+        if (errorThread != null) {
+            errorThread.join(5000);
+        }
+        return new ProcessResult(p.exitValue(), output, error);
+    }
+
+    /**
+     * Запустить процесс под надзором и разобрать его stdout потоково, как
+     * {@link ProcessExecutor#runParsing}: вывод не делится на строки и не копируется
+     * в хвост вывода, там остаётся только stderr. pb не должен объединять stderr со stdout.
+     * @return результат разбора
+     * @throws RuntimeException если процесс завершился с ненулевым кодом (сообщение содержит stderr)
+     * @throws ProcessTimeoutException если процесс завершён по таймауту
+     */
+    public <T> T runParsing(String taskId, ProcessStage stage, ProcessBuilder pb,
+                            ProcessExecutor.StreamParser<T> parser) throws Exception {
+        Duration timeout = timeoutFor(stage);
+        Duration stall = stage == ProcessStage.METADATA ? null : props.getTimeouts().getStall();
+
+        Process p = start(taskId, pb);
+        p.getOutputStream().close();
+        AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+        TailBuffer error = new TailBuffer(TAIL_LINES);
+        String name = stage.name().toLowerCase() + "-" + taskId;
+        Thread errorThread = pump(name + "-err", p.getErrorStream(), error, true, lastActivity, null, null);
+        // stdout разбирается отдельно, чтобы таймаут сработал, даже пока процесс пишет
+        CompletableFuture<T> parsed = new CompletableFuture<>();
+        Thread outputThread = Thread.ofVirtual().name(name + "-out").start(() -> {
+            try (InputStream in = p.getInputStream()) {
+                // Разборщик (Jackson) закрывает поток после чтения — остаток дочитываем сами
+                T value = parser.parse(new FilterInputStream(in) {
+                    @Override
+                    public int read() throws IOException {
+                        lastActivity.set(System.nanoTime());
+                        return super.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        lastActivity.set(System.nanoTime());
+                        return super.read(b, off, len);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+                in.transferTo(OutputStream.nullOutputStream());
+                parsed.complete(value);
+            } catch (Throwable e) {
+                parsed.completeExceptionally(e);
+            }
+        });
+
+        awaitExit(p, taskId, stage, timeout, stall, lastActivity);
+        outputThread.join(5000);
+        errorThread.join(5000);
+        if (p.exitValue() != 0) {
+            throw new RuntimeException(pb.command().get(0) + " failed with code " + p.exitValue() + ": " + error);
+        }
+        try {
+            return parsed.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ex ? ex : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Дождаться завершения процесса, убив его дерево по таймауту этапа, простою или прерыванию потока.
+     */
+    private void awaitExit(Process p, String taskId, ProcessStage stage, Duration timeout, Duration stall,
+                           AtomicLong lastActivity) throws Exception {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            while (!p.waitFor(1, TimeUnit.SECONDS)) {
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    killTree(p);
+                    log.error("⏰ Process timed out | TaskID: {} | Stage: {} | Limit: {}s", taskId, stage, timeout.toSeconds());
+                    throw new ProcessTimeoutException(stage, ProcessTimeoutException.Reason.TIMEOUT, timeout);
+                }
+                if (stall != null && now - lastActivity.get() >= stall.toNanos()) {
+                    killTree(p);
+                    log.error("🧊 Process stalled | TaskID: {} | Stage: {} | No output for {}s", taskId, stage, stall.toSeconds());
+                    throw new ProcessTimeoutException(stage, ProcessTimeoutException.Reason.STALLED, stall);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Рабочий поток прерван (отмена задачи) — процесс не должен пережить задачу
+            killTree(p);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Task interrupted: " + taskId);
+        }
+    }
+
+    /**
+     * Читать поток байтами и делить на строки по \n и \r (ffmpeg и yt-dlp обновляют
+     * прогресс через \r). Буфер переиспользуется, String создаётся только для строк,
+     * которые не обработал rawListener.
+     */
+    private Thread pump(String name, InputStream in, TailBuffer tail, boolean stderr, AtomicLong lastActivity,
+                        RawLineListener rawListener, LineListener listener) {
+        return Thread.ofVirtual().name(name).start(() -> {
+            byte[] buf = new byte[8192];
+            int len = 0;
+            try (in) {
+                int n;
+                while ((n = in.read(buf, len, buf.length - len)) != -1) {
+                    lastActivity.set(System.nanoTime());
+                    int end = len + n;
+                    int lineStart = 0;
+                    for (int i = len; i < end; i++) {
+                        byte b = buf[i];
+                        if (b == '\n' || b == '\r') {
+                            if (i > lineStart) {
+                                deliver(buf, lineStart, i - lineStart, stderr, tail, rawListener, listener);
+                            }
+                            lineStart = i + 1;
+                        }
+                    }
+                    len = end - lineStart;
+                    if (lineStart > 0 && len > 0) {
+                        System.arraycopy(buf, lineStart, buf, 0, len);
+                    }
+                    if (len == buf.length) {
+                        // Строка длиннее буфера (например, JSON в одну строку)
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                }
+                if (len > 0) {
+                    deliver(buf, 0, len, stderr, tail, rawListener, listener);
+                }
+            } catch (IOException e) {
+                log.debug("Process stream closed | {}", name);
+            }
+        });
+    }
+
+    private static void deliver(byte[] buf, int off, int len, boolean stderr, TailBuffer tail,
+                                RawLineListener rawListener, LineListener listener) {
+        if (rawListener != null && rawListener.onRawLine(buf, off, len, stderr)) {
+            return;
+        }
+        String line = new String(buf, off, len, StandardCharsets.UTF_8);
+        tail.add(line);
+        if (listener != null) {
+            listener.onLine(line, stderr);
+        }
+    }
+
+    private Duration timeoutFor(ProcessStage stage) {
+        DownloaderProperties.Timeouts timeouts = props.getTimeouts();
+        return switch (stage) {
+            case METADATA -> timeouts.getMetadata();
+            case FETCH -> Duration.ofMinutes(props.getDownloadTimeoutMinutes());
+            case MERGE -> timeouts.getMerge();
+            case TRIM -> timeouts.getTrim();
+            case FRAME -> timeouts.getFrame();
+        };
+    }
+
+    /**
+     * Зарегистрировать файл, который задача создаёт и который нужно удалить при отмене.
+     * @throws CancellationException если задача не на учёте
+     */
+    public void trackArtifact(String taskId, Path file) {
+        handle(taskId).artifacts.add(file);
+    }
+
+    private TaskProcesses handle(String taskId) {
+        TaskProcesses handle = tasks.get(taskId);
+        if (handle == null) {
+            // Задача уже снята с учёта (завершена или отменена) или не регистрировалась
+            throw new CancellationException("Task not registered: " + taskId);
+        }
+        return handle;
+    }
+
+    /**
+     * Задача зарегистрирована и ещё не завершилась.
+     */
+    public boolean isActive(String taskId) {
+        return tasks.containsKey(taskId);
+    }
+
+    public boolean isCancelled(String taskId) {
+        TaskProcesses handle = tasks.get(taskId);
+        return handle != null && handle.cancelled;
+    }
+
+    /**
+     * Отменить задачу: запретить запуск новых процессов и завершить все текущие
+     * вместе с дочерними (например, ffmpeg, запущенный из yt-dlp).
+     */
+    public void cancel(String taskId) {
+        TaskProcesses handle = tasks.get(taskId);
+        if (handle == null) {
+            return;
+        }
+        List<Process> running;
+        synchronized (handle) {
+            handle.cancelled = true;
+            running = new ArrayList<>(handle.processes);
+        }
+        for (Process p : running) {
+            killTree(p);
+        }
+        log.info("🛑 Task processes terminated | TaskID: {} | Processes: {}", taskId, running.size());
+    }
+
+    /**
+     * Снять задачу с учёта по её завершении. Если задача была отменена,
+     * удаляются зарегистрированные незавершённые файлы.
+     * @return true, если задача была отменена
+     */
+    public boolean release(String taskId) {
+        TaskProcesses handle = tasks.remove(taskId);
+        if (handle == null) {
+            return false;
+        }
+        if (handle.cancelled) {
+            for (Path file : handle.artifacts) {
+                try {
+                    if (Files.deleteIfExists(file)) {
+                        log.debug("🗑️ Partial file deleted | TaskID: {} | File: {}", taskId, file.getFileName());
+                    }
+                } catch (IOException e) {
+                    log.warn("⚠️ Failed to delete partial file | TaskID: {} | File: {}", taskId, file, e);
+                }
+            }
+        }
+        return handle.cancelled;
+    }
+
+    /**
+     * Завершить процесс и всех его потомков. Потомки завершаются первыми,
+     * чтобы родитель не успел запустить новые.
+     */
+    public static void killTree(Process p) {
+        p.descendants().forEach(ProcessHandle::destroyForcibly);
+        p.destroyForcibly();
+    }
+
+    private static final class TaskProcesses {
+        private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+        private final Set<Path> artifacts = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+    }
+}
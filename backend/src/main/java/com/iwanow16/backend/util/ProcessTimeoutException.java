@@ -0,0 +1,26 @@
+package com.iwanow16.backend.util;
+
+import java.time.Duration;
+
+/**
+ * Процесс превысил таймаут этапа или перестал выдавать вывод (завис) и был завершён.
+ */
+public class ProcessTimeoutException extends RuntimeException {
+
+    /** Причина завершения процесса */
+    public enum Reason { TIMEOUT, STALLED }
+
+    private final ProcessStage stage;
+    private final Reason reason;
+
+    public ProcessTimeoutException(ProcessStage stage, Reason reason, Duration limit) {
+        super(stage.name().toLowerCase() + (reason == Reason.TIMEOUT
+                ? " timed out after " + limit.toSeconds() + "s"
+                : " stalled: no output for " + limit.toSeconds() + "s"));
+        this.stage = stage;
+        this.reason = reason;
+    }
+
+    public ProcessStage getStage() { return stage; }
+    public Reason getReason() { return reason; }
+}
@@ -0,0 +1,57 @@
+package com.iwanow16.backend.util;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Связывает прогресс, который разбирают стратегии, с задачами, которые его показывают.
+ * Очередь подписывается на прогресс загрузки по её ID, стратегия создаёт прогресс
+ * для своего процесса и отмечает этапы обработки.
+ */
+@Component
+public class ProgressTracker {
+    private final ConcurrentMap<String, DownloadProgress.Listener> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DownloadProgress> progress = new ConcurrentHashMap<>();
+
+    /**
+     * Подписаться на прогресс загрузки.
+     */
+    public void listen(String taskId, DownloadProgress.Listener listener) {
+        listeners.put(taskId, listener);
+    }
+
+    /**
+     * Начать отслеживание загрузки. Если на задачу никто не подписан, прогресс
+     * всё равно считается (для итоговой скорости), но никуда не публикуется.
+     * @param expectedStreams сколько потоков скачает yt-dlp
+     */
+    public DownloadProgress start(String taskId, int expectedStreams) {
+        DownloadProgress p = new DownloadProgress(expectedStreams, listeners.get(taskId));
+        progress.put(taskId, p);
+        return p;
+    }
+
+    /**
+     * Отметить этап обработки после загрузки (склейка, обрезка, извлечение кадра).
+     */
+    public void phase(String taskId, String name) {
+        DownloadProgress p = progress.get(taskId);
+        if (p != null) {
+            p.startPhase(name);
+        }
+    }
+
+    public DownloadProgress get(String taskId) {
+        return progress.get(taskId);
+    }
+
+    /**
+     * Завершить отслеживание задачи.
+     */
+    public void remove(String taskId) {
+        listeners.remove(taskId);
+        progress.remove(taskId);
+    }
+}
@@ -0,0 +1,635 @@
+package com.iwanow16.backend.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Точная по кадрам обрезка без полного перекодирования (downloader.trim). ffprobe находит
+ * ключевые кадры внутри интервала: участок между первым и последним из них копируется как есть,
+ * перекодируются только неполные GOP на краях, затем части склеиваются concat-демультиплексором.
+ * Звук перекодируется целиком — это дёшево и избавляет от щелчков на стыках.
+ *
+ * Кодеки задаются downloader.trim.smart-codecs. У H.264/HEVC края и середина имеют разные
+ * SPS/PPS, а MP4 хранит один avcC/hvcC на дорожку, поэтому части собираются в Annex-B (MPEG-TS):
+ * кодировщик краёв повторяет заголовки перед каждым ключевым кадром (repeat-headers), середина
+ * переводится в Annex-B с наборами параметров перед каждым IDR. Склеенное видео затем
+ * перемультиплексируется в итоговый контейнер вместе со звуком, наборы параметров остаются
+ * в потоке перед кадрами, которые на них ссылаются.
+ *
+ * Каждый ffmpeg запускается с -benchmark, процессорное время частей суммируется и сравнивается
+ * с полным перекодированием: оценкой по скорости кодирования краёв или, при compare-full-encode,
+ * реальным прогоном. Если кодек не включён или обрезка не удалась, используется прежняя
+ * обрезка копированием (-ss/-to после -i, -c copy). ffprobe и ffmpeg запускаются через
+ * ProcessSupervisor, отмена задачи завершает их.
+ */
+@Component
+public class SmartTrimmer {
+    private static final Logger log = LoggerFactory.getLogger(SmartTrimmer.class);
+    private static final Pattern BENCH = Pattern.compile("bench: utime=([\\d.]+)s stime=([\\d.]+)s");
+    // Расхождение меньше этого считается совпадением момента с ключевым кадром
+    private static final double EPSILON = 0.001;
+
+    @Autowired
+    private DownloaderProperties props;
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicLong smartTrims = new AtomicLong();
+    private final AtomicLong copyTrims = new AtomicLong();
+    private final AtomicLong copiedMillis = new AtomicLong();
+    private final AtomicLong reencodedMillis = new AtomicLong();
+    private final AtomicLong smartCpuMillis = new AtomicLong();
+    private final AtomicLong estimatedFullCpuMillis = new AtomicLong();
+    private final AtomicLong measuredTrims = new AtomicLong();
+    private final AtomicLong measuredSmartCpuMillis = new AtomicLong();
+    private final AtomicLong measuredFullCpuMillis = new AtomicLong();
+
+    /**
+     * Кодировщик и параметры для перекодирования краёв в тот же кодек, что и у исходника.
+     */
+    private record Encoder(List<String> args, List<String> copyArgs, String container) {
+    }
+
+    /**
+     * Потоки исходника, определённые одним ffprobe. Для нескольких клипов из одного файла
+     * исходник проверяется один раз.
+     * @param smart точная обрезка включена и поддерживает кодек видео
+     */
+    public record Source(Path file, JsonNode video, JsonNode audio, boolean smart) {
+    }
+
+    public boolean isSmart() {
+        return props.getTrim().isSmart();
+    }
+
+    /**
+     * Проверить исходник: кодек видео и звук. При выключенной точной обрезке ffprobe не запускается.
+     * Если ffprobe не смог прочитать файл, исходник режется копированием.
+     */
+    public Source probe(Path source, String taskId) throws Exception {
+        if (!props.getTrim().isSmart()) {
+            return new Source(source, null, null, false);
+        }
+        try {
+            JsonNode streams = probeStreams(source, taskId);
+            JsonNode video = firstStream(streams, "video");
+            JsonNode audio = firstStream(streams, "audio");
+            String codec = video != null ? video.path("codec_name").asText() : "";
+            boolean smart = props.getTrim().getSmartCodecs().contains(codec) && videoEncoder(video) != null;
+            if (!smart) {
+                log.debug("✂️ Smart trim not enabled for codec, using stream copy | TaskID: {} | Codec: {}", taskId, codec);
+            }
+            return new Source(source, video, audio, smart);
+        } catch (ProcessTimeoutException | CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (processSupervisor.isCancelled(taskId)) {
+                throw e;
+            }
+            log.warn("⚠️ Cannot probe source, using stream copy | TaskID: {} | File: {} | Error: {}",
+                    taskId, source.getFileName(), e.getMessage());
+            return new Source(source, null, null, false);
+        }
+    }
+
+    /**
+     * Вырезать интервал из видео.
+     * @param startTime начало: секунды или [[ЧЧ:]ММ:]СС
+     * @param endTime конец
+     * @param output итоговый файл
+     * @return output
+     * @throws RuntimeException если не удалась и обрезка копированием
+     */
+    public Path trim(Path source, String startTime, String endTime, Path output, String taskId) throws Exception {
+        return trim(probe(source, taskId), startTime, endTime, output, taskId);
+    }
+
+    /**
+     * Вырезать интервал из уже проверенного исходника.
+     * @see #trim(Path, String, String, Path, String)
+     */
+    public Path trim(Source source, String startTime, String endTime, Path output, String taskId) throws Exception {
+        if (source.smart()) {
+            Path workDir = output.resolveSibling(".trim_" + UUID.randomUUID());
+            try {
+                double start = DownloadSections.toSeconds(startTime);
+                double end = DownloadSections.toSeconds(endTime);
+                if (end <= start) {
+                    throw new IllegalArgumentException("End time must be after start time");
+                }
+                Files.createDirectories(workDir);
+                return smartTrim(source, start, end, workDir, output, taskId);
+            } catch (ProcessTimeoutException | CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                if (processSupervisor.isCancelled(taskId)) {
+                    throw e;
+                }
+                log.warn("⚠️ Smart trim failed, falling back to stream copy | TaskID: {} | Error: {}",
+                        taskId, e.getMessage());
+                Files.deleteIfExists(output);
+            } finally {
+                deleteRecursively(workDir);
+            }
+        }
+        return copyTrim(source.file(), startTime, endTime, output, taskId);
+    }
+
+    private Path smartTrim(Source probed, double start, double end, Path workDir, Path output, String taskId)
+            throws Exception {
+        Path source = probed.file();
+        JsonNode video = probed.video();
+        JsonNode audio = probed.audio();
+        Encoder videoEncoder = videoEncoder(video);
+
+        List<Double> keyframes = probeKeyframes(source, start, end, taskId);
+        // Первый ключевой кадр не раньше начала и последний не позже конца
+        double head = Double.NaN;
+        double tail = Double.NaN;
+        for (double k : keyframes) {
+            if (k >= start - EPSILON && k <= end && Double.isNaN(head)) {
+                head = k;
+            }
+            if (k >= start - EPSILON && k <= end + EPSILON) {
+                tail = k;
+            }
+        }
+
+        long cpu = 0;
+        List<Path> parts = new ArrayList<>();
+        double copied = 0;
+        double reencoded;
+        if (Double.isNaN(head) || tail - head < EPSILON) {
+            // Внутри интервала нет целого GOP — перекодировать весь (короткий) интервал
+            Path part = workDir.resolve("part_0." + videoEncoder.container());
+            cpu += encodeVideo(source, start, end - start, videoEncoder, part, taskId);
+            parts.add(part);
+            reencoded = end - start;
+        } else {
+            reencoded = 0;
+            if (head - start > EPSILON) {
+                Path part = workDir.resolve("part_0." + videoEncoder.container());
+                cpu += encodeVideo(source, start, head - start, videoEncoder, part, taskId);
+                parts.add(part);
+                reencoded += head - start;
+            }
+            Path middle = workDir.resolve("part_1." + videoEncoder.container());
+            cpu += copyVideo(source, head, tail - head, videoEncoder, middle, taskId);
+            parts.add(middle);
+            copied = tail - head;
+            if (end - tail > EPSILON) {
+                Path part = workDir.resolve("part_2." + videoEncoder.container());
+                cpu += encodeVideo(source, tail, end - tail, videoEncoder, part, taskId);
+                parts.add(part);
+                reencoded += end - tail;
+            }
+        }
+        long edgeCpu = cpu;
+
+        Path audioPart = null;
+        if (audio != null) {
+            audioPart = workDir.resolve("audio.mka");
+            cpu += encodeAudio(source, start, end - start, audio, audioPart, taskId);
+        }
+        Path joined = workDir.resolve("video." + videoEncoder.container());
+        cpu += concat(parts, workDir, joined, taskId);
+        cpu += mux(joined, audioPart, output, taskId);
+
+        // Оценка полного перекодирования: скорость кодирования краёв на всю длину интервала
+        long estimatedFull = reencoded > 0
+                ? Math.round(edgeCpu / reencoded * (end - start)) + (cpu - edgeCpu)
+                : -1;
+        smartTrims.incrementAndGet();
+        copiedMillis.addAndGet(Math.round(copied * 1000));
+        reencodedMillis.addAndGet(Math.round(reencoded * 1000));
+        smartCpuMillis.addAndGet(cpu);
+        if (estimatedFull > 0) {
+            estimatedFullCpuMillis.addAndGet(estimatedFull);
+        }
+        log.info("✂️ Smart trim completed | TaskID: {} | Range: {}-{}s | Copied: {}s | Re-encoded: {}s | CPU: {}ms | Full re-encode estimate: {}ms",
+                taskId, fmt(start), fmt(end), fmt(copied), fmt(reencoded), cpu, estimatedFull);
+
+        if (props.getTrim().isCompareFullEncode()) {
+            long full = fullEncodeCpu(source, start, end - start, videoEncoder, audio, workDir, taskId);
+            measuredTrims.incrementAndGet();
+            measuredSmartCpuMillis.addAndGet(cpu);
+            measuredFullCpuMillis.addAndGet(full);
+            log.info("📊 Trim CPU comparison | TaskID: {} | Smart: {}ms | Full re-encode: {}ms | Saved: {}%",
+                    taskId, cpu, full, full > 0 ? Math.round(100.0 * (full - cpu) / full) : 0);
+        }
+        return output;
+    }
+
+    /**
+     * Прежняя обрезка: копирование потоков, границы привязаны к ключевым кадрам.
+     */
+    private Path copyTrim(Path source, String startTime, String endTime, Path output, String taskId) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-ss");
+        cmd.add(startTime);
+        cmd.add("-to");
+        cmd.add(endTime);
+        cmd.add("-c");
+        cmd.add("copy");  // Копируем без перекодирования для скорости
+        cmd.add(output.toString());
+
+        log.debug("⏳ Executing ffmpeg trim command | TaskID: {}", taskId);
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.TRIM, pb,
+                (line, stderr) -> log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line));
+        if (result.getExitCode() != 0) {
+            log.error("❌ Time range extraction failed | TaskID: {} | Exit code: {}", taskId, result.getExitCode());
+            throw new RuntimeException("Failed to extract time range");
+        }
+        copyTrims.incrementAndGet();
+        return output;
+    }
+
+    private long encodeVideo(Path source, double from, double duration, Encoder encoder, Path part, String taskId)
+            throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("-ss");
+        cmd.add(fmt(from));
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-t");
+        cmd.add(fmt(duration));
+        cmd.add("-an");
+        cmd.addAll(encoder.args());
+        cmd.add(part.toString());
+        return runFfmpeg(cmd, "encode edge", taskId);
+    }
+
+    private long copyVideo(Path source, double from, double duration, Encoder encoder, Path part, String taskId)
+            throws Exception {
+        List<String> cmd = new ArrayList<>();
+        // Перемотка на сам ключевой кадр: с запасом вперёд, чтобы округление не увело к предыдущему
+        cmd.add("-ss");
+        cmd.add(fmt(from + EPSILON));
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-t");
+        cmd.add(fmt(duration));
+        cmd.add("-an");
+        cmd.add("-c:v");
+        cmd.add("copy");
+        cmd.addAll(encoder.copyArgs());
+        cmd.add(part.toString());
+        return runFfmpeg(cmd, "copy middle", taskId);
+    }
+
+    private long encodeAudio(Path source, double from, double duration, JsonNode audio, Path part, String taskId)
+            throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("-ss");
+        cmd.add(fmt(from));
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-t");
+        cmd.add(fmt(duration));
+        cmd.add("-vn");
+        cmd.addAll(audioEncoder(audio));
+        cmd.add(part.toString());
+        return runFfmpeg(cmd, "encode audio", taskId);
+    }
+
+    /**
+     * Склеить видео частей без перекодирования в промежуточный файл того же контейнера, что и части.
+     */
+    private long concat(List<Path> parts, Path workDir, Path joined, String taskId) throws Exception {
+        Path list = workDir.resolve("parts.txt");
+        StringBuilder text = new StringBuilder();
+        for (Path part : parts) {
+            text.append("file '").append(part.toAbsolutePath().toString().replace("'", "'\\''")).append("'\n");
+        }
+        Files.writeString(list, text, StandardCharsets.UTF_8);
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add("-f");
+        cmd.add("concat");
+        cmd.add("-safe");
+        cmd.add("0");
+        cmd.add("-i");
+        cmd.add(list.toString());
+        cmd.add("-map");
+        cmd.add("0:v:0");
+        cmd.add("-c");
+        cmd.add("copy");
+        cmd.add(joined.toString());
+        return runFfmpeg(cmd, "concat", taskId);
+    }
+
+    /**
+     * Перемультиплексировать склеенное видео со звуком в итоговый контейнер.
+     */
+    private long mux(Path video, Path audioPart, Path output, String taskId) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("-i");
+        cmd.add(video.toString());
+        if (audioPart != null) {
+            cmd.add("-i");
+            cmd.add(audioPart.toString());
+        }
+        cmd.add("-map");
+        cmd.add("0:v:0");
+        if (audioPart != null) {
+            cmd.add("-map");
+            cmd.add("1:a:0");
+        }
+        cmd.add("-c");
+        cmd.add("copy");
+        String name = output.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".mp4") || name.endsWith(".mov") || name.endsWith(".m4v")) {
+            cmd.add("-movflags");
+            cmd.add("+faststart");
+        }
+        cmd.add(output.toString());
+        return runFfmpeg(cmd, "mux", taskId);
+    }
+
+    /**
+     * Полное перекодирование интервала в никуда (-f null) — только для замера процессорного времени.
+     */
+    private long fullEncodeCpu(Path source, double from, double duration, Encoder encoder, JsonNode audio,
+                               Path workDir, String taskId) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("-ss");
+        cmd.add(fmt(from));
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-t");
+        cmd.add(fmt(duration));
+        cmd.addAll(encoder.args());
+        if (audio != null) {
+            cmd.addAll(audioEncoder(audio));
+        }
+        cmd.add("-f");
+        cmd.add("null");
+        cmd.add("-");
+        return runFfmpeg(cmd, "full re-encode benchmark", taskId);
+    }
+
+    /**
+     * Запустить ffmpeg с -benchmark.
+     * @return процессорное время (user + system), мс
+     */
+    private long runFfmpeg(List<String> args, String step, String taskId) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.add("-hide_banner");
+        cmd.add("-benchmark");
+        cmd.addAll(args);
+        long[] cpu = {0};
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.TRIM, pb, (line, stderr) -> {
+            Matcher m = BENCH.matcher(line);
+            if (m.find()) {
+                cpu[0] = Math.round((Double.parseDouble(m.group(1)) + Double.parseDouble(m.group(2))) * 1000);
+            } else {
+                log.debug("📊 ffmpeg output | TaskID: {} | {}", taskId, line);
+            }
+        });
+        if (result.getExitCode() != 0) {
+            throw new RuntimeException("FFmpeg " + step + " failed: " + result.errorMessage());
+        }
+        log.debug("✂️ Trim step done | TaskID: {} | Step: {} | CPU: {}ms", taskId, step, cpu[0]);
+        return cpu[0];
+    }
+
+    private JsonNode probeStreams(Path source, String taskId) throws Exception {
+        List<String> lines = probe(List.of("ffprobe", "-v", "error",
+                "-show_entries", "stream=codec_type,codec_name,profile,pix_fmt",
+                "-of", "json", source.toString()), taskId);
+        return mapper.readTree(String.join("\n", lines)).path("streams");
+    }
+
+    private static JsonNode firstStream(JsonNode streams, String type) {
+        for (JsonNode stream : streams) {
+            if (type.equals(stream.path("codec_type").asText())) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Моменты ключевых кадров видео в интервале. Читаются только пакеты (без декодирования),
+     * начиная с ключевого кадра перед start.
+     */
+    private List<Double> probeKeyframes(Path source, double start, double end, String taskId) throws Exception {
+        List<String> lines = probe(List.of("ffprobe", "-v", "error", "-select_streams", "v:0",
+                "-read_intervals", fmt(start) + "%" + fmt(end),
+                "-show_entries", "packet=pts_time,flags",
+                "-of", "csv=p=0", source.toString()), taskId);
+        List<Double> keyframes = new ArrayList<>();
+        for (String line : lines) {
+            String[] fields = line.split(",");
+            if (fields.length >= 2 && fields[1].startsWith("K") && !"N/A".equals(fields[0])) {
+                keyframes.add(Double.parseDouble(fields[0]));
+            }
+        }
+        keyframes.sort(Double::compare);
+        return keyframes;
+    }
+
+    /**
+     * Момент участка yt-dlp --download-sections, соответствующий запрошенному началу. yt-dlp
+     * копирует участок с ключевого кадра перед началом: MP4 сохраняет начало в нуле через edit list
+     * (кадры до него получают отрицательные метки), а Matroska/WebM сдвигает метки так, что с нуля
+     * начинается ключевой кадр. Тогда начало находится по концу видео: участок обрезан ровно
+     * по запрошенному концу, и начало отстоит от конца на duration.
+     * @param duration запрошенная длина участка, с
+     * @return смещение начала от нуля участка, с; 0, если ffprobe не смог прочитать участок
+     */
+    public double sectionStart(Path section, double duration, String taskId) throws Exception {
+        try {
+            List<String> lines = probe(List.of("ffprobe", "-v", "error", "-select_streams", "v:0",
+                    "-show_entries", "packet=pts_time",
+                    "-of", "csv=p=0", section.toString()), taskId);
+            List<Double> pts = new ArrayList<>();
+            for (String line : lines) {
+                String value = line.split(",")[0].trim();
+                if (!value.isEmpty() && !"N/A".equals(value)) {
+                    pts.add(Double.parseDouble(value));
+                }
+            }
+            if (pts.size() < 2) {
+                return 0;
+            }
+            pts.sort(Double::compare);
+            if (pts.get(0) < -EPSILON) {
+                // Метки до начала отрицательные — ноль и есть запрошенное начало
+                return 0;
+            }
+            // Длительность кадра в Matroska обычно не записана — наименьший шаг между метками
+            double frame = Double.MAX_VALUE;
+            for (int i = 1; i < pts.size(); i++) {
+                double step = pts.get(i) - pts.get(i - 1);
+                if (step > EPSILON) {
+                    frame = Math.min(frame, step);
+                }
+            }
+            double videoEnd = pts.get(pts.size() - 1) + (frame == Double.MAX_VALUE ? 0 : frame);
+            double offset = Math.max(0, videoEnd - duration);
+            log.debug("✂️ Section start located | TaskID: {} | First pts: {}s | Video end: {}s | Start offset: {}s",
+                    taskId, fmt(pts.get(0)), fmt(videoEnd), fmt(offset));
+            return offset;
+        } catch (ProcessTimeoutException | CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (processSupervisor.isCancelled(taskId)) {
+                throw e;
+            }
+            log.warn("⚠️ Cannot locate section start, assuming zero | TaskID: {} | Error: {}", taskId, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Запустить ffprobe от имени задачи и собрать stdout целиком.
+     */
+    private List<String> probe(List<String> cmd, String taskId) throws Exception {
+        List<String> lines = new ArrayList<>();
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(false);
+        // Поток чтения stdout завершается до возврата из run, список дальше не изменяется
+        ProcessResult result = processSupervisor.run(taskId, ProcessStage.TRIM, pb, (line, stderr) -> {
+            if (!stderr) {
+                lines.add(line);
+            }
+        });
+        if (result.getExitCode() != 0) {
+            throw new RuntimeException("ffprobe failed: " + result.errorMessage());
+        }
+        return lines;
+    }
+
+    /**
+     * Кодировщик краёв под кодек исходника. null — кодек не поддерживается.
+     */
+    private Encoder videoEncoder(JsonNode video) {
+        DownloaderProperties.Trim config = props.getTrim();
+        String codec = video.path("codec_name").asText();
+        String pixFmt = video.path("pix_fmt").asText("");
+        List<String> args = new ArrayList<>();
+        List<String> copyArgs;
+        String container;
+        switch (codec) {
+            case "h264" -> {
+                // SPS/PPS перед каждым ключевым кадром: декодер переключается на них на стыке с серединой
+                args.addAll(List.of("-c:v", "libx264", "-preset", config.getPreset(), "-crf", String.valueOf(config.getCrf()),
+                        "-x264-params", "repeat-headers=1"));
+                String profile = x264Profile(video.path("profile").asText(""));
+                if (profile != null) {
+                    args.addAll(List.of("-profile:v", profile));
+                }
+                copyArgs = List.of("-bsf:v", "h264_mp4toannexb");
+                container = "ts";
+            }
+            case "hevc" -> {
+                args.addAll(List.of("-c:v", "libx265", "-preset", config.getPreset(), "-crf", String.valueOf(config.getCrf()),
+                        "-x265-params", "repeat-headers=1"));
+                copyArgs = List.of("-bsf:v", "hevc_mp4toannexb");
+                container = "ts";
+            }
+            case "vp9" -> {
+                args.addAll(List.of("-c:v", "libvpx-vp9", "-deadline", "realtime", "-cpu-used", "8",
+                        "-crf", String.valueOf(config.getCrf() + 12), "-b:v", "0"));
+                copyArgs = List.of();
+                container = "mkv";
+            }
+            default -> {
+                return null;
+            }
+        }
+        if (!pixFmt.isEmpty()) {
+            args.addAll(List.of("-pix_fmt", pixFmt));
+        }
+        return new Encoder(args, copyArgs, container);
+    }
+
+    private static String x264Profile(String profile) {
+        return switch (profile.toLowerCase(Locale.ROOT)) {
+            case "baseline", "constrained baseline" -> "baseline";
+            case "main" -> "main";
+            case "high" -> "high";
+            default -> null;
+        };
+    }
+
+    private static List<String> audioEncoder(JsonNode audio) {
+        return switch (audio.path("codec_name").asText()) {
+            case "opus" -> List.of("-c:a", "libopus", "-b:a", "160k");
+            case "vorbis" -> List.of("-c:a", "libvorbis", "-q:a", "6");
+            case "mp3" -> List.of("-c:a", "libmp3lame", "-b:a", "192k");
+            default -> List.of("-c:a", "aac", "-b:a", "192k");
+        };
+    }
+
+    private static String fmt(double seconds) {
+        return String.format(Locale.ROOT, "%.3f", seconds);
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (var files = Files.walk(dir)) {
+            files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (Exception e) {
+                    log.debug("Failed to delete trim work file | File: {}", file);
+                }
+            });
+        } catch (Exception e) {
+            log.debug("Failed to clean trim work dir | Dir: {}", dir);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long measured = measuredTrims.get();
+        long full = measuredFullCpuMillis.get();
+        long smart = measuredSmartCpuMillis.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("smart", props.getTrim().isSmart());
+        stats.put("smartTrims", smartTrims.get());
+        stats.put("copyTrims", copyTrims.get());
+        stats.put("copiedSeconds", copiedMillis.get() / 1000.0);
+        stats.put("reencodedSeconds", reencodedMillis.get() / 1000.0);
+        stats.put("cpuMs", smartCpuMillis.get());
+        stats.put("estimatedFullEncodeCpuMs", estimatedFullCpuMillis.get());
+        stats.put("measuredTrims", measured);
+        stats.put("measuredSmartCpuMs", smart);
+        stats.put("measuredFullEncodeCpuMs", full);
+        stats.put("measuredSavedPercent", full > 0 ? Math.round(100.0 * (full - smart) / full) : 0);
+        return stats;
+    }
+}
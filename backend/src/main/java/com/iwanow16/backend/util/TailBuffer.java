@@ -0,0 +1,33 @@
+package com.iwanow16.backend.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Кольцевой буфер последних строк вывода процесса.
+ * Хранит не больше заданного числа строк, старые вытесняются.
+ */
+public class TailBuffer {
+    private final int maxLines;
+    private final ArrayDeque<String> lines;
+
+    public TailBuffer(int maxLines) {
+        this.maxLines = maxLines;
+        this.lines = new ArrayDeque<>(Math.min(maxLines, 64));
+    }
+
+    public synchronized void add(String line) {
+        if (lines.size() == maxLines) {
+            lines.pollFirst();
+        }
+        lines.addLast(line);
+    }
+
+    public synchronized boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.join("\n", lines);
+    }
+}
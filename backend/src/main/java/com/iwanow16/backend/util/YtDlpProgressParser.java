@@ -0,0 +1,149 @@
+package com.iwanow16.backend.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Разбор машиночитаемого прогресса yt-dlp, заданного через --progress-template.
+ *
+ * Строки вида "[dl] FORMAT DOWNLOADED TOTAL ESTIMATE SPEED ETA" и "[pp] POSTPROCESSOR STATUS"
+ * разбираются прямо из байтового буфера без создания строк. Смена FORMAT означает начало
+ * следующего потока (видео, затем аудио), запуск Merger — этап склейки.
+ */
+public class YtDlpProgressParser implements ProcessSupervisor.RawLineListener {
+    private static final byte[] DOWNLOAD_PREFIX = "[dl] ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POSTPROCESS_PREFIX = "[pp] ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MERGER = "Merger".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STARTED = "started".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Аргументы yt-dlp: каждое обновление прогресса отдельной строкой в формате, понятном парсеру.
+     */
+    public static final List<String> ARGS = List.of(
+            "--newline",
+            "--progress-template",
+            "download:[dl] %(info.format_id)s %(progress.downloaded_bytes)s %(progress.total_bytes)s "
+                    + "%(progress.total_bytes_estimate)s %(progress.speed)s %(progress.eta)s",
+            "--progress-template",
+            "postprocess:[pp] %(progress.postprocessor)s %(progress.status)s");
+
+    private final DownloadProgress progress;
+    private byte[] format = new byte[32];
+    private int formatLength = -1;
+    private int pos;
+
+    public YtDlpProgressParser(DownloadProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Сколько потоков скачает yt-dlp для селектора формата: "137+140" — видео и аудио отдельно.
+     */
+    public static int expectedStreams(String formatSelector) {
+        return formatSelector != null && formatSelector.contains("+") ? 2 : 1;
+    }
+
+    @Override
+    public boolean onRawLine(byte[] buf, int off, int len, boolean stderr) {
+        if (stderr) {
+            return false;
+        }
+        int end = off + len;
+        if (startsWith(buf, off, end, DOWNLOAD_PREFIX)) {
+            parseDownload(buf, off + DOWNLOAD_PREFIX.length, end);
+            return true;
+        }
+        if (startsWith(buf, off, end, POSTPROCESS_PREFIX)) {
+            parsePostprocess(buf, off + POSTPROCESS_PREFIX.length, end);
+            return true;
+        }
+        return false;
+    }
+
+    private void parseDownload(byte[] buf, int start, int end) {
+        pos = start;
+        int formatStart = pos;
+        skipToken(buf, end);
+        int formatEnd = pos;
+        long downloaded = nextNumber(buf, end);
+        long total = nextNumber(buf, end);
+        long estimate = nextNumber(buf, end);
+        nextNumber(buf, end); // скорость yt-dlp: своя считается по байтам
+        long eta = nextNumber(buf, end);
+
+        if (formatLength < 0 || !Arrays.equals(format, 0, formatLength, buf, formatStart, formatEnd)) {
+            rememberFormat(buf, formatStart, formatEnd);
+            progress.startStream();
+        }
+        if (downloaded >= 0) {
+            progress.update(downloaded, total > 0 ? total : estimate, eta);
+        }
+    }
+
+    private void parsePostprocess(byte[] buf, int start, int end) {
+        pos = start;
+        int nameStart = pos;
+        skipToken(buf, end);
+        int nameEnd = pos;
+        skipSpaces(buf, end);
+        int statusStart = pos;
+        skipToken(buf, end);
+        if (!Arrays.equals(buf, statusStart, pos, STARTED, 0, STARTED.length)) {
+            return;
+        }
+        boolean merger = Arrays.equals(buf, nameStart, nameEnd, MERGER, 0, MERGER.length);
+        progress.startPhase(merger ? "merging" : "postprocessing");
+    }
+
+    private void rememberFormat(byte[] buf, int start, int end) {
+        int length = end - start;
+        if (length > format.length) {
+            format = new byte[length];
+        }
+        System.arraycopy(buf, start, format, 0, length);
+        formatLength = length;
+    }
+
+    /**
+     * Следующее число: целое или дробное (дробная часть отбрасывается), "NA"/"None" — -1.
+     */
+    private long nextNumber(byte[] buf, int end) {
+        skipSpaces(buf, end);
+        long value = 0;
+        boolean digits = false;
+        boolean fraction = false;
+        while (pos < end && buf[pos] != ' ') {
+            byte b = buf[pos++];
+            if (b == '.') {
+                fraction = true;
+            } else if (b >= '0' && b <= '9') {
+                if (!fraction) {
+                    value = value * 10 + (b - '0');
+                }
+                digits = true;
+            } else {
+                // NA, None или мусор — значение неизвестно
+                skipToken(buf, end);
+                return -1;
+            }
+        }
+        return digits ? value : -1;
+    }
+
+    private void skipToken(byte[] buf, int end) {
+        while (pos < end && buf[pos] != ' ') {
+            pos++;
+        }
+    }
+
+    private void skipSpaces(byte[] buf, int end) {
+        while (pos < end && buf[pos] == ' ') {
+            pos++;
+        }
+    }
+
+    private static boolean startsWith(byte[] buf, int off, int end, byte[] prefix) {
+        return end - off >= prefix.length && Arrays.equals(buf, off, off + prefix.length, prefix, 0, prefix.length);
+    }
+}
@@ -0,0 +1,65 @@
+"""
+Долгоживущий процесс yt-dlp для бэкенда (YtDlpWorkerPool).
+
+Интерпретатор, модули и экстракторы yt-dlp загружаются один раз, дальше процесс
+обрабатывает запросы по одному. Протокол построчный, в JSON:
+
+  запрос:  {"op": "extract", "args": [...параметры командной строки...], "url": "..."}
+           {"op": "ping"}
+  ответ:   заголовок {"ok": true|false, "error": "...", "size": N}, затем при size > 0
+           строка из N байт — JSON как у yt-dlp --dump-json.
+
+Первая строка после запуска — {"ok": true, "ready": true, "version": "..."}.
+Всё, что yt-dlp пишет в stdout, перенаправлено в stderr, чтобы не ломать протокол.
+"""
+import json
+import os
+import sys
+
+protocol = os.fdopen(os.dup(1), "wb")
+os.dup2(2, 1)
+sys.stdout = sys.stderr
+
+import yt_dlp  # noqa: E402
+
+
+def send(header, payload=b""):
+    header["size"] = len(payload)
+    protocol.write(json.dumps(header).encode("utf-8") + b"\n")
+    if payload:
+        protocol.write(payload + b"\n")
+    protocol.flush()
+
+
+def extract(request):
+    _, _, _, options = yt_dlp.parse_options(request.get("args") or [])
+    options.update({"quiet": True, "noprogress": True, "simulate": True})
+    with yt_dlp.YoutubeDL(options) as ydl:
+        info = ydl.extract_info(request["url"], download=False)
+        return json.dumps(ydl.sanitize_info(info), ensure_ascii=False).encode("utf-8")
+
+
+def main():
+    send({"ok": True, "ready": True, "version": yt_dlp.version.__version__})
+    for line in sys.stdin.buffer:
+        try:
+            request = json.loads(line)
+        except ValueError:
+            send({"ok": False, "error": "Malformed request"})
+            continue
+        if request.get("op") == "ping":
+            send({"ok": True})
+            continue
+        try:
+            send({"ok": True}, extract(request))
+        except yt_dlp.utils.DownloadError as e:
+            send({"ok": False, "error": str(e)})
+        except SystemExit as e:
+            # parse_options завершает процесс на неверных параметрах
+            send({"ok": False, "error": "Invalid yt-dlp options: %s" % e})
+        except Exception as e:
+            send({"ok": False, "error": "%s: %s" % (type(e).__name__, e)})
+
+
+if __name__ == "__main__":
+    main()
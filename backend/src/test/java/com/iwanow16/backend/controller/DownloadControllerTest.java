@@ -0,0 +1,124 @@
+package com.iwanow16.backend.controller;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import com.iwanow16.backend.service.DownloadQueueService;
+import com.iwanow16.backend.service.TaskStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Условные ответы /api/tasks: ETag и 304, изменения после since, число задач после удаления.
+ * Задачи публикуются прямо в TaskStore — так же их публикует очередь загрузок.
+ */
+class DownloadControllerTest {
+    private static final String CLIENT = "10.0.0.1";
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final TaskStore tasks = new TaskStore();
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(tasks, "props", props);
+        DownloadQueueService queue = new DownloadQueueService();
+        ReflectionTestUtils.setField(queue, "tasks", tasks);
+        DownloadController controller = new DownloadController();
+        ReflectionTestUtils.setField(controller, "queueService", queue);
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void unchangedTaskListIsNotModified() throws Exception {
+        TaskStatusDto task = task("a", "downloading");
+        String etag = mvc.perform(tasksRequest()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(1))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(tasksRequest().header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().string(""));
+
+        tasks.publish(task);
+        mvc.perform(tasksRequest().header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isOk());
+    }
+
+    @Test
+    void unchangedTaskIsNotModified() throws Exception {
+        TaskStatusDto task = task("a", "downloading");
+        String etag = mvc.perform(get("/api/tasks/a").header("X-Forwarded-For", CLIENT))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.id").value("a"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/api/tasks/a").header("X-Forwarded-For", CLIENT).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        tasks.publish(task);
+        mvc.perform(get("/api/tasks/a").header("X-Forwarded-For", CLIENT).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void sinceReturnsOnlyChangedTasks() throws Exception {
+        task("a", "completed");
+        TaskStatusDto b = task("b", "downloading");
+        MvcResult full = mvc.perform(tasksRequest()).andExpect(jsonPath("$.data.length()").value(2)).andReturn();
+        String version = full.getResponse().getHeader("X-Task-Version");
+
+        b.setProgress(40);
+        tasks.publish(b);
+
+        mvc.perform(tasksRequest().param("since", version))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(1))
+                .andExpect(jsonPath("$.data[0].id").value("b"))
+                .andExpect(header().string("X-Task-Version", String.valueOf(b.getVersion())))
+                .andExpect(header().string("X-Task-Count", "2"));
+    }
+
+    @Test
+    void removedTaskChangesCountAndEtag() throws Exception {
+        task("a", "completed");
+        task("b", "completed");
+        MvcResult before = mvc.perform(tasksRequest()).andExpect(header().string("X-Task-Count", "2")).andReturn();
+        String etag = before.getResponse().getHeader(HttpHeaders.ETAG);
+        String version = before.getResponse().getHeader("X-Task-Version");
+
+        // Удаление по сроку хранения версию не увеличивает — меняется только число задач
+        tasks.remove("a");
+
+        mvc.perform(tasksRequest().param("since", version).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(0))
+                .andExpect(header().string("X-Task-Version", version))
+                .andExpect(header().string("X-Task-Count", "1"));
+    }
+
+    private static MockHttpServletRequestBuilder tasksRequest() {
+        return get("/api/tasks").header("X-Forwarded-For", CLIENT);
+    }
+
+    private TaskStatusDto task(String id, String status) {
+        TaskStatusDto t = new TaskStatusDto();
+        t.setTaskId(id);
+        t.setClientIp(CLIENT);
+        t.setStatus(status);
+        tasks.put(t);
+        tasks.publish(t);
+        return t;
+    }
+}
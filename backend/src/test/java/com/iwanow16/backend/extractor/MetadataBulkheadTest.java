@@ -0,0 +1,65 @@
+package com.iwanow16.backend.extractor;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataBulkheadTest {
+
+    @Test
+    void rejectsAdmissionWhenSlotsAndQueueAreFull() {
+        MetadataBulkhead bulkhead = new MetadataBulkhead(1, 1, Duration.ofMillis(50));
+        bulkhead.admit();
+        bulkhead.admit();
+
+        assertTrue(bulkhead.isSaturated());
+        assertThrows(MetadataBusyException.class, bulkhead::admit);
+        assertEquals(1L, bulkhead.getStats().get("rejected"));
+    }
+
+    @Test
+    void releaseReturnsSlotAndAdmission() throws Exception {
+        MetadataBulkhead bulkhead = new MetadataBulkhead(1, 0, Duration.ofMillis(50));
+        bulkhead.admit();
+        bulkhead.acquire();
+        assertEquals(1, bulkhead.getStats().get("active"));
+
+        bulkhead.release(1_000_000);
+
+        assertFalse(bulkhead.isSaturated());
+        assertEquals(0, bulkhead.getStats().get("active"));
+        assertEquals(1L, bulkhead.getStats().get("completed"));
+        bulkhead.admit();
+    }
+
+    @Test
+    void acquireTimeoutReturnsAdmission() throws Exception {
+        MetadataBulkhead bulkhead = new MetadataBulkhead(1, 1, Duration.ofMillis(20));
+        bulkhead.admit();
+        bulkhead.acquire();
+        bulkhead.admit();
+
+        assertThrows(MetadataBusyException.class, bulkhead::acquire);
+
+        assertEquals(1L, bulkhead.getStats().get("timedOut"));
+        assertEquals(0, bulkhead.getStats().get("waiting"));
+        assertFalse(bulkhead.isSaturated());
+    }
+
+    @Test
+    void withdrawReturnsAdmissionOfExtractionThatNeverStarted() {
+        MetadataBulkhead bulkhead = new MetadataBulkhead(1, 0, Duration.ofMillis(50));
+        bulkhead.admit();
+        assertTrue(bulkhead.isSaturated());
+
+        bulkhead.withdraw();
+
+        assertFalse(bulkhead.isSaturated());
+        bulkhead.admit();
+    }
+}
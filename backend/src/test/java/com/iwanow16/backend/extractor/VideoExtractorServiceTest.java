@@ -0,0 +1,109 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.VideoInfoDto;
+import com.iwanow16.backend.service.strategy.DownloadStrategyFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VideoExtractorServiceTest {
+    private static final String URL = "https://example.com/video";
+
+    private final AtomicInteger extractions = new AtomicInteger();
+    private final CountDownLatch blocker = new CountDownLatch(1);
+    private ExecutorService executor;
+    private VideoExtractorService service;
+
+    @BeforeEach
+    void setUp() {
+        DownloaderProperties props = new DownloaderProperties();
+        props.setMaxConcurrentMetadata(1);
+        props.setMetadataQueueSize(0);
+        props.setMetadataQueueTimeout(Duration.ofSeconds(1));
+        props.setMetadataRequestTimeout(Duration.ofSeconds(30));
+
+        DownloadStrategyFactory strategyFactory = new DownloadStrategyFactory();
+        ReflectionTestUtils.setField(strategyFactory, "strategies", List.of());
+
+        service = new VideoExtractorService();
+        ReflectionTestUtils.setField(service, "props", props);
+        ReflectionTestUtils.setField(service, "strategyFactory", strategyFactory);
+        ReflectionTestUtils.setField(service, "extractors", List.of(new CountingExtractor()));
+        ReflectionTestUtils.setField(service, "streamUrlResolver", new StreamUrlResolver());
+        service.init();
+
+        // Единственный поток занят, поэтому извлечение остаётся в очереди исполнителя
+        executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            blocker.await();
+            return null;
+        });
+        ReflectionTestUtils.setField(service, "executor", executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        blocker.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void cancelBeforeStartReturnsBulkheadAdmission() throws Exception {
+        CompletableFuture<VideoInfoDto> info = service.extractInfoAsync(URL);
+        assertTrue(service.isMetadataSaturated());
+
+        info.cancel(true);
+        blocker.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertFalse(service.isMetadataSaturated());
+        assertEquals(0, extractions.get());
+    }
+
+    @Test
+    void newExtractionIsAdmittedAfterAbandonedOne() throws Exception {
+        service.extractInfoAsync(URL).cancel(true);
+        blocker.countDown();
+
+        VideoInfoDto info = service.extractInfoAsync(URL).get(5, TimeUnit.SECONDS);
+
+        assertEquals(URL, info.getUrl());
+        assertEquals(1, extractions.get());
+    }
+
+    private class CountingExtractor implements VideoExtractor {
+        @Override
+        public VideoInfoDto extractInfo(String url) {
+            extractions.incrementAndGet();
+            VideoInfoDto info = new VideoInfoDto();
+            info.setUrl(url);
+            return info;
+        }
+
+        @Override
+        public String getServiceName() {
+            return "test";
+        }
+
+        @Override
+        public boolean supports(String url) {
+            return true;
+        }
+    }
+}
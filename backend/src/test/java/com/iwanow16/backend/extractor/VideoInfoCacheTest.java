@@ -0,0 +1,126 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.VideoInfoDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VideoInfoCacheTest {
+    private static final String KEY = "youtube:dQw4w9WgXcQ";
+
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final VideoInfoCache cache = new VideoInfoCache();
+
+    @BeforeEach
+    void setUp() {
+        props.getInfoCache().setTtl(Duration.ofHours(1));
+        props.getInfoCache().setNegativeTtl(Duration.ofHours(1));
+        ReflectionTestUtils.setField(cache, "props", props);
+    }
+
+    @Test
+    void hitReturnsInfoWithRequestedUrl() {
+        cache.put(KEY, info("https://www.youtube.com/watch?v=dQw4w9WgXcQ"));
+
+        VideoInfoDto hit = cache.get(KEY, "https://youtu.be/dQw4w9WgXcQ");
+
+        assertEquals("https://youtu.be/dQw4w9WgXcQ", hit.getUrl());
+        assertEquals("title", hit.getTitle());
+        assertEquals(1L, cache.getStats().get("hits"));
+    }
+
+    @Test
+    void expiredEntryIsMiss() {
+        props.getInfoCache().setTtl(Duration.ZERO);
+        cache.put(KEY, info("https://youtu.be/dQw4w9WgXcQ"));
+
+        assertNull(cache.get(KEY, "https://youtu.be/dQw4w9WgXcQ"));
+        assertEquals(1L, cache.getStats().get("expirations"));
+        assertEquals(0, cache.getStats().get("entries"));
+    }
+
+    @Test
+    void unavailableVideoIsCachedUntilNegativeTtl() {
+        assertTrue(cache.putFailure(KEY, new RuntimeException("ERROR: [youtube] x: Private video. Sign in")));
+
+        assertThrows(VideoInfoCache.UnavailableVideoException.class, () -> cache.get(KEY, "u"));
+        assertEquals(1L, cache.getStats().get("negativeHits"));
+    }
+
+    @Test
+    void negativeEntryExpires() {
+        props.getInfoCache().setNegativeTtl(Duration.ZERO);
+        cache.putFailure(KEY, new RuntimeException("Video unavailable"));
+
+        // После negative-ttl видео запрашивается снова
+        assertNull(cache.get(KEY, "u"));
+        assertEquals(1L, cache.getStats().get("expirations"));
+    }
+
+    @Test
+    void transientFailureIsNotCached() {
+        assertFalse(cache.putFailure(KEY, new RuntimeException("HTTP Error 503: Service Unavailable")));
+        assertFalse(cache.putFailure(KEY, new RuntimeException()));
+
+        assertNull(cache.get(KEY, "u"));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        props.getInfoCache().setMaxEntries(2);
+        cache.put("a", info("a"));
+        cache.put("b", info("b"));
+        cache.get("a", "a");
+        cache.put("c", info("c"));
+
+        assertNull(cache.get("b", "b"));
+        assertEquals("a", cache.get("a", "a").getUrl());
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    void onlyLiveSuccessfulEntriesSurviveRestart() {
+        props.getInfoCache().setFile(dir.resolve("info-cache.json").toString());
+        cache.put(KEY, info("https://youtu.be/dQw4w9WgXcQ"));
+        cache.putFailure("youtube:private0000", new RuntimeException("Private video"));
+        cache.flush();
+
+        VideoInfoCache restarted = new VideoInfoCache();
+        ReflectionTestUtils.setField(restarted, "props", props);
+        restarted.init();
+
+        assertEquals(1, restarted.getStats().get("entries"));
+        assertEquals("title", restarted.get(KEY, "u").getTitle());
+        assertNull(restarted.get("youtube:private0000", "u"));
+    }
+
+    @Test
+    void disabledCacheStoresNothing() {
+        props.getInfoCache().setEnabled(false);
+        cache.put(KEY, info("u"));
+
+        assertNull(cache.get(KEY, "u"));
+        assertFalse(cache.putFailure(KEY, new RuntimeException("Private video")));
+    }
+
+    private static VideoInfoDto info(String url) {
+        VideoInfoDto info = new VideoInfoDto();
+        info.setUrl(url);
+        info.setTitle("title");
+        return info;
+    }
+}
@@ -0,0 +1,132 @@
+package com.iwanow16.backend.extractor;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.service.FileStorageService;
+import com.iwanow16.backend.util.ProcessExecutor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class YtDlpCacheDirTest {
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final FileStorageService storage = new FileStorageService();
+    private final List<String> warmedUp = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        props.getYtDlpCache().setDir(dir.resolve("cache").toString());
+        ReflectionTestUtils.setField(storage, "outputDir", dir.resolve("downloads").toString());
+        ReflectionTestUtils.setField(storage, "tempDir", dir.resolve("temp").toString());
+    }
+
+    @Test
+    void writeIsCountedForOneOfConcurrentExtractions() throws Exception {
+        YtDlpCacheDir cache = cacheDir();
+        long first = cache.marker();
+        long second = cache.marker();
+        write("youtube-sigfuncs/js_abc.json");
+
+        cache.recordExtraction(first, 900);
+        cache.recordExtraction(second, 200);
+
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(1L, stats.get("coldExtractions"));
+        assertEquals(1L, stats.get("warmExtractions"));
+        assertEquals(900L, stats.get("avgColdExtractionMs"));
+    }
+
+    @Test
+    void writeBeforeExtractionStartIsNotCounted() throws Exception {
+        YtDlpCacheDir cache = cacheDir();
+        Path file = write("youtube-nsig/abc.json");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 5000));
+
+        cache.recordExtraction(cache.marker(), 200);
+
+        assertEquals(0L, cache.getStats().get("coldExtractions"));
+        assertEquals(1L, cache.getStats().get("warmExtractions"));
+    }
+
+    @Test
+    void firstExtractedVideoIsWarmedUpAtNextStart() throws Exception {
+        YtDlpCacheDir previous = cacheDir();
+        previous.rememberWarmupUrl("https://www.youtube.com/watch?v=first");
+        previous.rememberWarmupUrl("https://www.youtube.com/watch?v=second");
+
+        cacheDir();
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (warmedUp.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(List.of("https://www.youtube.com/watch?v=first"), warmedUp);
+    }
+
+    @Test
+    void configuredWarmupUrlIsNotOverwritten() throws Exception {
+        props.getYtDlpCache().setWarmupUrl("https://www.youtube.com/watch?v=configured");
+        YtDlpCacheDir cache = cacheDir();
+
+        cache.rememberWarmupUrl("https://www.youtube.com/watch?v=first");
+
+        assertTrue(Files.notExists(dir.resolve("downloads/.yt-dlp-warmup-url")));
+    }
+
+    private YtDlpCacheDir cacheDir() {
+        YtDlpCacheDir cache = new YtDlpCacheDir();
+        ReflectionTestUtils.setField(cache, "props", props);
+        ReflectionTestUtils.setField(cache, "storage", storage);
+        ReflectionTestUtils.setField(cache, "engine", new RecordingEngine());
+        cache.init();
+        return cache;
+    }
+
+    private Path write(String name) throws Exception {
+        Path file = dir.resolve("cache").resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, "{}");
+    }
+
+    /**
+     * Запоминает URL прогрева вместо запуска yt-dlp.
+     */
+    private class RecordingEngine implements YtDlpEngine {
+        @Override
+        public <T> T dumpJson(List<String> options, String url, Duration timeout,
+                              ProcessExecutor.StreamParser<T> parser) {
+            warmedUp.add(url);
+            return null;
+        }
+
+        @Override
+        public <T> T dumpJson(List<String> options, String url, ProcessExecutor.StreamParser<T> parser,
+                              String taskId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public Map<String, Object> getStats() {
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.iwanow16.backend.extractor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.service.FileStorageService;
+import com.iwanow16.backend.util.ProcessExecutor;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Протокол ytdlp/worker.py, перезапуск процессов и откат на отдельный процесс.
+ * Вместо yt-dlp подключается модуль yt_dlp с тем же интерфейсом, который отвечает
+ * своим PID, поэтому видно, каким процессом выполнено извлечение. Требует python3.
+ */
+class YtDlpWorkerPoolTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ProcessExecutor.StreamParser<JsonNode> PARSER = MAPPER::readTree;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    // Пишет в stdout, как yt-dlp, — протокол не должен от этого ломаться
+    private static final String FAKE_YT_DLP = """
+            import os
+
+
+            class version:
+                __version__ = "test"
+
+
+            class utils:
+                class DownloadError(Exception):
+                    pass
+
+
+            def parse_options(args):
+                return None, None, [], {"args": list(args)}
+
+
+            class YoutubeDL:
+                def __init__(self, options):
+                    self.options = options
+
+                def __enter__(self):
+                    return self
+
+                def __exit__(self, *exc):
+                    return False
+
+                def extract_info(self, url, download=False):
+                    if url == "unavailable":
+                        raise utils.DownloadError("ERROR: Video unavailable")
+                    if url == "crash":
+                        os._exit(3)
+                    print("[youtube] " + url + ": Downloading webpage")
+                    return {"id": url, "pid": os.getpid(), "args": self.options["args"]}
+
+                def sanitize_info(self, info):
+                    return info
+            """;
+
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final YtDlpWorkerPool pool = new YtDlpWorkerPool();
+    private final ProcessSupervisor supervisor = new ProcessSupervisor();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(hasPython(), "python3 is not available");
+        Path module = Files.createDirectories(dir.resolve("site/yt_dlp"));
+        Files.writeString(module.resolve("__init__.py"), FAKE_YT_DLP);
+        Path python = dir.resolve("python");
+        Files.writeString(python, "#!/bin/sh\nPYTHONPATH='" + dir.resolve("site") + "' exec python3 \"$@\"\n");
+        assertTrue(python.toFile().setExecutable(true));
+
+        DownloaderProperties.YtDlpWorkers config = props.getYtDlpWorkers();
+        config.setEnabled(true);
+        config.setPython(python.toString());
+        config.setPoolSize(1);
+        config.setBorrowTimeout(TIMEOUT);
+        FileStorageService storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "tempDir", dir.resolve("temp").toString());
+        ReflectionTestUtils.setField(pool, "props", props);
+        ReflectionTestUtils.setField(pool, "storage", storage);
+        ReflectionTestUtils.setField(pool, "fallback", new OneShotStub());
+        ReflectionTestUtils.setField(supervisor, "props", props);
+        ReflectionTestUtils.setField(pool, "processSupervisor", supervisor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void workerServesRequestsInOneProcess() throws Exception {
+        pool.init();
+
+        JsonNode first = extract("abc", "--no-playlist");
+        JsonNode second = extract("def");
+
+        assertEquals("abc", first.get("id").asText());
+        assertEquals("--no-playlist", first.get("args").get(0).asText());
+        assertEquals(first.get("pid").asLong(), second.get("pid").asLong());
+        assertEquals(1L, pool.getStats().get("started"));
+        assertEquals(2L, pool.getStats().get("jobs"));
+        assertEquals(0L, pool.getStats().get("fallbacks"));
+    }
+
+    @Test
+    void extractionErrorKeepsWorker() throws Exception {
+        pool.init();
+        long pid = extract("abc").get("pid").asLong();
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> extract("unavailable"));
+
+        assertTrue(e.getMessage().contains("Video unavailable"), e.getMessage());
+        assertEquals(pid, extract("def").get("pid").asLong());
+        assertEquals(0L, pool.getStats().get("crashed"));
+    }
+
+    @Test
+    void workerIsRecycledAfterMaxJobs() throws Exception {
+        props.getYtDlpWorkers().setMaxJobs(2);
+        pool.init();
+
+        long first = extract("a").get("pid").asLong();
+        assertEquals(first, extract("b").get("pid").asLong());
+        long replacement = extract("c").get("pid").asLong();
+
+        assertNotEquals(first, replacement);
+        assertEquals(1L, pool.getStats().get("recycled"));
+        assertEquals(2L, pool.getStats().get("started"));
+    }
+
+    @Test
+    void lostWorkerIsRetriedAsOneShotProcessAndReplaced() throws Exception {
+        pool.init();
+
+        assertEquals("one-shot", extract("crash").get("engine").asText());
+
+        assertEquals(1L, pool.getStats().get("crashed"));
+        assertEquals(1L, pool.getStats().get("fallbacks"));
+        assertEquals("abc", extract("abc").get("id").asText());
+    }
+
+    @Test
+    void workerThatCannotStartFallsBackToOneShotProcess() throws Exception {
+        props.getYtDlpWorkers().setPython(dir.resolve("missing-python").toString());
+        // Вызов, пришедший раньше неудачного запуска, ждёт свободный процесс не дольше borrow-timeout
+        props.getYtDlpWorkers().setBorrowTimeout(Duration.ofMillis(200));
+        pool.init();
+
+        assertEquals("one-shot", extract("abc").get("engine").asText());
+        assertEquals("process", pool.getStats().get("engine"));
+        assertEquals(1L, pool.getStats().get("fallbacks"));
+    }
+
+    @Test
+    void taskExtractionUsesWorkerUntilTaskIsCancelled() throws Exception {
+        pool.init();
+        supervisor.register("t1");
+
+        JsonNode info = pool.dumpJson(List.of("-f", "best"), "abc", PARSER, "t1");
+        assertEquals("-f", info.get("args").get(0).asText());
+        assertEquals(1L, pool.getStats().get("jobs"));
+
+        supervisor.cancel("t1");
+        assertThrows(CancellationException.class, () -> pool.dumpJson(List.of(), "abc", PARSER, "t1"));
+        assertEquals(1L, pool.getStats().get("jobs"));
+    }
+
+    private JsonNode extract(String url, String... options) throws Exception {
+        return pool.dumpJson(List.of(options), url, TIMEOUT, PARSER);
+    }
+
+    private static boolean hasPython() {
+        try {
+            return new ProcessBuilder("python3", "-c", "pass").start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Отдельный процесс yt-dlp: в тесте отвечает без запуска.
+     */
+    private static class OneShotStub extends ProcessYtDlpEngine {
+        @Override
+        public <T> T dumpJson(List<String> options, String url, Duration timeout,
+                              ProcessExecutor.StreamParser<T> parser) throws Exception {
+            return parser.parse(new ByteArrayInputStream(
+                    "{\"engine\":\"one-shot\"}".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public <T> T dumpJson(List<String> options, String url, ProcessExecutor.StreamParser<T> parser,
+                              String taskId) throws Exception {
+            return dumpJson(options, url, TIMEOUT, parser);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadCacheTest {
+    private static final int KB = 1024;
+
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final TaskStore tasks = new TaskStore();
+    private final DownloadCache cache = new DownloadCache();
+
+    @BeforeEach
+    void setUp() {
+        props.setCacheMaxSizeMb(1);
+        FileStorageService storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "outputDir", dir.toString());
+        ReflectionTestUtils.setField(storage, "tempDir", dir.resolve("temp").toString());
+        ReflectionTestUtils.setField(tasks, "props", props);
+        ReflectionTestUtils.setField(cache, "props", props);
+        ReflectionTestUtils.setField(cache, "storage", storage);
+        ReflectionTestUtils.setField(cache, "processSupervisor", new ProcessSupervisor());
+        ReflectionTestUtils.setField(cache, "tasks", tasks);
+    }
+
+    @Test
+    void sharedFileIsCountedOnceAndDeletedWithLastKey() throws Exception {
+        file("a.mp4", 400);
+        file("b.mp4", 400);
+        file("c.mp4", 400);
+        cache.put("k1", "a.mp4");
+        cache.put("k2", "a.mp4");
+        assertEquals(400L * KB, cache.getStats().get("sizeBytes"));
+
+        cache.put("kb", "b.mp4");
+        cache.put("kc", "c.mp4");
+
+        // Вытеснение k1 не освобождает место, файл удаляется только вместе с k2
+        assertNull(cache.lookup("k1"));
+        assertNull(cache.lookup("k2"));
+        assertFalse(Files.exists(dir.resolve("a.mp4")));
+        assertEquals("b.mp4", cache.lookup("kb"));
+        assertEquals(800L * KB, cache.getStats().get("sizeBytes"));
+    }
+
+    @Test
+    void evictionKeepsFileStillSharedByAnotherKey() throws Exception {
+        file("a.mp4", 300);
+        file("b.mp4", 400);
+        file("c.mp4", 400);
+        cache.put("k1", "a.mp4");
+        cache.put("kb", "b.mp4");
+        cache.put("k2", "a.mp4");
+
+        cache.put("kc", "c.mp4");
+
+        assertNull(cache.lookup("k1"));
+        assertEquals("a.mp4", cache.lookup("k2"));
+        assertTrue(Files.exists(dir.resolve("a.mp4")));
+    }
+
+    @Test
+    void fileOfLiveTaskIsNotEvicted() throws Exception {
+        file("a.mp4", 400);
+        file("b.mp4", 400);
+        file("c.mp4", 400);
+        file("d.mp4", 400);
+        TaskStatusDto task = new TaskStatusDto();
+        task.setTaskId("t1");
+        task.setClientIp("10.0.0.1");
+        tasks.put(task);
+        tasks.setFilename(task, "a.mp4");
+
+        cache.put("ka", "a.mp4");
+        cache.put("kb", "b.mp4");
+        cache.put("kc", "c.mp4");
+
+        assertTrue(Files.exists(dir.resolve("a.mp4")));
+        assertFalse(Files.exists(dir.resolve("b.mp4")));
+        assertEquals(2, cache.getStats().get("entries"));
+
+        // После истечения задачи файл вытесняется при следующей проверке бюджета
+        tasks.remove("t1");
+        cache.put("kd", "d.mp4");
+        assertFalse(Files.exists(dir.resolve("a.mp4")));
+        assertEquals("c.mp4", cache.lookup("kc"));
+    }
+
+    @Test
+    void fileLargerThanBudgetIsNotCachedOrDeleted() throws Exception {
+        file("big.mp4", 1500);
+
+        cache.put("big", "big.mp4");
+
+        assertNull(cache.lookup("big"));
+        assertTrue(Files.exists(dir.resolve("big.mp4")));
+        assertEquals(0L, cache.getStats().get("sizeBytes"));
+    }
+
+    @Test
+    void concurrentPutsLeaveCompleteIndex() throws Exception {
+        props.setCacheMaxSizeMb(100);
+        int count = 32;
+        for (int i = 0; i < count; i++) {
+            file("f" + i + ".mp4", 1);
+        }
+        List<Future<?>> puts = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < count; i++) {
+                String name = "f" + i + ".mp4";
+                puts.add(pool.submit(() -> cache.put("k-" + name, name)));
+            }
+            for (Future<?> put : puts) {
+                put.get();
+            }
+        }
+
+        // Последняя запись индекса содержит все ключи, временные файлы не остаются
+        DownloadCache restarted = new DownloadCache();
+        ReflectionTestUtils.setField(restarted, "props", props);
+        ReflectionTestUtils.setField(restarted, "storage", ReflectionTestUtils.getField(cache, "storage"));
+        ReflectionTestUtils.setField(restarted, "processSupervisor", new ProcessSupervisor());
+        ReflectionTestUtils.setField(restarted, "tasks", tasks);
+        restarted.init();
+        assertEquals(count, restarted.getStats().get("entries"));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.noneMatch(f -> f.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    private void file(String name, int kilobytes) throws Exception {
+        Files.write(dir.resolve(name), new byte[kilobytes * KB]);
+    }
+}
@@ -0,0 +1,252 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.extractor.MetadataBusyException;
+import com.iwanow16.backend.model.dto.ClipDto;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import com.iwanow16.backend.service.strategy.DownloadStrategy;
+import com.iwanow16.backend.service.strategy.DownloadStrategyFactory;
+import com.iwanow16.backend.util.ProcessResult;
+import com.iwanow16.backend.util.ProcessStage;
+import com.iwanow16.backend.util.ProcessSupervisor;
+import com.iwanow16.backend.util.ProgressTracker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Объединение одинаковых загрузок и отмена подписчиков. Загрузку изображает процесс sh,
+ * который ждёт файл-разрешение, поэтому отмена проверяется на настоящем процессе.
+ */
+class DownloadQueueServiceTest {
+    private static final String URL = "https://fake.test/watch/abc";
+
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final ProcessSupervisor supervisor = new ProcessSupervisor();
+    private final TaskStore tasks = new TaskStore();
+    private final DownloadQueueService queue = new DownloadQueueService();
+    private final FakeStrategy strategy = new FakeStrategy();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        props.getJournal().setEnabled(false);
+        FileStorageService storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "outputDir", dir.resolve("downloads").toString());
+        ReflectionTestUtils.setField(storage, "tempDir", dir.resolve("temp").toString());
+        ReflectionTestUtils.setField(supervisor, "props", props);
+        ReflectionTestUtils.setField(tasks, "props", props);
+        TaskJournal journal = new TaskJournal();
+        ReflectionTestUtils.setField(journal, "props", props);
+        DownloadCache cache = new DownloadCache();
+        ReflectionTestUtils.setField(cache, "props", props);
+        ReflectionTestUtils.setField(cache, "storage", storage);
+        ReflectionTestUtils.setField(cache, "processSupervisor", supervisor);
+        ReflectionTestUtils.setField(cache, "tasks", tasks);
+        DownloadStrategyFactory factory = new DownloadStrategyFactory();
+        ReflectionTestUtils.setField(factory, "strategies", List.of(strategy));
+
+        ReflectionTestUtils.setField(queue, "props", props);
+        ReflectionTestUtils.setField(queue, "storage", storage);
+        ReflectionTestUtils.setField(queue, "strategyFactory", factory);
+        ReflectionTestUtils.setField(queue, "processSupervisor", supervisor);
+        ReflectionTestUtils.setField(queue, "tasks", tasks);
+        ReflectionTestUtils.setField(queue, "journal", journal);
+        ReflectionTestUtils.setField(queue, "downloadCache", cache);
+        ReflectionTestUtils.setField(queue, "progressTracker", new ProgressTracker());
+        ReflectionTestUtils.setField(queue, "events", new TaskEventBus());
+        queue.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        // Не оставлять ожидающий процесс, если тест упал раньше
+        strategy.release();
+    }
+
+    @Test
+    void identicalSubmissionsShareOneDownload() throws Exception {
+        TaskStatusDto first = queue.submitDownload(URL, "10.0.0.1", "best", null);
+        strategy.awaitStarted();
+        TaskStatusDto second = queue.submitDownload(URL, "10.0.0.2", "best", null);
+        // Повторный запрос того же клиента возвращает его задачу, а не подписывает ещё одну
+        TaskStatusDto duplicate = queue.submitDownload(URL, "10.0.0.1", "best", null);
+
+        assertEquals(first.getTaskId(), duplicate.getTaskId());
+        assertEquals("downloading", second.getStatus());
+        assertEquals(1L, queue.getQueueStats().get("coalescedTotal"));
+
+        strategy.release();
+        TaskStatusDto a = awaitStatus(first.getTaskId(), "10.0.0.1", "completed");
+        TaskStatusDto b = awaitStatus(second.getTaskId(), "10.0.0.2", "completed");
+
+        assertEquals(1, strategy.invocations.get());
+        assertNotNull(a.getFilename());
+        assertEquals(a.getFilename(), b.getFilename());
+    }
+
+    @Test
+    void cancelledInitiatorLeavesSharedDownloadRunning() throws Exception {
+        TaskStatusDto first = queue.submitDownload(URL, "10.0.0.1", "best", null);
+        strategy.awaitStarted();
+        TaskStatusDto second = queue.submitDownload(URL, "10.0.0.2", "best", null);
+
+        queue.cancelTask(first.getTaskId(), "10.0.0.1");
+
+        assertEquals("cancelled", queue.getTask(first.getTaskId(), "10.0.0.1").getStatus());
+        assertTrue(strategy.processAlive(), "download of the remaining subscriber was killed");
+
+        strategy.release();
+        TaskStatusDto b = awaitStatus(second.getTaskId(), "10.0.0.2", "completed");
+
+        assertNotNull(b.getFilename());
+        assertEquals(1, strategy.invocations.get());
+        // Отменённая задача не получает результат общей загрузки
+        assertEquals("cancelled", queue.getTask(first.getTaskId(), "10.0.0.1").getStatus());
+    }
+
+    @Test
+    void cancellingEverySubscriberKillsDownload() throws Exception {
+        TaskStatusDto first = queue.submitDownload(URL, "10.0.0.1", "best", null);
+        strategy.awaitStarted();
+        TaskStatusDto second = queue.submitDownload(URL, "10.0.0.2", "best", null);
+
+        queue.cancelTask(first.getTaskId(), "10.0.0.1");
+        assertTrue(strategy.processAlive());
+        queue.cancelTask(second.getTaskId(), "10.0.0.2");
+
+        await(() -> !strategy.processAlive(), "download process survived cancellation of all subscribers");
+        await(() -> queue.getQueueStats().get("active").equals(0), "download slot was not released");
+        assertEquals("cancelled", queue.getTask(first.getTaskId(), "10.0.0.1").getStatus());
+        assertEquals("cancelled", queue.getTask(second.getTaskId(), "10.0.0.2").getStatus());
+    }
+
+    @Test
+    void busyMetadataExtractionFailsTaskWithRetryTime() throws Exception {
+        TaskStatusDto task = queue.submitDownload("https://fake.test/watch/busy", "10.0.0.1", "best", null);
+
+        TaskStatusDto failed = awaitStatus(task.getTaskId(), "10.0.0.1", "failed");
+
+        assertEquals("busy", failed.getFailureReason());
+        assertEquals(Long.valueOf(7), failed.getRetryAfterSeconds());
+        await(() -> queue.getQueueStats().get("active").equals(0), "download slot was not released");
+    }
+
+    private TaskStatusDto awaitStatus(String taskId, String clientIp, String status) throws Exception {
+        await(() -> status.equals(queue.getTask(taskId, clientIp).getStatus()), "task " + taskId + " is not " + status);
+        return queue.getTask(taskId, clientIp);
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws Exception {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean(), message);
+    }
+
+    /**
+     * Загрузка — процесс sh, который пишет свой PID и ждёт файл-разрешение.
+     */
+    private class FakeStrategy implements DownloadStrategy {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        public Path download(String url, Path outputDir, String formatId, String taskId) throws Exception {
+            invocations.incrementAndGet();
+            if (url.endsWith("/busy")) {
+                throw new MetadataBusyException("Timed out waiting for a metadata extraction slot", 7);
+            }
+            ProcessBuilder pb = new ProcessBuilder("sh", "-c",
+                    "echo $$ > '" + pidFile() + "'; while [ ! -e '" + goFile() + "' ]; do sleep 0.05; done");
+            pb.redirectErrorStream(true);
+            ProcessResult result = supervisor.run(taskId, ProcessStage.FETCH, pb, (line, stderr) -> { });
+            if (result.getExitCode() != 0) {
+                throw new RuntimeException("fake download failed: " + result.errorMessage());
+            }
+            return Files.writeString(outputDir.resolve("video_" + taskId + ".mp4"), "video");
+        }
+
+        void awaitStarted() throws Exception {
+            await(() -> Files.exists(pidFile()) && processAlive(), "download did not start");
+        }
+
+        void release() throws Exception {
+            if (!Files.exists(goFile())) {
+                Files.createFile(goFile());
+            }
+        }
+
+        boolean processAlive() {
+            try {
+                long pid = Long.parseLong(Files.readString(pidFile()).trim());
+                Optional<ProcessHandle> process = ProcessHandle.of(pid);
+                return process.isPresent() && process.get().isAlive();
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private Path pidFile() {
+            return dir.resolve("download.pid");
+        }
+
+        private Path goFile() {
+            return dir.resolve("download.go");
+        }
+
+        @Override
+        public Path downloadTimeRange(String url, Path outputDir, String formatId, String taskId,
+                                      String startTime, String endTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path downloadClips(String url, Path outputDir, String formatId, String taskId, List<ClipDto> clips) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path extractFrame(String url, Path outputDir, String taskId, String frameTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path extractFrames(String url, Path outputDir, String taskId, FrameBatchDto batch) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean supports(String url) {
+            return url.startsWith("https://fake.test/");
+        }
+
+        @Override
+        public String extractVideoId(String url) {
+            return url.substring(url.lastIndexOf('/') + 1);
+        }
+
+        @Override
+        public String getServiceName() {
+            return "fake";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.iwanow16.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairTaskSchedulerTest {
+    private final ManualExecutor executor = new ManualExecutor();
+    private final List<String> executed = new ArrayList<>();
+    private final AtomicInteger released = new AtomicInteger();
+
+    @Test
+    void clientsAreServedRoundRobin() {
+        FairTaskScheduler scheduler = new FairTaskScheduler(executor, 1, 1, 10, released::incrementAndGet);
+        submit(scheduler, "a1", "A");
+        submit(scheduler, "a2", "A");
+        submit(scheduler, "a3", "A");
+        submit(scheduler, "b1", "B");
+        submit(scheduler, "c1", "C");
+
+        executor.runAll();
+
+        // Клиент A не занимает очередь целиком: после каждой его задачи выполняются задачи других
+        assertEquals(List.of("a1", "a2", "b1", "c1", "a3"), executed);
+        assertEquals(5, released.get());
+        assertEquals(0, scheduler.runningCount());
+        assertEquals(0, scheduler.queuedCount());
+    }
+
+    @Test
+    void perClientLimitLeavesGlobalSlotForOtherClients() {
+        FairTaskScheduler scheduler = new FairTaskScheduler(executor, 2, 1, 10, released::incrementAndGet);
+        submit(scheduler, "a1", "A");
+        submit(scheduler, "a2", "A");
+        submit(scheduler, "b1", "B");
+
+        assertEquals(2, scheduler.runningCount());
+        assertEquals(1, scheduler.queuedCount());
+        executor.runNext();
+        executor.runNext();
+        assertEquals(List.of("a1", "b1"), executed);
+
+        executor.runAll();
+        assertEquals(List.of("a1", "b1", "a2"), executed);
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() {
+        FairTaskScheduler scheduler = new FairTaskScheduler(executor, 1, 1, 1, released::incrementAndGet);
+        assertTrue(submit(scheduler, "a1", "A"));
+        assertTrue(submit(scheduler, "a2", "A"));
+
+        assertFalse(submit(scheduler, "b1", "B"));
+        assertEquals(1, scheduler.queuedCount());
+    }
+
+    @Test
+    void cancelRemovesQueuedTask() {
+        FairTaskScheduler scheduler = new FairTaskScheduler(executor, 1, 1, 10, released::incrementAndGet);
+        submit(scheduler, "a1", "A");
+        submit(scheduler, "b1", "B");
+
+        assertTrue(scheduler.cancel("b1"));
+
+        assertEquals(0, scheduler.queuedCount());
+        assertEquals(0, scheduler.waitingClients());
+        executor.runAll();
+        assertEquals(List.of("a1"), executed);
+        assertFalse(scheduler.cancel("b1"));
+    }
+
+    @Test
+    void cancelRunningTaskReleasesSlotImmediately() {
+        FairTaskScheduler scheduler = new FairTaskScheduler(executor, 1, 1, 10, released::incrementAndGet);
+        submit(scheduler, "a1", "A");
+        submit(scheduler, "b1", "B");
+        assertEquals(1, scheduler.queuedCount());
+
+        assertTrue(scheduler.cancel("a1"));
+
+        // Слот отдан следующей задаче, не дожидаясь завершения отменённой
+        assertEquals(1, released.get());
+        assertEquals(0, scheduler.queuedCount());
+        assertEquals(1, scheduler.runningCount());
+        executor.runAll();
+        assertEquals(List.of("b1"), executed);
+        assertEquals(0, scheduler.runningCount());
+    }
+
+    private boolean submit(FairTaskScheduler scheduler, String taskId, String client) {
+        return scheduler.submit(taskId, client, () -> executed.add(taskId));
+    }
+
+    /**
+     * Исполнитель, запускающий задачи по команде теста в порядке передачи.
+     */
+    private static final class ManualExecutor extends AbstractExecutorService {
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+
+        void runNext() {
+            pending.pollFirst().run();
+        }
+
+        void runAll() {
+            while (!pending.isEmpty()) {
+                runNext();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pending.addLast(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
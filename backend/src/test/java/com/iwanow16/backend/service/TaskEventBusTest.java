@@ -0,0 +1,105 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskEventBusTest {
+    private static final String IP = "10.0.0.1";
+
+    private final TaskEventBus bus = new TaskEventBus();
+    private final List<TaskStatusDto> snapshot = List.of(task("snap", IP));
+
+    @Test
+    void firstConnectionGetsSnapshot() {
+        bus.publish(task("a", IP));
+
+        List<TaskEventBus.Event> events = attach(null);
+
+        assertEquals(1, events.size());
+        assertEquals("snapshot", events.get(0).name());
+        assertSame(snapshot, events.get(0).data());
+    }
+
+    @Test
+    void reconnectReplaysOnlyMissedEvents() {
+        bus.publish(task("a", IP));
+        long lastSeen = attach(null).get(0).id();
+        bus.publish(task("b", IP));
+        bus.publish(task("c", IP));
+
+        List<TaskEventBus.Event> events = attach(Long.toString(lastSeen));
+
+        assertEquals(List.of("b", "c"), taskIds(events));
+        assertTrue(events.get(0).id() > lastSeen);
+        assertTrue(events.get(1).id() > events.get(0).id());
+    }
+
+    @Test
+    void reconnectWithoutMissedEventsGetsNothing() {
+        bus.publish(task("a", IP));
+        long lastSeen = attach(null).get(0).id();
+
+        assertTrue(attach(Long.toString(lastSeen)).isEmpty());
+    }
+
+    @Test
+    void evictedHistoryFallsBackToSnapshot() {
+        bus.publish(task("a", IP));
+        long lastSeen = attach(null).get(0).id();
+        // История канала хранит 256 событий, первые из пропущенных уже вытеснены
+        for (int i = 0; i < 300; i++) {
+            bus.publish(task("t" + i, IP));
+        }
+
+        List<TaskEventBus.Event> events = attach(Long.toString(lastSeen));
+
+        assertEquals(1, events.size());
+        assertEquals("snapshot", events.get(0).name());
+    }
+
+    @Test
+    void unknownEventIdFallsBackToSnapshot() {
+        bus.publish(task("a", IP));
+
+        assertEquals("snapshot", attach("garbage").get(0).name());
+        // ID из будущего: сервис перезапускался и счётчик начался заново
+        assertEquals("snapshot", attach(Long.toString(Long.MAX_VALUE)).get(0).name());
+    }
+
+    @Test
+    void eventsOfOtherClientsAreNotDelivered() {
+        TaskEventBus.Subscriber subscriber = bus.attach(IP, null, () -> snapshot, new SseEmitter());
+        subscriber.queue.clear();
+
+        bus.publish(task("other", "10.0.0.2"));
+        bus.publish(task("mine", IP));
+
+        assertEquals(List.of("mine"), taskIds(new ArrayList<>(subscriber.queue)));
+    }
+
+    private List<TaskEventBus.Event> attach(String lastEventId) {
+        TaskEventBus.Subscriber subscriber = bus.attach(IP, lastEventId, () -> snapshot, new SseEmitter());
+        List<TaskEventBus.Event> events = new ArrayList<>(subscriber.queue);
+        subscriber.close();
+        return events;
+    }
+
+    private static List<String> taskIds(List<TaskEventBus.Event> events) {
+        return events.stream().map(e -> ((TaskStatusDto) e.data()).getTaskId()).toList();
+    }
+
+    private static TaskStatusDto task(String id, String clientIp) {
+        TaskStatusDto t = new TaskStatusDto();
+        t.setTaskId(id);
+        t.setClientIp(clientIp);
+        return t;
+    }
+}
@@ -0,0 +1,156 @@
+package com.iwanow16.backend.service;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import com.iwanow16.backend.model.dto.ClipDto;
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+import com.iwanow16.backend.model.dto.TaskStatusDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskJournalTest {
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final List<TaskJournal> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        props.getJournal().setEnabled(true);
+        props.getJournal().setDir(dir.toString());
+        props.getJournal().setSyncInterval(Duration.ofMillis(10));
+        props.getJournal().setCompactThreshold(1000);
+        props.setTaskRetention(Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(TaskJournal::close);
+    }
+
+    @Test
+    void lastRecordWinsAndRemovedTasksAreNotRecovered() throws Exception {
+        TaskJournal journal = open();
+        journal.recover();
+        journal.record(task("a", "pending"));
+        journal.record(task("b", "pending"));
+        journal.record(task("a", "completed"));
+        journal.remove("b");
+        journal.close();
+
+        List<TaskJournal.Entry> recovered = open().recover();
+
+        assertEquals(1, recovered.size());
+        assertEquals("a", recovered.get(0).id);
+        assertEquals("completed", recovered.get(0).status);
+    }
+
+    @Test
+    void truncatedLastLineIsSkipped() throws Exception {
+        Files.writeString(dir.resolve("tasks.journal"),
+                "{\"id\":\"a\",\"status\":\"pending\",\"url\":\"https://example.com/a\"}\n"
+                        + "{\"id\":\"b\",\"status\":\"pen");
+
+        List<TaskJournal.Entry> recovered = open().recover();
+
+        assertEquals(1, recovered.size());
+        assertEquals("a", recovered.get(0).id);
+        assertEquals("https://example.com/a", recovered.get(0).url);
+    }
+
+    @Test
+    void recoverFoldsJournalIntoSnapshot() throws Exception {
+        Files.writeString(dir.resolve("tasks.journal"),
+                "{\"id\":\"a\",\"status\":\"pending\"}\n{\"id\":\"a\",\"status\":\"downloading\"}\n");
+
+        open().recover();
+
+        // Журнал обнулён, состояние осталось только в снимке
+        assertEquals(0, Files.size(dir.resolve("tasks.journal")));
+        assertEquals(1, lines("tasks.snapshot").size());
+        opened.forEach(TaskJournal::close);
+
+        List<TaskJournal.Entry> recovered = open().recover();
+        assertEquals(1, recovered.size());
+        assertEquals("downloading", recovered.get(0).status);
+    }
+
+    @Test
+    void expiredFinishedTasksAreDropped() throws Exception {
+        long expired = System.currentTimeMillis() - Duration.ofHours(2).toMillis();
+        Files.writeString(dir.resolve("tasks.journal"),
+                "{\"id\":\"old\",\"status\":\"completed\",\"finishedAt\":" + expired + "}\n"
+                        + "{\"id\":\"fresh\",\"status\":\"completed\",\"finishedAt\":" + System.currentTimeMillis() + "}\n");
+
+        List<TaskJournal.Entry> recovered = open().recover();
+
+        assertEquals(1, recovered.size());
+        assertEquals("fresh", recovered.get(0).id);
+    }
+
+    @Test
+    void journalIsCompactedAfterThreshold() throws Exception {
+        props.getJournal().setCompactThreshold(3);
+        TaskJournal journal = open();
+        journal.recover();
+        for (int i = 0; i < 5; i++) {
+            journal.record(task("t" + i, "pending"));
+        }
+        journal.close();
+
+        // Пачки записей могут быть любыми, но после сжатия в журнале остаётся меньше порога
+        assertTrue(lines("tasks.journal").size() < 3);
+        assertTrue(lines("tasks.snapshot").size() >= 3);
+        assertEquals(5, open().recover().size());
+    }
+
+    @Test
+    void entriesDoNotShareClipsAndFramesWithTask() {
+        TaskStatusDto task = task("a", "completed");
+        task.setClips(List.of(new ClipDto("0", "5")));
+        FrameBatchDto frames = new FrameBatchDto();
+        frames.setTimes(new ArrayList<>(List.of("1")));
+        task.setFrameBatch(frames);
+
+        TaskJournal.Entry entry = TaskJournal.Entry.of(task);
+        TaskStatusDto published = task.copy();
+        task.getClips().get(0).setFile("clip_01.mp4");
+        task.getFrameBatch().getTimes().add("2");
+
+        assertNull(entry.clips.get(0).getFile());
+        assertEquals(List.of("1"), entry.frames.getTimes());
+        assertNull(published.getClips().get(0).getFile());
+        assertEquals(List.of("1"), published.getFrameBatch().getTimes());
+    }
+
+    private TaskJournal open() {
+        TaskJournal journal = new TaskJournal();
+        ReflectionTestUtils.setField(journal, "props", props);
+        opened.add(journal);
+        return journal;
+    }
+
+    private List<String> lines(String file) throws Exception {
+        return Files.readAllLines(dir.resolve(file)).stream().filter(l -> !l.isBlank()).toList();
+    }
+
+    private static TaskStatusDto task(String id, String status) {
+        TaskStatusDto t = new TaskStatusDto();
+        t.setTaskId(id);
+        t.setStatus(status);
+        return t;
+    }
+}
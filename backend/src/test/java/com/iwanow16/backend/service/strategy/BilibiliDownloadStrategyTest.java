@@ -0,0 +1,32 @@
+package com.iwanow16.backend.service.strategy;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BilibiliDownloadStrategyTest {
+    private final BilibiliDownloadStrategy strategy = new BilibiliDownloadStrategy();
+
+    @ParameterizedTest
+    @CsvSource(nullValues = "NULL", value = {
+            "https://www.bilibili.com/video/BV1xx411c7mD, BV1xx411c7mD",
+            "https://www.bilibili.com/video/BV1xx411c7mD/, BV1xx411c7mD",
+            "https://www.bilibili.com/video/BV1xx411c7mD/?spm_id_from=333.788, BV1xx411c7mD",
+            "https://www.bilibili.com/video/BV1xx411c7mD?p=1, BV1xx411c7mD",
+            "https://www.bilibili.com/video/BV1xx411c7mD?p=2, BV1xx411c7mD_p2",
+            "https://www.bilibili.com/video/BV1xx411c7mD/?spm_id_from=x&p=12#reply, BV1xx411c7mD_p12",
+            "https://m.bilibili.com/video/BV1xx411c7mD?p=3, BV1xx411c7mD_p3",
+            "www.bilibili.com/video/av170001?p=2, av170001_p2",
+            "https://www.bilibili.com/video/BV1xx411c7mD?p=abc, BV1xx411c7mD",
+            "https://b23.tv/BV1xx411c7mD, BV1xx411c7mD",
+            "https://b23.tv/aBcD123?share_source=copy, aBcD123",
+            "https://www.bilibili.com/bangumi/play/ep123, NULL",
+            "https://www.bilibili.com/video/, NULL",
+            "https://notbilibili.org/video/BV1xx411c7mD, NULL",
+            "not a url, NULL"
+    })
+    void extractsCanonicalVideoId(String url, String expected) {
+        assertEquals(expected, strategy.extractVideoId(url));
+    }
+}
@@ -0,0 +1,38 @@
+package com.iwanow16.backend.service.strategy;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class YouTubeDownloadStrategyTest {
+    private final YouTubeDownloadStrategy strategy = new YouTubeDownloadStrategy();
+
+    @ParameterizedTest
+    @CsvSource(nullValues = "NULL", value = {
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://youtube.com/watch?v=dQw4w9WgXcQ&t=30s, dQw4w9WgXcQ",
+            "https://www.youtube.com/watch?feature=share&v=dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ#t=30, dQw4w9WgXcQ",
+            "https://m.youtube.com/watch?v=dQw4w9WgXcQ&list=PL123, dQw4w9WgXcQ",
+            "https://music.youtube.com/watch?v=dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "www.youtube.com/watch?v=dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://youtu.be/dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://youtu.be/dQw4w9WgXcQ?si=abc&t=10, dQw4w9WgXcQ",
+            "https://youtu.be/dQw4w9WgXcQ#t=5, dQw4w9WgXcQ",
+            "https://www.youtube.com/shorts/dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://youtube.com/shorts/dQw4w9WgXcQ?feature=share, dQw4w9WgXcQ",
+            "https://www.youtube.com/embed/dQw4w9WgXcQ?start=10, dQw4w9WgXcQ",
+            "https://www.youtube.com/live/dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://www.youtube.com/v/dQw4w9WgXcQ, dQw4w9WgXcQ",
+            "https://www.youtube.com/watch?list=PL123, NULL",
+            "https://www.youtube.com/watch?v=short, NULL",
+            "https://www.youtube.com/channel/UC1234567890, NULL",
+            "https://www.youtube.com/, NULL",
+            "https://notyoutube.com/watch?v=dQw4w9WgXcQ, NULL",
+            "not a url, NULL"
+    })
+    void extractsCanonicalVideoId(String url, String expected) {
+        assertEquals(expected, strategy.extractVideoId(url));
+    }
+}
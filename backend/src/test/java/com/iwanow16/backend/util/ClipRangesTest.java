@@ -0,0 +1,77 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.model.dto.ClipDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClipRangesTest {
+
+    @Test
+    void validRangesAreAccepted() {
+        assertDoesNotThrow(() -> ClipRanges.validate(List.of(clip("0", "5"), clip("1:00", "1:30.5")), 5));
+    }
+
+    @Test
+    void invalidRangesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ClipRanges.validate(List.of(), 5));
+        assertThrows(IllegalArgumentException.class,
+                () -> ClipRanges.validate(List.of(clip("0", "1"), clip("1", "2"), clip("2", "3")), 2));
+        assertThrows(IllegalArgumentException.class, () -> ClipRanges.validate(List.of(clip("10", "5")), 5));
+        assertThrows(IllegalArgumentException.class, () -> ClipRanges.validate(List.of(clip("5", "5")), 5));
+        assertThrows(IllegalArgumentException.class, () -> ClipRanges.validate(List.of(clip("a", "5")), 5));
+        assertThrows(IllegalArgumentException.class, () -> ClipRanges.validate(List.of(clip("-1", "5")), 5));
+        assertThrows(IllegalArgumentException.class,
+                () -> ClipRanges.validate(Arrays.asList(clip("0", "1"), null), 5));
+    }
+
+    @Test
+    void timesAreParsedAsSeconds() {
+        assertEquals(3723.5, ClipRanges.start(clip("1:02:03.5", "2:00:00")));
+        assertEquals(90.0, ClipRanges.end(clip("0", "01:30")));
+    }
+
+    @Test
+    void distantClipsGetSeparateSections() {
+        List<ClipDto> clips = List.of(clip("1:00:00", "1:00:10"), clip("0", "10"), clip("20", "30"));
+
+        List<ClipRanges.Cluster> clusters = ClipRanges.clusters(clips, 30);
+
+        // Час между клипами не скачивается
+        assertEquals(2, clusters.size());
+        assertEquals(new ClipRanges.Cluster(0, 30, List.of(1, 2)), clusters.get(0));
+        assertEquals(new ClipRanges.Cluster(3600, 3610, List.of(0)), clusters.get(1));
+    }
+
+    @Test
+    void overlappingAndNestedClipsShareSection() {
+        List<ClipDto> clips = List.of(clip("0", "100"), clip("10", "20"), clip("90", "120"));
+
+        assertEquals(List.of(new ClipRanges.Cluster(0, 120, List.of(0, 1, 2))), ClipRanges.clusters(clips, 0));
+    }
+
+    @Test
+    void zeroGapSplitsAdjacentButNotTouchingClips() {
+        List<ClipDto> clips = List.of(clip("0", "10"), clip("10", "20"), clip("20.5", "30"));
+
+        List<ClipRanges.Cluster> clusters = ClipRanges.clusters(clips, 0);
+
+        assertEquals(2, clusters.size());
+        assertEquals(List.of(0, 1), clusters.get(0).indices());
+        assertEquals(List.of(2), clusters.get(1).indices());
+    }
+
+    @Test
+    void keyKeepsOrderAndNormalizesTimes() {
+        assertEquals("60.000-90.000,0.000-5.500", ClipRanges.key(List.of(clip("1:00", "1:30"), clip("0", "5.5"))));
+    }
+
+    private static ClipDto clip(String start, String end) {
+        return new ClipDto(start, end);
+    }
+}
@@ -0,0 +1,90 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.model.dto.FrameBatchDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameBatchesTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"Infinity", "NaN", "-5", "0", "0.0", "1e3", "0x1p3", "5d", "s", "abc",
+            "99999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999"
+                    + "99999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999"
+                    + "99999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999"
+                    + "99999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999999"})
+    void invalidIntervalIsRejected(String interval) {
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(interval(interval), 100));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"5", "2.5", " 10s ", "0.5 S"})
+    void validIntervalIsAccepted(String interval) {
+        assertDoesNotThrow(() -> FrameBatches.validate(interval(interval), 100));
+    }
+
+    @Test
+    void timesAndIntervalAreMutuallyExclusive() {
+        FrameBatchDto both = interval("5");
+        both.setTimes(List.of("1"));
+
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(both, 100));
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(new FrameBatchDto(), 100));
+    }
+
+    @Test
+    void tooManyTimesAndBadFormatAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(times("1", "2", "3"), 2));
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(times("1", "x"), 10));
+
+        FrameBatchDto gif = times("1");
+        gif.setFormat("gif");
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(gif, 10));
+
+        FrameBatchDto narrow = times("1");
+        narrow.setWidth(8);
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.validate(narrow, 10));
+    }
+
+    @Test
+    void timesAreSortedDedupedAndCutAtDuration() {
+        List<Double> times = FrameBatches.timestamps(times("1:00", "5", "5.05", "0", "90"), 70.0, 10);
+
+        // 5.05 ближе 0.1 с к 5, 90 за концом видео
+        assertEquals(List.of(0.0, 5.0, 60.0), times);
+    }
+
+    @Test
+    void intervalExpandsUpToDurationAndLimit() {
+        assertEquals(List.of(0.0, 2.5, 5.0, 7.5), FrameBatches.timestamps(interval("2.5s"), 10.0, 100));
+        assertEquals(List.of(0.0, 1.0, 2.0), FrameBatches.timestamps(interval("1"), 10.0, 3));
+        assertThrows(IllegalArgumentException.class, () -> FrameBatches.timestamps(interval("1"), null, 3));
+    }
+
+    @Test
+    void keyIgnoresOrderAndFormatAlias() {
+        FrameBatchDto a = times("5", "1:00");
+        a.setFormat("JPEG");
+        FrameBatchDto b = times("60", "5.0");
+
+        assertEquals(FrameBatches.key(a), FrameBatches.key(b));
+    }
+
+    private static FrameBatchDto interval(String interval) {
+        FrameBatchDto batch = new FrameBatchDto();
+        batch.setInterval(interval);
+        return batch;
+    }
+
+    private static FrameBatchDto times(String... times) {
+        FrameBatchDto batch = new FrameBatchDto();
+        batch.setTimes(List.of(times));
+        return batch;
+    }
+}
@@ -0,0 +1,40 @@
+package com.iwanow16.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FrameExtractorUtilTest {
+    private static final List<Double> CLUSTER = List.of(10.0, 10.2, 10.4, 12.0);
+
+    @Test
+    void eachFrameAnswersOneMoment() {
+        List<Double> moments = FrameExtractorUtil.matchFrames(CLUSTER, List.of(0.0, 0.2, 0.4, 2.0), 4);
+
+        assertEquals(CLUSTER, moments);
+    }
+
+    @Test
+    void momentsBetweenTwoFramesShareOneFrame() {
+        // 2 fps: моменты 10.2 и 10.4 закрывает один кадр на 10.5
+        List<Double> moments = FrameExtractorUtil.matchFrames(CLUSTER, List.of(0.0, 0.5, 2.0), 3);
+
+        assertEquals(List.of(10.0, 10.2, 12.0), moments);
+    }
+
+    @Test
+    void momentsPastEndOfStreamGetNoFrame() {
+        List<Double> moments = FrameExtractorUtil.matchFrames(CLUSTER, List.of(0.0, 0.2), 2);
+
+        assertEquals(List.of(10.0, 10.2), moments);
+    }
+
+    @Test
+    void missingShowinfoFallsBackToOrder() {
+        List<Double> moments = FrameExtractorUtil.matchFrames(CLUSTER, List.of(), 3);
+
+        assertEquals(List.of(10.0, 10.2, 10.4), moments);
+    }
+}
@@ -0,0 +1,184 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessSupervisorTest {
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final ProcessSupervisor supervisor = new ProcessSupervisor();
+
+    @BeforeEach
+    void setUp() {
+        props.getTimeouts().setTrim(Duration.ofSeconds(30));
+        props.getTimeouts().setMetadata(Duration.ofSeconds(30));
+        props.getTimeouts().setStall(Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(supervisor, "props", props);
+    }
+
+    @Test
+    void unregisteredTaskCannotStartProcesses() {
+        assertThrows(CancellationException.class, () -> supervisor.start("t1", new ProcessBuilder("true")));
+        assertThrows(CancellationException.class, () -> supervisor.trackArtifact("t1", dir.resolve("a")));
+        assertFalse(supervisor.isActive("t1"));
+    }
+
+    @Test
+    void releasedTaskIsNotRecreated() {
+        supervisor.register("t1");
+        supervisor.release("t1");
+
+        // Поздний вызов после завершения задачи не должен вернуть её на учёт
+        assertThrows(CancellationException.class, () -> supervisor.trackArtifact("t1", dir.resolve("a")));
+        assertThrows(CancellationException.class, () -> supervisor.start("t1", new ProcessBuilder("true")));
+        assertFalse(supervisor.isActive("t1"));
+    }
+
+    @Test
+    void cancelledTaskRejectsProcessesAndDeletesArtifacts() throws Exception {
+        Path partial = Files.writeString(dir.resolve("partial.mp4"), "x");
+        supervisor.register("t1");
+        supervisor.trackArtifact("t1", partial);
+
+        supervisor.cancel("t1");
+
+        assertTrue(supervisor.isCancelled("t1"));
+        assertThrows(CancellationException.class, () -> supervisor.start("t1", new ProcessBuilder("true")));
+        assertTrue(supervisor.release("t1"));
+        assertFalse(Files.exists(partial));
+        assertFalse(supervisor.isActive("t1"));
+    }
+
+    @Test
+    void finishedTaskKeepsArtifacts() throws Exception {
+        Path result = Files.writeString(dir.resolve("result.mp4"), "x");
+        supervisor.register("t1");
+        supervisor.trackArtifact("t1", result);
+
+        assertFalse(supervisor.release("t1"));
+        assertTrue(Files.exists(result));
+    }
+
+    @Test
+    void finishedProcessReturnsExitCodeAndOutput() throws Exception {
+        supervisor.register("t1");
+
+        ProcessResult result = supervisor.run("t1", ProcessStage.TRIM,
+                new ProcessBuilder("sh", "-c", "echo done; exit 3"), null);
+
+        assertEquals(3, result.getExitCode());
+        assertTrue(result.getOutput().contains("done"));
+    }
+
+    @Test
+    void parsedOutputStreamsStdoutAndKeepsStderrForErrors() throws Exception {
+        supervisor.register("t1");
+
+        String parsed = supervisor.runParsing("t1", ProcessStage.METADATA,
+                new ProcessBuilder("sh", "-c", "echo warning >&2; printf '{\\n\"id\": 1}'"),
+                in -> new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals("{\n\"id\": 1}", parsed);
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> supervisor.runParsing("t1",
+                ProcessStage.METADATA,
+                new ProcessBuilder("sh", "-c", "echo '{}'; echo 'ERROR: private video' >&2; exit 1"),
+                in -> new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+        assertTrue(e.getMessage().contains("ERROR: private video"), e.getMessage());
+    }
+
+    @Test
+    void parsedOutputProcessIsKilledOnTimeout() throws Exception {
+        props.getTimeouts().setMetadata(Duration.ofSeconds(1));
+        Path pid = dir.resolve("child.pid");
+        supervisor.register("t1");
+
+        // Разборщик ждёт конец вывода — таймаут должен сработать, пока он читает
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class, () -> supervisor.runParsing("t1",
+                ProcessStage.METADATA, withChild(pid, "echo '{'; sleep 60").redirectErrorStream(false),
+                in -> in.readAllBytes()));
+
+        assertEquals(ProcessTimeoutException.Reason.TIMEOUT, e.getReason());
+        assertChildGone(pid);
+    }
+
+    @Test
+    void stageTimeoutKillsProcessTree() throws Exception {
+        props.getTimeouts().setTrim(Duration.ofSeconds(1));
+        Path pid = dir.resolve("child.pid");
+        supervisor.register("t1");
+
+        // Процесс всё время что-то выводит — срабатывает таймаут этапа, а не детектор зависания
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class, () -> supervisor.run("t1",
+                ProcessStage.TRIM, withChild(pid, "while :; do echo tick; sleep 0.2; done"), null));
+
+        assertEquals(ProcessTimeoutException.Reason.TIMEOUT, e.getReason());
+        assertEquals(ProcessStage.TRIM, e.getStage());
+        assertChildGone(pid);
+    }
+
+    @Test
+    void silentProcessIsKilledAsStalled() throws Exception {
+        props.getTimeouts().setStall(Duration.ofSeconds(1));
+        Path pid = dir.resolve("child.pid");
+        supervisor.register("t1");
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class, () -> supervisor.run("t1",
+                ProcessStage.TRIM, withChild(pid, "echo started; sleep 30"), null));
+
+        assertEquals(ProcessTimeoutException.Reason.STALLED, e.getReason());
+        assertChildGone(pid);
+    }
+
+    @Test
+    void metadataStageIgnoresStallAndTimesOut() throws Exception {
+        // yt-dlp --dump-json молчит до самого конца — для метаданных действует только общий таймаут
+        props.getTimeouts().setStall(Duration.ofSeconds(1));
+        props.getTimeouts().setMetadata(Duration.ofSeconds(3));
+        Path pid = dir.resolve("child.pid");
+        supervisor.register("t1");
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class, () -> supervisor.run("t1",
+                ProcessStage.METADATA, withChild(pid, "sleep 30"), null));
+
+        assertEquals(ProcessTimeoutException.Reason.TIMEOUT, e.getReason());
+        assertChildGone(pid);
+    }
+
+    /**
+     * Оболочка, которая запускает фоновый дочерний процесс (его PID пишется в pidFile), затем script.
+     */
+    private static ProcessBuilder withChild(Path pidFile, String script) {
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c",
+                "sleep 60 >/dev/null 2>&1 & echo $! > '" + pidFile + "'; " + script);
+        pb.redirectErrorStream(true);
+        return pb;
+    }
+
+    private static void assertChildGone(Path pidFile) throws Exception {
+        long pid = Long.parseLong(Files.readString(pidFile).trim());
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        Optional<ProcessHandle> child = ProcessHandle.of(pid);
+        while (child.isPresent() && child.get().isAlive() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            child = ProcessHandle.of(pid);
+        }
+        assertFalse(child.isPresent() && child.get().isAlive(), "child process " + pid + " survived");
+    }
+}
@@ -0,0 +1,140 @@
+package com.iwanow16.backend.util;
+
+import com.iwanow16.backend.config.DownloaderProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Обрезка настоящих H.264 и VP9 файлов. Требует ffmpeg с libx264 и libvpx-vp9, иначе пропускается.
+ */
+class SmartTrimmerTest {
+    // Ключевой кадр каждые 2 с: интервал 1.3-5.7 даёт оба края и копируемую середину 2-4
+    private static final List<String> GOP = List.of("-g", "50", "-keyint_min", "50", "-r", "25");
+
+    @TempDir
+    Path dir;
+
+    private final DownloaderProperties props = new DownloaderProperties();
+    private final ProcessSupervisor supervisor = new ProcessSupervisor();
+    private final SmartTrimmer trimmer = new SmartTrimmer();
+
+    @BeforeEach
+    void setUp() {
+        props.getTrim().setSmart(true);
+        ReflectionTestUtils.setField(supervisor, "props", props);
+        ReflectionTestUtils.setField(trimmer, "props", props);
+        ReflectionTestUtils.setField(trimmer, "processSupervisor", supervisor);
+        supervisor.register("t1");
+    }
+
+    @Test
+    void h264EdgesDecodeCleanly() throws Exception {
+        Path source = sample("libx264", "aac", "sample.mp4");
+        Path output = dir.resolve("out.mp4");
+
+        trimmer.trim(source, "1.3", "5.7", output, "t1");
+
+        assertEquals(1L, trimmer.getStats().get("smartTrims"));
+        assertEquals(0L, trimmer.getStats().get("copyTrims"));
+        assertDecodesCleanly(output);
+        assertEquals(4.4, duration(output), 0.15);
+    }
+
+    @Test
+    void vp9EdgesDecodeCleanly() throws Exception {
+        Path source = sample("libvpx-vp9", "libopus", "sample.webm");
+        Path output = dir.resolve("out.webm");
+
+        trimmer.trim(source, "1.3", "5.7", output, "t1");
+
+        assertEquals(1L, trimmer.getStats().get("smartTrims"));
+        assertDecodesCleanly(output);
+        assertEquals(4.4, duration(output), 0.15);
+    }
+
+    @Test
+    void webmSectionStartsAtKeyframeBeforeRequestedStart() throws Exception {
+        Path source = sample("libvpx-vp9", "libopus", "sample.webm");
+        Path section = dir.resolve("section.webm");
+        // Так участок копирует yt-dlp --download-sections
+        ffmpeg("-ss", "3.3", "-t", "2", "-i", source.toString(), "-c", "copy", section.toString());
+
+        // Matroska начинается с ключевого кадра на 2.0 — запрошенное начало в 1.3 с от нуля
+        assertEquals(1.3, trimmer.sectionStart(section, 2, "t1"), 0.08);
+    }
+
+    @Test
+    void mp4SectionKeepsRequestedStartAtZero() throws Exception {
+        Path source = sample("libx264", "aac", "sample.mp4");
+        Path section = dir.resolve("section.mp4");
+        ffmpeg("-ss", "3.3", "-t", "2", "-i", source.toString(), "-c", "copy", section.toString());
+
+        assertEquals(0, trimmer.sectionStart(section, 2, "t1"), 0.08);
+    }
+
+    private Path sample(String videoEncoder, String audioEncoder, String name) throws Exception {
+        assumeTrue(hasEncoders(videoEncoder, audioEncoder), "ffmpeg with " + videoEncoder + " is not available");
+        Path file = dir.resolve(name);
+        List<String> cmd = new ArrayList<>(List.of(
+                "-f", "lavfi", "-i", "testsrc2=size=320x240:rate=25",
+                "-f", "lavfi", "-i", "sine=frequency=440:sample_rate=48000",
+                "-t", "10", "-c:v", videoEncoder));
+        cmd.addAll(GOP);
+        if (videoEncoder.equals("libx264")) {
+            cmd.addAll(List.of("-sc_threshold", "0", "-bf", "2", "-pix_fmt", "yuv420p"));
+        } else {
+            cmd.addAll(List.of("-deadline", "realtime", "-cpu-used", "8"));
+        }
+        cmd.addAll(List.of("-c:a", audioEncoder, file.toString()));
+        ffmpeg(cmd.toArray(String[]::new));
+        return file;
+    }
+
+    private static void assertDecodesCleanly(Path file) throws Exception {
+        String errors = run(List.of("ffmpeg", "-v", "error", "-i", file.toString(), "-f", "null", "-"));
+        assertTrue(errors.isBlank(), "decode errors: " + errors);
+    }
+
+    private static double duration(Path file) throws Exception {
+        return Double.parseDouble(run(List.of("ffprobe", "-v", "error", "-show_entries", "format=duration",
+                "-of", "csv=p=0", file.toString())).trim());
+    }
+
+    private static void ffmpeg(String... args) throws Exception {
+        List<String> cmd = new ArrayList<>(List.of("ffmpeg", "-v", "error", "-y"));
+        cmd.addAll(List.of(args));
+        run(cmd);
+    }
+
+    private static boolean hasEncoders(String... encoders) {
+        try {
+            String list = run(List.of("ffmpeg", "-hide_banner", "-encoders"));
+            for (String encoder : encoders) {
+                if (!list.contains(" " + encoder + " ")) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String run(List<String> cmd) throws Exception {
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, p.waitFor(), String.join(" ", cmd) + "\n" + output);
+        return output;
+    }
+}
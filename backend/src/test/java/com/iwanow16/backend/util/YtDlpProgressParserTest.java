@@ -0,0 +1,109 @@
+package com.iwanow16.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class YtDlpProgressParserTest {
+    private final DownloadProgress progress = new DownloadProgress(2, null);
+    private final YtDlpProgressParser parser = new YtDlpProgressParser(progress);
+
+    @Test
+    void unknownTotalFallsBackToEstimate() {
+        assertTrue(feed("[dl] 137 500 NA 1000 NA NA"));
+
+        assertEquals("video", progress.getPhase());
+        assertEquals(500, progress.getDownloadedBytes());
+        assertEquals(1000, progress.getTotalBytes());
+        assertEquals(-1, progress.getEtaSeconds());
+    }
+
+    @Test
+    void noneValuesStartStreamWithoutUpdate() {
+        feed("[dl] 137 None None None None None");
+
+        assertEquals("video", progress.getPhase());
+        assertEquals(0, progress.getDownloadedBytes());
+        assertEquals(-1, progress.getTotalBytes());
+        assertEquals(0, progress.getPercent());
+    }
+
+    @Test
+    void fractionalNumbersAreTruncated() {
+        feed("[dl] 137 1024.5 2048 NA 512.25 3.0");
+
+        assertEquals(1024, progress.getDownloadedBytes());
+        assertEquals(2048, progress.getTotalBytes());
+        assertEquals(3, progress.getEtaSeconds());
+    }
+
+    @Test
+    void formatSwitchStartsNextStream() {
+        feed("[dl] 137 1000 1000 NA NA 0");
+        feed("[dl] 140 200 400 NA NA 1");
+
+        // Байты видео не теряются, когда yt-dlp переходит к аудио
+        assertEquals("audio", progress.getPhase());
+        assertEquals(1200, progress.getDownloadedBytes());
+        assertEquals(1400, progress.getTotalBytes());
+        assertEquals(71, progress.getPercent());
+    }
+
+    @Test
+    void sameFormatDoesNotRestartStream() {
+        feed("[dl] 137 100 1000 NA NA NA");
+        feed("[dl] 137 600 1000 NA NA NA");
+
+        assertEquals("video", progress.getPhase());
+        assertEquals(600, progress.getDownloadedBytes());
+        assertEquals(28, progress.getPercent());
+    }
+
+    @Test
+    void mergerStartsMergingPhase() {
+        feed("[dl] 137 1000 1000 NA NA 0");
+        feed("[dl] 140 400 400 NA NA 0");
+        feed("[pp] Merger started");
+
+        assertEquals("merging", progress.getPhase());
+        assertEquals(95, progress.getPercent());
+        assertEquals(1400, progress.getTotalBytes());
+
+        feed("[pp] Merger finished");
+        feed("[pp] FFmpegMetadata started");
+        assertEquals("postprocessing", progress.getPhase());
+    }
+
+    @Test
+    void foreignLinesAreNotConsumed() {
+        assertFalse(feed("[youtube] abc: Downloading webpage"));
+        assertFalse(parser.onRawLine(bytes("[dl] 137 1 2 NA NA NA"), 0, 21, true));
+        assertEquals("pending", progress.getPhase());
+    }
+
+    @Test
+    void expectedStreamsFollowsFormatSelector() {
+        assertEquals(2, YtDlpProgressParser.expectedStreams("137+140"));
+        assertEquals(1, YtDlpProgressParser.expectedStreams("18"));
+        assertEquals(1, YtDlpProgressParser.expectedStreams(null));
+    }
+
+    /**
+     * Строка кладётся в середину буфера, как её отдаёт ProcessSupervisor.
+     */
+    private boolean feed(String line) {
+        byte[] text = bytes(line);
+        byte[] buf = new byte[text.length + 8];
+        System.arraycopy(text, 0, buf, 4, text.length);
+        buf[buf.length - 1] = ' ';
+        return parser.onRawLine(buf, 4, text.length, false);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
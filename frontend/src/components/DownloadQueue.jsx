@@ -2,6 +2,7 @@ import React, { useState, useEffect, useRef } from 'react'
 import { useTranslation } from 'react-i18next'
 import { useDownload } from '../contexts/DownloadContext'
 import { downloadAPI } from '../services/api'
+import config from '../utils/config'
 import ProgressBar from './ProgressBar'
 import '../styles/components/DownloadQueue.css'
 
@@ -22,28 +23,50 @@ const DownloadQueue = () => {
     cancelTask, 
     removeTask, 
     clearCompleted,
-    refreshTasks 
+    refreshTasks,
+    subscribeTasks
   } = useDownload()
   
   const pollingIntervalRef = useRef(null)
   const [autoRefresh, setAutoRefresh] = useState(true)
 
-  // Set up polling for task updates
+  // Task updates are pushed over SSE; polling is used only when the stream is unavailable
   useEffect(() => {
-    if (autoRefresh) {
-      const interval = setInterval(() => {
-        refreshTasks()
-      }, 3000)
-      
-      pollingIntervalRef.current = interval
-      return () => clearInterval(interval)
-    } else {
+    if (!autoRefresh) {
+      return
+    }
+
+    // The server suggests how soon to ask again: often while downloading, rarely when idle
+    let polling = false
+    const poll = async () => {
+      const delay = await refreshTasks()
+      if (polling) {
+        pollingIntervalRef.current = setTimeout(poll, delay || config.app.pollingInterval)
+      }
+    }
+    const startPolling = () => {
+      if (!polling) {
+        polling = true
+        pollingIntervalRef.current = setTimeout(poll, config.app.pollingInterval)
+      }
+    }
+
+    const unsubscribe = typeof EventSource !== 'undefined'
+      ? subscribeTasks(startPolling)
+      : null
+    if (!unsubscribe) {
+      startPolling()
+    }
+
+    return () => {
+      unsubscribe?.()
+      polling = false
       if (pollingIntervalRef.current) {
-        clearInterval(pollingIntervalRef.current)
+        clearTimeout(pollingIntervalRef.current)
         pollingIntervalRef.current = null
       }
     }
-  }, [autoRefresh, refreshTasks])
+  }, [autoRefresh, refreshTasks, subscribeTasks])
 
   // Format time
   const formatTime = (dateString) => {
@@ -172,7 +195,7 @@ const DownloadQueue = () => {
                       </div>
                       
                       <div className="task-actions">
-                        {task.status === 'downloading' && (
+                        {(task.status === 'downloading' || task.status === 'pending') && (
                           <button
                             onClick={() => handleCancel(task.id)}
                             className="action-button cancel"
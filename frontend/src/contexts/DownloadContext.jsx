@@ -1,4 +1,4 @@
-import React, { createContext, useState, useContext, useCallback } from 'react';
+import React, { createContext, useState, useContext, useCallback, useRef } from 'react';
 import { downloadAPI } from '../services/api';
 
 const DownloadContext = createContext();
@@ -17,6 +17,12 @@ export const DownloadProvider = ({ children }) => {
   const [loading, setLoading] = useState(false);
   const [error, setError] = useState(null);
   const [selectedFormat, setSelectedFormat] = useState(null);
+  // Version of the latest task state received from server
+  const taskVersionRef = useRef(null);
+  // ETag of the latest task list response, sent back as If-None-Match
+  const taskEtagRef = useRef(null);
+  // IDs of tasks the server has reported; compared with X-Task-Count to notice removed tasks
+  const serverTaskIdsRef = useRef(new Set());
   
   // Download options state
   const [downloadOptions, setDownloadOptions] = useState({
@@ -130,54 +136,108 @@ export const DownloadProvider = ({ children }) => {
     );
   }, []);
 
-  // Refresh tasks from server
+  // Merge tasks received from server into local state
+  const mergeServerTasks = useCallback((serverTasks) => {
+    setTasks((prev) => {
+      const updated = prev.map(task => ({ ...task })); // Копируем текущие задачи
+
+      serverTasks.forEach((serverTask) => {
+        const taskId = serverTask.id || serverTask.taskId;
+        const idx = updated.findIndex((t) => t.id === taskId);
+
+        if (idx >= 0) {
+          // Обновляем только незавершенные задачи с информацией с сервера
+          // Для завершенных задач используем локальное состояние
+          if (updated[idx].status === 'completed' || updated[idx].status === 'failed' || updated[idx].status === 'cancelled') {
+            // Не перезаписываем статус для завершенных задач
+            updated[idx] = { 
+              ...updated[idx], 
+              ...serverTask, 
+              id: taskId,
+              status: updated[idx].status // Сохраняем локальный статус
+            };
+          } else {
+            // Для активных задач обновляем всю информацию
+            updated[idx] = { ...updated[idx], ...serverTask, id: taskId };
+          }
+        } else {
+          // Новая задача от сервера - добавляем только если не завершена
+          if (serverTask.status !== 'completed' && serverTask.status !== 'failed' && serverTask.status !== 'cancelled') {
+            updated.push({ ...serverTask, id: taskId });
+          }
+        }
+      });
+
+      return updated;
+    });
+  }, []);
+
+  // Refresh tasks from server: only tasks changed since the last refresh are fetched.
+  // Removed tasks are not reported as changes: when the server holds fewer tasks than were
+  // received, the full list is fetched and tasks missing from it are dropped.
+  // Returns the server-suggested delay before the next refresh (ms) or null
   const refreshTasks = useCallback(async () => {
     try {
-      const serverTasks = await downloadAPI.getTasks();
+      let { tasks: serverTasks, version, etag, count, pollInterval } =
+        await downloadAPI.getTaskChanges(taskVersionRef.current, taskEtagRef.current);
       
       // Ensure serverTasks is always an array
       if (!Array.isArray(serverTasks)) {
         console.warn('Invalid serverTasks format:', serverTasks);
-        return;
+        return null;
       }
 
-      setTasks((prev) => {
-        const updated = prev.map(task => ({ ...task })); // Копируем текущие задачи
-
-        serverTasks.forEach((serverTask) => {
-          const taskId = serverTask.id || serverTask.taskId;
-          const idx = updated.findIndex((t) => t.id === taskId);
-
-          if (idx >= 0) {
-            // Обновляем только незавершенные задачи с информацией с сервера
-            // Для завершенных задач используем локальное состояние
-            if (updated[idx].status === 'completed' || updated[idx].status === 'failed' || updated[idx].status === 'cancelled') {
-              // Не перезаписываем статус для завершенных задач
-              updated[idx] = { 
-                ...updated[idx], 
-                ...serverTask, 
-                id: taskId,
-                status: updated[idx].status // Сохраняем локальный статус
-              };
-            } else {
-              // Для активных задач обновляем всю информацию
-              updated[idx] = { ...updated[idx], ...serverTask, id: taskId };
-            }
-          } else {
-            // Новая задача от сервера - добавляем только если не завершена
-            if (serverTask.status !== 'completed' && serverTask.status !== 'failed' && serverTask.status !== 'cancelled') {
-              updated.push({ ...serverTask, id: taskId });
-            }
-          }
-        });
+      const known = serverTaskIdsRef.current;
+      serverTasks.forEach((task) => known.add(task.id || task.taskId));
+      if (count != null && count < known.size) {
+        ({ tasks: serverTasks, version, etag, pollInterval } = await downloadAPI.getTaskChanges(null, null));
+        const current = new Set(serverTasks.map((task) => task.id || task.taskId));
+        const removed = [...known].filter((id) => !current.has(id));
+        serverTaskIdsRef.current = current;
+        setTasks((prev) => prev.filter((task) => !removed.includes(task.id)));
+      }
 
-        return updated;
-      });
+      taskVersionRef.current = version;
+      taskEtagRef.current = etag;
+      if (serverTasks.length > 0) {
+        mergeServerTasks(serverTasks);
+      }
+      return pollInterval;
     } catch (err) {
       console.error('Failed to refresh tasks:', err.message);
       // Don't propagate error, just log it
+      return null;
     }
-  }, []);
+  }, [mergeServerTasks]);
+
+  // Subscribe to task updates over SSE; onFailure is called when the stream is unavailable.
+  // Returns a function that closes the stream.
+  const subscribeTasks = useCallback((onFailure) => {
+    const source = downloadAPI.openTaskStream();
+
+    // Full list of client tasks: on first connect or when missed events are no longer available
+    source.addEventListener('snapshot', (event) => {
+      const serverTasks = JSON.parse(event.data);
+      if (Array.isArray(serverTasks)) {
+        mergeServerTasks(serverTasks);
+      }
+    });
+
+    // Single task changed (status or progress)
+    source.addEventListener('task', (event) => {
+      mergeServerTasks([JSON.parse(event.data)]);
+    });
+
+    source.onerror = () => {
+      // EventSource reconnects by itself; CLOSED means the server refused the stream
+      if (source.readyState === EventSource.CLOSED) {
+        console.warn('Task stream unavailable, falling back to polling');
+        onFailure?.();
+      }
+    };
+
+    return () => source.close();
+  }, [mergeServerTasks]);
 
   const value = {
     tasks,
@@ -193,6 +253,7 @@ export const DownloadProvider = ({ children }) => {
     removeTask,
     clearCompleted,
     refreshTasks,
+    subscribeTasks,
     setError,
     downloadOptions,
     updateDownloadOption,
@@ -52,7 +52,9 @@ export const downloadAPI = {
   getVideoInfo: async (url) => {
     try {
       const response = await api.get(config.api.endpoints.info, {
-        params: { url }
+        params: { url },
+        // Server answers within its own 45s limit (504 on timeout)
+        timeout: 50000
       })
       return response.data?.data || response.data
     } catch (error) {
@@ -70,8 +72,10 @@ export const downloadAPI = {
         timeRangeEnabled: downloadOptions.timeRangeEnabled || false,
         startTime: downloadOptions.startTime || null,
         endTime: downloadOptions.endTime || null,
+        clips: downloadOptions.clips || null,
         frameExtractionEnabled: downloadOptions.frameExtractionEnabled || false,
-        frameTime: downloadOptions.frameTime || null
+        frameTime: downloadOptions.frameTime || null,
+        frames: downloadOptions.frames || null
       })
       return response.data?.data || response.data
     } catch (error) {
@@ -95,6 +99,43 @@ export const downloadAPI = {
     }
   },
 
+  // Get tasks changed after the given version (all tasks when since is null).
+  // etag is the ETag of the previous response: when nothing changed the server answers 304 without a body.
+  // Returns the tasks, the version and ETag to pass next time, the number of client tasks
+  // on the server and the server-suggested poll interval (ms)
+  getTaskChanges: async (since, etag) => {
+    try {
+      const params = since != null ? { since } : {}
+      const headers = etag ? { 'If-None-Match': etag } : {}
+      const response = await api.get(config.api.endpoints.tasks, {
+        params,
+        headers,
+        validateStatus: (status) => (status >= 200 && status < 300) || status === 304
+      })
+      const tasks = response.status === 304 ? [] : response.data?.data || []
+      const version = response.headers['x-task-version']
+      const count = parseInt(response.headers['x-task-count'])
+      const pollInterval = parseInt(response.headers['x-poll-interval'])
+      return {
+        tasks: Array.isArray(tasks) ? tasks : [],
+        version: version != null ? version : since,
+        etag: response.headers['etag'] || null,
+        count: count >= 0 ? count : null,
+        pollInterval: pollInterval > 0 ? pollInterval * 1000 : null
+      }
+    } catch (error) {
+      if (error.response?.status === 404 || error.response?.status === 403) {
+        return { tasks: [], version: since, etag: null, count: null, pollInterval: null }
+      }
+      throw new Error(error.response?.data?.message || 'Failed to fetch tasks')
+    }
+  },
+
+  // Open task update stream (Server-Sent Events)
+  openTaskStream: () => {
+    return new EventSource(`${config.api.baseUrl}${config.api.endpoints.taskStream}`)
+  },
+
   // Cancel task
   cancelTask: async (taskId) => {
     try {
@@ -8,6 +8,7 @@ const config = {
       info: '/api/info',
       download: '/api/download',
       tasks: '/api/tasks',
+      taskStream: '/api/tasks/stream',
       cancel: '/api/tasks',
       services: '/api/services'
     }